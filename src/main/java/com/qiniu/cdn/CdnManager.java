@@ -3,6 +3,7 @@ package com.qiniu.cdn;
 import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.util.Auth;
 import com.qiniu.util.Json;
@@ -50,7 +51,7 @@ public final class CdnManager {
     private CdnManager(Auth auth, String server) {
         this.auth = auth;
         this.server = server;
-        this.client = new Client();
+        this.client = ClientRegistry.defaultClient();
     }
 
     public CdnManager(Auth auth, String server, Client client) {
@@ -1,6 +1,7 @@
 package com.qiniu.common;
 
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 
 import java.util.List;
@@ -35,7 +36,7 @@ public final class AutoZone extends Zone {
 
     public AutoZone(String ucServer) {
         this.ucServer = ucServer;
-        this.client = new Client();
+        this.client = ClientRegistry.defaultClient();
         this.zones = new ConcurrentHashMap<>();
         this.inferDomainsMap = new ConcurrentHashMap<>();
         this.inferDomainsMap.put("http://up.qiniu.com", zone0());
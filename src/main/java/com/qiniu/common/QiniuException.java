@@ -33,6 +33,15 @@ public final class QiniuException extends IOException {
         this.error = msg;
     }
 
+    private QiniuException(Response response, String msg) {
+        super(msg);
+        this.response = response;
+        this.error = msg;
+        if (response != null) {
+            response.close();
+        }
+    }
+
     public static QiniuException unrecoverable(Exception e) {
         QiniuException exception = new QiniuException(e);
         exception.isUnrecoverable = true;
@@ -40,7 +49,20 @@ public final class QiniuException extends IOException {
     }
 
     public static QiniuException unrecoverable(String msg) {
-        QiniuException exception = new QiniuException(null, msg);
+        QiniuException exception = new QiniuException((Exception) null, msg);
+        exception.isUnrecoverable = true;
+        return exception;
+    }
+
+    /**
+     * 请求成功但结果校验失败，如：上传完成后内容 etag 不一致；不可重试，response 为服务端的响应
+     *
+     * @param response 服务端的响应
+     * @param msg      错误信息
+     * @return QiniuException
+     */
+    public static QiniuException unrecoverable(Response response, String msg) {
+        QiniuException exception = new QiniuException(response, msg);
         exception.isUnrecoverable = true;
         return exception;
     }
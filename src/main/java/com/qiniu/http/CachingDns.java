@@ -0,0 +1,502 @@
+package com.qiniu.http;
+
+import com.qiniu.util.StringUtils;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带缓存的 dns 解析
+ * <p>
+ * 1. 解析结果缓存 ttl 时长，过期前被访问的域名会在后台提前刷新，请求不会阻塞在 dns 解析上
+ * 2. 过期 maxStale 时间内的解析结果会被直接使用，同时在后台刷新；只有没有可用结果时才会阻塞等待解析，
+ * 同一域名同时只有一个解析请求，并发的解析共享其结果
+ * 3. 根据建立连接的耗时及失败情况对 IP 进行排序，并交替排列 IPv4 / IPv6 地址（参考 RFC 8305），
+ * 连接较快的 IP 会被优先使用；OkHttp 按照返回的顺序依次尝试建立连接，因此某个地址族不可用时会很快切换到另一个地址族
+ * <p>
+ * 通过 {@link com.qiniu.storage.Configuration#dns} 配置使用，连接耗时由 {@link Client} 自动上报。
+ * 注：{@link ClientRegistry} 按 dns 对象区分 Client，多个 Configuration 请使用同一个 CachingDns 对象
+ */
+public final class CachingDns implements Dns {
+
+    private static final int MAX_ADDRESS_STATS = 1024;
+
+    private final Dns upstream;
+    private final long ttlMillis;
+    private final long refreshAheadMillis;
+    private final long maxStaleMillis;
+    private final int maxHosts;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetAddress, AddressStat> addressStats = new ConcurrentHashMap<>();
+    // 正在进行的解析，同一域名的并发解析共享一个
+    private final ConcurrentHashMap<String, FutureTask<Entry>> resolving = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+
+    private CachingDns(Dns upstream, long ttlMillis, long refreshAheadMillis, long maxStaleMillis, int maxHosts) {
+        this.upstream = upstream;
+        this.ttlMillis = ttlMillis;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.maxHosts = maxHosts;
+        this.refresher = new ThreadPoolExecutor(0, 2, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "qiniu-dns-refresher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        if (StringUtils.isNullOrEmpty(hostname)) {
+            throw new UnknownHostException("hostname is empty");
+        }
+
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(hostname);
+        if (entry != null && entry.isValid(now)) {
+            if (entry.shouldRefresh(now, refreshAheadMillis)) {
+                refreshAsync(hostname, entry);
+            }
+            return sort(entry.addresses);
+        }
+
+        // 过期的结果在 maxStale 内直接使用，后台刷新，不阻塞建立连接
+        if (entry != null && entry.isStaleUsable(now, maxStaleMillis)) {
+            refreshAsync(hostname, entry);
+            return sort(entry.addresses);
+        }
+
+        return sort(resolveShared(hostname).addresses);
+    }
+
+    /**
+     * 预解析域名，解析在后台进行，如：提前解析 up/rs 等常用域名
+     *
+     * @param hostnames 域名
+     */
+    public void prefetch(String... hostnames) {
+        if (hostnames == null) {
+            return;
+        }
+        for (String hostname : hostnames) {
+            if (StringUtils.isNullOrEmpty(hostname)) {
+                continue;
+            }
+            Entry entry = entries.get(hostname);
+            if (entry == null || entry.shouldRefresh(System.currentTimeMillis(), refreshAheadMillis)) {
+                refreshAsync(hostname, entry);
+            }
+        }
+    }
+
+    /**
+     * 清除缓存的解析结果及连接统计
+     */
+    public void clear() {
+        entries.clear();
+        addressStats.clear();
+    }
+
+    /**
+     * 上报建立连接成功及耗时，用于 IP 排序
+     *
+     * @param address   IP
+     * @param costMills 建立连接的耗时，单位：毫秒
+     */
+    public void reportConnectSuccess(InetAddress address, long costMills) {
+        if (address == null || costMills < 0) {
+            return;
+        }
+        addressStat(address).success(costMills);
+    }
+
+    /**
+     * 上报建立连接失败，用于 IP 排序
+     *
+     * @param address IP
+     */
+    public void reportConnectFailure(InetAddress address) {
+        if (address == null) {
+            return;
+        }
+        addressStat(address).failure();
+    }
+
+    private AddressStat addressStat(InetAddress address) {
+        AddressStat stat = addressStats.get(address);
+        if (stat != null) {
+            return stat;
+        }
+
+        if (addressStats.size() >= MAX_ADDRESS_STATS) {
+            addressStats.clear();
+        }
+        stat = new AddressStat();
+        AddressStat old = addressStats.putIfAbsent(address, stat);
+        return old != null ? old : stat;
+    }
+
+    // 同一域名同时只有一个解析，其他调用方等待其结果
+    private Entry resolveShared(final String hostname) throws UnknownHostException {
+        FutureTask<Entry> task = new FutureTask<>(new Callable<Entry>() {
+            @Override
+            public Entry call() throws Exception {
+                return resolve(hostname);
+            }
+        });
+        FutureTask<Entry> running = resolving.putIfAbsent(hostname, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                resolving.remove(hostname, task);
+            }
+            running = task;
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException(hostname + ": lookup interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UnknownHostException) {
+                throw (UnknownHostException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof java.lang.Error) {
+                throw (java.lang.Error) cause;
+            }
+            UnknownHostException exception = new UnknownHostException(hostname);
+            exception.initCause(cause);
+            throw exception;
+        }
+    }
+
+    private Entry resolve(String hostname) throws UnknownHostException {
+        List<InetAddress> addresses;
+        if (upstream != null) {
+            addresses = upstream.lookup(hostname);
+        } else {
+            addresses = Arrays.asList(InetAddress.getAllByName(hostname));
+        }
+        if (addresses == null || addresses.isEmpty()) {
+            throw new UnknownHostException(hostname);
+        }
+
+        if (entries.size() >= maxHosts && !entries.containsKey(hostname)) {
+            evictExpired();
+        }
+        Entry entry = new Entry(new ArrayList<>(addresses), System.currentTimeMillis() + ttlMillis);
+        entries.put(hostname, entry);
+        return entry;
+    }
+
+    private void refreshAsync(final String hostname, Entry entry) {
+        if (entry != null && !entry.markRefreshing()) {
+            return;
+        }
+
+        try {
+            refresher.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        resolveShared(hostname);
+                    } catch (Exception ignore) {
+                        // 刷新失败保留旧的结果，过期后在 maxStale 内继续使用
+                        Entry old = entries.get(hostname);
+                        if (old != null) {
+                            old.refreshFailed();
+                        }
+                    }
+                }
+            });
+        } catch (Exception e) {
+            if (entry != null) {
+                entry.refreshFailed();
+            }
+        }
+    }
+
+    private void evictExpired() {
+        long now = System.currentTimeMillis();
+        for (String host : entries.keySet()) {
+            Entry entry = entries.get(host);
+            if (entry != null && !entry.isStaleUsable(now, maxStaleMillis)) {
+                entries.remove(host);
+            }
+        }
+
+        // 依然超出，淘汰最早过期的
+        while (entries.size() >= maxHosts) {
+            String oldest = null;
+            long oldestExpire = Long.MAX_VALUE;
+            for (String host : entries.keySet()) {
+                Entry entry = entries.get(host);
+                if (entry != null && entry.expireAt < oldestExpire) {
+                    oldest = host;
+                    oldestExpire = entry.expireAt;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            entries.remove(oldest);
+        }
+    }
+
+    /**
+     * 排序：先按照连接质量排序，未统计过的 IP 按已统计 IP 的中位数排序，分数相同的保持解析顺序；然后交替排列 IPv6 和 IPv4
+     */
+    private List<InetAddress> sort(List<InetAddress> addresses) {
+        if (addresses.size() <= 1) {
+            return addresses;
+        }
+
+        List<InetAddress> sorted = new ArrayList<>(addresses);
+        final List<InetAddress> origin = addresses;
+        final Map<InetAddress, Double> scores = scores(addresses);
+        Collections.sort(sorted, new Comparator<InetAddress>() {
+            @Override
+            public int compare(InetAddress o1, InetAddress o2) {
+                double s1 = scores.get(o1);
+                double s2 = scores.get(o2);
+                if (s1 != s2) {
+                    return s1 < s2 ? -1 : 1;
+                }
+                return origin.indexOf(o1) - origin.indexOf(o2);
+            }
+        });
+
+        LinkedList<InetAddress> v6 = new LinkedList<>();
+        LinkedList<InetAddress> v4 = new LinkedList<>();
+        for (InetAddress address : sorted) {
+            if (address instanceof Inet6Address) {
+                v6.add(address);
+            } else {
+                v4.add(address);
+            }
+        }
+        if (v6.isEmpty() || v4.isEmpty()) {
+            return sorted;
+        }
+
+        List<InetAddress> result = new ArrayList<>(sorted.size());
+        boolean v6First = sorted.get(0) instanceof Inet6Address;
+        while (!v6.isEmpty() || !v4.isEmpty()) {
+            LinkedList<InetAddress> first = v6First ? v6 : v4;
+            LinkedList<InetAddress> second = v6First ? v4 : v6;
+            if (!first.isEmpty()) {
+                result.add(first.removeFirst());
+            }
+            if (!second.isEmpty()) {
+                result.add(second.removeFirst());
+            }
+        }
+        return result;
+    }
+
+    // 分数越小越优先；没有统计信息的 IP 取已统计 IP 分数的中位数，既不排在已知较快的 IP 之前，也有机会被尝试
+    private Map<InetAddress, Double> scores(List<InetAddress> addresses) {
+        Map<InetAddress, Double> scores = new HashMap<>();
+        List<Double> measured = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            AddressStat stat = addressStats.get(address);
+            if (stat != null) {
+                double score = stat.score();
+                scores.put(address, score);
+                measured.add(score);
+            }
+        }
+
+        double unmeasured = median(measured);
+        for (InetAddress address : addresses) {
+            if (!scores.containsKey(address)) {
+                scores.put(address, unmeasured);
+            }
+        }
+        return scores;
+    }
+
+    private static double median(List<Double> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int middle = sorted.size() / 2;
+        if (sorted.size() % 2 == 1) {
+            return sorted.get(middle);
+        }
+        return (sorted.get(middle - 1) + sorted.get(middle)) / 2;
+    }
+
+    private static final class Entry {
+        private final List<InetAddress> addresses;
+        private final long expireAt;
+        private boolean refreshing;
+
+        private Entry(List<InetAddress> addresses, long expireAt) {
+            this.addresses = Collections.unmodifiableList(addresses);
+            this.expireAt = expireAt;
+        }
+
+        private boolean isValid(long now) {
+            return now < expireAt;
+        }
+
+        private boolean isStaleUsable(long now, long maxStaleMillis) {
+            return now < expireAt + maxStaleMillis;
+        }
+
+        private synchronized boolean shouldRefresh(long now, long refreshAheadMillis) {
+            return !refreshing && now >= expireAt - refreshAheadMillis;
+        }
+
+        private synchronized boolean markRefreshing() {
+            if (refreshing) {
+                return false;
+            }
+            refreshing = true;
+            return true;
+        }
+
+        private synchronized void refreshFailed() {
+            refreshing = false;
+        }
+    }
+
+    private static final class AddressStat {
+        // 连接失败的惩罚耗时，单位：毫秒
+        private static final double FAILURE_PENALTY = 10 * 1000;
+        private static final double ALPHA = 0.3;
+
+        private double ewmaCost = -1;
+
+        private synchronized void success(long cost) {
+            update(cost);
+        }
+
+        private synchronized void failure() {
+            update(FAILURE_PENALTY);
+        }
+
+        private void update(double cost) {
+            if (ewmaCost < 0) {
+                ewmaCost = cost;
+            } else {
+                ewmaCost = ALPHA * cost + (1 - ALPHA) * ewmaCost;
+            }
+        }
+
+        private synchronized double score() {
+            return Math.max(ewmaCost, 0);
+        }
+    }
+
+    public static final class Builder {
+        private Dns upstream;
+        private long ttlMillis = 10 * 60 * 1000;
+        private long refreshAheadMillis = 60 * 1000;
+        private long maxStaleMillis = 24 * 3600 * 1000;
+        private int maxHosts = 512;
+
+        /**
+         * 设置上游的 dns 解析，默认使用系统解析
+         *
+         * @param upstream 上游 dns 解析
+         * @return Builder
+         */
+        public Builder setUpstream(Dns upstream) {
+            this.upstream = upstream;
+            return this;
+        }
+
+        /**
+         * 设置解析结果的缓存时长，默认 10 分钟
+         *
+         * @param ttlMillis 缓存时长，单位：毫秒
+         * @return Builder
+         */
+        public Builder setTtl(long ttlMillis) {
+            this.ttlMillis = ttlMillis;
+            return this;
+        }
+
+        /**
+         * 设置提前刷新的时间，缓存过期前 refreshAheadMillis 内被访问则在后台刷新，默认 1 分钟
+         *
+         * @param refreshAheadMillis 提前刷新的时间，单位：毫秒
+         * @return Builder
+         */
+        public Builder setRefreshAhead(long refreshAheadMillis) {
+            this.refreshAheadMillis = refreshAheadMillis;
+            return this;
+        }
+
+        /**
+         * 设置过期结果的最大可用时长，过期后此时间内直接使用过期的结果并在后台刷新，默认 24 小时
+         *
+         * @param maxStaleMillis 最大可用时长，单位：毫秒
+         * @return Builder
+         */
+        public Builder setMaxStale(long maxStaleMillis) {
+            this.maxStaleMillis = maxStaleMillis;
+            return this;
+        }
+
+        /**
+         * 设置最多缓存的域名数量，默认 512
+         *
+         * @param maxHosts 最多缓存的域名数量
+         * @return Builder
+         */
+        public Builder setMaxHosts(int maxHosts) {
+            this.maxHosts = maxHosts;
+            return this;
+        }
+
+        public CachingDns build() {
+            if (ttlMillis <= 0) {
+                ttlMillis = 10 * 60 * 1000;
+            }
+            if (refreshAheadMillis < 0 || refreshAheadMillis >= ttlMillis) {
+                refreshAheadMillis = ttlMillis / 10;
+            }
+            if (maxStaleMillis < 0) {
+                maxStaleMillis = 0;
+            }
+            if (maxHosts <= 0) {
+                maxHosts = 512;
+            }
+            return new CachingDns(upstream, ttlMillis, refreshAheadMillis, maxStaleMillis, maxHosts);
+        }
+    }
+}
@@ -80,32 +80,25 @@ public final class Client {
         dispatcher.setMaxRequestsPerHost(dispatcherMaxRequestsPerHost);
         ConnectionPool connectionPool = new ConnectionPool(connectionPoolMaxIdleCount,
                 connectionPoolMaxIdleMinutes, TimeUnit.MINUTES);
+        httpClient = newHttpClient(dispatcher, connectionPool, dns, proxy, connTimeout, readTimeout, writeTimeout);
+    }
+
+    /**
+     * 构建一个使用指定 Dispatcher 和 ConnectionPool 的 HTTP Client 类，供 {@link ClientRegistry} 使用
+     */
+    Client(Dispatcher dispatcher, ConnectionPool connectionPool, Dns dns, ProxyConfiguration proxy,
+           int connTimeout, int readTimeout, int writeTimeout) {
+        httpClient = newHttpClient(dispatcher, connectionPool, dns, proxy, connTimeout, readTimeout, writeTimeout);
+    }
+
+    private static OkHttpClient newHttpClient(Dispatcher dispatcher, ConnectionPool connectionPool,
+                                              final Dns dns, final ProxyConfiguration proxy,
+                                              int connTimeout, int readTimeout, int writeTimeout) {
         OkHttpClient.Builder builder = new OkHttpClient.Builder();
 
         builder.dispatcher(dispatcher);
         builder.connectionPool(connectionPool);
-        builder.eventListener(new EventListener() {
-            @Override
-            public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
-                Request req = call.request();
-                IpTag tag = (IpTag) req.tag();
-                tag.ip = inetSocketAddress + "";
-            }
-        });
-        builder.addNetworkInterceptor(new Interceptor() {
-            @Override
-            public okhttp3.Response intercept(Chain chain) throws IOException {
-                Request request = chain.request();
-                okhttp3.Response response = chain.proceed(request);
-                IpTag tag = (IpTag) request.tag();
-                try {
-                    tag.ip = chain.connection().socket().getRemoteSocketAddress() + "";
-                } catch (Exception e) {
-                    // ingore
-                }
-                return response;
-            }
-        });
+        builder.eventListener(new MetricsEventListener(dns instanceof CachingDns ? (CachingDns) dns : null));
         builder.addInterceptor(new Interceptor() {
             @Override
             public okhttp3.Response intercept(Chain chain) throws IOException {
@@ -115,8 +108,7 @@ public final class Client {
                 try {
                     response = chain.proceed(request);
                 } catch (IOException e) {
-                    IpTag tag = (IpTag) request.tag();
-                    ex = new IOException(e + " on " + tag.ip, e);
+                    ex = new IOException(e + " on " + remoteAddress(request), e);
                 }
                 if (ex != null) {
                     throw ex;
@@ -125,16 +117,7 @@ public final class Client {
             }
         });
         if (dns != null) {
-            builder.dns(new okhttp3.Dns() {
-                @Override
-                public List<InetAddress> lookup(String hostname) throws UnknownHostException {
-                    try {
-                        return dns.lookup(hostname);
-                    } catch (Exception e) {
-                    }
-                    return okhttp3.Dns.SYSTEM.lookup(hostname);
-                }
-            });
+            builder.dns(new DnsAdapter(dns));
         }
         if (proxy != null) {
             builder.proxy(proxy.proxy());
@@ -145,7 +128,7 @@ public final class Client {
         builder.connectTimeout(connTimeout, TimeUnit.SECONDS);
         builder.readTimeout(readTimeout, TimeUnit.SECONDS);
         builder.writeTimeout(writeTimeout, TimeUnit.SECONDS);
-        httpClient = builder.build();
+        return builder.build();
     }
 
     public static void setAppName(String userApp) {
@@ -400,31 +383,20 @@ public final class Client {
     }
 
     public Response send(final Request.Builder requestBuilder, StringMap headers) throws QiniuException {
-        if (headers != null) {
-            headers.forEach(new StringMap.Consumer() {
-                @Override
-                public void accept(String key, Object value) {
-                    requestBuilder.header(key, value.toString());
-                }
-            });
-        }
-
-        if (headers == null || headers.get("User-Agent") == null || headers.get("User-Agent").equals("")) {
-            requestBuilder.header("User-Agent", userAgent());
-        }
+        setHeaders(requestBuilder, headers);
 
         long start = System.currentTimeMillis();
         okhttp3.Response res = null;
         Response r;
-        IpTag tag = new IpTag();
+        RequestMetrics metrics = new RequestMetrics();
         try {
-            res = httpClient.newCall(requestBuilder.tag(tag).build()).execute();
+            res = httpClient.newCall(requestBuilder.tag(metrics).build()).execute();
         } catch (IOException e) {
             throw new QiniuException(e);
         }
 
         double duration = (System.currentTimeMillis() - start) / 1000.0;
-        r = Response.create(res, tag.ip, duration);
+        r = Response.create(res, metrics.getRemoteAddress(), duration, metrics);
         // 如果读取 body 失败也抛出异常
         if (r.statusCode >= 300 || !StringUtils.isNullOrEmpty(r.error)) {
             throw new QiniuException(r);
@@ -433,23 +405,61 @@ public final class Client {
         return r;
     }
 
-    public void asyncSend(final Request.Builder requestBuilder, StringMap headers, final AsyncCallback cb) {
-        if (headers != null) {
-            headers.forEach(new StringMap.Consumer() {
-                @Override
-                public void accept(String key, Object value) {
-                    requestBuilder.header(key, value.toString());
-                }
-            });
-        }
+    /**
+     * 异步发送请求，请求在 OkHttp 的 Dispatcher 中执行，不会阻塞调用线程
+     * 结果的处理和 {@link Client#send(Request.Builder, StringMap)} 一致：状态码大于等于 300 或 body 读取失败时以
+     * {@link QiniuException} 结束
+     *
+     * @param requestBuilder 请求信息
+     * @param headers        请求头
+     * @return 异步请求结果，取消时会取消底层网络请求
+     */
+    public CompletionFuture<Response> sendAsync(final Request.Builder requestBuilder, StringMap headers) {
+        setHeaders(requestBuilder, headers);
 
-        if (headers == null || headers.get("User-Agent") == null || headers.get("User-Agent").equals("")) {
-            requestBuilder.header("User-Agent", userAgent());
+        final CompletionFuture<Response> future = new CompletionFuture<>();
+        final long start = System.currentTimeMillis();
+        final RequestMetrics metrics = new RequestMetrics();
+        final Call call;
+        try {
+            call = httpClient.newCall(requestBuilder.tag(metrics).build());
+        } catch (Exception e) {
+            future.completeExceptionally(QiniuException.unrecoverable(e));
+            return future;
         }
 
+        future.setCancellation(new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(new QiniuException(e));
+            }
+
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) {
+                double duration = (System.currentTimeMillis() - start) / 1000.0;
+                Response r = Response.create(response, metrics.getRemoteAddress(), duration, metrics);
+                if (r.statusCode >= 300 || !StringUtils.isNullOrEmpty(r.error)) {
+                    future.completeExceptionally(new QiniuException(r));
+                } else {
+                    future.complete(r);
+                }
+            }
+        });
+        return future;
+    }
+
+    public void asyncSend(final Request.Builder requestBuilder, StringMap headers, final AsyncCallback cb) {
+        setHeaders(requestBuilder, headers);
+
         final long start = System.currentTimeMillis();
-        IpTag tag = new IpTag();
-        httpClient.newCall(requestBuilder.tag(tag).build()).enqueue(new Callback() {
+        final RequestMetrics metrics = new RequestMetrics();
+        httpClient.newCall(requestBuilder.tag(metrics).build()).enqueue(new Callback() {
             @Override
             public void onFailure(Call call, IOException e) {
                 long duration = (System.currentTimeMillis() - start) / 1000;
@@ -459,7 +469,7 @@ public final class Client {
             @Override
             public void onResponse(Call call, okhttp3.Response response) throws IOException {
                 long duration = (System.currentTimeMillis() - start) / 1000;
-                cb.complete(Response.create(response, "", duration));
+                cb.complete(Response.create(response, metrics.getRemoteAddress(), duration, metrics));
             }
         });
     }
@@ -525,7 +535,237 @@ public final class Client {
         asyncSend(requestBuilder, headers, cb);
     }
 
-    private static class IpTag {
-        public String ip = "";
+    private static void setHeaders(final Request.Builder requestBuilder, StringMap headers) {
+        if (headers != null) {
+            headers.forEach(new StringMap.Consumer() {
+                @Override
+                public void accept(String key, Object value) {
+                    requestBuilder.header(key, value.toString());
+                }
+            });
+        }
+
+        if (headers == null || headers.get("User-Agent") == null || headers.get("User-Agent").equals("")) {
+            requestBuilder.header("User-Agent", userAgent());
+        }
+    }
+
+    /**
+     * okhttp3.Dns 是 OkHttp 连接复用时 Address 比较的一部分，
+     * 同一个 Dns 对象包装后需要相等，不同 Client 之间才能复用连接池中的连接
+     */
+    static final class DnsAdapter implements okhttp3.Dns {
+        private final Dns dns;
+
+        DnsAdapter(Dns dns) {
+            this.dns = dns;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            try {
+                return dns.lookup(hostname);
+            } catch (Exception e) {
+            }
+            return okhttp3.Dns.SYSTEM.lookup(hostname);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof DnsAdapter && ((DnsAdapter) o).dns == dns;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(dns);
+        }
+    }
+
+    private static RequestMetrics metrics(Call call) {
+        Object tag = call.request().tag();
+        return tag instanceof RequestMetrics ? (RequestMetrics) tag : null;
+    }
+
+    private static String remoteAddress(Request request) {
+        Object tag = request.tag();
+        return tag instanceof RequestMetrics ? ((RequestMetrics) tag).getRemoteAddress() : "";
+    }
+
+    /**
+     * 记录请求各阶段的耗时及流量，数据保存在请求 tag 的 {@link RequestMetrics} 中；
+     * 使用 {@link CachingDns} 时，将建立连接的结果上报给 dns 用于 IP 排序
+     */
+    private static final class MetricsEventListener extends EventListener {
+
+        private final CachingDns cachingDns;
+
+        private MetricsEventListener(CachingDns cachingDns) {
+            this.cachingDns = cachingDns;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.callStart();
+            }
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.dnsStart();
+            }
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.dnsEnd();
+            }
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.connectStart(inetSocketAddress + "");
+            }
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.secureConnectStart();
+            }
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                String tlsVersion = null;
+                if (handshake != null && handshake.tlsVersion() != null) {
+                    tlsVersion = handshake.tlsVersion().javaName();
+                }
+                m.secureConnectEnd(tlsVersion);
+            }
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.connectEnd(protocol != null ? protocol.toString() : null);
+            }
+            if (cachingDns != null && m != null && isDirect(proxy, inetSocketAddress)) {
+                cachingDns.reportConnectSuccess(inetSocketAddress.getAddress(), m.getConnectDuration());
+            }
+        }
+
+        @Override
+        public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                                  Protocol protocol, IOException ioe) {
+            if (cachingDns != null && isDirect(proxy, inetSocketAddress)) {
+                cachingDns.reportConnectFailure(inetSocketAddress.getAddress());
+            }
+        }
+
+        // 使用代理时连接的是代理服务器，不统计
+        private static boolean isDirect(Proxy proxy, InetSocketAddress address) {
+            return address != null && (proxy == null || proxy.type() == Proxy.Type.DIRECT);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            RequestMetrics m = metrics(call);
+            if (m == null) {
+                return;
+            }
+
+            String address = null;
+            try {
+                address = connection.socket().getRemoteSocketAddress() + "";
+            } catch (Exception e) {
+                // ignore
+            }
+            String protocol = connection.protocol() != null ? connection.protocol().toString() : null;
+            m.connectionAcquired(address, protocol);
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.requestHeadersStart();
+            }
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.requestHeadersEnd(request.headers().byteCount());
+            }
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.requestBodyEnd(byteCount);
+            }
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.responseHeadersStart();
+            }
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, okhttp3.Response response) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.responseHeadersEnd(response.headers().byteCount());
+            }
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.responseBodyStart();
+            }
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.responseBodyEnd(byteCount);
+            }
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.callEnd();
+            }
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            RequestMetrics m = metrics(call);
+            if (m != null) {
+                m.callEnd();
+            }
+        }
     }
 }
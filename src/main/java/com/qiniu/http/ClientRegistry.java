@@ -0,0 +1,174 @@
+package com.qiniu.http;
+
+import com.qiniu.common.Constants;
+import com.qiniu.storage.Configuration;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程级共享的 HTTP Client 注册表
+ * <p>
+ * 根据生效的网络配置（dns、代理、超时时间等）返回共享的 Client，网络配置相同的 Client 为同一个对象；
+ * 所有 Client 按照 Dispatcher 配置和连接池配置共享 Dispatcher 和 ConnectionPool，默认配置下全部共享同一个，
+ * 因此不同的 Manager 可以复用到 up/rs/rsf/uc 等域名的 keep-alive 连接和 TLS 会话。
+ * <p>
+ * 注：
+ * 1. 共享的 Client 不可关闭，如需独立的连接池请直接构造 {@link Client}
+ * 2. dns 对象按照引用比较，请复用同一个 dns 对象
+ */
+public final class ClientRegistry {
+
+    private static final ConcurrentMap<ClientKey, Client> clients = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<ClientKey, Dispatcher> dispatchers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<ClientKey, ConnectionPool> connectionPools = new ConcurrentHashMap<>();
+
+    private ClientRegistry() {
+    }
+
+    /**
+     * 获取默认配置的共享 Client
+     *
+     * @return Client
+     */
+    public static Client defaultClient() {
+        return get(null, null,
+                Constants.CONNECT_TIMEOUT, Constants.READ_TIMEOUT, Constants.WRITE_TIMEOUT,
+                Constants.DISPATCHER_MAX_REQUESTS, Constants.DISPATCHER_MAX_REQUESTS_PER_HOST,
+                Constants.CONNECTION_POOL_MAX_IDLE_COUNT, Constants.CONNECTION_POOL_MAX_IDLE_MINUTES);
+    }
+
+    /**
+     * 根据配置获取共享 Client
+     *
+     * @param cfg 配置信息，为空时使用默认配置
+     * @return Client
+     */
+    public static Client get(Configuration cfg) {
+        if (cfg == null) {
+            return defaultClient();
+        }
+        return get(cfg.dns, cfg.proxy,
+                cfg.connectTimeout, cfg.readTimeout, cfg.writeTimeout,
+                cfg.dispatcherMaxRequests, cfg.dispatcherMaxRequestsPerHost,
+                cfg.connectionPoolMaxIdleCount, cfg.connectionPoolMaxIdleMinutes);
+    }
+
+    /**
+     * 根据短信配置获取共享 Client
+     *
+     * @param cfg 短信配置信息，为空时使用默认配置
+     * @return Client
+     */
+    public static Client get(com.qiniu.sms.Configuration cfg) {
+        if (cfg == null) {
+            return defaultClient();
+        }
+        return get(null, null,
+                cfg.connectTimeout, cfg.readTimeout, cfg.writeTimeout,
+                cfg.dispatcherMaxRequests, cfg.dispatcherMaxRequestsPerHost,
+                cfg.connectionPoolMaxIdleCount, cfg.connectionPoolMaxIdleMinutes);
+    }
+
+    /**
+     * 根据网络配置获取共享 Client
+     *
+     * @param dns                          dns 解析类
+     * @param proxy                        代理
+     * @param connTimeout                  链接超时
+     * @param readTimeout                  读超时
+     * @param writeTimeout                 写超时
+     * @param dispatcherMaxRequests        并发最大请求数
+     * @param dispatcherMaxRequestsPerHost 单 Host 并发最大请求数
+     * @param connectionPoolMaxIdleCount   连接池中请求最大空闲数
+     * @param connectionPoolMaxIdleMinutes 连接池中请求最大空闲分钟数
+     * @return Client
+     */
+    public static Client get(Dns dns, ProxyConfiguration proxy,
+                             int connTimeout, int readTimeout, int writeTimeout,
+                             int dispatcherMaxRequests, int dispatcherMaxRequestsPerHost,
+                             int connectionPoolMaxIdleCount, int connectionPoolMaxIdleMinutes) {
+        ClientKey key = new ClientKey(dns, proxyFields(proxy),
+                connTimeout, readTimeout, writeTimeout,
+                dispatcherMaxRequests, dispatcherMaxRequestsPerHost,
+                connectionPoolMaxIdleCount, connectionPoolMaxIdleMinutes);
+        Client client = clients.get(key);
+        if (client != null) {
+            return client;
+        }
+
+        Dispatcher dispatcher = dispatcher(dispatcherMaxRequests, dispatcherMaxRequestsPerHost);
+        ConnectionPool connectionPool = connectionPool(connectionPoolMaxIdleCount, connectionPoolMaxIdleMinutes);
+        client = new Client(dispatcher, connectionPool, dns, proxy, connTimeout, readTimeout, writeTimeout);
+        Client old = clients.putIfAbsent(key, client);
+        return old != null ? old : client;
+    }
+
+    private static Dispatcher dispatcher(int maxRequests, int maxRequestsPerHost) {
+        ClientKey key = new ClientKey(maxRequests, maxRequestsPerHost);
+        Dispatcher dispatcher = dispatchers.get(key);
+        if (dispatcher != null) {
+            return dispatcher;
+        }
+
+        dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+        Dispatcher old = dispatchers.putIfAbsent(key, dispatcher);
+        return old != null ? old : dispatcher;
+    }
+
+    private static ConnectionPool connectionPool(int maxIdleCount, int maxIdleMinutes) {
+        ClientKey key = new ClientKey(maxIdleCount, maxIdleMinutes);
+        ConnectionPool pool = connectionPools.get(key);
+        if (pool != null) {
+            return pool;
+        }
+
+        pool = new ConnectionPool(maxIdleCount, maxIdleMinutes, TimeUnit.MINUTES);
+        ConnectionPool old = connectionPools.putIfAbsent(key, pool);
+        return old != null ? old : pool;
+    }
+
+    private static Object[] proxyFields(ProxyConfiguration proxy) {
+        if (proxy == null) {
+            return null;
+        }
+        return new Object[]{proxy.hostAddress, proxy.port, proxy.user, proxy.password, proxy.type};
+    }
+
+    private static final class ClientKey {
+        private final Dns dns;
+        private final Object[] values;
+
+        private ClientKey(Object... values) {
+            this(null, values);
+        }
+
+        private ClientKey(Dns dns, Object... values) {
+            this.dns = dns;
+            this.values = values;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ClientKey)) {
+                return false;
+            }
+            ClientKey that = (ClientKey) o;
+            return dns == that.dns && Arrays.deepEquals(values, that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(dns) + Arrays.deepHashCode(values);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package com.qiniu.http;
+
+import com.qiniu.common.QiniuException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 异步请求的结果
+ * <p>
+ * 请求完成时会回调所有通过 {@link CompletionFuture#addListener(Listener)} 注册的监听者，
+ * 也可以通过 {@link CompletionFuture#get()} 阻塞等待结果；请求失败时 {@link ExecutionException#getCause()}
+ * 为 {@link QiniuException}
+ *
+ * @param <T> 结果类型
+ */
+public class CompletionFuture<T> implements Future<T> {
+
+    private static final int StatePending = 0;
+    private static final int StateSuccess = 1;
+    private static final int StateFailed = 2;
+    private static final int StateCancelled = 3;
+
+    private final Object lock = new Object();
+    private List<Listener<T>> listeners = new ArrayList<>();
+    private int state = StatePending;
+    private T value;
+    private QiniuException exception;
+    private Runnable cancellation;
+
+    /**
+     * 构造一个已成功的结果
+     *
+     * @param value 结果
+     * @param <T>   结果类型
+     * @return CompletionFuture
+     */
+    public static <T> CompletionFuture<T> completed(T value) {
+        CompletionFuture<T> future = new CompletionFuture<>();
+        future.complete(value);
+        return future;
+    }
+
+    /**
+     * 构造一个已失败的结果
+     *
+     * @param exception 异常
+     * @param <T>       结果类型
+     * @return CompletionFuture
+     */
+    public static <T> CompletionFuture<T> failed(QiniuException exception) {
+        CompletionFuture<T> future = new CompletionFuture<>();
+        future.completeExceptionally(exception);
+        return future;
+    }
+
+    /**
+     * 以结果完成，如果已完成则忽略
+     *
+     * @param value 结果
+     * @return 是否由此次调用完成
+     */
+    public boolean complete(T value) {
+        return finish(StateSuccess, value, null);
+    }
+
+    /**
+     * 以异常完成，如果已完成则忽略
+     *
+     * @param exception 异常
+     * @return 是否由此次调用完成
+     */
+    public boolean completeExceptionally(QiniuException exception) {
+        if (exception == null) {
+            exception = QiniuException.unrecoverable("unknown error");
+        }
+        return finish(StateFailed, null, exception);
+    }
+
+    /**
+     * 根据结果或异常完成，exception 不为空时以异常完成
+     *
+     * @param value     结果
+     * @param exception 异常
+     * @return 是否由此次调用完成
+     */
+    public boolean complete(T value, QiniuException exception) {
+        if (exception != null) {
+            return completeExceptionally(exception);
+        }
+        return complete(value);
+    }
+
+    /**
+     * 设置取消时的处理，比如取消底层的网络请求；重复设置会覆盖之前的设置
+     * 如果已经被取消，则立即执行
+     *
+     * @param cancellation 取消时的处理
+     */
+    public void setCancellation(Runnable cancellation) {
+        boolean cancelled;
+        synchronized (lock) {
+            cancelled = state == StateCancelled;
+            if (!cancelled) {
+                this.cancellation = cancellation;
+            }
+        }
+        if (cancelled && cancellation != null) {
+            cancellation.run();
+        }
+    }
+
+    /**
+     * 添加完成的监听者，如果已完成则在当前线程立即回调
+     *
+     * @param listener 监听者
+     * @return CompletionFuture
+     */
+    public CompletionFuture<T> addListener(Listener<T> listener) {
+        if (listener == null) {
+            return this;
+        }
+
+        synchronized (lock) {
+            if (state == StatePending) {
+                listeners.add(listener);
+                return this;
+            }
+        }
+        notifyListener(listener);
+        return this;
+    }
+
+    /**
+     * 将结果转给另一个 CompletionFuture，target 被取消时此 future 也会被取消
+     *
+     * @param target 接收结果的 CompletionFuture
+     */
+    public void forwardTo(final CompletionFuture<T> target) {
+        target.setCancellation(new Runnable() {
+            @Override
+            public void run() {
+                cancel(true);
+            }
+        });
+        addListener(new Listener<T>() {
+            @Override
+            public void onComplete(T value, QiniuException exception) {
+                target.complete(value, exception);
+            }
+        });
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        // 先置为取消状态再执行取消处理，取消处理中底层请求同步回调的失败会被忽略
+        Runnable c;
+        List<Listener<T>> ls;
+        synchronized (lock) {
+            c = cancellation;
+            ls = transition(StateCancelled, null, QiniuException.unrecoverable("request cancelled"));
+        }
+        if (ls == null) {
+            return false;
+        }
+
+        if (c != null) {
+            try {
+                c.run();
+            } catch (Exception ignore) {
+            }
+        }
+        notifyListeners(ls);
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        synchronized (lock) {
+            return state == StateCancelled;
+        }
+    }
+
+    @Override
+    public boolean isDone() {
+        synchronized (lock) {
+            return state != StatePending;
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (lock) {
+            while (state == StatePending) {
+                lock.wait();
+            }
+        }
+        return report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (lock) {
+            while (state == StatePending) {
+                long waitNanos = deadline - System.nanoTime();
+                if (waitNanos <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+            }
+        }
+        return report();
+    }
+
+    /**
+     * 阻塞等待结果，和同步请求一样，失败时抛出 QiniuException
+     *
+     * @return 结果
+     * @throws QiniuException 请求异常
+     */
+    public T await() throws QiniuException {
+        try {
+            return get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QiniuException(e);
+        } catch (CancellationException e) {
+            throw QiniuException.unrecoverable(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QiniuException) {
+                throw (QiniuException) e.getCause();
+            }
+            throw new QiniuException(e);
+        }
+    }
+
+    private T report() throws ExecutionException {
+        synchronized (lock) {
+            if (state == StateCancelled) {
+                throw new CancellationException();
+            }
+            if (state == StateFailed) {
+                throw new ExecutionException(exception);
+            }
+            return value;
+        }
+    }
+
+    private boolean finish(int newState, T value, QiniuException exception) {
+        List<Listener<T>> ls;
+        synchronized (lock) {
+            ls = transition(newState, value, exception);
+        }
+        if (ls == null) {
+            return false;
+        }
+        notifyListeners(ls);
+        return true;
+    }
+
+    // 需持有 lock 调用，已完成时返回 null，否则返回需要回调的监听者
+    private List<Listener<T>> transition(int newState, T value, QiniuException exception) {
+        if (state != StatePending) {
+            return null;
+        }
+        List<Listener<T>> ls = listeners;
+        this.state = newState;
+        this.value = value;
+        this.exception = exception;
+        this.cancellation = null;
+        this.listeners = null;
+        lock.notifyAll();
+        return ls;
+    }
+
+    private void notifyListeners(List<Listener<T>> ls) {
+        for (Listener<T> listener : ls) {
+            notifyListener(listener);
+        }
+    }
+
+    private void notifyListener(Listener<T> listener) {
+        T v;
+        QiniuException e;
+        synchronized (lock) {
+            v = value;
+            e = exception;
+        }
+        try {
+            listener.onComplete(v, e);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * 完成的监听者
+     *
+     * @param <T> 结果类型
+     */
+    public interface Listener<T> {
+
+        /**
+         * 完成回调，成功时 exception 为空，失败或取消时 exception 不为空
+         *
+         * @param value     结果
+         * @param exception 异常
+         */
+        void onComplete(T value, QiniuException exception);
+    }
+}
@@ -0,0 +1,75 @@
+package com.qiniu.http;
+
+import com.qiniu.util.ContentDigest;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 在请求体写入 sink 的同时计算摘要
+ * 请求体发送结束即可从 {@link ContentDigest} 获取 md5、crc32、etag 等信息，不需要再次读取数据；
+ * 每次发送（包括重试）前摘要会被重置，结果总是最后一次发送的数据的摘要。
+ */
+public class DigestRequestBody extends RequestBody {
+
+    private final RequestBody body;
+    private final ContentDigest digest;
+
+    /**
+     * 构造函数
+     *
+     * @param body   被计算摘要的请求体
+     * @param digest 摘要
+     */
+    public DigestRequestBody(RequestBody body, ContentDigest digest) {
+        this.body = body;
+        this.digest = digest;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return body.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return body.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        digest.reset();
+
+        final OutputStream digestStream = new OutputStream() {
+            @Override
+            public void write(int b) {
+                digest.update(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                digest.update(b, off, len);
+            }
+        };
+        ForwardingSink digestSink = new ForwardingSink(sink) {
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                // 先计算摘要（只复制不消费），再写入真正的 sink
+                source.copyTo(digestStream, 0, byteCount);
+                super.write(source, byteCount);
+            }
+        };
+
+        // 不能关闭 bufferedSink，否则会关闭请求的 sink
+        BufferedSink bufferedSink = Okio.buffer(digestSink);
+        body.writeTo(bufferedSink);
+        bufferedSink.emit();
+        sink.flush();
+    }
+}
@@ -0,0 +1,97 @@
+package com.qiniu.http;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+import java.io.IOException;
+
+/**
+ * 请求体写入 sink 时回调发送进度并限速
+ * 数据按 {@link ProgressRequestBody#SEGMENT_SIZE} 分段写入 sink，每段写入前从所有限速器获取令牌，写入后回调已发送的数据量；
+ * 请求重试时重新发送，已发送的数据量从 0 开始。
+ */
+public class ProgressRequestBody extends RequestBody {
+
+    // 每次写入的数据量，限速及进度回调的粒度
+    private static final long SEGMENT_SIZE = 16 * 1024;
+
+    private final RequestBody body;
+    private final Listener listener;
+    private final RateLimiter[] limiters;
+
+    /**
+     * 发送进度回调
+     */
+    public interface Listener {
+
+        /**
+         * 请求体数据写入 sink
+         *
+         * @param bytesWritten  本次发送已写入的数据量
+         * @param contentLength 请求体大小，未知时为 -1
+         */
+        void onProgress(long bytesWritten, long contentLength);
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param body     请求体
+     * @param listener 发送进度回调，可为空
+     * @param limiters 限速器，可为空
+     */
+    public ProgressRequestBody(RequestBody body, Listener listener, RateLimiter... limiters) {
+        this.body = body;
+        this.listener = listener;
+        this.limiters = limiters == null ? new RateLimiter[0] : limiters;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return body.contentType();
+    }
+
+    @Override
+    public long contentLength() throws IOException {
+        return body.contentLength();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        final long contentLength = contentLength();
+        ForwardingSink progressSink = new ForwardingSink(sink) {
+            private long bytesWritten = 0;
+
+            @Override
+            public void write(Buffer source, long byteCount) throws IOException {
+                while (byteCount > 0) {
+                    long size = Math.min(byteCount, SEGMENT_SIZE);
+                    for (RateLimiter limiter : limiters) {
+                        if (limiter != null) {
+                            limiter.acquire(size);
+                        }
+                    }
+                    super.write(source, size);
+                    byteCount -= size;
+                    bytesWritten += size;
+                    if (listener != null) {
+                        listener.onProgress(bytesWritten, contentLength);
+                    }
+                }
+            }
+        };
+
+        // 不能关闭 bufferedSink，否则会关闭请求的 sink
+        BufferedSink bufferedSink = Okio.buffer(progressSink);
+        if (listener != null) {
+            listener.onProgress(0, contentLength);
+        }
+        body.writeTo(bufferedSink);
+        bufferedSink.emit();
+        sink.flush();
+    }
+}
@@ -7,6 +7,7 @@ import okhttp3.Route;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
+import java.util.Objects;
 
 /**
  * http 代理
@@ -43,14 +44,41 @@ public final class ProxyConfiguration {
     }
 
     Authenticator authenticator() {
-        return new Authenticator() {
-            @Override
-            public okhttp3.Request authenticate(Route route, okhttp3.Response response) throws IOException {
-                String credential = Credentials.basic(user, password);
-                return response.request().newBuilder().
-                        header("Proxy-Authorization", credential).
-                        header("Proxy-Connection", "Keep-Alive").build();
+        return new ProxyAuthenticator(user, password);
+    }
+
+    /**
+     * Authenticator 是 OkHttp 连接复用时 Address 比较的一部分，相同的用户信息需要相等
+     */
+    static final class ProxyAuthenticator implements Authenticator {
+        private final String user;
+        private final String password;
+
+        private ProxyAuthenticator(String user, String password) {
+            this.user = user;
+            this.password = password;
+        }
+
+        @Override
+        public okhttp3.Request authenticate(Route route, okhttp3.Response response) throws IOException {
+            String credential = Credentials.basic(user, password);
+            return response.request().newBuilder().
+                    header("Proxy-Authorization", credential).
+                    header("Proxy-Connection", "Keep-Alive").build();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ProxyAuthenticator)) {
+                return false;
             }
-        };
+            ProxyAuthenticator that = (ProxyAuthenticator) o;
+            return Objects.equals(user, that.user) && Objects.equals(password, that.password);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(user, password);
+        }
     }
 }
@@ -0,0 +1,85 @@
+package com.qiniu.http;
+
+import java.io.InterruptedIOException;
+
+/**
+ * 令牌桶限速器，单位：字节/秒
+ * 令牌以设定的速率补充，桶容量为 1 秒的令牌数量，允许短时间突发；
+ * 令牌不足时先预支，由获取令牌的线程等待到预支的令牌补充完成，多个线程共用时按获取顺序排队，总速率不超过设定值。
+ */
+public final class RateLimiter {
+
+    private long bytesPerSecond;
+    // 当前令牌数量，可以为负，为负时表示已预支的令牌
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * 构造函数
+     *
+     * @param bytesPerSecond 速率，单位：字节/秒，小于等于 0 时不限速
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = Math.max(0, bytesPerSecond);
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 设置速率
+     *
+     * @param bytesPerSecond 速率，单位：字节/秒，小于等于 0 时不限速
+     */
+    public synchronized void setBytesPerSecond(long bytesPerSecond) {
+        if (this.bytesPerSecond == bytesPerSecond) {
+            return;
+        }
+        refill(System.nanoTime());
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokens = Math.min(tokens, Math.max(0, bytesPerSecond));
+    }
+
+    /**
+     * 获取速率
+     *
+     * @return 速率，单位：字节/秒，小于等于 0 时不限速
+     */
+    public synchronized long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * 获取 bytes 个令牌，令牌不足时等待
+     *
+     * @param bytes 令牌数量
+     * @throws InterruptedIOException 等待时被中断
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        long waitNanos;
+        synchronized (this) {
+            if (bytesPerSecond <= 0 || bytes <= 0) {
+                return;
+            }
+            refill(System.nanoTime());
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / bytesPerSecond);
+        }
+
+        if (waitNanos <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("wait for rate limiter interrupted");
+        }
+    }
+
+    private void refill(long now) {
+        if (bytesPerSecond > 0) {
+            tokens = Math.min(bytesPerSecond, tokens + (now - lastRefillNanos) * bytesPerSecond / 1e9);
+        }
+        lastRefillNanos = now;
+    }
+}
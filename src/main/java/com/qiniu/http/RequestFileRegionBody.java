@@ -0,0 +1,70 @@
+package com.qiniu.http;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+/**
+ * 文件中一段区域作为请求体
+ * 发送时通过 {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} 将文件数据直接写入请求的 sink，
+ * 不需要先把整段数据读入内存，可重复发送（支持重试）。
+ */
+public class RequestFileRegionBody extends RequestBody {
+
+    // 单次 transferTo 的最大数据量
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    private final MediaType type;
+    private final File file;
+    private final long offset;
+    private final long size;
+
+    /**
+     * 构造函数
+     *
+     * @param file        文件
+     * @param offset      区域在文件中的偏移量
+     * @param size        区域大小
+     * @param contentType 请求数据类型
+     */
+    public RequestFileRegionBody(File file, long offset, long size, MediaType contentType) {
+        this.file = file;
+        this.offset = offset;
+        this.size = size;
+        this.type = contentType;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return type;
+    }
+
+    @Override
+    public long contentLength() {
+        return size;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // 每次发送单独打开文件：多个分片并发发送时互不影响，且发送线程被中断时不会关闭其他分片使用的 FileChannel
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            FileChannel channel = randomAccessFile.getChannel();
+            long position = offset;
+            long end = offset + size;
+            while (position < end) {
+                long count = channel.transferTo(position, Math.min(TRANSFER_SIZE, end - position), sink);
+                if (count <= 0) {
+                    throw new IOException("file region is out of file, file:" + file.getPath()
+                            + " offset:" + offset + " size:" + size + " file size:" + channel.size());
+                }
+                position += count;
+            }
+            sink.flush();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.qiniu.http;
+
+import java.util.Locale;
+
+/**
+ * 单次 HTTP 请求各阶段的耗时及流量统计
+ * <p>
+ * 数据由 OkHttp 的 EventListener 在请求过程中记录，body 为流式读取时，body 相关的数据在 body 读取结束后才有效。
+ * 耗时单位均为毫秒，对应阶段未发生时为 -1（如：复用连接时没有 dns 解析及建立连接的阶段）。
+ */
+public final class RequestMetrics {
+
+    private volatile long callStart;
+    private volatile long callEnd;
+    private volatile long dnsStart;
+    private volatile long dnsEnd;
+    private volatile long connectStart;
+    private volatile long connectEnd;
+    private volatile long secureConnectStart;
+    private volatile long secureConnectEnd;
+    private volatile long requestStart;
+    private volatile long requestEnd;
+    private volatile long responseHeadersStart;
+    private volatile long responseBodyStart;
+    private volatile long responseBodyEnd;
+
+    private volatile boolean connectionReused;
+    // 本次获取连接前是否新建了连接，每次获取连接后重置；OkHttp 在一次调用中可能多次获取连接（重试、重定向）
+    private volatile boolean connectionCreated;
+    private volatile long requestHeadersBytes;
+    private volatile long requestBodyBytes;
+    private volatile long responseHeadersBytes;
+    private volatile long responseBodyBytes;
+    private volatile String remoteAddress = "";
+    private volatile String protocol;
+    private volatile String tlsVersion;
+
+    RequestMetrics() {
+    }
+
+    private static long now() {
+        return System.nanoTime();
+    }
+
+    private static long millis(long start, long end) {
+        if (start <= 0 || end <= 0 || end < start) {
+            return -1;
+        }
+        return (end - start) / 1000000;
+    }
+
+    /**
+     * 请求总耗时，从发起请求到请求结束（包含 body 读取）
+     *
+     * @return 耗时，单位：毫秒
+     */
+    public long getTotalDuration() {
+        long end = Math.max(callEnd, responseBodyEnd);
+        return millis(callStart, end);
+    }
+
+    /**
+     * dns 解析耗时
+     *
+     * @return 耗时，单位：毫秒
+     */
+    public long getDnsDuration() {
+        return millis(dnsStart, dnsEnd);
+    }
+
+    /**
+     * 建立连接耗时，包含 TLS 握手
+     *
+     * @return 耗时，单位：毫秒
+     */
+    public long getConnectDuration() {
+        return millis(connectStart, connectEnd);
+    }
+
+    /**
+     * TLS 握手耗时
+     *
+     * @return 耗时，单位：毫秒
+     */
+    public long getSecureConnectDuration() {
+        return millis(secureConnectStart, secureConnectEnd);
+    }
+
+    /**
+     * 发送请求（header + body）耗时
+     *
+     * @return 耗时，单位：毫秒
+     */
+    public long getRequestWriteDuration() {
+        return millis(requestStart, requestEnd);
+    }
+
+    /**
+     * 首字节耗时，从请求发送完成到开始接收响应
+     *
+     * @return 耗时，单位：毫秒
+     */
+    public long getTimeToFirstByte() {
+        return millis(requestEnd, responseHeadersStart);
+    }
+
+    /**
+     * 读取响应 body 耗时
+     *
+     * @return 耗时，单位：毫秒
+     */
+    public long getResponseBodyDuration() {
+        return millis(responseBodyStart, responseBodyEnd);
+    }
+
+    /**
+     * 是否复用了连接池中的连接
+     *
+     * @return 是否复用连接
+     */
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    /**
+     * 发送的字节数（header + body）
+     *
+     * @return 字节数
+     */
+    public long getBytesSent() {
+        return requestHeadersBytes + requestBodyBytes;
+    }
+
+    /**
+     * 接收的字节数（header + body）
+     *
+     * @return 字节数
+     */
+    public long getBytesReceived() {
+        return responseHeadersBytes + responseBodyBytes;
+    }
+
+    /**
+     * 服务器地址
+     *
+     * @return 服务器地址
+     */
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * 使用的 Http 协议，如：http/1.1、h2
+     *
+     * @return 协议
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * 使用的 TLS 版本，非 https 请求为空
+     *
+     * @return TLS 版本
+     */
+    public String getTlsVersion() {
+        return tlsVersion;
+    }
+
+    void callStart() {
+        callStart = now();
+        connectionCreated = false;
+        connectionReused = false;
+    }
+
+    void callEnd() {
+        callEnd = now();
+    }
+
+    void dnsStart() {
+        dnsStart = now();
+    }
+
+    void dnsEnd() {
+        dnsEnd = now();
+    }
+
+    void connectStart(String address) {
+        connectStart = now();
+        connectionCreated = true;
+        remoteAddress = address;
+    }
+
+    void connectEnd(String protocol) {
+        connectEnd = now();
+        if (protocol != null) {
+            this.protocol = protocol;
+        }
+    }
+
+    void secureConnectStart() {
+        secureConnectStart = now();
+    }
+
+    void secureConnectEnd(String tlsVersion) {
+        secureConnectEnd = now();
+        this.tlsVersion = tlsVersion;
+    }
+
+    void connectionAcquired(String address, String protocol) {
+        // 本次获取连接前没有经历建立连接的过程则为复用的连接
+        connectionReused = !connectionCreated;
+        connectionCreated = false;
+        if (address != null) {
+            remoteAddress = address;
+        }
+        if (protocol != null) {
+            this.protocol = protocol;
+        }
+    }
+
+    void requestHeadersStart() {
+        if (requestStart == 0) {
+            requestStart = now();
+        }
+    }
+
+    void requestHeadersEnd(long bytes) {
+        requestEnd = now();
+        requestHeadersBytes += bytes;
+    }
+
+    void requestBodyEnd(long bytes) {
+        requestEnd = now();
+        requestBodyBytes += bytes;
+    }
+
+    void responseHeadersStart() {
+        responseHeadersStart = now();
+    }
+
+    void responseHeadersEnd(long bytes) {
+        responseHeadersBytes += bytes;
+    }
+
+    void responseBodyStart() {
+        responseBodyStart = now();
+    }
+
+    void responseBodyEnd(long bytes) {
+        responseBodyEnd = now();
+        responseBodyBytes += bytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ENGLISH,
+                "{total:%d ms, dns:%d ms, connect:%d ms, tls:%d ms, request:%d ms, ttfb:%d ms, body:%d ms, " +
+                        "reused:%b, sent:%d B, received:%d B, address:%s, protocol:%s}",
+                getTotalDuration(), getDnsDuration(), getConnectDuration(), getSecureConnectDuration(),
+                getRequestWriteDuration(), getTimeToFirstByte(), getResponseBodyDuration(),
+                connectionReused, getBytesSent(), getBytesReceived(), remoteAddress, protocol);
+    }
+}
@@ -54,6 +54,16 @@ public final class Response {
      */
     public final String address;
 
+    /**
+     * 请求各阶段的耗时及流量统计，可能为空
+     */
+    private RequestMetrics metrics;
+
+    /**
+     * 上传内容的七牛 etag，在上传数据的同时计算，可能为空
+     */
+    private String contentEtag;
+
     private byte[] body;
     private okhttp3.Response response;
 
@@ -85,6 +95,19 @@ public final class Response {
      * @return com.qiniu.http.Response 七牛 Response
      **/
     public static Response create(okhttp3.Response response, String address, double duration) {
+        return create(response, address, duration, null);
+    }
+
+    /***
+     * 构造请求方法，同 {@link Response#create(okhttp3.Response, String, double)}，并附带请求阶段的统计信息
+     *
+     * @param response okhttp3 请求 response
+     * @param address 请求 address
+     * @param duration 请求耗时
+     * @param metrics 请求各阶段的耗时及流量统计
+     * @return com.qiniu.http.Response 七牛 Response
+     **/
+    public static Response create(okhttp3.Response response, String address, double duration, RequestMetrics metrics) {
         String error = null;
         int code = response.code();
         String reqId = null;
@@ -116,8 +139,10 @@ public final class Response {
             }
         }
 
-        return new Response(response, code, reqId, response.header("X-Log"), via(response),
+        Response r = new Response(response, code, reqId, response.header("X-Log"), via(response),
                 address, duration, error, body);
+        r.metrics = metrics;
+        return r;
     }
 
     public static Response createError(okhttp3.Response response, String address, double duration, String error) {
@@ -194,6 +219,35 @@ public final class Response {
         return response;
     }
 
+    /**
+     * 获取请求各阶段的耗时及流量统计，包含 dns、建立连接、TLS 握手、发送请求、首字节、读取 body 的耗时，
+     * 是否复用连接以及收发的字节数
+     *
+     * @return 请求统计信息，非网络请求的 Response 为空
+     */
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 获取上传内容的七牛 etag，分片上传开启 checkCrc 时在发送数据的同时计算，不需要再次读取数据；
+     * 断点续传时之前已上传的分片没有摘要，此时为空
+     *
+     * @return 上传内容的 etag，可能为空
+     */
+    public String getContentEtag() {
+        return contentEtag;
+    }
+
+    /**
+     * 设置上传内容的七牛 etag
+     *
+     * @param contentEtag 上传内容的 etag
+     */
+    public void setContentEtag(String contentEtag) {
+        this.contentEtag = contentEtag;
+    }
+
     public boolean isOK() {
         return statusCode == 200 && error == null && reqId != null && reqId.length() > 0;
     }
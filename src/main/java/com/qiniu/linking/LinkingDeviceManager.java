@@ -3,6 +3,7 @@ package com.qiniu.linking;
 import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.linking.model.*;
 import com.qiniu.util.Auth;
@@ -22,7 +23,7 @@ public class LinkingDeviceManager {
     }
 
     public LinkingDeviceManager(Auth auth, String host) {
-        this(auth, host, new Client());
+        this(auth, host, ClientRegistry.defaultClient());
     }
 
     public LinkingDeviceManager(Auth auth, String host, Client client) {
@@ -3,6 +3,7 @@ package com.qiniu.linking;
 import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.linking.model.SaveasReply;
 import com.qiniu.linking.model.SegmentListing;
@@ -23,7 +24,7 @@ public class LinkingVodManager {
     }
 
     public LinkingVodManager(Auth auth, String host) {
-        this(auth, host, new Client());
+        this(auth, host, ClientRegistry.defaultClient());
     }
 
     public LinkingVodManager(Auth auth, String host, Client client) {
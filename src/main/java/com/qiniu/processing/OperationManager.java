@@ -2,6 +2,7 @@ package com.qiniu.processing;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.media.apis.ApiPfop;
 import com.qiniu.media.apis.ApiPrefop;
 import com.qiniu.storage.Api;
@@ -45,7 +46,7 @@ public final class OperationManager {
     public OperationManager(Auth auth, Configuration cfg) {
         this.auth = auth;
         this.configuration = cfg.clone();
-        this.client = new Client(configuration);
+        this.client = ClientRegistry.get(configuration);
     }
 
     public OperationManager(Auth auth, Client client) {
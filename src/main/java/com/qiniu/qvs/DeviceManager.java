@@ -2,6 +2,7 @@ package com.qiniu.qvs;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.qvs.model.*;
 import com.qiniu.util.Auth;
@@ -18,7 +19,7 @@ public class DeviceManager {
     }
 
     public DeviceManager(Auth auth, String apiServer) {
-        this(auth, apiServer, new Client());
+        this(auth, apiServer, ClientRegistry.defaultClient());
     }
 
     public DeviceManager(Auth auth, String apiServer, Client client) {
@@ -2,6 +2,7 @@ package com.qiniu.qvs;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.util.Auth;
 import com.qiniu.util.StringMap;
@@ -17,7 +18,7 @@ public class PTZManager {
     }
 
     public PTZManager(Auth auth, String apiServer) {
-        this(auth, apiServer, new Client());
+        this(auth, apiServer, ClientRegistry.defaultClient());
     }
 
     public PTZManager(Auth auth, String apiServer, Client client) {
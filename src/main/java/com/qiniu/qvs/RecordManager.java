@@ -2,6 +2,7 @@ package com.qiniu.qvs;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.util.Auth;
 import com.qiniu.util.StringMap;
@@ -16,7 +17,7 @@ public class RecordManager {
     }
 
     public RecordManager(Auth auth, String apiServer) {
-        this(auth, apiServer, new Client());
+        this(auth, apiServer, ClientRegistry.defaultClient());
     }
 
     public RecordManager(Auth auth, String apiServer, Client client) {
@@ -2,6 +2,7 @@ package com.qiniu.qvs;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.qvs.model.PatchOperation;
 import com.qiniu.qvs.model.Template;
@@ -20,7 +21,7 @@ public class TemplateManager {
     }
 
     public TemplateManager(Auth auth, String apiServer) {
-        this(auth, apiServer, new Client());
+        this(auth, apiServer, ClientRegistry.defaultClient());
     }
 
     public TemplateManager(Auth auth, String apiServer, Client client) {
@@ -3,6 +3,7 @@ package com.qiniu.rtc;
 import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.util.Auth;
 import com.qiniu.util.Json;
@@ -26,7 +27,7 @@ public class RtcAppManager {
     public RtcAppManager(Auth auth, String host) {
         this.auth = auth;
         this.host = host;
-        this.client = new Client();
+        this.client = ClientRegistry.defaultClient();
         this.params = new StringMap();
     }
 
@@ -3,6 +3,7 @@ package com.qiniu.rtc;
 import com.google.gson.Gson;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.rtc.model.RoomAccess;
 import com.qiniu.util.Auth;
@@ -24,7 +25,7 @@ public class RtcRoomManager {
     public RtcRoomManager(Auth auth, String host) {
         this.auth = auth;
         this.host = host;
-        client = new Client();
+        client = ClientRegistry.defaultClient();
         gson = new Gson();
     }
 
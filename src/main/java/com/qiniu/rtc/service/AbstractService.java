@@ -4,6 +4,7 @@ import com.google.gson.Gson;
 import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.util.Auth;
 import com.qiniu.util.Json;
@@ -25,7 +26,7 @@ public abstract class AbstractService {
         if (null == auth) {
             throw new IllegalArgumentException("auth cannot be null...");
         }
-        this.httpClient = new Client();
+        this.httpClient = ClientRegistry.defaultClient();
         this.auth = auth;
         this.gson = new Gson();
     }
@@ -3,6 +3,7 @@ package com.qiniu.sms;
 import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.MethodType;
 import com.qiniu.http.Response;
 import com.qiniu.sms.model.SignatureInfo;
@@ -40,7 +41,7 @@ public class SmsManager {
     public SmsManager(Auth auth) {
         this.auth = auth;
         this.configuration = new Configuration();
-        client = new Client(this.configuration);
+        client = ClientRegistry.get(this.configuration);
     }
 
     /**
@@ -52,7 +53,7 @@ public class SmsManager {
     public SmsManager(Auth auth, Configuration cfg) {
         this.auth = auth;
         this.configuration = cfg.clone();
-        client = new Client(this.configuration);
+        client = ClientRegistry.get(this.configuration);
     }
 
     /**
@@ -2,7 +2,14 @@ package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
+import com.qiniu.http.CompletionFuture;
+import com.qiniu.http.DigestRequestBody;
 import com.qiniu.http.MethodType;
+import com.qiniu.http.ProgressRequestBody;
+import com.qiniu.http.RateLimiter;
+import com.qiniu.http.RequestMetrics;
+import com.qiniu.http.RequestFileRegionBody;
 import com.qiniu.http.RequestStreamBody;
 import com.qiniu.util.*;
 import okhttp3.MediaType;
@@ -16,6 +23,10 @@ import java.io.InputStream;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * api 基类，非七牛 Api 请不要使用此接口，此 Api 有业务定制
@@ -53,7 +64,7 @@ public class Api {
      **/
     protected Api(Client client, Interceptor... interceptors) {
         if (client == null) {
-            client = new Client();
+            client = ClientRegistry.defaultClient();
         }
         this.client = client;
 
@@ -81,28 +92,36 @@ public class Api {
         if (config == null) {
             config = new Config.Builder().build();
         }
-        return new Interceptor[]{
-                new ApiInterceptorAuth.Builder()
-                        .setAuth(config.auth)
-                        .build(),
-                new ApiInterceptorDebug.Builder()
-                        .setRequestLevel(config.requestDebugLevel)
-                        .setResponseLevel(config.responseDebugLevel)
-                        .build(),
-                new ApiInterceptorRetryHosts.Builder()
-                        .setHostProvider(config.hostProvider)
-                        .setRetryInterval(config.retryInterval)
-                        .setRetryMax(config.hostRetryMax)
-                        .setRetryCondition(config.retryCondition)
-                        .setHostFreezeCondition(config.hostFreezeCondition)
-                        .setHostFreezeDuration(config.hostFreezeDuration)
-                        .build(),
-                new ApiInterceptorRetrySimple.Builder()
-                        .setRetryMax(config.singleHostRetryMax)
-                        .setRetryInterval(config.retryInterval)
-                        .setRetryCondition(config.retryCondition)
-                        .build()
-        };
+        List<Interceptor> interceptors = new ArrayList<>();
+        interceptors.add(new ApiInterceptorAuth.Builder()
+                .setAuth(config.auth)
+                .build());
+        interceptors.add(new ApiInterceptorDebug.Builder()
+                .setRequestLevel(config.requestDebugLevel)
+                .setResponseLevel(config.responseDebugLevel)
+                .build());
+        interceptors.add(new ApiInterceptorRetryHosts.Builder()
+                .setHostProvider(config.hostProvider)
+                .setRetryInterval(config.retryInterval)
+                .setRetryMax(config.hostRetryMax)
+                .setRetryCondition(config.retryCondition)
+                .setHostFreezeCondition(config.hostFreezeCondition)
+                .setHostFreezeDuration(config.hostFreezeDuration)
+                .setRetryBudget(config.retryBudget)
+                .build());
+        if (config.hedgePercentile > 0 && config.hostProvider != null) {
+            interceptors.add(new ApiInterceptorHedge.Builder()
+                    .setHostProvider(config.hostProvider)
+                    .setPercentile(config.hedgePercentile)
+                    .build());
+        }
+        interceptors.add(new ApiInterceptorRetrySimple.Builder()
+                .setRetryMax(config.singleHostRetryMax)
+                .setRetryInterval(config.retryInterval)
+                .setRetryCondition(config.retryCondition)
+                .setRetryBudget(config.retryBudget)
+                .build());
+        return interceptors.toArray(new Interceptor[0]);
     }
 
     protected com.qiniu.http.Response innerRequest(Request request) throws QiniuException {
@@ -177,10 +196,141 @@ public class Api {
         return new Response(requestWithInterceptor(request));
     }
 
+    private CompletionFuture<Response> innerRequestAsync(Request request) {
+        if (client == null) {
+            return CompletionFuture.failed(QiniuException.unrecoverable("client is null"));
+        }
+
+        final CompletionFuture<Response> future = new CompletionFuture<>();
+        CompletionFuture<com.qiniu.http.Response> httpFuture;
+        try {
+            MethodType method = request.getMethod();
+            String url = request.getUrl().toString();
+            StringMap header = request.getHeader();
+            RequestBody body = method.hasContent() ? request.getRequestBody() : null;
+            okhttp3.Request.Builder requestBuilder = new okhttp3.Request.Builder()
+                    .url(url)
+                    .method(method.toString(), body);
+            httpFuture = client.sendAsync(requestBuilder, header);
+        } catch (QiniuException e) {
+            return CompletionFuture.failed(e);
+        }
+
+        final CompletionFuture<com.qiniu.http.Response> finalHttpFuture = httpFuture;
+        future.setCancellation(new Runnable() {
+            @Override
+            public void run() {
+                finalHttpFuture.cancel(true);
+            }
+        });
+        httpFuture.addListener(new CompletionFuture.Listener<com.qiniu.http.Response>() {
+            @Override
+            public void onComplete(com.qiniu.http.Response value, QiniuException exception) {
+                if (exception != null) {
+                    future.completeExceptionally(exception);
+                    return;
+                }
+                try {
+                    future.complete(new Response(value));
+                } catch (QiniuException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 异步发起请求，请求会经过和同步请求相同的拦截器（鉴权、切换域名重试、单域名重试、Debug 等），
+     * 整个流程不会阻塞调用线程，重试的间隔通过定时任务实现
+     *
+     * @param request 请求对象 【必须】
+     * @return 异步请求结果
+     */
+    public CompletionFuture<Response> requestAsync(Request request) {
+        if (request == null) {
+            return CompletionFuture.failed(QiniuException.unrecoverable("request is null"));
+        }
+
+        request = request.clone();
+        if (request == null) {
+            return CompletionFuture.failed(QiniuException.unrecoverable("request clone error, just retry"));
+        }
+
+        try {
+            request.prepareToRequest();
+        } catch (QiniuException e) {
+            return CompletionFuture.failed(e);
+        }
+
+        AsyncHandler handler = new AsyncHandler() {
+            @Override
+            public CompletionFuture<Response> handle(Request req) {
+                return innerRequestAsync(req);
+            }
+        };
+
+        if (interceptors != null) {
+            for (Interceptor interceptor : interceptors) {
+                final AsyncHandler h = handler;
+                final Interceptor i = interceptor;
+                handler = new AsyncHandler() {
+                    @Override
+                    public CompletionFuture<Response> handle(Request req) {
+                        try {
+                            return i.interceptAsync(req, h);
+                        } catch (QiniuException e) {
+                            return CompletionFuture.failed(e);
+                        }
+                    }
+                };
+            }
+        }
+
+        return handler.handle(request);
+    }
+
+    /**
+     * 异步流程中用于延迟执行任务的调度器，如：重试间隔
+     * 任务仅用于发起下一次异步请求，不会执行阻塞操作
+     **/
+    static ScheduledExecutorService asyncScheduler() {
+        return AsyncSchedulerHolder.SCHEDULER;
+    }
+
+    /**
+     * 延迟执行任务，delay 小于等于 0 时立即在当前线程执行
+     *
+     * @param delay 延迟时间，单位：毫秒
+     * @param task  任务
+     **/
+    static void schedule(int delay, Runnable task) {
+        if (delay <= 0) {
+            task.run();
+            return;
+        }
+        asyncScheduler().schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
     interface Handler {
         Response handle(Request request) throws QiniuException;
     }
 
+    interface AsyncHandler {
+        CompletionFuture<Response> handle(Request request);
+    }
+
+    private static final class AsyncSchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "qiniu-api-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     public static final class Config {
 
         public static final int DebugLevelNone = ApiInterceptorDebug.LevelPrintNone;
@@ -252,8 +402,18 @@ public class Api {
          **/
         private final int responseDebugLevel;
 
+        /**
+         * 对冲请求的耗时分位数，0 表示不使用对冲请求
+         **/
+        private final int hedgePercentile;
 
-        private Config(Auth auth, int hostRetryMax, int singleHostRetryMax, Retry.Interval retryInterval, Retry.RetryCondition retryCondition, Retry.HostFreezeCondition hostFreezeCondition, HostProvider hostProvider, int hostFreezeDuration, int requestDebugLevel, int responseDebugLevel) {
+        /**
+         * 重试预算，为空则不限制重试
+         **/
+        private final Retry.RetryBudget retryBudget;
+
+
+        private Config(Auth auth, int hostRetryMax, int singleHostRetryMax, Retry.Interval retryInterval, Retry.RetryCondition retryCondition, Retry.HostFreezeCondition hostFreezeCondition, HostProvider hostProvider, int hostFreezeDuration, int requestDebugLevel, int responseDebugLevel, int hedgePercentile, Retry.RetryBudget retryBudget) {
             this.auth = auth;
             this.hostRetryMax = hostRetryMax;
             this.singleHostRetryMax = singleHostRetryMax;
@@ -264,6 +424,8 @@ public class Api {
             this.hostFreezeDuration = hostFreezeDuration;
             this.requestDebugLevel = requestDebugLevel;
             this.responseDebugLevel = responseDebugLevel;
+            this.hedgePercentile = hedgePercentile;
+            this.retryBudget = retryBudget;
         }
 
         public static final class Builder {
@@ -277,6 +439,8 @@ public class Api {
             private int hostFreezeDuration = 10 * 60 * 1000;
             private int requestDebugLevel = DebugLevelNone;
             private int responseDebugLevel;
+            private int hedgePercentile = 0;
+            private Retry.RetryBudget retryBudget = null;
 
             /**
              * 设置鉴权信息
@@ -409,8 +573,35 @@ public class Api {
                 return this;
             }
 
+            /**
+             * 设置对冲请求
+             * 幂等请求的耗时超过同一域名历史请求耗时的 hedgePercentile 分位数时，从域名提供者中获取另一个域名发送备份请求，
+             * 使用先返回的有效结果并取消另一个请求；需要配置域名提供者 {@link #setHostProvider(HostProvider)}
+             *
+             * @param hedgePercentile 耗时分位数，取值范围 (0, 100)，如：95；0 表示不使用对冲请求，默认：0
+             * @return Builder
+             **/
+            public Builder setHedgePercentile(int hedgePercentile) {
+                this.hedgePercentile = hedgePercentile;
+                return this;
+            }
+
+            /**
+             * 设置重试预算
+             * 重试的请求量不超过正常请求量的一定比例，避免服务异常时大量重试放大请求量；
+             * 切换域名重试和单域名重试共用此预算，每个请求存入一次令牌，每次重试取出一个令牌
+             * 默认：null，不限制重试；可使用进程内共享的 {@link Retry#defaultRetryBudget()}
+             *
+             * @param retryBudget 重试预算，为空则不限制重试
+             * @return Builder
+             **/
+            public Builder setRetryBudget(Retry.RetryBudget retryBudget) {
+                this.retryBudget = retryBudget;
+                return this;
+            }
+
             public Config build() {
-                return new Config(auth, hostRetryMax, singleHostRetryMax, retryInterval, retryCondition, hostFreezeCondition, hostProvider, hostFreezeDuration, requestDebugLevel, responseDebugLevel);
+                return new Config(auth, hostRetryMax, singleHostRetryMax, retryInterval, retryCondition, hostFreezeCondition, hostProvider, hostFreezeDuration, requestDebugLevel, responseDebugLevel, hedgePercentile, retryBudget);
             }
         }
     }
@@ -472,6 +663,11 @@ public class Api {
          */
         private MethodType method = MethodType.GET;
 
+        /**
+         * 请求是否幂等，为空时根据请求方式判断
+         */
+        private Boolean idempotent;
+
         /**
          * 请求头
          */
@@ -489,6 +685,22 @@ public class Api {
          */
         private long streamBodySinkSize = 1024 * 10;
 
+        /**
+         * 请求体摘要，不为空时在发送请求体的同时计算摘要
+         */
+        private ContentDigest bodyDigest;
+
+        /**
+         * 请求体发送进度回调及限速器，不为空时在发送请求体时回调进度并限速
+         */
+        private ProgressRequestBody.Listener bodyProgressListener;
+        private RateLimiter[] bodyRateLimiters;
+
+        /**
+         * 已存入令牌的重试预算，每个请求只存入一次，重试时复制的请求不再存入
+         */
+        private Retry.RetryBudget depositedRetryBudget;
+
         /**
          * 构造请求对象
          *
@@ -644,6 +856,28 @@ public class Api {
             this.method = method;
         }
 
+        /**
+         * 请求是否幂等，幂等的请求可以同时向多个域名发送（对冲请求）
+         * 未设置时 GET、HEAD 请求为幂等请求
+         *
+         * @return 是否幂等
+         */
+        boolean isIdempotent() {
+            if (idempotent != null) {
+                return idempotent;
+            }
+            return method == MethodType.GET || method == MethodType.HEAD;
+        }
+
+        /**
+         * 设置请求是否幂等
+         *
+         * @param idempotent 是否幂等
+         */
+        protected void setIdempotent(boolean idempotent) {
+            this.idempotent = idempotent;
+        }
+
         /**
          * 获取 url 的 path 信息
          *
@@ -854,6 +1088,23 @@ public class Api {
             this.body = b;
         }
 
+        /**
+         * 设置请求体
+         * 请求数据：文件 file 中，从 offset 开始，size 大小的数据作为请求体；发送时直接从文件写入，不会读入内存
+         * 此方式配置的 body 支持重试，不支持 auth
+         *
+         * @param file        请求数据源文件
+         * @param offset      请求数据在文件中的偏移量
+         * @param size        请求数据大小
+         * @param contentType 请求数据类型
+         */
+        protected void setBody(File file, long offset, long size, String contentType) {
+            if (StringUtils.isNullOrEmpty(contentType)) {
+                contentType = Client.DefaultMime;
+            }
+            this.body = new Request.Body.FileRegionBody(file, offset, size, contentType);
+        }
+
         /**
          * 设置表单请求体
          * 此方式配置的 body 支持重试，不支持 auth
@@ -927,11 +1178,69 @@ public class Api {
             return body != null;
         }
 
+        /**
+         * 设置请求体摘要，发送请求体的同时计算摘要，发送结束后可从 bodyDigest 获取请求体的 md5、crc32、etag 等信息
+         *
+         * @param bodyDigest 请求体摘要，为空时不计算
+         */
+        void setBodyDigest(ContentDigest bodyDigest) {
+            this.bodyDigest = bodyDigest;
+        }
+
+        ContentDigest getBodyDigest() {
+            return bodyDigest;
+        }
+
+        /**
+         * 设置请求体发送进度回调及限速器
+         *
+         * @param listener 发送进度回调，为空时不回调
+         * @param limiters 限速器，为空时不限速
+         */
+        void setBodyMonitor(ProgressRequestBody.Listener listener, RateLimiter[] limiters) {
+            this.bodyProgressListener = listener;
+            this.bodyRateLimiters = limiters;
+        }
+
+        /**
+         * 设置上传块请求体的发送进度回调及限速器
+         *
+         * @param monitor   上传监控，为空时不回调进度且不限速
+         * @param partIndex 块的 index
+         */
+        void setUploadMonitor(UploadMonitor monitor, int partIndex) {
+            if (monitor == null) {
+                setBodyMonitor(null, null);
+            } else {
+                setBodyMonitor(monitor.partListener(partIndex), monitor.limiters());
+            }
+        }
+
+        RateLimiter[] getBodyRateLimiters() {
+            return bodyRateLimiters;
+        }
+
+        // 标记请求已存入重试预算的令牌，已存入过时返回 false
+        boolean markRetryBudgetDeposited(Retry.RetryBudget retryBudget) {
+            if (depositedRetryBudget == retryBudget) {
+                return false;
+            }
+            depositedRetryBudget = retryBudget;
+            return true;
+        }
+
         RequestBody getRequestBody() {
             if (!hasBody()) {
                 return Body.BytesBody.empty().get();
             }
-            return body.get();
+            RequestBody requestBody = body.get();
+            if (bodyDigest != null) {
+                requestBody = new DigestRequestBody(requestBody, bodyDigest);
+            }
+            if (bodyProgressListener != null || bodyRateLimiters != null) {
+                requestBody = new ProgressRequestBody(requestBody, bodyProgressListener, bodyRateLimiters);
+            }
+            return requestBody;
         }
 
         byte[] getBytesBody() {
@@ -1159,6 +1468,23 @@ public class Api {
                 }
             }
 
+            private static final class FileRegionBody extends Body {
+
+                private FileRegionBody(File file, long offset, long size, String contentType) {
+                    this.body = new RequestFileRegionBody(file, offset, size, MediaType.parse(contentType));
+                }
+
+                @Override
+                protected boolean canReset() {
+                    return true;
+                }
+
+                @Override
+                protected void reset() throws QiniuException {
+                    // 每次发送都会重新从文件读取，不需要重置
+                }
+            }
+
             private static final class InputStreamBody extends Body {
 
                 private InputStreamBody(InputStream stream, String contentType, long limitSize) {
@@ -1417,6 +1743,16 @@ public class Api {
             return response;
         }
 
+        /**
+         * 获取请求各阶段的耗时及流量统计
+         * 注：经过重试的请求，为最后一次请求的统计信息
+         *
+         * @return 请求统计信息
+         */
+        public RequestMetrics getMetrics() {
+            return response != null ? response.getMetrics() : null;
+        }
+
         /**
          * 请求是否成功
          *
@@ -1496,6 +1832,7 @@ public class Api {
 
         static final int PriorityDefault = 100;
         static final int PriorityRetryHosts = 200;
+        static final int PriorityHedge = 250;
         static final int PriorityRetrySimple = 300;
         static final int PrioritySetHeader = 400;
         static final int PriorityNormal = 500;
@@ -1515,5 +1852,11 @@ public class Api {
          * 拦截方法
          **/
         abstract Api.Response intercept(Api.Request request, Handler handler) throws QiniuException;
+
+        /**
+         * 异步拦截方法，不可阻塞调用线程
+         * 同步抛出的异常会被转为失败的结果
+         **/
+        abstract CompletionFuture<Api.Response> interceptAsync(Api.Request request, AsyncHandler handler) throws QiniuException;
     }
 }
@@ -1,6 +1,7 @@
 package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
+import com.qiniu.http.CompletionFuture;
 import com.qiniu.http.Headers;
 import com.qiniu.util.Auth;
 
@@ -22,8 +23,19 @@ final class ApiInterceptorAuth extends Api.Interceptor {
 
     @Override
     Api.Response intercept(Api.Request request, Api.Handler handler) throws QiniuException {
+        sign(request);
+        return handler.handle(request);
+    }
+
+    @Override
+    CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler) throws QiniuException {
+        sign(request);
+        return handler.handle(request);
+    }
+
+    private void sign(Api.Request request) throws QiniuException {
         if (auth == null || request == null) {
-            return handler.handle(request);
+            return;
         }
 
         if (request.getAuthType() == Api.Request.AuthTypeQiniu) {
@@ -34,8 +46,6 @@ final class ApiInterceptorAuth extends Api.Interceptor {
             String authorization = "Qiniu " + auth.signQiniuAuthorization(url, method, body, headers);
             request.addHeaderField("Authorization", authorization);
         }
-
-        return handler.handle(request);
     }
 
     static final class Builder {
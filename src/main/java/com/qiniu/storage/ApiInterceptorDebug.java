@@ -1,6 +1,7 @@
 package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
+import com.qiniu.http.CompletionFuture;
 import com.qiniu.http.Response;
 import com.qiniu.util.StringMap;
 import com.qiniu.util.StringUtils;
@@ -65,6 +66,26 @@ final class ApiInterceptorDebug extends Api.Interceptor {
         return response;
     }
 
+    @Override
+    CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler) throws QiniuException {
+        if (request == null || (isNonePrintLevel(requestLevel) && isNonePrintLevel(responseLevel))) {
+            return handler.handle(request);
+        }
+
+        final String label = request.getUrl().toString();
+        printRequest(label, request);
+
+        return handler.handle(request).addListener(new CompletionFuture.Listener<Api.Response>() {
+            @Override
+            public void onComplete(Api.Response value, QiniuException exception) {
+                try {
+                    printResponse(label, value, exception);
+                } catch (QiniuException ignore) {
+                }
+            }
+        });
+    }
+
     private void printRequest(String label, Api.Request request) throws QiniuException {
         if (isNonePrintLevel(requestLevel)) {
             return;
@@ -1,6 +1,7 @@
 package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
+import com.qiniu.http.CompletionFuture;
 import com.qiniu.util.DefaultHeader;
 
 final class ApiInterceptorDefaultHeader extends Api.Interceptor {
@@ -15,8 +16,19 @@ final class ApiInterceptorDefaultHeader extends Api.Interceptor {
 
     @Override
     Api.Response intercept(final Api.Request request, Api.Handler handler) throws QiniuException {
+        addHeaders(request);
+        return handler.handle(request);
+    }
+
+    @Override
+    CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler) throws QiniuException {
+        addHeaders(request);
+        return handler.handle(request);
+    }
+
+    private void addHeaders(final Api.Request request) throws QiniuException {
         if (request == null) {
-            return handler.handle(request);
+            return;
         }
 
         DefaultHeader.setDefaultHeader(new DefaultHeader.HeadAdder() {
@@ -26,7 +38,6 @@ final class ApiInterceptorDefaultHeader extends Api.Interceptor {
             }
         });
         request.addHeaderField("Host", request.getHost());
-        return handler.handle(request);
     }
 
     static final class Builder {
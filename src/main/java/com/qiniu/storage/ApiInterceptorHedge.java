@@ -0,0 +1,462 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.CompletionFuture;
+import com.qiniu.util.StringUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对冲请求拦截器
+ * <p>
+ * 幂等请求（{@link Api.Request#isIdempotent()}）在指定时间内没有响应时，从 HostProvider 中获取另一个域名发送备份请求，
+ * 使用先返回的有效结果，并取消另一个请求。等待时间为此域名历史请求耗时的指定分位数（如：P95），
+ * 因此只有约 5% 的慢请求会触发对冲，可以显著降低长尾耗时。
+ * <p>
+ * 注：
+ * 1. 同步请求无法中断正在进行的网络请求，被取消的请求会在结束后关闭响应
+ * 2. 同步请求在有上限的线程池中执行，线程池已满时不对冲，直接在调用线程中请求
+ */
+final class ApiInterceptorHedge extends Api.Interceptor {
+
+    // 每个域名保留的耗时样本数
+    private static final int WINDOW_SIZE = 128;
+    // 样本不足时不进行对冲统计，使用默认等待时间
+    private static final int MIN_SAMPLES = 16;
+    // 获取备份域名的最大尝试次数
+    private static final int BACKUP_HOST_ATTEMPTS = 3;
+    // 同步对冲请求的最大线程数，每个对冲中的同步请求占用一到两个线程
+    private static final int MAX_THREADS = 64;
+
+    private static final ConcurrentHashMap<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+
+    private final HostProvider hostProvider;
+    private final int percentile;
+    private final int minDelay;
+    private final int maxDelay;
+    private final int defaultDelay;
+
+    private ApiInterceptorHedge(HostProvider hostProvider, int percentile, int minDelay, int maxDelay, int defaultDelay) {
+        this.hostProvider = hostProvider;
+        this.percentile = percentile;
+        this.minDelay = minDelay;
+        this.maxDelay = maxDelay;
+        this.defaultDelay = defaultDelay;
+    }
+
+    @Override
+    int priority() {
+        return Api.Interceptor.PriorityHedge;
+    }
+
+    @Override
+    Api.Response intercept(Api.Request request, final Api.Handler handler) throws QiniuException {
+        if (!shouldHedge(request)) {
+            return handler.handle(request);
+        }
+
+        // 同步请求在线程池中执行，调用线程等待先返回的有效结果；线程池已满时直接请求
+        CompletionFuture<Api.Response> result;
+        try {
+            result = hedge(request, new Starter() {
+                @Override
+                public CompletionFuture<Api.Response> start(final Api.Request req) {
+                    final CompletionFuture<Api.Response> future = new CompletionFuture<>();
+                    // 线程池已满时抛出 RejectedExecutionException
+                    final Future<?> task = HedgeExecutorHolder.EXECUTOR.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (future.isDone()) {
+                                return;
+                            }
+                            try {
+                                Api.Response response = handler.handle(req);
+                                if (!future.complete(response)) {
+                                    closeResponse(response);
+                                }
+                            } catch (QiniuException e) {
+                                future.completeExceptionally(e);
+                            } catch (Exception e) {
+                                future.completeExceptionally(QiniuException.unrecoverable(e));
+                            }
+                        }
+                    });
+                    future.setCancellation(new Runnable() {
+                        @Override
+                        public void run() {
+                            task.cancel(true);
+                        }
+                    });
+                    return future;
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return handler.handle(request);
+        }
+        return result.await();
+    }
+
+    @Override
+    CompletionFuture<Api.Response> interceptAsync(Api.Request request, final Api.AsyncHandler handler) throws QiniuException {
+        if (!shouldHedge(request)) {
+            return handler.handle(request);
+        }
+
+        return hedge(request, new Starter() {
+            @Override
+            public CompletionFuture<Api.Response> start(Api.Request req) {
+                return handler.handle(req);
+            }
+        });
+    }
+
+    private boolean shouldHedge(Api.Request request) {
+        return request != null && hostProvider != null && request.isIdempotent() && request.canRetry();
+    }
+
+    private CompletionFuture<Api.Response> hedge(Api.Request request, Starter starter) throws QiniuException {
+        final String primaryHost = request.getHost();
+        final Api.Request backupRequest = request.clone();
+        if (backupRequest != null) {
+            // 两路请求可能同时发送请求体，摘要及进度只由主请求计算，限速两路都生效
+            backupRequest.setBodyDigest(null);
+            backupRequest.setBodyMonitor(null, backupRequest.getBodyRateLimiters());
+        }
+        final CompletionFuture<Api.Response> result = new CompletionFuture<>();
+        final HedgeState state = new HedgeState(result);
+
+        final Leg primary = new Leg(primaryHost);
+        state.start(primary, starter.start(request));
+        result.setCancellation(new Runnable() {
+            @Override
+            public void run() {
+                state.cancelAll();
+            }
+        });
+
+        if (backupRequest == null) {
+            return result;
+        }
+
+        final Starter s = starter;
+        Api.schedule(hedgeDelay(primaryHost), new Runnable() {
+            @Override
+            public void run() {
+                if (result.isDone() || primary.isDone()) {
+                    return;
+                }
+
+                String backupHost = backupHost(primaryHost);
+                if (backupHost == null) {
+                    return;
+                }
+
+                backupRequest.setHost(backupHost);
+                CompletionFuture<Api.Response> backup;
+                try {
+                    backup = s.start(backupRequest);
+                } catch (RejectedExecutionException e) {
+                    // 线程池已满，不发送备份请求
+                    hostProvider.releaseHost(backupHost);
+                    return;
+                }
+                state.start(new Leg(backupHost), backup);
+            }
+        });
+        return result;
+    }
+
+    // 从 hostProvider 中获取一个和主请求不同的域名
+    private String backupHost(String primaryHost) {
+        for (int i = 0; i < BACKUP_HOST_ATTEMPTS; i++) {
+            String host = hostProvider.provider();
+            if (StringUtils.isNullOrEmpty(host)) {
+                return null;
+            }
+            if (!host.equals(primaryHost)) {
+                return host;
+            }
+        }
+        return null;
+    }
+
+    private int hedgeDelay(String host) {
+        LatencyWindow window = windows.get(host);
+        int delay = window != null ? window.percentile(percentile) : -1;
+        if (delay < 0) {
+            delay = defaultDelay;
+        }
+        return Math.min(Math.max(delay, minDelay), maxDelay);
+    }
+
+    private static void recordLatency(String host, long latency) {
+        if (StringUtils.isNullOrEmpty(host) || latency < 0) {
+            return;
+        }
+
+        LatencyWindow window = windows.get(host);
+        if (window == null) {
+            window = new LatencyWindow();
+            LatencyWindow old = windows.putIfAbsent(host, window);
+            if (old != null) {
+                window = old;
+            }
+        }
+        window.add(latency);
+    }
+
+    // 有效结果：成功或不需要切换域名的失败（如：资源不存在）
+    private static boolean isGoodResult(Api.Response response, QiniuException exception) {
+        if (exception == null) {
+            com.qiniu.http.Response httpResponse = response != null ? response.getResponse() : null;
+            return httpResponse == null || !httpResponse.needSwitchServer();
+        }
+        if (exception.isUnrecoverable()) {
+            return false;
+        }
+        return !Retry.requestShouldSwitchHost(exception.response, exception);
+    }
+
+    private static void closeResponse(Api.Response response) {
+        if (response != null && response.getResponse() != null) {
+            response.getResponse().close();
+        }
+    }
+
+    private interface Starter {
+        CompletionFuture<Api.Response> start(Api.Request request);
+    }
+
+    private static final class Leg {
+        private final String host;
+        private final long startTime = System.currentTimeMillis();
+        private CompletionFuture<Api.Response> future;
+        private boolean done;
+
+        private Leg(String host) {
+            this.host = host;
+        }
+
+        private synchronized boolean isDone() {
+            return done;
+        }
+    }
+
+    private final class HedgeState {
+        private final CompletionFuture<Api.Response> result;
+        private final Leg[] legs = new Leg[2];
+        private int legCount;
+        private Api.Response firstResponse;
+        private QiniuException firstException;
+        private boolean hasFailure;
+
+        private HedgeState(CompletionFuture<Api.Response> result) {
+            this.result = result;
+        }
+
+        private void start(final Leg leg, CompletionFuture<Api.Response> future) {
+            synchronized (this) {
+                leg.future = future;
+                legs[legCount++] = leg;
+            }
+            future.addListener(new CompletionFuture.Listener<Api.Response>() {
+                @Override
+                public void onComplete(Api.Response response, QiniuException exception) {
+                    onLegComplete(leg, response, exception);
+                }
+            });
+        }
+
+        private void onLegComplete(Leg leg, Api.Response response, QiniuException exception) {
+            synchronized (leg) {
+                leg.done = true;
+            }
+
+            boolean good = isGoodResult(response, exception);
+            if (good) {
+                recordLatency(leg.host, System.currentTimeMillis() - leg.startTime);
+                if (result.complete(response)) {
+                    cancelOthers(leg);
+                } else {
+                    closeResponse(response);
+                }
+                return;
+            }
+
+            Api.Response completeResponse = response;
+            QiniuException completeException = exception;
+            synchronized (this) {
+                if (hasRunningLeg()) {
+                    // 等待另一个请求的结果
+                    if (!hasFailure) {
+                        hasFailure = true;
+                        firstResponse = response;
+                        firstException = exception;
+                    } else {
+                        closeResponse(response);
+                    }
+                    return;
+                }
+
+                // 均失败时，使用主请求（先失败）的结果，以便外层按主请求的域名冻结重试
+                if (hasFailure) {
+                    closeResponse(response);
+                    completeResponse = firstResponse;
+                    completeException = firstException;
+                }
+            }
+
+            if (!result.complete(completeResponse, completeException)) {
+                closeResponse(completeResponse);
+            }
+        }
+
+        private boolean hasRunningLeg() {
+            for (int i = 0; i < legCount; i++) {
+                if (!legs[i].isDone()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void cancelOthers(Leg winner) {
+            Leg[] ls;
+            synchronized (this) {
+                ls = Arrays.copyOf(legs, legCount);
+            }
+            for (Leg leg : ls) {
+                if (leg == winner || leg.isDone()) {
+                    continue;
+                }
+                // 被取消的请求至少耗时 elapsed，只作为耗时样本，请求没有结果，不改变域名的冻结及失败状态
+                long elapsed = System.currentTimeMillis() - leg.startTime;
+                recordLatency(leg.host, elapsed);
+                hostProvider.reportLatency(leg.host, elapsed);
+                hostProvider.releaseHost(leg.host);
+                leg.future.cancel(true);
+            }
+        }
+
+        private void cancelAll() {
+            Leg[] ls;
+            synchronized (this) {
+                ls = Arrays.copyOf(legs, legCount);
+            }
+            for (Leg leg : ls) {
+                leg.future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 最近请求耗时的滑动窗口
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count;
+        private int next;
+
+        private synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next + 1) % WINDOW_SIZE;
+            if (count < WINDOW_SIZE) {
+                count++;
+            }
+        }
+
+        private int percentile(int percentile) {
+            long[] sorted;
+            synchronized (this) {
+                if (count < MIN_SAMPLES) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            index = Math.min(Math.max(index, 0), sorted.length - 1);
+            return (int) Math.min(sorted[index], Integer.MAX_VALUE);
+        }
+    }
+
+    private static final class HedgeExecutorHolder {
+        private static final ExecutorService EXECUTOR = new ThreadPoolExecutor(0, MAX_THREADS,
+                60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "qiniu-api-hedge");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    static final class Builder {
+        private HostProvider hostProvider;
+        private int percentile;
+        private int minDelay = 100;
+        private int maxDelay = 10 * 1000;
+        private int defaultDelay = 1000;
+
+        Builder setHostProvider(HostProvider hostProvider) {
+            this.hostProvider = hostProvider;
+            return this;
+        }
+
+        /**
+         * 主请求耗时超过历史耗时的此分位数时发送备份请求，取值范围 (0, 100)
+         */
+        Builder setPercentile(int percentile) {
+            this.percentile = percentile;
+            return this;
+        }
+
+        Builder setMinDelay(int minDelay) {
+            this.minDelay = minDelay;
+            return this;
+        }
+
+        Builder setMaxDelay(int maxDelay) {
+            this.maxDelay = maxDelay;
+            return this;
+        }
+
+        /**
+         * 样本不足时发送备份请求的等待时间
+         */
+        Builder setDefaultDelay(int defaultDelay) {
+            this.defaultDelay = defaultDelay;
+            return this;
+        }
+
+        /**
+         * 构建拦截器
+         * <p>
+         * 注：hostProvider 必须配置，否则不会发送备份请求
+         **/
+        Api.Interceptor build() {
+            if (percentile <= 0 || percentile >= 100) {
+                percentile = 95;
+            }
+            if (minDelay < 0) {
+                minDelay = 0;
+            }
+            if (maxDelay < minDelay) {
+                maxDelay = minDelay;
+            }
+            if (defaultDelay <= 0) {
+                defaultDelay = 1000;
+            }
+            return new ApiInterceptorHedge(hostProvider, percentile, minDelay, maxDelay, defaultDelay);
+        }
+    }
+}
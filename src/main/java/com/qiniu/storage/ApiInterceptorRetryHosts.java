@@ -1,8 +1,11 @@
 package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
+import com.qiniu.http.CompletionFuture;
 import com.qiniu.util.StringUtils;
 
+import java.net.URL;
+
 class ApiInterceptorRetryHosts extends Api.Interceptor {
     private final int retryMax;
     private final Retry.Interval retryInterval;
@@ -10,19 +13,22 @@ class ApiInterceptorRetryHosts extends Api.Interceptor {
     private final int hostFreezeDuration;
     private final Retry.HostFreezeCondition hostFreezeCondition;
     private final HostProvider hostProvider;
+    private final Retry.RetryBudget retryBudget;
 
     private ApiInterceptorRetryHosts(int retryMax,
                                      Retry.Interval retryInterval,
                                      Retry.RetryCondition retryCondition,
                                      int hostFreezeDuration,
                                      Retry.HostFreezeCondition hostFreezeCondition,
-                                     HostProvider hostProvider) {
+                                     HostProvider hostProvider,
+                                     Retry.RetryBudget retryBudget) {
         this.retryMax = retryMax;
         this.retryInterval = retryInterval;
         this.retryCondition = retryCondition;
         this.hostFreezeDuration = hostFreezeDuration;
         this.hostFreezeCondition = hostFreezeCondition;
         this.hostProvider = hostProvider;
+        this.retryBudget = retryBudget;
     }
 
     @Override
@@ -32,34 +38,28 @@ class ApiInterceptorRetryHosts extends Api.Interceptor {
 
     @Override
     Api.Response intercept(Api.Request request, Api.Handler handler) throws QiniuException {
+        depositRetryBudget(request);
+
         if (request == null || hostProvider == null) {
             return handler.handle(request);
         }
 
-        String reqHost = request.getHost();
-        if (!hostProvider.isHostValid(reqHost)) {
-            // 支持不配置默认的 host，未配置则从 provider 中获取
-            String firstHost = hostProvider.provider();
-            if (!StringUtils.isNullOrEmpty(firstHost)) {
-                request.setHost(firstHost);
-            } else {
-                throw QiniuException.unrecoverable("no host provide");
-            }
-        }
+        setupFirstHost(request);
 
         if (retryMax == 0) {
-            return handler.handle(request);
+            return handle(request, handler);
         }
 
         QiniuException exception = null;
         Api.Response response = null;
+        int interval = 0;
         for (int i = 0; ; i++) {
             exception = null;
             response = null;
             String host = request.getHost();
             Api.Request cloneRequest = request.clone();
             try {
-                response = handler.handle(request);
+                response = handle(request, handler);
             } catch (QiniuException e) {
                 exception = e;
             }
@@ -79,6 +79,10 @@ class ApiInterceptorRetryHosts extends Api.Interceptor {
             if (cloneRequest == null) {
                 break;
             }
+
+            if (retryBudget != null && !retryBudget.tryWithdraw(host)) {
+                break;
+            }
             request = cloneRequest;
 
             String newHost = hostProvider.provider();
@@ -89,11 +93,11 @@ class ApiInterceptorRetryHosts extends Api.Interceptor {
                 request.setHost(newHost);
             }
 
+            interval = Retry.nextInterval(retryInterval, i, interval, response, exception);
             if (response != null && response.getResponse() != null) {
                 response.getResponse().close();
             }
 
-            int interval = retryInterval.interval();
             if (interval <= 0) {
                 continue;
             }
@@ -111,6 +115,175 @@ class ApiInterceptorRetryHosts extends Api.Interceptor {
         return response;
     }
 
+    @Override
+    CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler) throws QiniuException {
+        depositRetryBudget(request);
+
+        if (request == null || hostProvider == null) {
+            return handler.handle(request);
+        }
+
+        setupFirstHost(request);
+
+        CompletionFuture<Api.Response> future = new CompletionFuture<>();
+        retryAsync(request, handler, 0, 0, future);
+        return future;
+    }
+
+    private void retryAsync(final Api.Request request, final Api.AsyncHandler handler, final int index,
+                            final int previousInterval, final CompletionFuture<Api.Response> future) {
+        final String host;
+        try {
+            host = request.getHost();
+        } catch (QiniuException e) {
+            future.completeExceptionally(e);
+            return;
+        }
+
+        final Api.Request cloneRequest = request.clone();
+        final long startTime = System.currentTimeMillis();
+        final CompletionFuture<Api.Response> attempt;
+        try {
+            attempt = handler.handle(request);
+        } catch (RuntimeException e) {
+            hostProvider.releaseHost(host);
+            throw e;
+        }
+        future.setCancellation(new Runnable() {
+            @Override
+            public void run() {
+                attempt.cancel(true);
+            }
+        });
+        attempt.addListener(new CompletionFuture.Listener<Api.Response>() {
+            @Override
+            public void onComplete(Api.Response response, QiniuException exception) {
+                if (!future.isDone()) {
+                    reportResult(host, startTime, response, exception);
+                } else {
+                    // 请求被取消
+                    hostProvider.releaseHost(host);
+                }
+                if (future.isDone() || index >= retryMax
+                        || !retryCondition.shouldRetry(request, response, exception)) {
+                    future.complete(response, exception);
+                    return;
+                }
+
+                if (hostFreezeCondition.shouldFreezeHost(request, response, exception)) {
+                    hostProvider.freezeHost(host, hostFreezeDuration);
+                }
+
+                if (cloneRequest == null || (retryBudget != null && !retryBudget.tryWithdraw(host))) {
+                    future.complete(response, exception);
+                    return;
+                }
+
+                String newHost = hostProvider.provider();
+                if (StringUtils.isNullOrEmpty(newHost)) {
+                    future.complete(response, exception);
+                    return;
+                }
+                if (!newHost.equals(host)) {
+                    cloneRequest.setHost(newHost);
+                }
+
+                final int interval = Retry.nextInterval(retryInterval, index, previousInterval, response, exception);
+                if (response != null && response.getResponse() != null) {
+                    response.getResponse().close();
+                }
+
+                Api.schedule(interval, new Runnable() {
+                    @Override
+                    public void run() {
+                        retryAsync(cloneRequest, handler, index + 1, interval, future);
+                    }
+                });
+            }
+        });
+    }
+
+    private void depositRetryBudget(Api.Request request) {
+        if (retryBudget != null) {
+            retryBudget.deposit(request);
+        }
+    }
+
+    // 发起一次请求，无论请求以何种方式结束都将结果上报给 hostProvider，半开状态下域名的探测租约因此总会被释放
+    private Api.Response handle(Api.Request request, Api.Handler handler) throws QiniuException {
+        String host = request.getHost();
+        long startTime = System.currentTimeMillis();
+        Api.Response response = null;
+        QiniuException exception = null;
+        try {
+            response = handler.handle(request);
+            return response;
+        } catch (QiniuException e) {
+            exception = e;
+            throw e;
+        } finally {
+            reportResult(host, startTime, response, exception);
+        }
+    }
+
+    // 将请求结果上报给 hostProvider，用于选择域名
+    private void reportResult(String host, long startTime, Api.Response response, QiniuException exception) {
+        com.qiniu.http.Response httpResponse = response != null ? response.getResponse() : null;
+        if (httpResponse == null && exception != null) {
+            httpResponse = exception.response;
+        }
+
+        if ((response == null && exception == null) || (exception != null && exception.isUnrecoverable())) {
+            // 没有结果（如：运行时异常）或本地异常，和域名无关
+            hostProvider.releaseHost(host);
+            return;
+        }
+
+        // 对冲请求时，响应可能来自其他域名
+        String responseHost = responseHost(httpResponse);
+        if (responseHost != null) {
+            host = responseHost;
+        }
+
+        if (!Retry.requestShouldSwitchHost(httpResponse, exception)) {
+            long latency = -1;
+            if (httpResponse != null && httpResponse.getMetrics() != null) {
+                // 首字节耗时不受请求 body 大小影响
+                latency = httpResponse.getMetrics().getTimeToFirstByte();
+            }
+            if (latency < 0) {
+                latency = System.currentTimeMillis() - startTime;
+            }
+            hostProvider.reportSuccess(host, latency);
+        } else {
+            hostProvider.reportFailure(host);
+        }
+    }
+
+    private static String responseHost(com.qiniu.http.Response response) {
+        if (response == null) {
+            return null;
+        }
+        try {
+            return new URL(response.url()).getHost();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void setupFirstHost(Api.Request request) throws QiniuException {
+        String reqHost = request.getHost();
+        if (!hostProvider.isHostValid(reqHost)) {
+            // 支持不配置默认的 host，未配置则从 provider 中获取
+            String firstHost = hostProvider.provider();
+            if (!StringUtils.isNullOrEmpty(firstHost)) {
+                request.setHost(firstHost);
+            } else {
+                throw QiniuException.unrecoverable("no host provide");
+            }
+        }
+    }
+
     static final class Builder {
         private int retryMax;
         private Retry.Interval retryInterval;
@@ -118,6 +291,7 @@ class ApiInterceptorRetryHosts extends Api.Interceptor {
         private int hostFreezeDuration;
         private Retry.HostFreezeCondition hostFreezeCondition;
         private HostProvider hostProvider;
+        private Retry.RetryBudget retryBudget;
 
         Builder setRetryMax(int retryMax) {
             this.retryMax = retryMax;
@@ -149,6 +323,14 @@ class ApiInterceptorRetryHosts extends Api.Interceptor {
             return this;
         }
 
+        /**
+         * 设置重试预算，每个请求会存入令牌，重试时消耗令牌；为空则不限制
+         */
+        Builder setRetryBudget(Retry.RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
         /**
          * 构建拦截器
          * <p>
@@ -176,7 +358,7 @@ class ApiInterceptorRetryHosts extends Api.Interceptor {
             }
 
             return new ApiInterceptorRetryHosts(retryMax, retryInterval, retryCondition,
-                    hostFreezeDuration, hostFreezeCondition, hostProvider);
+                    hostFreezeDuration, hostFreezeCondition, hostProvider, retryBudget);
         }
     }
 }
@@ -1,17 +1,21 @@
 package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
+import com.qiniu.http.CompletionFuture;
 
 final class ApiInterceptorRetrySimple extends Api.Interceptor {
 
     private final int retryMax;
     private final Retry.Interval retryInterval;
     private final Retry.RetryCondition retryCondition;
+    private final Retry.RetryBudget retryBudget;
 
-    private ApiInterceptorRetrySimple(int retryMax, Retry.Interval retryInterval, Retry.RetryCondition retryCondition) {
+    private ApiInterceptorRetrySimple(int retryMax, Retry.Interval retryInterval, Retry.RetryCondition retryCondition,
+                                      Retry.RetryBudget retryBudget) {
         this.retryMax = retryMax;
         this.retryInterval = retryInterval;
         this.retryCondition = retryCondition;
+        this.retryBudget = retryBudget;
     }
 
     @Override
@@ -21,12 +25,15 @@ final class ApiInterceptorRetrySimple extends Api.Interceptor {
 
     @Override
     Api.Response intercept(Api.Request request, Api.Handler handler) throws QiniuException {
+        depositRetryBudget(request);
+
         if (request == null || retryMax == 0) {
             return handler.handle(request);
         }
 
         QiniuException exception = null;
         Api.Response response = null;
+        int interval = 0;
         for (int i = 0; ; i++) {
             exception = null;
             response = null;
@@ -45,16 +52,16 @@ final class ApiInterceptorRetrySimple extends Api.Interceptor {
                 break;
             }
 
-            if (cloneRequest == null) {
+            if (cloneRequest == null || !withdrawRetryBudget(request)) {
                 break;
             }
             request = cloneRequest;
 
+            interval = Retry.nextInterval(retryInterval, i, interval, response, exception);
             if (response != null && response.getResponse() != null) {
                 response.getResponse().close();
             }
 
-            int interval = retryInterval.interval();
             if (interval <= 0) {
                 continue;
             }
@@ -72,10 +79,77 @@ final class ApiInterceptorRetrySimple extends Api.Interceptor {
         return response;
     }
 
+    @Override
+    CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler) throws QiniuException {
+        depositRetryBudget(request);
+
+        if (request == null || retryMax == 0) {
+            return handler.handle(request);
+        }
+
+        CompletionFuture<Api.Response> future = new CompletionFuture<>();
+        retryAsync(request, handler, 0, 0, future);
+        return future;
+    }
+
+    private void retryAsync(final Api.Request request, final Api.AsyncHandler handler, final int index,
+                            final int previousInterval, final CompletionFuture<Api.Response> future) {
+        final Api.Request cloneRequest = request.clone();
+        final CompletionFuture<Api.Response> attempt = handler.handle(request);
+        future.setCancellation(new Runnable() {
+            @Override
+            public void run() {
+                attempt.cancel(true);
+            }
+        });
+        attempt.addListener(new CompletionFuture.Listener<Api.Response>() {
+            @Override
+            public void onComplete(Api.Response response, QiniuException exception) {
+                if (future.isDone() || index >= retryMax || cloneRequest == null
+                        || !retryCondition.shouldRetry(request, response, exception)
+                        || !withdrawRetryBudget(request)) {
+                    future.complete(response, exception);
+                    return;
+                }
+
+                final int interval = Retry.nextInterval(retryInterval, index, previousInterval, response, exception);
+                if (response != null && response.getResponse() != null) {
+                    response.getResponse().close();
+                }
+
+                Api.schedule(interval, new Runnable() {
+                    @Override
+                    public void run() {
+                        retryAsync(cloneRequest, handler, index + 1, interval, future);
+                    }
+                });
+            }
+        });
+    }
+
+    // 没有经过切换域名重试拦截器的请求在此存入令牌
+    private void depositRetryBudget(Api.Request request) {
+        if (retryBudget != null) {
+            retryBudget.deposit(request);
+        }
+    }
+
+    private boolean withdrawRetryBudget(Api.Request request) {
+        if (retryBudget == null) {
+            return true;
+        }
+        try {
+            return retryBudget.tryWithdraw(request.getHost());
+        } catch (QiniuException e) {
+            return true;
+        }
+    }
+
     static final class Builder {
         private int retryMax;
         private Retry.Interval retryInterval;
         private Retry.RetryCondition retryCondition;
+        private Retry.RetryBudget retryBudget;
 
         Builder setRetryMax(int retryMax) {
             this.retryMax = retryMax;
@@ -92,6 +166,14 @@ final class ApiInterceptorRetrySimple extends Api.Interceptor {
             return this;
         }
 
+        /**
+         * 设置重试预算，重试时消耗令牌；为空则不限制
+         */
+        Builder setRetryBudget(Retry.RetryBudget retryBudget) {
+            this.retryBudget = retryBudget;
+            return this;
+        }
+
         Api.Interceptor build() {
             if (retryMax < 0) {
                 retryMax = 0;
@@ -105,7 +187,7 @@ final class ApiInterceptorRetrySimple extends Api.Interceptor {
                 retryCondition = Retry.defaultCondition();
             }
 
-            return new ApiInterceptorRetrySimple(retryMax, retryInterval, retryCondition);
+            return new ApiInterceptorRetrySimple(retryMax, retryInterval, retryCondition, retryBudget);
         }
     }
 }
@@ -5,6 +5,7 @@ import com.qiniu.http.Client;
 import com.qiniu.http.MethodType;
 import com.qiniu.util.StringUtils;
 
+import java.io.File;
 import java.io.InputStream;
 
 /**
@@ -148,6 +149,21 @@ public class ApiUploadV2UploadPart extends ApiUpload {
             return this;
         }
 
+        /**
+         * 配置上传块数据
+         * 数据：文件 file 中，从 offset 开始的 size 大小的数据；发送时直接从文件写入，不会读入内存，支持重试
+         *
+         * @param file        块数据所在文件
+         * @param offset      块数据在文件中的偏移量
+         * @param size        块数据大小
+         * @param contentType 块数据类型
+         * @return Request
+         */
+        public Request setUploadData(File file, long offset, long size, String contentType) {
+            super.setBody(file, offset, size, contentType);
+            return this;
+        }
+
         @Override
         protected void buildPath() throws QiniuException {
             UploadToken token = getUploadToken();
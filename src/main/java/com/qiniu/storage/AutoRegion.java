@@ -2,8 +2,11 @@ package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
+import com.qiniu.http.CompletionFuture;
 import com.qiniu.http.Response;
 import com.qiniu.util.Cache;
+import com.qiniu.util.Json;
 import com.qiniu.util.StringUtils;
 import com.qiniu.util.UrlSafeBase64;
 import com.qiniu.util.UrlUtils;
@@ -22,6 +25,14 @@ class AutoRegion extends Region {
     private static final Cache<UCRet> globalRegionCache = new Cache.Builder<>(UCRet.class)
             .setVersion("v1")
             .builder();
+    /**
+     * 正在进行的空间信息查询，同一空间同时只有一个查询请求，其他调用者共享查询结果
+     */
+    private static final ConcurrentHashMap<String, CompletionFuture<UCRet>> inflightQueries = new ConcurrentHashMap<>();
+    /**
+     * 提前刷新失败后，再次尝试刷新的时间间隔，单位：秒
+     */
+    private static final long REFRESH_RETRY_INTERVAL = 60;
     /**
      * uc接口域名
      */
@@ -68,7 +79,7 @@ class AutoRegion extends Region {
         this.retryMax = retryMax;
         this.retryInterval = retryInterval;
         this.hostFreezeDuration = hostFreezeDuration;
-        this.client = new Client();
+        this.client = ClientRegistry.defaultClient();
         this.regions = new ConcurrentHashMap<>();
     }
 
@@ -88,30 +99,122 @@ class AutoRegion extends Region {
 
     /**
      * 通过 API 接口查询上传域名
+     * 缓存有效时直接使用缓存，缓存接近过期时在后台刷新，不阻塞调用者
      */
     private UCRet queryRegionInfoFromServerIfNeeded(RegionIndex index) throws QiniuException {
         String cacheKey = getCacheId(index);
         UCRet ret = globalRegionCache.cacheForKey(cacheKey);
         if (ret != null && ret.isValid()) {
+            refreshAheadIfNeeded(index, cacheKey, ret);
             return ret;
         }
 
-        String[] ucHosts = getUcHostArray();
-        String address = UrlUtils.setHostScheme(getUcServer(), true) + "/v3/query?ak=" + index.accessKey + "&bucket=" + index.bucket;
-        Api api = new Api(client, new Api.Config.Builder()
-                .setSingleHostRetryMax(retryMax)
-                .setRetryInterval(retryInterval)
-                .setHostFreezeDuration(hostFreezeDuration)
-                .setHostRetryMax(ucHosts.length)
-                .setHostProvider(HostProvider.arrayProvider(ucHosts))
-                .build());
-        Response r = api.requestWithInterceptor(new Api.Request(address));
-        ret = r.jsonToObject(UCRet.class);
-        if (ret != null) {
-            ret.setupDeadline();
-            globalRegionCache.cache(cacheKey, ret);
+        return queryRegionInfoFromServer(index, cacheKey).await();
+    }
+
+    private void refreshAheadIfNeeded(RegionIndex index, String cacheKey, final UCRet ret) {
+        if (ret == null || !ret.shouldRefresh()) {
+            return;
         }
-        return ret;
+
+        queryRegionInfoFromServer(index, cacheKey).addListener(new CompletionFuture.Listener<UCRet>() {
+            @Override
+            public void onComplete(UCRet value, QiniuException exception) {
+                if (value == null) {
+                    // 刷新失败继续使用旧的缓存，稍后再尝试刷新
+                    ret.delayRefresh(REFRESH_RETRY_INTERVAL);
+                }
+            }
+        });
+    }
+
+    /**
+     * 查询空间信息，同一空间同时只会有一个查询请求，查询成功后更新缓存
+     */
+    private CompletionFuture<UCRet> queryRegionInfoFromServer(RegionIndex index, final String cacheKey) {
+        final CompletionFuture<UCRet> future = new CompletionFuture<>();
+        CompletionFuture<UCRet> inflight = inflightQueries.putIfAbsent(cacheKey, future);
+        if (inflight != null) {
+            return inflight;
+        }
+        future.addListener(new CompletionFuture.Listener<UCRet>() {
+            @Override
+            public void onComplete(UCRet value, QiniuException exception) {
+                inflightQueries.remove(cacheKey, future);
+            }
+        });
+
+        CompletionFuture<String> responseFuture = requestRegionInfo(index.accessKey, index.bucket);
+        responseFuture.addListener(new CompletionFuture.Listener<String>() {
+            @Override
+            public void onComplete(String body, QiniuException exception) {
+                if (exception != null) {
+                    future.completeExceptionally(exception);
+                    return;
+                }
+
+                try {
+                    UCRet ret = body == null ? null : Json.decode(body, UCRet.class);
+                    if (ret != null) {
+                        ret.setupDeadline();
+                        globalRegionCache.cache(cacheKey, ret);
+                        Region region = AutoRegion.regionGroup(ret);
+                        if (region != null) {
+                            regions.put(cacheKey, region);
+                        }
+                    }
+                    future.complete(ret);
+                } catch (Exception e) {
+                    future.completeExceptionally(new QiniuException(e));
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 向 uc 发送空间信息查询请求
+     *
+     * @param accessKey 账号 accessKey
+     * @param bucket    空间名
+     * @return 响应的 json 数据，响应不是 json 时为 null
+     */
+    CompletionFuture<String> requestRegionInfo(String accessKey, String bucket) {
+        CompletionFuture<Api.Response> responseFuture;
+        try {
+            String[] ucHosts = getUcHostArray();
+            String address = UrlUtils.setHostScheme(getUcServer(), true) + "/v3/query?ak=" + accessKey + "&bucket=" + bucket;
+            Api api = new Api(client, new Api.Config.Builder()
+                    .setSingleHostRetryMax(retryMax)
+                    .setRetryInterval(retryInterval)
+                    .setHostFreezeDuration(hostFreezeDuration)
+                    .setHostRetryMax(ucHosts.length)
+                    .setHostProvider(HostProvider.arrayProvider(ucHosts))
+                    .setHedgePercentile(95)
+                    .build());
+            responseFuture = api.requestAsync(new Api.Request(address));
+        } catch (QiniuException e) {
+            return CompletionFuture.failed(e);
+        }
+
+        final CompletionFuture<String> future = new CompletionFuture<>();
+        responseFuture.addListener(new CompletionFuture.Listener<Api.Response>() {
+            @Override
+            public void onComplete(Api.Response response, QiniuException exception) {
+                if (exception != null) {
+                    future.completeExceptionally(exception);
+                    return;
+                }
+
+                Response r = response.getResponse();
+                try {
+                    future.complete(r.isJson() ? r.bodyString() : null);
+                } catch (QiniuException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
     }
 
     /**
@@ -127,7 +230,9 @@ class AutoRegion extends Region {
         Region region = regions.get(cacheKey);
 
         Exception ex = null;
-        if (region == null || !region.isValid()) {
+        if (region != null && region.isValid()) {
+            refreshAheadIfNeeded(index, cacheKey, globalRegionCache.cacheForKey(cacheKey));
+        } else {
             for (int i = 0; i < 2; i++) {
                 try {
                     UCRet ret = queryRegionInfoFromServerIfNeeded(index);
@@ -360,12 +465,23 @@ class AutoRegion extends Region {
         // 有效期, 单位秒
         long deadline;
 
+        // 提前刷新时间，超过此时间后在后台刷新, 单位秒
+        long refreshTime;
+
         ServerRets[] hosts;
 
         private boolean isValid() {
             return System.currentTimeMillis() < deadline * 1000;
         }
 
+        private boolean shouldRefresh() {
+            return System.currentTimeMillis() >= refreshTime * 1000;
+        }
+
+        private void delayRefresh(long seconds) {
+            refreshTime = System.currentTimeMillis() / 1000 + seconds;
+        }
+
         private void setupDeadline() {
             long ttl = (1L << 31) - 1;
             if (hosts != null && hosts.length > 0) {
@@ -375,7 +491,10 @@ class AutoRegion extends Region {
                     }
                 }
             }
-            deadline = System.currentTimeMillis() / 1000 + ttl;
+            long now = System.currentTimeMillis() / 1000;
+            deadline = now + ttl;
+            // 有效期过去 80% 后开始提前刷新
+            refreshTime = now + ttl * 4 / 5;
         }
     }
 
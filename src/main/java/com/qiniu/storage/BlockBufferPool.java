@@ -0,0 +1,212 @@
+package com.qiniu.storage;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程级共享的块数据缓冲池
+ * <p>
+ * 分片上传读取块数据前从池中获取缓冲，块上传完成后归还，缓冲被复用，避免每个块都分配一个大数组。
+ * 池中所有缓冲（使用中及空闲）的总大小不超过 {@link Configuration#uploadBufferBudget}，
+ * 超出时获取缓冲的线程等待其他块上传完成归还缓冲，因此无论同时进行多少上传，块数据占用的内存都是有上限的。
+ * <p>
+ * 缓冲大小与请求大小完全一致；只有大小为块大小单位（1MB）整数倍的缓冲归还后会留在池中复用，其他大小的缓冲直接丢弃。
+ * 空闲缓冲超过空闲时间后被释放，上传结束后池占用的内存会回落；需要其他大小的缓冲而预算不足时，先释放最早归还的空闲缓冲。
+ */
+final class BlockBufferPool {
+
+    // 块大小单位，分片上传的块大小均为 1MB 的整数倍
+    private static final int BLOCK_SIZE_UNIT = 1024 * 1024;
+    // 空闲缓冲保留时间，单位：毫秒
+    private static final long IDLE_TIMEOUT = 30 * 1000;
+
+    private static final BlockBufferPool GLOBAL = new BlockBufferPool(-1, BLOCK_SIZE_UNIT, IDLE_TIMEOUT);
+
+    // 预算，小于等于 0 时使用 Configuration.uploadBufferBudget
+    private final long budget;
+    private final int blockSizeUnit;
+    private final long idleTimeoutNanos;
+    // 空闲缓冲，按归还时间从早到晚排列
+    private final ArrayDeque<IdleBuffer> idleBuffers = new ArrayDeque<>();
+    // 池中所有缓冲的总大小，包括使用中及空闲的缓冲
+    private long allocatedBytes = 0;
+    private long idleBytes = 0;
+    private boolean trimScheduled = false;
+
+    BlockBufferPool(long budget) {
+        this(budget, BLOCK_SIZE_UNIT, IDLE_TIMEOUT);
+    }
+
+    /**
+     * @param budget        预算，小于等于 0 时使用 Configuration.uploadBufferBudget
+     * @param blockSizeUnit 可复用缓冲的大小单位，大小为其整数倍的缓冲归还后保留在池中
+     * @param idleTimeout   空闲缓冲保留时间，单位：毫秒
+     */
+    BlockBufferPool(long budget, int blockSizeUnit, long idleTimeout) {
+        this.budget = budget;
+        this.blockSizeUnit = Math.max(1, blockSizeUnit);
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, idleTimeout));
+    }
+
+    static BlockBufferPool global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 获取一个大小为 size 的缓冲，预算不足时等待
+     * 单个缓冲超过预算时，只有在池中没有其他缓冲时才会分配，避免永远等待
+     *
+     * @param size 缓冲大小
+     * @return 缓冲
+     * @throws InterruptedIOException 等待时被中断
+     */
+    synchronized byte[] acquire(int size) throws InterruptedIOException {
+        if (size <= 0) {
+            return new byte[0];
+        }
+
+        for (; ; ) {
+            releaseExpired(System.nanoTime());
+
+            byte[] idle = pollIdle(size);
+            if (idle != null) {
+                return idle;
+            }
+
+            long limit = getBudget();
+            if (allocatedBytes + size > limit) {
+                releaseIdle(allocatedBytes + size - limit);
+            }
+            if (allocatedBytes + size <= limit || allocatedBytes == 0) {
+                allocatedBytes += size;
+                return new byte[size];
+            }
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("wait for block buffer interrupted");
+            }
+        }
+    }
+
+    /**
+     * 归还缓冲，归还后调用方不可再使用此缓冲
+     *
+     * @param buffer 缓冲，为空时忽略
+     */
+    synchronized void release(byte[] buffer) {
+        if (buffer == null || buffer.length == 0) {
+            return;
+        }
+
+        if (allocatedBytes > getBudget() || buffer.length % blockSizeUnit != 0) {
+            // 预算被调小或不是块大小的缓冲，直接丢弃
+            allocatedBytes -= buffer.length;
+        } else {
+            idleBuffers.addLast(new IdleBuffer(buffer, System.nanoTime()));
+            idleBytes += buffer.length;
+            scheduleTrim(idleTimeoutNanos);
+        }
+        notifyAll();
+    }
+
+    synchronized long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    synchronized long idleBytes() {
+        return idleBytes;
+    }
+
+    // 优先复用最近归还的缓冲
+    private byte[] pollIdle(int size) {
+        Iterator<IdleBuffer> iterator = idleBuffers.descendingIterator();
+        while (iterator.hasNext()) {
+            IdleBuffer idle = iterator.next();
+            if (idle.buffer.length == size) {
+                iterator.remove();
+                idleBytes -= size;
+                return idle.buffer;
+            }
+        }
+        return null;
+    }
+
+    // 从最早归还的空闲缓冲开始释放
+    private void releaseIdle(long bytes) {
+        while (bytes > 0 && !idleBuffers.isEmpty()) {
+            int length = idleBuffers.pollFirst().buffer.length;
+            allocatedBytes -= length;
+            idleBytes -= length;
+            bytes -= length;
+        }
+    }
+
+    private void releaseExpired(long now) {
+        IdleBuffer idle;
+        while ((idle = idleBuffers.peekFirst()) != null && now - idle.releaseTime >= idleTimeoutNanos) {
+            idleBuffers.pollFirst();
+            allocatedBytes -= idle.buffer.length;
+            idleBytes -= idle.buffer.length;
+        }
+    }
+
+    private void scheduleTrim(long delayNanos) {
+        if (trimScheduled) {
+            return;
+        }
+        trimScheduled = true;
+        TrimSchedulerHolder.SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                trim();
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // 后台释放过期的空闲缓冲，还有空闲缓冲时在最早的缓冲过期时再次执行
+    private synchronized void trim() {
+        trimScheduled = false;
+        long now = System.nanoTime();
+        releaseExpired(now);
+        IdleBuffer oldest = idleBuffers.peekFirst();
+        if (oldest != null) {
+            scheduleTrim(Math.max(0, oldest.releaseTime + idleTimeoutNanos - now));
+        }
+        notifyAll();
+    }
+
+    private long getBudget() {
+        return budget > 0 ? budget : Configuration.uploadBufferBudget;
+    }
+
+    private static final class IdleBuffer {
+        private final byte[] buffer;
+        private final long releaseTime;
+
+        private IdleBuffer(byte[] buffer, long releaseTime) {
+            this.buffer = buffer;
+            this.releaseTime = releaseTime;
+        }
+    }
+
+    // 释放空闲缓冲的后台任务，所有缓冲池共享
+    private static final class TrimSchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "qiniu-buffer-trim");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -7,6 +7,7 @@ import com.google.gson.JsonObject;
 import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.MethodType;
 import com.qiniu.http.Response;
 import com.qiniu.storage.model.*;
@@ -50,7 +51,7 @@ public final class BucketManager {
         Configuration c2 = cfg == null ? new Configuration() : cfg.clone();
         this.config = c2;
         this.configHelper = new ConfigHelper(c2);
-        client = new Client(c2);
+        client = ClientRegistry.get(c2);
     }
 
     public BucketManager(Auth auth, Client client) {
@@ -1207,9 +1208,10 @@ public final class BucketManager {
                 .build();
         Api.Interceptor hostRetryInterceptor = new ApiInterceptorRetryHosts.Builder()
                 .setRetryMax(config.retryMax)
-                .setRetryInterval(Retry.staticInterval(config.retryInterval))
-                .setHostProvider(HostProvider.arrayProvider(ucHosts))
+                .setRetryInterval(Retry.decorrelatedJitterInterval(config.retryInterval, config.retryInterval * 10))
+                .setHostProvider(HostProvider.latencyAwareProvider(ucHosts))
                 .setHostFreezeDuration(config.hostFreezeDuration)
+                .setRetryBudget(config.retryBudget)
                 .build();
         return new Api.Interceptor[]{authInterceptor, hostRetryInterceptor};
     }
@@ -0,0 +1,24 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Response;
+
+import java.io.File;
+
+/**
+ * 批量上传中每个文件上传结束的回调
+ * 回调在上传线程中执行，多个文件的回调可能同时执行，回调中不要做耗时操作
+ */
+public interface BulkUploadListener {
+
+    /**
+     * 文件上传结束，因断点记录被跳过的文件不回调
+     *
+     * @param key      文件保存的文件名
+     * @param file     文件
+     * @param response 上传结果，上传出现异常时为空
+     * @param error    上传异常，上传成功时为空
+     * @param progress 批量上传当前的整体进度，包括成功、失败的文件数量及整体吞吐
+     */
+    void complete(String key, File file, Response response, QiniuException error, BulkUploadResult progress);
+}
@@ -0,0 +1,170 @@
+package com.qiniu.storage;
+
+import com.qiniu.util.StringMap;
+
+import java.io.File;
+import java.io.FileFilter;
+
+/**
+ * 批量上传参数，参考：{@link UploadManager#putDirectory(File, String, String, BulkUploadOptions, BulkUploadListener)}
+ */
+public final class BulkUploadOptions {
+
+    /**
+     * 同时上传的文件数量
+     */
+    public final int concurrency;
+
+    /**
+     * 每个文件的自定义参数
+     * 自定义文件 metadata 信息，key 需要增加前缀 x-qn-meta- ；用户自定义变量，key 需要增加前缀 x:
+     */
+    public final StringMap params;
+
+    /**
+     * 每个文件的 mime type，为空时由服务端检测
+     */
+    public final String mimeType;
+
+    /**
+     * 是否校验上传内容的 crc32
+     */
+    public final boolean checkCrc;
+
+    /**
+     * 断点记录文件，每个文件上传成功后记录到此文件中；重新执行批量上传时，记录中大小及修改时间没有变化的文件会被跳过。
+     * 为空时不记录
+     */
+    public final File checkpointFile;
+
+    /**
+     * 上传目录时的文件过滤器，目录及文件都会经过过滤，为空时上传所有文件
+     */
+    public final FileFilter fileFilter;
+
+    /**
+     * 去重使用的 BucketManager，不为空时上传前批量查询文件在存储空间中的 hash，与本地文件 etag 相同的文件会被跳过。
+     * 为空时不去重
+     */
+    public final BucketManager dedupBucketManager;
+
+    /**
+     * 去重时本地文件 etag 的索引文件，记录文件路径、大小、修改时间对应的 etag，文件没有变化时不再重新计算 etag。
+     * 为空时不记录
+     */
+    public final File dedupIndexFile;
+
+    private BulkUploadOptions(Builder builder) {
+        this.concurrency = builder.concurrency;
+        this.params = builder.params;
+        this.mimeType = builder.mimeType;
+        this.checkCrc = builder.checkCrc;
+        this.checkpointFile = builder.checkpointFile;
+        this.fileFilter = builder.fileFilter;
+        this.dedupBucketManager = builder.dedupBucketManager;
+        this.dedupIndexFile = builder.dedupIndexFile;
+    }
+
+    public static BulkUploadOptions defaultOptions() {
+        return new BulkUploadOptions.Builder().build();
+    }
+
+    public static class Builder {
+
+        private int concurrency = 8;
+        private StringMap params;
+        private String mimeType;
+        private boolean checkCrc;
+        private File checkpointFile;
+        private FileFilter fileFilter;
+        private BucketManager dedupBucketManager;
+        private File dedupIndexFile;
+
+        /**
+         * 同时上传的文件数量，默认：8
+         * 超过 putThreshold 的文件使用分片上传，其块并发还受 Configuration.resumableUploadMaxConcurrentTaskCount 等配置限制
+         *
+         * @param concurrency 同时上传的文件数量
+         * @return 构造器
+         */
+        public Builder concurrency(int concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        /**
+         * 每个文件的自定义参数
+         *
+         * @param params 自定义参数
+         * @return 构造器
+         */
+        public Builder params(StringMap params) {
+            this.params = params;
+            return this;
+        }
+
+        /**
+         * 每个文件的 mime type
+         *
+         * @param mimeType mime type
+         * @return 构造器
+         */
+        public Builder mimeType(String mimeType) {
+            this.mimeType = mimeType;
+            return this;
+        }
+
+        /**
+         * 启用上传内容 crc32 校验
+         *
+         * @param checkCrc 是否启用 crc32 校验
+         * @return 构造器
+         */
+        public Builder checkCrc(boolean checkCrc) {
+            this.checkCrc = checkCrc;
+            return this;
+        }
+
+        /**
+         * 断点记录文件
+         *
+         * @param checkpointFile 断点记录文件
+         * @return 构造器
+         */
+        public Builder checkpointFile(File checkpointFile) {
+            this.checkpointFile = checkpointFile;
+            return this;
+        }
+
+        /**
+         * 上传目录时的文件过滤器
+         *
+         * @param fileFilter 文件过滤器
+         * @return 构造器
+         */
+        public Builder fileFilter(FileFilter fileFilter) {
+            this.fileFilter = fileFilter;
+            return this;
+        }
+
+        /**
+         * 开启去重：上传前每 1000 个文件批量 stat 一次，存储空间中已有相同 key 且 hash 与本地文件 etag 相同的文件不再上传
+         *
+         * @param bucketManager 用于批量 stat 的 BucketManager，需对上传凭证中的存储空间有读权限
+         * @param indexFile     本地文件 etag 的索引文件【可选】
+         * @return 构造器
+         */
+        public Builder dedup(BucketManager bucketManager, File indexFile) {
+            this.dedupBucketManager = bucketManager;
+            this.dedupIndexFile = indexFile;
+            return this;
+        }
+
+        public BulkUploadOptions build() {
+            if (concurrency < 1) {
+                concurrency = 1;
+            }
+            return new BulkUploadOptions(this);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.qiniu.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量上传的结果，上传过程中为当前进度
+ */
+public final class BulkUploadResult {
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicInteger successCount = new AtomicInteger(0);
+    private final AtomicInteger failedCount = new AtomicInteger(0);
+    private final AtomicInteger skippedCount = new AtomicInteger(0);
+    private final AtomicLong uploadedBytes = new AtomicLong(0);
+    private final List<String> failedKeys = new ArrayList<>();
+    private volatile long endNanos = 0;
+
+    BulkUploadResult() {
+    }
+
+    /**
+     * 上传成功的文件数量
+     *
+     * @return 文件数量
+     */
+    public int getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * 上传失败的文件数量
+     *
+     * @return 文件数量
+     */
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * 断点记录中已上传或存储空间中已有相同内容而被跳过的文件数量
+     *
+     * @return 文件数量
+     */
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * 上传成功的文件总大小，单位：字节
+     *
+     * @return 文件总大小
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    /**
+     * 上传失败的文件名
+     *
+     * @return 文件名列表
+     */
+    public synchronized List<String> getFailedKeys() {
+        return new ArrayList<>(failedKeys);
+    }
+
+    /**
+     * 批量上传已执行的时间，上传结束后为总耗时，单位：毫秒
+     *
+     * @return 耗时
+     */
+    public long getDuration() {
+        long end = endNanos > 0 ? endNanos : System.nanoTime();
+        return (end - startNanos) / 1000000;
+    }
+
+    /**
+     * 整体吞吐，单位：字节/秒
+     *
+     * @return 吞吐
+     */
+    public long getBytesPerSecond() {
+        long duration = getDuration();
+        if (duration <= 0) {
+            return 0;
+        }
+        return uploadedBytes.get() * 1000 / duration;
+    }
+
+    /**
+     * 是否所有文件都上传成功
+     *
+     * @return 是否所有文件都上传成功
+     */
+    public boolean isAllSuccess() {
+        return failedCount.get() == 0;
+    }
+
+    void addSuccess(long bytes) {
+        uploadedBytes.addAndGet(bytes);
+        successCount.incrementAndGet();
+    }
+
+    synchronized void addFailed(String key) {
+        failedKeys.add(key);
+        failedCount.incrementAndGet();
+    }
+
+    void addSkipped() {
+        skippedCount.incrementAndGet();
+    }
+
+    void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    @Override
+    public String toString() {
+        return "BulkUploadResult{success:" + getSuccessCount() + ", failed:" + getFailedCount()
+                + ", skipped:" + getSkippedCount() + ", bytes:" + getUploadedBytes()
+                + ", duration:" + getDuration() + "ms, bytesPerSecond:" + getBytesPerSecond() + "}";
+    }
+}
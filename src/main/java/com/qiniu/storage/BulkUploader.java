@@ -0,0 +1,523 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.Constants;
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Response;
+import com.qiniu.storage.model.BatchStatus;
+import com.qiniu.util.Etag;
+import com.qiniu.util.EtagV2;
+import com.qiniu.util.UrlSafeBase64;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 批量上传
+ * 文件由调用线程依次提交给固定数量的上传线程，待上传的文件数量有上限，遍历目录与上传同时进行且不会一次载入所有文件；
+ * 每个文件通过 {@link UploadManager} 上传，小文件表单上传，大文件分片上传，共用 UploadManager 的 Client 及连接池。
+ * 开启去重时，文件每 {@link BulkUploader#DEDUP_BATCH_SIZE} 个一批，先批量查询存储空间中的 hash，只为已存在的文件并行计算 etag，
+ * 相同的文件不再上传；存储空间中的 hash 为分片上传 v2 的 etag 时，按分片 v2 的块大小计算本地文件的 etag。
+ */
+final class BulkUploader {
+
+    // 去重时每批文件数量，同 batch 接口单次操作数量上限
+    static final int DEDUP_BATCH_SIZE = 1000;
+
+    interface FileUploader {
+        Response upload(String key, File file) throws QiniuException;
+    }
+
+    // 批量查询文件在存储空间中的 hash，文件不存在时对应位置为空
+    interface HashLookup {
+        String[] hashes(String[] keys) throws QiniuException;
+    }
+
+    private final FileUploader uploader;
+    private final BulkUploadOptions options;
+    private final BulkUploadListener listener;
+    private final HashLookup hashLookup;
+    // 分片上传 v2 的块大小，用于计算 v2 形式的 etag
+    private final long etagV2BlockSize;
+
+    BulkUploader(FileUploader uploader, BulkUploadOptions options, BulkUploadListener listener) {
+        this(uploader, options, listener, null);
+    }
+
+    BulkUploader(FileUploader uploader, BulkUploadOptions options, BulkUploadListener listener,
+                 HashLookup hashLookup) {
+        this(uploader, options, listener, hashLookup, new Configuration().resumableUploadAPIV2BlockSize);
+    }
+
+    BulkUploader(FileUploader uploader, BulkUploadOptions options, BulkUploadListener listener,
+                 HashLookup hashLookup, long etagV2BlockSize) {
+        this.uploader = uploader;
+        this.options = options == null ? BulkUploadOptions.defaultOptions() : options;
+        this.listener = listener;
+        this.hashLookup = hashLookup;
+        this.etagV2BlockSize = etagV2BlockSize;
+    }
+
+    // 通过 batch stat 查询文件 hash
+    static HashLookup statLookup(final BucketManager bucketManager, final String bucket) {
+        return new HashLookup() {
+            @Override
+            public String[] hashes(String[] keys) throws QiniuException {
+                Response response = bucketManager.batch(new BucketManager.BatchOperations().addStatOps(bucket, keys));
+                BatchStatus[] statuses = response.jsonToObject(BatchStatus[].class);
+                String[] hashes = new String[keys.length];
+                for (int i = 0; statuses != null && i < statuses.length && i < keys.length; i++) {
+                    BatchStatus status = statuses[i];
+                    if (status != null && status.code == 200 && status.data != null) {
+                        hashes[i] = status.data.hash;
+                    }
+                }
+                return hashes;
+            }
+        };
+    }
+
+    BulkUploadResult upload(Iterator<Map.Entry<String, File>> files) throws QiniuException {
+        final BulkUploadResult result = new BulkUploadResult();
+        final Checkpoint checkpoint = Checkpoint.open(options.checkpointFile);
+        final Dedup dedup = hashLookup == null ? null
+                : new Dedup(hashLookup, EtagIndex.open(options.dedupIndexFile), options.concurrency, etagV2BlockSize);
+        int concurrency = options.concurrency;
+        // 已提交未完成的文件数量上限，避免遍历远快于上传时积压大量任务
+        final int maxPending = concurrency * 2;
+        final Semaphore pending = new Semaphore(maxPending);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "qiniu-bulk-upload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        try {
+            int batchSize = dedup == null ? 1 : DEDUP_BATCH_SIZE;
+            while (files.hasNext()) {
+                List<Map.Entry<String, File>> batch = new ArrayList<>();
+                while (files.hasNext() && batch.size() < batchSize) {
+                    Map.Entry<String, File> entry = files.next();
+                    if (checkpoint != null && checkpoint.isUploaded(entry.getKey(), entry.getValue())) {
+                        result.addSkipped();
+                        continue;
+                    }
+                    batch.add(entry);
+                }
+                if (dedup != null) {
+                    batch = dedup.filter(batch, checkpoint, result);
+                }
+
+                for (Map.Entry<String, File> entry : batch) {
+                    final String key = entry.getKey();
+                    final File file = entry.getValue();
+                    pending.acquire();
+                    pool.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                uploadFile(key, file, checkpoint, result);
+                            } finally {
+                                pending.release();
+                            }
+                        }
+                    });
+                }
+            }
+
+            // 等待所有文件上传结束
+            pending.acquire(maxPending);
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new QiniuException(new InterruptedIOException("bulk upload interrupted"));
+        } finally {
+            pool.shutdown();
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+            if (dedup != null) {
+                dedup.close();
+            }
+            result.finish();
+        }
+        return result;
+    }
+
+    private void uploadFile(String key, File file, Checkpoint checkpoint, BulkUploadResult result) {
+        // 上传前获取文件信息，上传过程中文件被修改时下次不会被跳过
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        Response response = null;
+        QiniuException error = null;
+        try {
+            response = uploader.upload(key, file);
+        } catch (QiniuException e) {
+            error = e;
+        } catch (Exception e) {
+            error = new QiniuException(e);
+        }
+
+        if (error == null && response != null && response.isOK()) {
+            result.addSuccess(size);
+            if (checkpoint != null) {
+                checkpoint.add(key, size, lastModified);
+            }
+        } else {
+            result.addFailed(key);
+        }
+
+        if (listener != null) {
+            try {
+                listener.complete(key, file, response, error, result);
+            } catch (Exception ignored) {
+                // 回调异常不影响其他文件上传
+            }
+        }
+    }
+
+    /**
+     * 遍历目录下所有文件，文件名为 keyPrefix + 相对目录的路径，路径分隔符为 /
+     * 每次只列出一个目录，不会一次载入所有文件；不进入符号链接的目录，避免循环
+     */
+    static final class DirectoryIterator implements Iterator<Map.Entry<String, File>> {
+        private final FileFilter filter;
+        // 待遍历的目录及其对应的文件名前缀
+        private final Deque<Map.Entry<String, File>> directories = new ArrayDeque<>();
+        private final Deque<Map.Entry<String, File>> files = new ArrayDeque<>();
+
+        DirectoryIterator(File directory, String keyPrefix, FileFilter filter) {
+            this.filter = filter;
+            directories.add(new AbstractMap.SimpleImmutableEntry<>(keyPrefix == null ? "" : keyPrefix, directory));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (files.isEmpty() && !directories.isEmpty()) {
+                listDirectory(directories.poll());
+            }
+            return !files.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, File> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return files.poll();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void listDirectory(Map.Entry<String, File> directory) {
+            File[] children = filter == null ? directory.getValue().listFiles() : directory.getValue().listFiles(filter);
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children);
+
+            // 子目录按顺序放在待遍历目录的最前面，深度优先
+            Deque<Map.Entry<String, File>> subDirectories = new ArrayDeque<>();
+            for (File child : children) {
+                String key = directory.getKey() + child.getName();
+                if (child.isDirectory()) {
+                    if (!Files.isSymbolicLink(child.toPath())) {
+                        subDirectories.add(new AbstractMap.SimpleImmutableEntry<>(key + "/", child));
+                    }
+                } else if (child.isFile()) {
+                    files.add(new AbstractMap.SimpleImmutableEntry<>(key, child));
+                }
+            }
+            while (!subDirectories.isEmpty()) {
+                directories.addFirst(subDirectories.pollLast());
+            }
+        }
+    }
+
+    /**
+     * 去重：批量查询存储空间中同名文件的 hash，并行计算已存在的文件的 etag，相同的文件计入跳过且记录到断点记录中
+     */
+    private static final class Dedup {
+        private final HashLookup lookup;
+        private final EtagIndex index;
+        private final ExecutorService hashPool;
+        private final long etagV2BlockSize;
+
+        private Dedup(HashLookup lookup, EtagIndex index, int concurrency, long etagV2BlockSize) {
+            this.lookup = lookup;
+            this.index = index;
+            this.etagV2BlockSize = etagV2BlockSize;
+            this.hashPool = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "qiniu-bulk-etag");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        private List<Map.Entry<String, File>> filter(List<Map.Entry<String, File>> batch, Checkpoint checkpoint,
+                                                     BulkUploadResult result) throws InterruptedException {
+            if (batch.isEmpty()) {
+                return batch;
+            }
+
+            int count = batch.size();
+            final String[] keys = new String[count];
+            final long[] sizes = new long[count];
+            final long[] lastModifieds = new long[count];
+            for (int i = 0; i < count; i++) {
+                File file = batch.get(i).getValue();
+                keys[i] = batch.get(i).getKey();
+                sizes[i] = file.length();
+                lastModifieds[i] = file.lastModified();
+            }
+
+            final String[] hashes;
+            try {
+                hashes = lookup.hashes(keys);
+            } catch (QiniuException e) {
+                // 查询失败时全部上传
+                return batch;
+            }
+            if (hashes == null) {
+                return batch;
+            }
+
+            // 只计算存储空间中已存在的文件的 etag，按存储空间中 hash 的形式计算
+            final String[] etags = new String[count];
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int i = 0; i < count && i < hashes.length; i++) {
+                if (hashes[i] == null) {
+                    continue;
+                }
+                final int idx = i;
+                final File file = batch.get(i).getValue();
+                final long blockSize = isEtagV2(hashes[i]) ? etagV2BlockSize : 0;
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        etags[idx] = index.etag(file, sizes[idx], lastModifieds[idx], blockSize);
+                        return null;
+                    }
+                });
+            }
+            hashPool.invokeAll(tasks);
+
+            List<Map.Entry<String, File>> toUpload = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                String hash = i < hashes.length ? hashes[i] : null;
+                if (etags[i] != null && etags[i].equals(hash)) {
+                    result.addSkipped();
+                    if (checkpoint != null) {
+                        checkpoint.add(keys[i], sizes[i], lastModifieds[i]);
+                    }
+                } else {
+                    toUpload.add(batch.get(i));
+                }
+            }
+            return toUpload;
+        }
+
+        // 分片上传 v2 的 etag 第一个字节为 0x9e
+        private static boolean isEtagV2(String hash) {
+            try {
+                byte[] data = UrlSafeBase64.decode(hash);
+                return data.length > 0 && data[0] == (byte) 0x9e;
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        private void close() {
+            hashPool.shutdownNow();
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * 本地文件 etag 索引，每行为一个文件：base64(文件绝对路径) 文件大小 修改时间 etag，同一文件以最后一行为准；
+     * 分片 v2 形式的 etag 记录为：base64(文件绝对路径).块大小 文件大小 修改时间 etag
+     */
+    private static final class EtagIndex {
+        private final Map<String, String> etags;
+        private final Writer writer;
+
+        private EtagIndex(Map<String, String> etags, Writer writer) {
+            this.etags = etags;
+            this.writer = writer;
+        }
+
+        private static EtagIndex open(File file) throws QiniuException {
+            Map<String, String> etags = new ConcurrentHashMap<>();
+            if (file == null) {
+                return new EtagIndex(etags, null);
+            }
+
+            if (file.exists()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] items = line.split(" ");
+                        // 最后一行可能因进程退出而不完整
+                        if (items.length != 4) {
+                            continue;
+                        }
+                        etags.put(items[0], items[1] + " " + items[2] + " " + items[3]);
+                    }
+                } catch (IOException e) {
+                    throw new QiniuException(e);
+                }
+            }
+
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Constants.UTF_8));
+                return new EtagIndex(etags, writer);
+            } catch (IOException e) {
+                throw new QiniuException(e);
+            }
+        }
+
+        // 文件大小及修改时间没有变化时使用索引中的 etag，否则重新计算；计算失败时为空
+        // blockSize 大于 0 时计算分片 v2 形式的 etag
+        private String etag(File file, long size, long lastModified, long blockSize) {
+            String path = UrlSafeBase64.encodeToString(file.getAbsolutePath());
+            if (blockSize > 0) {
+                path += "." + blockSize;
+            }
+            String prefix = size + " " + lastModified + " ";
+            String info = etags.get(path);
+            if (info != null && info.startsWith(prefix)) {
+                return info.substring(prefix.length());
+            }
+
+            String etag;
+            try {
+                etag = blockSize > 0 ? EtagV2.file(file, blockSize) : Etag.file(file);
+            } catch (IOException e) {
+                return null;
+            }
+            // 计算过程中文件被修改时不记录
+            if (file.length() != size || file.lastModified() != lastModified) {
+                return null;
+            }
+            etags.put(path, prefix + etag);
+            add(path + " " + prefix + etag);
+            return etag;
+        }
+
+        private synchronized void add(String line) {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.write(line + "\n");
+            } catch (IOException ignored) {
+                // 记录失败只影响下次是否重新计算 etag
+            }
+        }
+
+        private synchronized void close() {
+            if (writer == null) {
+                return;
+            }
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 断点记录，每行为一个上传成功的文件：base64(key) 文件大小 修改时间
+     */
+    private static final class Checkpoint {
+        private final Map<String, String> uploaded;
+        private final Writer writer;
+
+        private Checkpoint(Map<String, String> uploaded, Writer writer) {
+            this.uploaded = uploaded;
+            this.writer = writer;
+        }
+
+        private static Checkpoint open(File file) throws QiniuException {
+            if (file == null) {
+                return null;
+            }
+
+            Map<String, String> uploaded = new HashMap<>();
+            if (file.exists()) {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Constants.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] items = line.split(" ");
+                        // 最后一行可能因进程退出而不完整
+                        if (items.length != 3) {
+                            continue;
+                        }
+                        uploaded.put(items[0], items[1] + " " + items[2]);
+                    }
+                } catch (IOException e) {
+                    throw new QiniuException(e);
+                }
+            }
+
+            try {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Constants.UTF_8));
+                return new Checkpoint(uploaded, writer);
+            } catch (IOException e) {
+                throw new QiniuException(e);
+            }
+        }
+
+        private boolean isUploaded(String key, File file) {
+            String info = uploaded.get(encodeKey(key));
+            return info != null && info.equals(file.length() + " " + file.lastModified());
+        }
+
+        private synchronized void add(String key, long size, long lastModified) {
+            try {
+                writer.write(encodeKey(key) + " " + size + " " + lastModified + "\n");
+                writer.flush();
+            } catch (IOException ignored) {
+                // 记录失败只影响下次是否跳过
+            }
+        }
+
+        private synchronized void close() {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static String encodeKey(String key) {
+            return UrlSafeBase64.encodeToString(key == null ? "" : key);
+        }
+    }
+}
@@ -11,7 +11,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 /**
@@ -126,19 +125,44 @@ public class ConcurrentResumeUploader extends ResumeUploader {
             maxConcurrentTaskCount = 1;
         }
 
-        // 外部传入 pool 不 shutdown，内部创建需要 shutdown
-        boolean needPollShutdown = false;
+        // 未指定 pool 时由进程级调度器执行，所有上传共享并发名额
         if (pool == null) {
-            needPollShutdown = true;
-            pool = Executors.newFixedThreadPool(maxConcurrentTaskCount);
+            return uploadDataWithScheduler(maxConcurrentTaskCount);
         }
 
+        return uploadDataWithPool(pool, maxConcurrentTaskCount);
+    }
+
+    private Response uploadDataWithScheduler(int maxConcurrentTaskCount) throws QiniuException {
+        String host = uploadPerformer.configHelper.upHost(uploadPerformer.token.getToken());
+        UploadAdaptiveController controller = uploadPerformer.adaptiveController;
+        final UploadPartScheduler scheduler = UploadPartScheduler.global();
+        // 数据流读取到新的块时通知调度器分配名额
+        uploadPerformer.setBlockReadyListener(new Runnable() {
+            @Override
+            public void run() {
+                scheduler.partsReady();
+            }
+        });
         try {
-            return uploadDataWithPool(pool, maxConcurrentTaskCount);
+            return scheduler.upload(host, maxConcurrentTaskCount, controller, new UploadPartScheduler.Parts() {
+                @Override
+                public boolean hasMoreParts() {
+                    return !uploadPerformer.isAllBlocksUploadingOrUploaded();
+                }
+
+                @Override
+                public boolean hasReadyParts() {
+                    return uploadPerformer.hasReadyBlock();
+                }
+
+                @Override
+                public Response uploadNextPart() throws QiniuException {
+                    return uploadPerformer.uploadNextData();
+                }
+            });
         } finally {
-            if (needPollShutdown) {
-                pool.shutdown();
-            }
+            uploadPerformer.setBlockReadyListener(null);
         }
     }
 
@@ -7,7 +7,9 @@ import com.qiniu.common.Zone;
 import com.qiniu.http.Dns;
 import com.qiniu.http.ProxyConfiguration;
 
+import java.io.File;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * 该类封装了SDK相关配置参数
@@ -24,6 +26,41 @@ public final class Configuration implements Cloneable {
     public static String defaultUcHost = "uc.qiniuapi.com";
     static final String[] defaultUcHosts = new String[]{defaultUcHost, ucBackUpHost0, ucBackUpHost1};
 
+    /**
+     * 进程内所有分片上传（ResumeUploader 数据流上传、FixBlockUploader、StreamUploader）块数据缓冲的总内存预算，单位：字节
+     * 块数据缓冲在进程内复用，使用中及空闲缓冲的总大小不超过此预算，超出时读取块数据需等待其他块上传完成；
+     * 单个块超过此预算时，只有在没有其他块占用缓冲时才会读取。
+     * 默认：虚拟机最大内存的 1/4，且不超过 1GB
+     */
+    public static long uploadBufferBudget = Math.min(Runtime.getRuntime().maxMemory() / 4, 1024L * 1024 * 1024);
+
+    /**
+     * 进程内所有并发分片上传同时上传的最大块数量
+     * 未配置 resumableUploadConcurrentTaskExecutorService 的并发分片上传由进程级调度器执行，
+     * 各上传之间轮流分配名额，小文件不会等待大文件的所有块上传结束。
+     * 默认：64
+     */
+    public static int uploadSchedulerMaxConcurrency = 64;
+
+    /**
+     * 进程内所有并发分片上传同一上传域名同时上传的最大块数量，小于等于 0 时不限制
+     * 默认：32
+     */
+    public static int uploadSchedulerMaxConcurrencyPerHost = 32;
+
+    /**
+     * 并发分片上传调度器创建线程的 ThreadFactory，为空时使用守护线程；需在第一次上传前设置
+     * 如 Java 21 及以上可以设置为 Thread.ofVirtual().factory() 使用虚拟线程
+     */
+    public static ThreadFactory uploadSchedulerThreadFactory = null;
+
+    /**
+     * 进程内所有上传的总速率上限，单位：字节/秒，小于等于 0 时不限速
+     * 在请求数据写入连接时限速，不影响并发，所有上传共享此速率
+     * 默认：0
+     */
+    public static long uploadGlobalMaxBytesPerSecond = 0;
+
     /**
      * 使用的Region
      */
@@ -72,10 +109,45 @@ public final class Configuration implements Cloneable {
      */
     public int resumableUploadMaxConcurrentTaskCount = 1;
 
+    /**
+     * 分片上传是否开启自适应控制，默认不开启
+     * 开启后根据块上传的吞吐及失败动态调整：
+     * 1. 并发数：在 1 ~ resumableUploadMaxConcurrentTaskCount 之间调整，仅在未配置 resumableUploadConcurrentTaskExecutorService 时有效；
+     * 2. 分片 v2 上传文件的块大小：根据文件大小及最近的吞吐选择，在 1M ~ 1GB 之间且分片数量不超过 10000，
+     * 还没有吞吐记录时使用 resumableUploadAPIV2BlockSize；数据流上传的块大小不变。
+     */
+    public boolean resumableUploadAdaptive = false;
+
+    /**
+     * 数据流分片上传是否开启重放缓冲，默认不开启
+     * 开启后从数据流读取的数据同时写入临时文件，上传失败需要切换区域重新上传时从临时文件读取已读取的数据，
+     * 不需要调用方缓存整个数据流；临时文件在上传结束后删除，大小为已读取的数据量。
+     * 不开启时数据流上传失败后不能切换区域重试
+     */
+    public boolean resumableUploadStreamReplayBuffer = false;
+
+    /**
+     * 数据流分片上传重放缓冲临时文件所在的目录，为空时使用系统临时目录
+     */
+    public File resumableUploadStreamReplayDirectory = null;
+
+    /**
+     * 每个上传的速率上限，单位：字节/秒，小于等于 0 时不限速
+     * 适用于表单上传、分片上传 v1/v2、FixBlockUploader 及 StreamUploader，分片并发上传时为所有块共享的速率
+     * 默认：0
+     */
+    public long uploadMaxBytesPerSecond = 0;
+
+    /**
+     * 上传进度回调，适用于表单上传、分片上传 v1/v2、FixBlockUploader 及 StreamUploader，为空时不回调
+     */
+    public UpProgressHandler uploadProgressHandler = null;
+
     /**
      * 分片上传并发任务的 ExecutorService
      * 当 resumableUploadMaxConcurrentTaskCount 小于或等于 1，此设置无效；
-     * 当 resumableUploadMaxConcurrentTaskCount 大于 1 且 resumableUploadConcurrentTaskExecutorService 为空，则会创建 Executors.newFixedThreadPool(maxConcurrentTaskCount)
+     * 当 resumableUploadMaxConcurrentTaskCount 大于 1 且 resumableUploadConcurrentTaskExecutorService 为空，则由进程级调度器执行，
+     * 参考：{@link Configuration#uploadSchedulerMaxConcurrency}
      * 当 resumableUploadMaxConcurrentTaskCount 大于 1 且 resumableUploadConcurrentTaskExecutorService 不为空，则直接使用 resumableUploadConcurrentTaskExecutorService
      */
     public ExecutorService resumableUploadConcurrentTaskExecutorService = null;
@@ -142,6 +214,12 @@ public final class Configuration implements Cloneable {
      **/
     public int hostFreezeDuration = 600 * 1000;
 
+    /**
+     * 重试预算，限制重试的请求量不超过正常请求量的一定比例，避免服务异常时大量重试放大请求量
+     * 默认：null，不限制重试；可使用进程内共享的 {@link Retry#defaultRetryBudget()}
+     **/
+    public Retry.RetryBudget retryBudget;
+
     /**
      * 外部dns
      */
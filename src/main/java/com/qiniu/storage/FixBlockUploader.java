@@ -1,26 +1,40 @@
 package com.qiniu.storage;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.util.*;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Deprecated
 public class FixBlockUploader {
+    // 不支持追加记录时，每上传完成 RECORD_SYNC_PARTS 个块或间隔 RECORD_SYNC_INTERVAL 毫秒写入一次完整的断点记录 //
+    private static final int RECORD_SYNC_PARTS = 16;
+    private static final long RECORD_SYNC_INTERVAL = 3000;
+
     private final int blockSize;
+    private final Configuration configuration;
     private final ConfigHelper configHelper;
     private final Client client;
     private final Recorder recorder;
@@ -32,7 +46,7 @@ public class FixBlockUploader {
     /**
      * @param blockSize     block size, eg: 1024 * 1024 * 8.
      * @param configuration Nullable, if null, then create a new one.
-     * @param client        Nullable, if null, then create a new one with configuration.
+     * @param client        Nullable, if null, then use the shared one of configuration, see ClientRegistry.
      * @param recorder      Nullable.
      */
     public FixBlockUploader(int blockSize, Configuration configuration, Client client, Recorder recorder) {
@@ -40,8 +54,9 @@ public class FixBlockUploader {
             configuration = new Configuration();
         }
         if (client == null) {
-            client = new Client(configuration);
+            client = ClientRegistry.get(configuration);
         }
+        this.configuration = configuration;
         this.configHelper = new ConfigHelper(configuration);
         this.client = client;
         this.blockSize = blockSize;
@@ -131,16 +146,24 @@ public class FixBlockUploader {
             UploadRecordHelper recordHelper = new UploadRecordHelper(recorder, recordFileKey, blockData.repeatable());
             Record record = initUpload(blockData, recordHelper, bucket, base64Key, token);
             boolean repeatable = recorder != null && blockData.repeatable();
+            UploadMonitor monitor = UploadMonitor.create(key, blockData.size(), configuration);
+            if (monitor != null && record.size > 0) {
+                // 断点续传时已上传的块，块的 partNumber 从 1 开始，0 用于记录之前已上传的数据量 //
+                monitor.setPartBytes(0, record.size);
+            }
 
             Response res;
             try {
-                upBlock(blockData, token, bucket, base64Key, repeatable, record, pool, maxRunningBlock);
+                upBlock(blockData, token, bucket, base64Key, repeatable, record, recordHelper, pool, maxRunningBlock,
+                        monitor);
                 res = makeFile(bucket, base64Key, token, record.uploadId, record.etagIdxes,
                         blockData.getFileName(), params);
             } catch (QiniuException e) {
                 // if everything is ok, do not need to sync record  //
                 recordHelper.syncRecord(record);
                 throw e;
+            } finally {
+                recordHelper.closeRecord();
             }
             if (res.isOK()) {
                 recordHelper.delRecord();
@@ -227,13 +250,20 @@ public class FixBlockUploader {
     }
 
     private void upBlock(BlockData blockData, Token token, String bucket, String base64Key, boolean repeatable,
-                         Record record, ExecutorService pool, int maxRunningBlock) throws QiniuException {
+                         Record record, UploadRecordHelper recordHelper, ExecutorService pool, int maxRunningBlock,
+                         UploadMonitor monitor) throws QiniuException {
         boolean useParallel = useParallel(pool, blockData, record);
+        // 已上传的块，partNumber 从 1 开始 //
+        BitSet doneParts = new BitSet();
+        for (EtagIdx etagIdx : record.etagIdxes) {
+            doneParts.set(etagIdx.partNumber);
+        }
 
         if (!useParallel) {
-            seqUpload(blockData, token, bucket, base64Key, record);
+            seqUpload(blockData, token, bucket, base64Key, record, recordHelper, doneParts, monitor);
         } else {
-            parallelUpload(blockData, token, bucket, base64Key, record, repeatable, pool, maxRunningBlock);
+            parallelUpload(blockData, token, bucket, base64Key, record, recordHelper, doneParts, repeatable,
+                    pool, maxRunningBlock, monitor);
         }
     }
 
@@ -241,10 +271,10 @@ public class FixBlockUploader {
         return pool != null && ((blockData.size() - record.size) > this.blockSize);
     }
 
-    private void seqUpload(BlockData blockData, Token token, String bucket,
-                           String base64Key, Record record) throws QiniuException {
+    private void seqUpload(BlockData blockData, Token token, String bucket, String base64Key, Record record,
+                           UploadRecordHelper recordHelper, BitSet doneParts,
+                           UploadMonitor monitor) throws QiniuException {
         final String uploadId = record.uploadId;
-        final List<EtagIdx> etagIdxes = record.etagIdxes;
         RetryCounter counter = new NormalRetryCounter(retryMax);
         while (blockData.hasNext()) {
             try {
@@ -253,111 +283,164 @@ public class FixBlockUploader {
                 throw new QiniuException(e, e.getMessage());
             }
             DataWraper wrapper = blockData.getCurrentBlockData();
-            if (alreadyDone(wrapper.getIndex(), etagIdxes)) {
+            if (doneParts.get(wrapper.getIndex())) {
+                wrapper.release();
                 continue;
             }
 
             EtagIdx etagIdx;
             try {
                 etagIdx = uploadBlock(bucket, base64Key, token, uploadId,
-                        wrapper.getData(), wrapper.getSize(), wrapper.getIndex(), counter);
+                        wrapper.getData(), wrapper.getSize(), wrapper.getIndex(), counter, monitor);
             } catch (IOException e) {
                 throw new QiniuException(e, e.getMessage());
+            } finally {
+                wrapper.release();
             }
-            etagIdxes.add(etagIdx);
-            // 对应的 etag、index 通过 etagIdx 添加 //
-            record.size += etagIdx.size;
+            partDone(record, recordHelper, doneParts, etagIdx);
         }
     }
 
-    private void parallelUpload(BlockData blockData, final Token token,
-                                final String bucket, final String base64Key, Record record,
-                                boolean needRecord, ExecutorService pool, int maxRunningBlock) throws QiniuException {
+    /**
+     * 并行上传各块
+     * 块上传任务通过 CompletionService 提交，运行中的任务达到 maxRunningBlock 时等待任意一个任务结束，
+     * 任务按完成顺序记录结果，不会因前面的块较慢而阻塞后面已完成的块。
+     */
+    private void parallelUpload(BlockData blockData, final Token token, final String bucket, final String base64Key,
+                                Record record, UploadRecordHelper recordHelper, BitSet doneParts, boolean needRecord,
+                                ExecutorService pool, int maxRunningBlock,
+                                final UploadMonitor monitor) throws QiniuException {
         final String uploadId = record.uploadId;
-        final List<EtagIdx> etagIdxes = record.etagIdxes;
         final RetryCounter counter = new AsyncRetryCounter(retryMax);
-        List<Future<EtagIdx>> futures =
-                new ArrayList<>((int) ((blockData.size() - record.size + blockSize - 1) / blockSize));
+        maxRunningBlock = Math.max(1, maxRunningBlock);
+        CompletionService<EtagIdx> completionService = new ExecutorCompletionService<>(pool);
+        Map<Future<EtagIdx>, BlockTask> running = new HashMap<>();
         QiniuException qiniuEx = null;
-        while (blockData.hasNext()) {
-            try {
-                blockData.nextBlock();
-            } catch (IOException e) {
-                qiniuEx = new QiniuException(e, e.getMessage());
-                break;
-            }
-            final DataWraper wrapper = blockData.getCurrentBlockData();
-            if (alreadyDone(wrapper.getIndex(), etagIdxes)) {
-                continue;
-            }
-
-            Callable<EtagIdx> runner = new Callable<EtagIdx>() {
-                @Override
-                public EtagIdx call() throws Exception {
-                    return uploadBlock(bucket, base64Key, token, uploadId,
-                            wrapper.getData(), wrapper.getSize(), wrapper.getIndex(), counter);
+        try {
+            while (qiniuEx == null && blockData.hasNext()) {
+                try {
+                    blockData.nextBlock();
+                } catch (IOException e) {
+                    qiniuEx = new QiniuException(e, e.getMessage());
+                    break;
+                }
+                final DataWraper wrapper = blockData.getCurrentBlockData();
+                if (doneParts.get(wrapper.getIndex())) {
+                    wrapper.release();
+                    continue;
                 }
-            };
 
-            waitingEnough(maxRunningBlock, futures);
+                BlockTask runner = new BlockTask(wrapper) {
+                    @Override
+                    EtagIdx upload() throws Exception {
+                        return uploadBlock(bucket, base64Key, token, uploadId,
+                                wrapper.getData(), wrapper.getSize(), wrapper.getIndex(), counter, monitor);
+                    }
+                };
 
-            try {
-                futures.add(pool.submit(runner));
-            } catch (Exception e) {
-                qiniuEx = new QiniuException(e, e.getMessage());
-                break;
+                try {
+                    running.put(completionService.submit(runner), runner);
+                } catch (Exception e) {
+                    wrapper.release();
+                    qiniuEx = new QiniuException(e, e.getMessage());
+                    break;
+                }
+
+                while (qiniuEx == null && running.size() >= maxRunningBlock) {
+                    qiniuEx = takeDone(completionService, running, record, recordHelper, doneParts);
+                }
             }
-        }
-        for (Future<EtagIdx> future : futures) {
-            if (!needRecord && qiniuEx != null) {
-                future.cancel(true);
-                continue;
+
+            // 出错且不记录断点时，取消未完成的任务 //
+            if (qiniuEx != null && !needRecord) {
+                for (Map.Entry<Future<EtagIdx>, BlockTask> entry : running.entrySet()) {
+                    entry.getKey().cancel(true);
+                    entry.getValue().releaseIfNotStarted();
+                }
             }
-            try {
-                EtagIdx etagIdx = future.get();
-                etagIdxes.add(etagIdx);
-                record.size += etagIdx.size;
-            } catch (Exception e) {
+            while (!running.isEmpty()) {
+                QiniuException e = takeDone(completionService, running, record, recordHelper, doneParts);
                 if (qiniuEx == null) {
-                    qiniuEx = new QiniuException(e, e.getMessage());
+                    qiniuEx = e;
                 }
             }
+        } catch (InterruptedException e) {
+            for (Map.Entry<Future<EtagIdx>, BlockTask> entry : running.entrySet()) {
+                entry.getKey().cancel(true);
+                entry.getValue().releaseIfNotStarted();
+            }
+            Thread.currentThread().interrupt();
+            qiniuEx = new QiniuException(new InterruptedIOException("block upload interrupted"));
         }
         if (qiniuEx != null) {
             throw qiniuEx;
         }
     }
 
-    private boolean alreadyDone(int index, List<EtagIdx> etagIdxes) {
-        for (EtagIdx etagIdx : etagIdxes) {
-            if (etagIdx.partNumber == index) {
-                return true;
+    // 等待任意一个任务结束并记录结果，任务失败时返回对应的异常 //
+    private QiniuException takeDone(CompletionService<EtagIdx> completionService,
+                                    Map<Future<EtagIdx>, BlockTask> running, Record record,
+                                    UploadRecordHelper recordHelper, BitSet doneParts) throws InterruptedException {
+        Future<EtagIdx> future = completionService.take();
+        running.remove(future);
+        try {
+            partDone(record, recordHelper, doneParts, future.get());
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof QiniuException) {
+                return (QiniuException) cause;
             }
+            return new QiniuException(e, e.getMessage());
+        } catch (CancellationException e) {
+            return new QiniuException(e, e.getMessage());
         }
-        return false;
     }
 
-    private void waitingEnough(int maxRunningBlock, List<Future<EtagIdx>> futures) {
-        for (; ; ) {
-            if (futures.size() < maxRunningBlock) {
-                break;
+    // 记录已上传的块并更新断点记录 //
+    private void partDone(Record record, UploadRecordHelper recordHelper, BitSet doneParts, EtagIdx etagIdx) {
+        record.etagIdxes.add(etagIdx);
+        // 对应的 etag、index 通过 etagIdx 添加 //
+        record.size += etagIdx.size;
+        doneParts.set(etagIdx.partNumber);
+        recordHelper.partDone(record, etagIdx);
+    }
+
+    // 块上传任务，任务结束后归还块数据缓冲；任务在执行前被取消时由取消方归还
+    abstract static class BlockTask implements Callable<EtagIdx> {
+        private final DataWraper wrapper;
+        private final AtomicBoolean started = new AtomicBoolean(false);
+
+        BlockTask(DataWraper wrapper) {
+            this.wrapper = wrapper;
+        }
+
+        abstract EtagIdx upload() throws Exception;
+
+        @Override
+        public EtagIdx call() throws Exception {
+            if (!started.compareAndSet(false, true)) {
+                throw new CancellationException("block upload task is cancelled");
             }
-            int done = 0;
-            for (Future<EtagIdx> future : futures) {
-                if (future.isDone()) {
-                    done++;
-                }
+            try {
+                return upload();
+            } finally {
+                wrapper.release();
             }
-            if (futures.size() - done < maxRunningBlock) {
-                break;
+        }
+
+        void releaseIfNotStarted() {
+            if (started.compareAndSet(false, true)) {
+                wrapper.release();
             }
-            sleepMillis(500);
         }
     }
 
     EtagIdx uploadBlock(String bucket, String base64Key, Token token, String uploadId, byte[] data,
-                        int dataLength, int partNum, RetryCounter counter) throws QiniuException {
-        Response res = uploadBlockWithRetry(bucket, base64Key, token, uploadId, data, dataLength, partNum, counter);
+                        int dataLength, int partNum, RetryCounter counter,
+                        UploadMonitor monitor) throws QiniuException {
+        Response res = uploadBlockWithRetry(bucket, base64Key, token, uploadId, data, dataLength, partNum,
+                counter, monitor);
         try {
             String etag = res.jsonToMap().get("etag").toString();
             if (etag.length() > 10) {
@@ -370,8 +453,8 @@ public class FixBlockUploader {
     }
 
     Response uploadBlockWithRetry(String bucket, String base64Key, Token token, String uploadId,
-                                  byte[] data, int dataLength, int partNum, RetryCounter counter)
-            throws QiniuException {
+                                  byte[] data, int dataLength, int partNum, RetryCounter counter,
+                                  UploadMonitor monitor) throws QiniuException {
         String url = host + "/buckets/" + bucket + "/objects/" + base64Key + "/uploads/" + uploadId + "/" + partNum;
         StringMap headers = new StringMap().
                 put("Content-MD5", Md5.md5(data, 0, dataLength)).
@@ -379,7 +462,7 @@ public class FixBlockUploader {
 
         // 在 最多重试次数 范围内， 每个块至多上传 3 次 //
         // 1
-        Response res = uploadBlock1(url, data, dataLength, headers, true);
+        Response res = uploadBlock1(url, data, dataLength, headers, true, monitor, partNum);
         if (res.isOK()) {
             return res;
         }
@@ -395,7 +478,7 @@ public class FixBlockUploader {
         if (res.needRetry()) {
             counter.retried();
             // 2
-            res = uploadBlock1(url, data, dataLength, headers, true);
+            res = uploadBlock1(url, data, dataLength, headers, true, monitor, partNum);
 
             if (res.isOK()) {
                 return res;
@@ -412,18 +495,22 @@ public class FixBlockUploader {
             if (res.needRetry()) {
                 counter.retried();
                 // 3
-                res = uploadBlock1(url, data, dataLength, headers, false);
+                res = uploadBlock1(url, data, dataLength, headers, false, monitor, partNum);
             }
         }
 
         return res;
     }
 
-    Response uploadBlock1(String url, byte[] data,
-                          int dataLength, StringMap headers, boolean ignoreError) throws QiniuException {
+    Response uploadBlock1(String url, byte[] data, int dataLength, StringMap headers, boolean ignoreError,
+                          UploadMonitor monitor, int partNum) throws QiniuException {
         // put PUT
         try {
-            Response res = client.put(url, data, 0, dataLength, headers, "application/octet-stream");
+            RequestBody body = RequestBody.create(MediaType.parse("application/octet-stream"), data, 0, dataLength);
+            if (monitor != null) {
+                body = monitor.wrap(partNum, body);
+            }
+            Response res = client.put(url, body, headers);
             return res;
         } catch (QiniuException e) {
             if (ignoreError) {
@@ -522,6 +609,9 @@ public class FixBlockUploader {
         int getSize();
 
         int getIndex();
+
+        // 归还块数据缓冲，归还后不可再使用 getData() 获取的数据，可重复调用
+        void release();
     }
 
 
@@ -571,7 +661,6 @@ public class FixBlockUploader {
         String fileName;
         int index = 0; // start at 1, read a block , add 1
         long alreadyReadSize = 0;
-        Lock lock;
 
         FileBlockData(int blockDataSize, File file) throws IOException {
             super(blockDataSize);
@@ -579,7 +668,6 @@ public class FixBlockUploader {
             fileName = file.getName();
             totalLength = file.length();
             contentUUID = file.lastModified() + "_.-^ \b" + file.getAbsolutePath();
-            lock = new ReentrantLock();
         }
 
         @Override
@@ -605,6 +693,8 @@ public class FixBlockUploader {
             index++;
             final int idx = index + 0;
             dataWraper = new DataWraper() {
+                private byte[] data;
+
                 public int getSize() {
                     return readLength;
                 }
@@ -614,19 +704,38 @@ public class FixBlockUploader {
                 }
 
                 @Override
-                public byte[] getData() throws IOException {
-                    byte[] data = new byte[blockDataSize];
-                    lock.lock();
+                public synchronized byte[] getData() throws IOException {
+                    if (data != null) {
+                        return data;
+                    }
+
+                    // 缓冲从共享缓冲池获取，按位置读取，多个块并发读取时不需要加锁；
+                    // 最后一块也使用块大小的缓冲，归还后可被其他块复用
+                    byte[] buffer = BlockBufferPool.global().acquire(blockDataSize);
                     try {
-                        fis.seek(start);
-                        int size = fis.read(data);
-                        assert readLength == size : "read size should equals "
-                                + "(int)Math.min(totalLength - alreadyReadSize, blockDataSize): " + readLength;
-                    } finally {
-                        lock.unlock();
+                        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, readLength);
+                        long position = start;
+                        while (byteBuffer.hasRemaining()) {
+                            int size = fis.getChannel().read(byteBuffer, position);
+                            if (size < 0) {
+                                throw new IOException("read size should equals "
+                                        + "(int)Math.min(totalLength - alreadyReadSize, blockDataSize): " + readLength);
+                            }
+                            position += size;
+                        }
+                    } catch (IOException e) {
+                        BlockBufferPool.global().release(buffer);
+                        throw e;
                     }
+                    data = buffer;
                     return data;
                 }
+
+                @Override
+                public synchronized void release() {
+                    BlockBufferPool.global().release(data);
+                    data = null;
+                }
             };
         }
 
@@ -706,20 +815,28 @@ public class FixBlockUploader {
 
         @Override
         public void nextBlock() throws IOException {
-            final byte[] data = new byte[blockDataSize];
-            int rl = is.read(data);
-            int rlt = rl;
-            // no enough data //
-            while (rlt < blockDataSize) {
-                // eof
-                if (rl == -1) {
-                    break;
-                }
-                sleepMillis(100);
-                rl = is.read(data, rlt, blockDataSize - rlt);
-                if (rl > 0) {
-                    rlt += rl;
+            // 缓冲从共享缓冲池获取，块上传结束后归还
+            final byte[] data = BlockBufferPool.global().acquire(blockDataSize);
+            int rl;
+            int rlt;
+            try {
+                rl = is.read(data);
+                rlt = rl;
+                // no enough data //
+                while (rlt < blockDataSize) {
+                    // eof
+                    if (rl == -1) {
+                        break;
+                    }
+                    sleepMillis(100);
+                    rl = is.read(data, rlt, blockDataSize - rlt);
+                    if (rl > 0) {
+                        rlt += rl;
+                    }
                 }
+            } catch (IOException e) {
+                BlockBufferPool.global().release(data);
+                throw e;
             }
 
             if (rlt != -1) {
@@ -729,11 +846,21 @@ public class FixBlockUploader {
             final int dataLen = rlt;
             final int idx = index;
             dataWraper = new DataWraper() {
+                private boolean released = false;
+
                 @Override
                 public byte[] getData() {
                     return data;
                 }
 
+                @Override
+                public synchronized void release() {
+                    if (!released) {
+                        released = true;
+                        BlockBufferPool.global().release(data);
+                    }
+                }
+
                 @Override
                 public int getSize() {
                     return dataLen;
@@ -893,10 +1020,20 @@ public class FixBlockUploader {
         }
     }
 
+    /**
+     * 断点记录
+     * recorder 为 {@link JournalRecorder} 时，写入一次完整记录后，之后每个块只追加该块的记录；
+     * 否则每 RECORD_SYNC_PARTS 个块或间隔 RECORD_SYNC_INTERVAL 毫秒写入一次完整记录，上传出错时也会写入完整记录。
+     */
     class UploadRecordHelper {
         boolean needRecord;
         Recorder recorder;
         String recordFileKey;
+        // 本次上传是否已写入完整记录 //
+        private boolean isSynced;
+        // 上次写入完整记录后完成的块数量 //
+        private int unsyncedParts;
+        private long lastSyncTime;
 
         UploadRecordHelper(Recorder recorder, String recordFileKey, boolean needRecord) {
             this.needRecord = needRecord;
@@ -912,6 +1049,9 @@ public class FixBlockUploader {
                 try {
                     byte[] data = recorder.get(recordFileKey);
                     record = new Gson().fromJson(new String(data, Constants.UTF_8), Record.class);
+                    if (recorder instanceof JournalRecorder) {
+                        recoverJournalEntries(record);
+                    }
                     if (!record.isValid()) {
                         record = null;
                     }
@@ -928,12 +1068,70 @@ public class FixBlockUploader {
             }
         }
 
+        // 上传结束，同步并关闭追加的块记录 //
+        public void closeRecord() {
+            if (recorder instanceof JournalRecorder) {
+                ((JournalRecorder) recorder).close(recordFileKey);
+            }
+        }
+
 
         public void syncRecord(Record record) {
             if (needRecord && recorder != null && record.etagIdxes.size() > 0) {
                 sortAsc(record.etagIdxes);
                 recorder.set(recordFileKey, new Gson().toJson(record).getBytes(Constants.UTF_8));
+                isSynced = true;
+                unsyncedParts = 0;
+                lastSyncTime = System.currentTimeMillis();
+            }
+        }
+
+        // 块上传完成，第一个块完成时写入完整记录，之后追加块记录或按间隔写入完整记录 //
+        public void partDone(Record record, EtagIdx etagIdx) {
+            if (!needRecord || recorder == null) {
+                return;
+            }
+            if (isSynced && recorder instanceof JournalRecorder) {
+                JsonObject entry = new JsonObject();
+                entry.addProperty("etag", etagIdx.etag);
+                entry.addProperty("partNumber", etagIdx.partNumber);
+                entry.addProperty("size", etagIdx.size);
+                ((JournalRecorder) recorder).append(recordFileKey, entry.toString().getBytes(Constants.UTF_8));
+                return;
+            }
+
+            unsyncedParts++;
+            if (!isSynced || unsyncedParts >= RECORD_SYNC_PARTS
+                    || System.currentTimeMillis() - lastSyncTime >= RECORD_SYNC_INTERVAL) {
+                syncRecord(record);
+            }
+        }
+
+        // 合并完整记录之后追加的块记录 //
+        private void recoverJournalEntries(Record record) {
+            if (record == null || record.etagIdxes == null) {
+                return;
+            }
+            BitSet parts = new BitSet();
+            for (EtagIdx etagIdx : record.etagIdxes) {
+                parts.set(etagIdx.partNumber);
+            }
+            for (byte[] data : ((JournalRecorder) recorder).getEntries(recordFileKey)) {
+                try {
+                    JsonObject entry = new Gson().fromJson(new String(data, Constants.UTF_8), JsonObject.class);
+                    int partNumber = entry.get("partNumber").getAsInt();
+                    if (partNumber <= 0 || parts.get(partNumber)) {
+                        continue;
+                    }
+                    int size = entry.get("size").getAsInt();
+                    record.etagIdxes.add(new EtagIdx(entry.get("etag").getAsString(), partNumber, size));
+                    record.size += size;
+                    parts.set(partNumber);
+                } catch (Exception e) {
+                    // 无效的块记录忽略，该块重新上传 //
+                }
             }
+            sortAsc(record.etagIdxes);
         }
 
         public boolean isActiveRecord(Record record, BlockData blockData) {
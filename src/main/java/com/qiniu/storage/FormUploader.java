@@ -76,9 +76,10 @@ public final class FormUploader extends BaseUploader {
         String urlPrefix = configHelper.upHost(upToken);
         Api api = new Api(client, new Api.Config.Builder()
                 .setHostRetryMax(config.retryMax)
-                .setRetryInterval(Retry.staticInterval(config.retryInterval))
+                .setRetryInterval(Retry.decorrelatedJitterInterval(config.retryInterval, config.retryInterval * 10))
                 .setHostFreezeDuration(config.hostFreezeDuration)
                 .setHostProvider(HostProvider.arrayProvider(this.configHelper.upHostsWithoutScheme().toArray(new String[0])))
+                .setRetryBudget(config.retryBudget)
                 .build());
         Api.Request request = new Api.Request(urlPrefix);
         request.setMethod(MethodType.POST);
@@ -87,6 +88,7 @@ public final class FormUploader extends BaseUploader {
         } else {
             request.setMultipartBody("file", filename, params, file, mime);
         }
+        request.setUploadMonitor(UploadMonitor.create(key, data != null ? data.length : file.length(), config), 0);
         return api.requestWithInterceptor(request);
     }
 
@@ -0,0 +1,336 @@
+package com.qiniu.storage;
+
+import com.qiniu.util.StringUtils;
+import com.qiniu.util.Timestamp;
+import com.qiniu.util.UrlUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 进程级共享的域名健康状态
+ * <p>
+ * 所有 {@link HostProvider} 及 {@link UpHostHelper} 共享同一份域名状态：冻结时间窗口、连续失败次数、请求耗时及失败率，
+ * 一个上传冻结的域名，其他上传也不会再使用，避免每个上传都耗费一次超时。
+ * <p>
+ * 冻结时间结束后域名进入半开状态，同一时间只允许一个请求探测（探测租约），探测成功后恢复，探测失败则重新冻结；
+ * 当所有域名都不可用时，允许提前探测冻结中的域名，避免一次偶然的失败导致整个进程长时间无域名可用。
+ * <p>
+ * 状态为不可变对象，通过 CAS 更新，不加锁。
+ */
+final class HostHealthRegistry {
+
+    // 半开状态下探测请求的租约时长，租约期内探测没有结果则允许再次探测，单位：毫秒
+    private static final long PROBE_LEASE = 10 * 1000;
+    private static final double ALPHA = 0.3;
+    // 一次失败的代价，失败通常会耗费一次超时时间，单位：毫秒
+    private static final double FAILURE_COST = 5000;
+    private static final int MAX_HOSTS = 1024;
+
+    private static final ConcurrentHashMap<String, AtomicReference<State>> hosts = new ConcurrentHashMap<>();
+
+    private HostHealthRegistry() {
+    }
+
+    /**
+     * 域名当前是否可用：未被冻结且没有正在进行的探测
+     *
+     * @param host 域名
+     * @return 是否可用
+     */
+    static boolean isAvailable(String host) {
+        AtomicReference<State> ref = get(host, false);
+        return ref == null || ref.get().isAvailable(Timestamp.milliSecond());
+    }
+
+    /**
+     * 获取域名的使用权，域名处于半开状态时只有一个调用者可以获取到（探测租约）
+     *
+     * @param host 域名
+     * @return 是否可以使用
+     */
+    static boolean tryAcquire(String host) {
+        return acquire(host, false);
+    }
+
+    /**
+     * 获取冻结中域名的探测权，用于所有域名都不可用时提前探测
+     *
+     * @param host 域名
+     * @return 是否可以探测
+     */
+    static boolean tryProbe(String host) {
+        return acquire(host, true);
+    }
+
+    /**
+     * 冻结域名，不计入失败次数，失败由 {@link #reportFailure(String)} 统计
+     *
+     * @param host           域名
+     * @param freezeDuration 冻结时间，单位：毫秒
+     */
+    static void freeze(String host, long freezeDuration) {
+        AtomicReference<State> ref = get(host, true);
+        if (ref == null || freezeDuration <= 0) {
+            return;
+        }
+
+        long now = Timestamp.milliSecond();
+        for (; ; ) {
+            State old = ref.get();
+            State s = old.copy();
+            s.frozenUntil = Math.max(old.frozenUntil, now + freezeDuration);
+            s.freezeDuration = freezeDuration;
+            s.probeUntil = 0;
+            if (ref.compareAndSet(old, s)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 上报请求成功，域名恢复可用
+     *
+     * @param host    域名
+     * @param latency 请求耗时，单位：毫秒，小于 0 时不统计耗时
+     */
+    static void reportSuccess(String host, long latency) {
+        AtomicReference<State> ref = get(host, true);
+        if (ref == null) {
+            return;
+        }
+
+        for (; ; ) {
+            State old = ref.get();
+            State s = old.copy();
+            if (latency >= 0) {
+                s.latency = old.latency < 0 ? latency : ALPHA * latency + (1 - ALPHA) * old.latency;
+            }
+            s.errorRate = (1 - ALPHA) * old.errorRate;
+            s.consecutiveFailures = 0;
+            s.frozenUntil = 0;
+            s.probeUntil = 0;
+            if (ref.compareAndSet(old, s)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 只更新请求耗时，不改变域名的冻结及失败状态；用于没有结果的请求，如：对冲时被取消的请求
+     *
+     * @param host    域名
+     * @param latency 请求耗时，单位：毫秒
+     */
+    static void recordLatency(String host, long latency) {
+        AtomicReference<State> ref = get(host, true);
+        if (ref == null || latency < 0) {
+            return;
+        }
+
+        for (; ; ) {
+            State old = ref.get();
+            State s = old.copy();
+            s.latency = old.latency < 0 ? latency : ALPHA * latency + (1 - ALPHA) * old.latency;
+            if (ref.compareAndSet(old, s)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 上报请求失败，半开状态下探测失败会重新冻结域名
+     *
+     * @param host 域名
+     */
+    static void reportFailure(String host) {
+        AtomicReference<State> ref = get(host, true);
+        if (ref == null) {
+            return;
+        }
+
+        long now = Timestamp.milliSecond();
+        for (; ; ) {
+            State old = ref.get();
+            State s = old.copy();
+            s.errorRate = ALPHA + (1 - ALPHA) * old.errorRate;
+            s.consecutiveFailures = old.consecutiveFailures + 1;
+            if (old.probeUntil > 0) {
+                // 探测失败
+                s.frozenUntil = now + old.freezeDuration;
+                s.probeUntil = 0;
+            }
+            if (ref.compareAndSet(old, s)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 释放探测租约，不改变域名状态；用于请求没有可以说明域名好坏的结果时，如：本地异常、请求被取消
+     *
+     * @param host 域名
+     */
+    static void release(String host) {
+        AtomicReference<State> ref = get(host, false);
+        if (ref == null) {
+            return;
+        }
+
+        for (; ; ) {
+            State old = ref.get();
+            if (old.probeUntil == 0) {
+                return;
+            }
+            State s = old.copy();
+            s.probeUntil = 0;
+            if (ref.compareAndSet(old, s)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 使用域名的代价：平均耗时 + 失败率 * 失败代价
+     *
+     * @param host              域名
+     * @param unmeasuredLatency 未统计过耗时的域名使用的耗时，单位：毫秒
+     * @return 代价
+     */
+    static double cost(String host, double unmeasuredLatency) {
+        AtomicReference<State> ref = get(host, false);
+        if (ref == null) {
+            return unmeasuredLatency;
+        }
+        State s = ref.get();
+        double latency = s.latency < 0 ? unmeasuredLatency : s.latency;
+        return latency + s.errorRate * FAILURE_COST;
+    }
+
+    /**
+     * 域名中已统计过耗时的域名的耗时中位数，作为未统计过耗时的域名的耗时，
+     * 使未统计过的域名既不会排在已知较快的域名之前，也有机会被尝试
+     *
+     * @param hosts 域名
+     * @return 耗时中位数，单位：毫秒，没有统计过耗时的域名时为 0
+     */
+    static double medianLatency(List<String> hosts) {
+        List<Double> latencies = new ArrayList<>(hosts.size());
+        for (String host : hosts) {
+            AtomicReference<State> ref = get(host, false);
+            if (ref != null && ref.get().latency >= 0) {
+                latencies.add(ref.get().latency);
+            }
+        }
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        Collections.sort(latencies);
+        int middle = latencies.size() / 2;
+        if (latencies.size() % 2 == 1) {
+            return latencies.get(middle);
+        }
+        return (latencies.get(middle - 1) + latencies.get(middle)) / 2;
+    }
+
+    /**
+     * 连续失败次数
+     *
+     * @param host 域名
+     * @return 连续失败次数
+     */
+    static int consecutiveFailures(String host) {
+        AtomicReference<State> ref = get(host, false);
+        return ref == null ? 0 : ref.get().consecutiveFailures;
+    }
+
+    /**
+     * 清除所有域名状态
+     */
+    static void clear() {
+        hosts.clear();
+    }
+
+    private static boolean acquire(String host, boolean ignoreFrozen) {
+        AtomicReference<State> ref = get(host, false);
+        if (ref == null) {
+            return true;
+        }
+
+        long now = Timestamp.milliSecond();
+        for (; ; ) {
+            State old = ref.get();
+            if (old.frozenUntil == 0) {
+                return true;
+            }
+            if (!ignoreFrozen && now < old.frozenUntil) {
+                return false;
+            }
+            if (now < old.probeUntil) {
+                return false;
+            }
+
+            State s = old.copy();
+            s.probeUntil = now + PROBE_LEASE;
+            if (ref.compareAndSet(old, s)) {
+                return true;
+            }
+        }
+    }
+
+    private static AtomicReference<State> get(String host, boolean create) {
+        if (StringUtils.isNullOrEmpty(host)) {
+            return null;
+        }
+
+        String key = UrlUtils.removeHostScheme(host);
+        AtomicReference<State> ref = hosts.get(key);
+        if (ref != null || !create) {
+            return ref;
+        }
+
+        if (hosts.size() >= MAX_HOSTS) {
+            evictHealthy();
+        }
+        ref = new AtomicReference<>(new State());
+        AtomicReference<State> old = hosts.putIfAbsent(key, ref);
+        return old != null ? old : ref;
+    }
+
+    private static void evictHealthy() {
+        for (Map.Entry<String, AtomicReference<State>> entry : hosts.entrySet()) {
+            State s = entry.getValue().get();
+            if (s.frozenUntil == 0 && s.consecutiveFailures == 0) {
+                hosts.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static final class State {
+        private long frozenUntil;
+        private long freezeDuration;
+        private long probeUntil;
+        private int consecutiveFailures;
+        private double latency = -1;
+        private double errorRate;
+
+        private State copy() {
+            State s = new State();
+            s.frozenUntil = frozenUntil;
+            s.freezeDuration = freezeDuration;
+            s.probeUntil = probeUntil;
+            s.consecutiveFailures = consecutiveFailures;
+            s.latency = latency;
+            s.errorRate = errorRate;
+            return s;
+        }
+
+        private boolean isAvailable(long now) {
+            return frozenUntil == 0 || (now >= frozenUntil && now >= probeUntil);
+        }
+    }
+}
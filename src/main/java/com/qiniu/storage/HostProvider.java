@@ -1,10 +1,11 @@
 package com.qiniu.storage;
 
-import com.qiniu.util.Timestamp;
 import com.qiniu.util.UrlUtils;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class HostProvider {
 
@@ -15,6 +16,23 @@ public abstract class HostProvider {
         return new ArrayProvider(hosts);
     }
 
+    /**
+     * 根据域名的请求耗时及失败率选择域名
+     * <p>
+     * 每个域名统计请求耗时及失败率的指数加权移动平均（EWMA），每次随机选取两个有效的域名，使用其中代价较小的一个
+     * （power of two choices），既能优先使用较快的域名，又能避免所有请求集中到同一个域名；
+     * 未统计过耗时的域名按已统计域名耗时的中位数计算，不会排在已知较快的域名之前。域名的统计数据由所有 HostProvider 共享，见 {@link HostHealthRegistry}
+     *
+     * @param hosts 域名
+     * @return HostProvider
+     */
+    public static HostProvider latencyAwareProvider(String... hosts) {
+        if (hosts == null || hosts.length == 0) {
+            return null;
+        }
+        return new LatencyAwareProvider(hosts);
+    }
+
     /**
      * 域名获取方法
      **/
@@ -36,81 +54,167 @@ public abstract class HostProvider {
      **/
     abstract boolean isHostValid(String host);
 
+    /**
+     * 上报域名请求成功
+     *
+     * @param host    域名
+     * @param latency 请求耗时，单位：毫秒
+     **/
+    void reportSuccess(String host, long latency) {
+        HostHealthRegistry.reportSuccess(host, latency);
+    }
+
+    /**
+     * 只上报域名的请求耗时，不改变域名的冻结及失败状态，如：对冲时被取消的请求
+     *
+     * @param host    域名
+     * @param latency 请求耗时，单位：毫秒
+     **/
+    void reportLatency(String host, long latency) {
+        HostHealthRegistry.recordLatency(host, latency);
+    }
+
+    /**
+     * 上报域名请求失败，如：网络异常、服务端异常等需要切换域名的失败
+     *
+     * @param host 域名
+     **/
+    void reportFailure(String host) {
+        HostHealthRegistry.reportFailure(host);
+    }
+
+    /**
+     * 释放通过 {@link #provider()} 获取的域名，请求没有可以说明域名好坏的结果时调用，如：本地异常、请求被取消；
+     * 域名处于半开状态时释放探测租约，其他请求可以继续探测
+     *
+     * @param host 域名
+     **/
+    void releaseHost(String host) {
+        HostHealthRegistry.release(host);
+    }
+
+    private static String[] removeHostsScheme(String... hosts) {
+        String[] values = new String[hosts.length];
+        for (int i = 0; i < hosts.length; i++) {
+            values[i] = UrlUtils.removeHostScheme(hosts[i]);
+        }
+        return values;
+    }
+
+    // 所有域名均不可用时，提前探测冻结中的域名，从 start 开始查找
+    private static String probeHost(String[] hosts, int start) {
+        int l = hosts.length;
+        for (int i = start; i < (start + l); i++) {
+            String host = hosts[i % l];
+            if (HostHealthRegistry.tryProbe(host)) {
+                return host;
+            }
+        }
+        return null;
+    }
+
 
     private static final class ArrayProvider extends HostProvider {
 
         private final String[] values;
-        private final Map<String, Value> items = new HashMap<>();
-        private int nextIndex = 0;
+        private final AtomicInteger nextIndex = new AtomicInteger(0);
 
         private ArrayProvider(String... values) {
             super();
-            this.values = values;
-
-            if (this.values == null) {
-                return;
-            }
-
-            for (int i = 0; i < this.values.length; i++) {
-                String value = UrlUtils.removeHostScheme(this.values[i]);
-                this.values[i] = value;
-                this.items.put(value, new Value(value));
-            }
+            this.values = removeHostsScheme(values);
         }
 
         @Override
         public String provider() {
-            if (values == null || values.length == 0) {
+            if (values.length == 0) {
                 return "";
             }
 
-            int s = Math.max(nextIndex, 0);
+            int s = Math.max(nextIndex.get(), 0);
             int l = values.length;
             for (int i = s; i < (s + l); i++) {
-                String key = values[i % l];
-                Value v = items.get(key);
-                if (v != null && v.isValid()) {
-                    nextIndex = (i + 1) % l;
-                    return v.value;
+                String host = values[i % l];
+                if (HostHealthRegistry.tryAcquire(host)) {
+                    nextIndex.set((i + 1) % l);
+                    return host;
                 }
             }
-            return null;
+            return probeHost(values, s);
         }
 
         @Override
         public void freezeHost(String host, int freezeDuration) {
-            Value v = items.get(host);
-            if (v == null) {
-                return;
-            }
-
-            v.freeze(freezeDuration);
+            HostHealthRegistry.freeze(host, freezeDuration);
         }
 
         @Override
         boolean isHostValid(String host) {
-            Value v = items.get(host);
-            if (v == null) {
-                return true;
-            }
-            return v.isValid();
+            return HostHealthRegistry.isAvailable(host);
         }
+    }
+
+    private static final class LatencyAwareProvider extends HostProvider {
+
+        private final String[] values;
 
-        private static final class Value {
-            private final String value;
-            private long validAfterTime;
+        private LatencyAwareProvider(String... values) {
+            super();
+            this.values = removeHostsScheme(values);
+        }
 
-            private Value(String value) {
-                this.value = value;
+        @Override
+        String provider() {
+            int l = values.length;
+            if (l == 0) {
+                return "";
+            }
+
+            List<String> valid = new ArrayList<>(l);
+            for (String value : values) {
+                if (HostHealthRegistry.isAvailable(value)) {
+                    valid.add(value);
+                }
+            }
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            double unmeasuredLatency = HostHealthRegistry.medianLatency(valid);
+            while (!valid.isEmpty()) {
+                String host = choose(valid, unmeasuredLatency, random);
+                // 半开状态的域名同一时间只允许一个请求探测
+                if (HostHealthRegistry.tryAcquire(host)) {
+                    return host;
+                }
+                valid.remove(host);
             }
+            return probeHost(values, random.nextInt(l));
+        }
 
-            private void freeze(int freezeDuration) {
-                validAfterTime = freezeDuration + Timestamp.milliSecond();
+        // 随机选取两个不同的域名，使用代价较小的一个
+        private static String choose(List<String> hosts, double unmeasuredLatency, ThreadLocalRandom random) {
+            int count = hosts.size();
+            if (count == 1) {
+                return hosts.get(0);
             }
 
-            private boolean isValid() {
-                return Timestamp.milliSecond() >= validAfterTime;
+            int i = random.nextInt(count);
+            int j = random.nextInt(count - 1);
+            if (j >= i) {
+                j++;
             }
+            String first = hosts.get(i);
+            String second = hosts.get(j);
+            double firstCost = HostHealthRegistry.cost(first, unmeasuredLatency);
+            return HostHealthRegistry.cost(second, unmeasuredLatency) < firstCost ? second : first;
+        }
+
+        @Override
+        void freezeHost(String host, int freezeDuration) {
+            HostHealthRegistry.freeze(host, freezeDuration);
+        }
+
+        @Override
+        boolean isHostValid(String host) {
+            return HostHealthRegistry.isAvailable(host);
         }
     }
 }
@@ -0,0 +1,34 @@
+package com.qiniu.storage;
+
+import java.util.List;
+
+/**
+ * 支持追加记录的断点记录
+ * 分片上传时，每个块上传成功后追加一条该块的记录，不需要每次重写整个上传进度；
+ * {@link #set(String, byte[])} 写入完整的上传进度并清除之前追加的记录，{@link #get(String)} 获取最后一次写入的完整上传进度。
+ */
+public interface JournalRecorder extends Recorder {
+
+    /**
+     * 追加一条记录
+     *
+     * @param key   上传文件进度文件保存名
+     * @param entry 记录数据
+     */
+    void append(String key, byte[] entry);
+
+    /**
+     * 获取最后一次 set 之后追加的所有记录，按追加的顺序排列
+     *
+     * @param key 上传文件进度文件保存名
+     * @return 追加的记录，没有时为空列表
+     */
+    List<byte[]> getEntries(String key);
+
+    /**
+     * 上传结束，不再追加记录；已追加的记录同步保存，并释放该上传占用的资源
+     *
+     * @param key 上传文件进度文件保存名
+     */
+    void close(String key);
+}
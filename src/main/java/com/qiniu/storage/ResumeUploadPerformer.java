@@ -3,6 +3,8 @@ package com.qiniu.storage;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
 import com.qiniu.http.Response;
+import com.qiniu.util.ContentDigest;
+import com.qiniu.util.StringMap;
 
 import java.io.IOException;
 import java.util.List;
@@ -16,8 +18,18 @@ abstract class ResumeUploadPerformer {
     final ResumeUploadSource uploadSource;
     final UploadOptions options;
     private final Recorder recorder;
-    private final Configuration config;
+    final Configuration config;
     private Api.Config uploadApiConfig;
+    // 自适应控制，未开启时为空
+    final UploadAdaptiveController adaptiveController;
+    // 上传进度及限速，未配置时为空
+    UploadMonitor uploadMonitor;
+    // 块上传成功的回调，用于追加断点记录，可为空
+    BlockUploadedListener blockUploadedListener;
+
+    interface BlockUploadedListener {
+        void blockUploaded(ResumeUploadSource.Block block);
+    }
 
     ResumeUploadPerformer(Client client, String key, UploadToken token, ResumeUploadSource source,
                           Recorder recorder, UploadOptions options, Configuration config) {
@@ -29,13 +41,18 @@ abstract class ResumeUploadPerformer {
         this.recorder = recorder;
         this.config = config;
         this.configHelper = new ConfigHelper(config);
+        this.adaptiveController = config.resumableUploadAdaptive ?
+                new UploadAdaptiveController(config.resumableUploadMaxConcurrentTaskCount) : null;
         List<String> ipHosts = this.configHelper.upHostsWithoutScheme();
         this.uploadApiConfig = new Api.Config.Builder()
                 .setSingleHostRetryMax(config.retryMax)
                 .setHostRetryMax(ipHosts.size())
-                .setRetryInterval(Retry.staticInterval(config.retryInterval))
+                .setRetryInterval(Retry.decorrelatedJitterInterval(config.retryInterval, config.retryInterval * 10))
                 .setHostFreezeDuration(config.hostFreezeDuration)
-                .setHostProvider(HostProvider.arrayProvider(ipHosts.toArray(new String[0])))
+                .setHostProvider(HostProvider.latencyAwareProvider(ipHosts.toArray(new String[0])))
+                // 只对幂等请求生效，如：列举已上传的分片
+                .setHedgePercentile(95)
+                .setRetryBudget(config.retryBudget)
                 .build();
     }
 
@@ -51,27 +68,60 @@ abstract class ResumeUploadPerformer {
         return uploadSource.isAllBlocksUploaded();
     }
 
-    abstract boolean shouldUploadInit();
+    boolean hasReadyBlock() {
+        return uploadSource.hasReadyBlock();
+    }
 
-    abstract Response uploadInit() throws QiniuException;
+    void setBlockReadyListener(Runnable listener) {
+        uploadSource.setBlockReadyListener(listener);
+    }
 
-    Response uploadNextData() throws QiniuException {
-        ResumeUploadSource.Block block = null;
-        synchronized (this) {
-            block = getNextUploadingBlock();
-            if (block != null) {
-                block.isUploading = true;
+    // 设置上传监控，之前已上传的块（断点续传）计入进度
+    void setUploadMonitor(UploadMonitor uploadMonitor) {
+        this.uploadMonitor = uploadMonitor;
+        if (uploadMonitor == null || uploadSource.blockList == null) {
+            return;
+        }
+        for (ResumeUploadSource.Block block : uploadSource.blockList) {
+            if (block.isUploaded()) {
+                uploadMonitor.setPartBytes(block.index, block.size);
             }
         }
+    }
 
+    // 本地没有有效的断点记录时，由服务端已上传的分片恢复上传进度；不支持时不处理 【resume v2 特有】
+    void recoverUploadedBlocksFromServer() {
+    }
+
+    abstract boolean shouldUploadInit();
+
+    abstract Response uploadInit() throws QiniuException;
+
+    Response uploadNextData() throws QiniuException {
+        // 块调度为无锁队列，多个线程获取块时不互相等待
+        ResumeUploadSource.Block block = getNextUploadingBlock();
         if (block == null) {
             return Response.createSuccessResponse();
         }
 
+        long start = System.nanoTime();
+        boolean success = false;
         try {
-            return uploadBlock(block);
+            Response response = uploadBlock(block);
+            success = response != null && response.isOK();
+            if (success && blockUploadedListener != null && block.isUploaded()) {
+                blockUploadedListener.blockUploaded(block);
+            }
+            return response;
         } finally {
-            block.isUploading = false;
+            uploadSource.finishUploadingBlock(block);
+            if (adaptiveController != null) {
+                if (success) {
+                    adaptiveController.onPartSuccess(block.size, System.nanoTime() - start);
+                } else {
+                    adaptiveController.onPartFailure();
+                }
+            }
         }
     }
 
@@ -79,6 +129,53 @@ abstract class ResumeUploadPerformer {
 
     abstract Response completeUpload() throws QiniuException;
 
+    // 开启校验时，块数据在发送的同时计算摘要：V1 校验 crc32，V2 校验 md5，同时计算 etag
+    ContentDigest newBlockDigest() {
+        if (!options.checkCrc) {
+            return null;
+        }
+        boolean isV1 = uploadSource.resumableUploadAPIVersion == Configuration.ResumableUploadAPIVersion.V1;
+        return new ContentDigest(!isV1, isV1, true);
+    }
+
+    // 块数据完整发送过才可使用摘要，否则需要重新读取块数据计算
+    static boolean isBlockDigestComplete(ResumeUploadSource.Block block) {
+        return block.digest != null && block.digest.length() == block.size;
+    }
+
+    /**
+     * 上传完成后校验整个文件的 etag，并将 etag 设置到 response 中：
+     * 只有上传策略没有自定义 returnBody 及 callbackUrl 时，返回结果中的 hash 才是服务端计算的 etag，此时与发送数据时计算的 etag 对比；
+     * 不一致时文件已保存在服务端，抛出不可重试的异常，不会切换区域重新上传
+     */
+    void checkContentEtag(Response response) throws QiniuException {
+        if (response == null || !response.isOK() || !options.checkCrc) {
+            return;
+        }
+        String etag = uploadSource.getContentEtag();
+        if (etag == null) {
+            return;
+        }
+        if (!token.hasDefaultReturnBody()) {
+            response.setContentEtag(etag);
+            return;
+        }
+
+        Object hash = null;
+        try {
+            StringMap ret = response.jsonToMap();
+            if (ret != null) {
+                hash = ret.get("hash");
+            }
+        } catch (Exception ignored) {
+            // 返回结果不是 json，此时不校验
+        }
+        if (hash instanceof String && !etag.equals(hash)) {
+            throw QiniuException.unrecoverable(response, "file's etag is not match, local:" + etag + " server:" + hash);
+        }
+        response.setContentEtag(etag);
+    }
+
     private ResumeUploadSource.Block getNextUploadingBlock() throws QiniuException {
 
         ResumeUploadSource.Block block = null;
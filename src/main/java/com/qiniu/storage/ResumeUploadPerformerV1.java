@@ -5,6 +5,8 @@ import com.qiniu.http.Client;
 import com.qiniu.http.Response;
 import com.qiniu.util.Crc32;
 
+import java.io.IOException;
+
 class ResumeUploadPerformerV1 extends ResumeUploadPerformer {
 
 
@@ -27,8 +29,15 @@ class ResumeUploadPerformerV1 extends ResumeUploadPerformer {
     Response uploadBlock(final ResumeUploadSource.Block block) throws QiniuException {
         String urlPrefix = configHelper.upHost(token.getToken());
         ApiUploadV1MakeBlock api = new ApiUploadV1MakeBlock(client, getUploadApiConfig());
-        ApiUploadV1MakeBlock.Request request = new ApiUploadV1MakeBlock.Request(urlPrefix, token.getToken(), block.size)
-                .setFirstChunkData(block.data, 0, block.size, null);
+        ApiUploadV1MakeBlock.Request request = new ApiUploadV1MakeBlock.Request(urlPrefix, token.getToken(), block.size);
+        if (block.file != null) {
+            request.setFirstChunkData(block.file, block.offset, block.size, null);
+        } else {
+            request.setFirstChunkData(block.data, 0, block.size, null);
+        }
+        block.digest = newBlockDigest();
+        request.setBodyDigest(block.digest);
+        request.setUploadMonitor(uploadMonitor, block.index);
         ApiUploadV1MakeBlock.Response response = api.request(request);
 
         if (response.isOK()) {
@@ -38,7 +47,16 @@ class ResumeUploadPerformerV1 extends ResumeUploadPerformer {
                     throw new QiniuException(new Exception("block's crc32 is empty"));
                 }
 
-                long crc = Crc32.bytes(block.data, 0, block.size);
+                long crc;
+                if (isBlockDigestComplete(block)) {
+                    crc = block.digest.crc32();
+                } else {
+                    try {
+                        crc = block.file != null ? Crc32.file(block.file, block.offset, block.size) : Crc32.bytes(block.data, 0, block.size);
+                    } catch (IOException e) {
+                        throw new QiniuException(e);
+                    }
+                }
                 if ((long) serverCrc != crc) {
                     throw new QiniuException(new Exception("block's crc32 is not match"));
                 }
@@ -56,7 +74,6 @@ class ResumeUploadPerformerV1 extends ResumeUploadPerformer {
             }
             block.expiredAt = expiredAt;
 
-            block.data = null;
         }
 
         return response.getResponse();
@@ -3,9 +3,19 @@ package com.qiniu.storage;
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
 import com.qiniu.http.Response;
+import com.qiniu.util.Etag;
 import com.qiniu.util.Md5;
 import com.qiniu.util.StringUtils;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 
 class ResumeUploadPerformerV2 extends ResumeUploadPerformer {
 
@@ -14,6 +24,190 @@ class ResumeUploadPerformerV2 extends ResumeUploadPerformer {
         super(client, key, token, source, recorder, options, config);
     }
 
+    // 每次列举的分片数量上限
+    private static final int LIST_PARTS_LIMIT = 1000;
+
+    /**
+     * 本地没有有效的断点记录且设置了 {@link UploadOptions#resumeUploadId} 时，分页列举该 uploadId 已上传的分片，
+     * 并行校验分片与本地数据是否一致，一致的分片不再上传；列举失败（如 uploadId 已失效）时不处理，之后重新 init。
+     * 之前上传的块大小可能与本次不同（如配置变化或开启了自适应控制），已上传分片的大小与某个块大小一致时按该块大小重新分块；
+     * 无法确定时（如第 1 个分片未上传）保持本次的分块，大小不一致的分片重新上传。
+     */
+    @Override
+    void recoverUploadedBlocksFromServer() {
+        String uploadId = options.resumeUploadId;
+        if (StringUtils.isNullOrEmpty(uploadId) || !shouldUploadInit()
+                || !(uploadSource instanceof ResumeUploadSourceFile)) {
+            return;
+        }
+
+        Map<Integer, Map> serverParts = new HashMap<>();
+        Long expireAt;
+        try {
+            expireAt = listParts(uploadId, serverParts);
+        } catch (QiniuException e) {
+            return;
+        }
+        // 服务端是 7 天，此处有效期少 2h
+        if (expireAt == null || expireAt - 2 * 3600 <= System.currentTimeMillis() / 1000) {
+            return;
+        }
+
+        ResumeUploadSourceFile sourceFile = (ResumeUploadSourceFile) uploadSource;
+        int blockSize = serverBlockSize(serverParts, sourceFile.getSize());
+        if (blockSize > 0 && blockSize != sourceFile.blockSize) {
+            sourceFile.resetBlockList(blockSize);
+        }
+        verifyParts(sourceFile.getFile(), uploadSource.blockList, serverParts, config.resumableUploadMaxConcurrentTaskCount);
+        uploadSource.uploadId = uploadId;
+        uploadSource.expireAt = expireAt;
+        uploadSource.resetBlockIndex();
+    }
+
+    // 分页列举已上传的分片，返回 uploadId 的有效期
+    private Long listParts(String uploadId, Map<Integer, Map> parts) throws QiniuException {
+        String urlPrefix = configHelper.upHost(token.getToken());
+        ApiUploadV2ListParts api = new ApiUploadV2ListParts(client, getUploadApiConfig());
+        Long expireAt = null;
+        Integer marker = null;
+        do {
+            ApiUploadV2ListParts.Request request = new ApiUploadV2ListParts.Request(urlPrefix, token.getToken(), uploadId)
+                    .setKey(key)
+                    .setMaxParts(LIST_PARTS_LIMIT);
+            if (marker != null) {
+                request.setPartNumberMarker(marker);
+            }
+            ApiUploadV2ListParts.Response response = api.request(request);
+            if (!response.isOK()) {
+                return null;
+            }
+
+            expireAt = response.getExpireAt();
+            List partList = response.getParts();
+            if (partList == null || partList.isEmpty()) {
+                break;
+            }
+            for (Object item : partList) {
+                if (!(item instanceof Map)) {
+                    continue;
+                }
+                Object partNumber = ((Map) item).get("partNumber");
+                if (partNumber instanceof Number) {
+                    parts.put(((Number) partNumber).intValue(), (Map) item);
+                }
+            }
+            marker = response.getPartNumberMarker();
+        } while (marker != null && marker > 0);
+        return expireAt;
+    }
+
+    // 在共享的分片上传调度器上并行校验服务端的分片与本地对应块的数据，一致时记录分片的 etag，该块不再上传；
+    // 校验与分片上传共用调度器的线程及并发名额，多个上传同时续传时线程数量不会增长
+    static void verifyParts(final File file, List<ResumeUploadSource.Block> blockList,
+                            Map<Integer, Map> serverParts, int maxConcurrency) {
+        final List<ResumeUploadSource.Block> blocks = new ArrayList<>();
+        final List<Map> parts = new ArrayList<>();
+        for (ResumeUploadSource.Block block : blockList) {
+            Map part = serverParts.get(block.index + 1);
+            if (part == null || block.isUploaded()) {
+                continue;
+            }
+            blocks.add(block);
+            parts.add(part);
+        }
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        final AtomicInteger next = new AtomicInteger(0);
+        int concurrency = Math.max(1, Math.min(maxConcurrency, blocks.size()));
+        try {
+            UploadPartScheduler.global().upload(null, concurrency, new UploadPartScheduler.Parts() {
+                @Override
+                public boolean hasMoreParts() {
+                    return next.get() < blocks.size();
+                }
+
+                @Override
+                public boolean hasReadyParts() {
+                    return hasMoreParts();
+                }
+
+                @Override
+                public Response uploadNextPart() {
+                    int index = next.getAndIncrement();
+                    if (index >= blocks.size()) {
+                        return null;
+                    }
+                    ResumeUploadSource.Block block = blocks.get(index);
+                    try {
+                        String etag = verifyPart(file, block, parts.get(index));
+                        if (etag != null) {
+                            block.etag = etag;
+                        }
+                    } catch (IOException ignore) {
+                        // 读取本地数据失败，该块重新上传
+                    }
+                    return null;
+                }
+            });
+        } catch (QiniuException ignore) {
+            // 等待时被中断，未校验的块重新上传
+        }
+    }
+
+    /**
+     * 由服务端已上传的分片推断之前上传的块大小：第 1 个分片的大小，且其他分片的大小均与按此大小分块一致
+     *
+     * @return 块大小，无法确定或不一致时为 0
+     */
+    static int serverBlockSize(Map<Integer, Map> parts, long fileSize) {
+        Map first = parts.get(1);
+        Object firstSize = first == null ? null : first.get("size");
+        if (!(firstSize instanceof Number)) {
+            return 0;
+        }
+        long blockSize = ((Number) firstSize).longValue();
+        if (blockSize <= 0 || blockSize > Integer.MAX_VALUE) {
+            return 0;
+        }
+        if ((fileSize + blockSize - 1) / blockSize > UploadAdaptiveController.MAX_PART_COUNT) {
+            return 0;
+        }
+
+        for (Map.Entry<Integer, Map> entry : parts.entrySet()) {
+            Object size = entry.getValue().get("size");
+            long offset = (entry.getKey() - 1) * blockSize;
+            if (!(size instanceof Number) || offset < 0 || offset >= fileSize
+                    || ((Number) size).longValue() != Math.min(blockSize, fileSize - offset)) {
+                return 0;
+            }
+        }
+        return (int) blockSize;
+    }
+
+    /**
+     * 校验服务端的分片与本地块数据是否一致：大小相同，且服务端有 md5 时校验 md5，否则校验 etag
+     *
+     * @return 一致时返回分片的 etag，否则为空
+     */
+    static String verifyPart(File file, ResumeUploadSource.Block block, Map part) throws IOException {
+        Object size = part.get("size");
+        Object etag = part.get("etag");
+        if (!(size instanceof Number) || ((Number) size).longValue() != block.size || !(etag instanceof String)) {
+            return null;
+        }
+
+        Object md5 = part.get("md5");
+        if (md5 instanceof String) {
+            return md5.equals(Md5.md5(file, block.offset, block.size)) ? (String) etag : null;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            in.getChannel().position(block.offset);
+            return etag.equals(Etag.stream(in, block.size)) ? (String) etag : null;
+        }
+    }
+
     @Override
     boolean shouldUploadInit() {
         // uploadId 无效时需要 init,
@@ -53,8 +247,15 @@ class ResumeUploadPerformerV2 extends ResumeUploadPerformer {
         ApiUploadV2UploadPart api = new ApiUploadV2UploadPart(client, getUploadApiConfig());
         ApiUploadV2UploadPart.Request request = new ApiUploadV2UploadPart.Request(urlPrefix, this.token.getToken(),
                 uploadSource.uploadId, block.index + 1)
-                .setKey(key)
-                .setUploadData(block.data, 0, block.size, null);
+                .setKey(key);
+        if (block.file != null) {
+            request.setUploadData(block.file, block.offset, block.size, null);
+        } else {
+            request.setUploadData(block.data, 0, block.size, null);
+        }
+        block.digest = newBlockDigest();
+        request.setBodyDigest(block.digest);
+        request.setUploadMonitor(uploadMonitor, block.index);
         ApiUploadV2UploadPart.Response response = api.request(request);
 
         if (response.isOK()) {
@@ -65,7 +266,16 @@ class ResumeUploadPerformerV2 extends ResumeUploadPerformer {
                     throw new QiniuException(new Exception("block's md5 is empty"));
                 }
 
-                String md5 = Md5.md5(block.data);
+                String md5;
+                if (isBlockDigestComplete(block)) {
+                    md5 = block.digest.md5();
+                } else {
+                    try {
+                        md5 = block.file != null ? Md5.md5(block.file, block.offset, block.size) : Md5.md5(block.data, 0, block.size);
+                    } catch (IOException e) {
+                        throw new QiniuException(e);
+                    }
+                }
                 if (!serverMd5.equals(md5)) {
                     throw new QiniuException(new Exception("block's md5 is not match"));
                 }
@@ -76,7 +286,6 @@ class ResumeUploadPerformerV2 extends ResumeUploadPerformer {
                 throw new QiniuException(new Exception("block's etag is empty"));
             }
             block.etag = etag;
-            block.data = null;
         }
 
         return response.getResponse();
@@ -1,25 +1,42 @@
 package com.qiniu.storage;
 
 import com.qiniu.common.Constants;
+import com.qiniu.util.ContentDigest;
 import com.qiniu.util.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.util.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 abstract class ResumeUploadSource {
 
     final String recordKey;
-    final int blockSize;
+    // 由断点记录恢复时使用记录中的块大小
+    int blockSize;
     final Configuration.ResumableUploadAPIVersion resumableUploadAPIVersion;
 
     transient Configuration config;
 
+    // 流式数据源读取时会追加块，遍历及追加均需持有数据源的锁
     List<Block> blockList;
     // uploadId: 此次文件上传唯一标识 【resume v2 特有】
     String uploadId;
     // expireAt: uploadId 有效期， 单位：秒 【resume v2 特有】
     Long expireAt;
 
+    // 块调度索引，blockList 变化后置空，使用时根据 blockList 重新构建；置空、重新构建及追加块均持有数据源的锁
+    private transient volatile BlockIndex blockIndex;
+
     ResumeUploadSource() {
         this.blockSize = 0;
         this.recordKey = null;
@@ -33,35 +50,43 @@ abstract class ResumeUploadSource {
         this.recordKey = recordKey;
     }
 
+    ResumeUploadSource(Configuration config, String recordKey, int blockSize) {
+        this.config = config;
+        this.resumableUploadAPIVersion = config.resumableUploadAPIVersion;
+        this.blockSize = blockSize;
+        this.recordKey = recordKey;
+    }
+
     // 所有块数据是否 正在上传 或者 已上传，为 true 则说明没有需要上传的数据块
     boolean isAllBlocksUploadingOrUploaded() {
         if (blockList == null || blockList.size() == 0) {
             return true;
         }
-
-        boolean isAllBlockUploadingOrUploaded = true;
-        for (ResumeUploadSource.Block block : blockList) {
-            if (!block.isUploading && !block.isUploaded()) {
-                isAllBlockUploadingOrUploaded = false;
-                break;
-            }
-        }
-        return isAllBlockUploadingOrUploaded;
+        return getBlockIndex().pendingBlocks.isEmpty();
     }
 
     boolean isAllBlocksUploaded() {
         if (blockList == null || blockList.size() == 0) {
             return true;
         }
+        return getBlockIndex().notUploadedCount.get() == 0;
+    }
 
-        boolean isAllBlockUploaded = true;
-        for (ResumeUploadSource.Block block : blockList) {
-            if (!block.isUploaded()) {
-                isAllBlockUploaded = false;
-                break;
-            }
+    // 是否有可以立即开始上传的块
+    boolean hasReadyBlock() {
+        return hasPendingBlock();
+    }
+
+    // 待上传队列中是否有块
+    boolean hasPendingBlock() {
+        if (blockList == null || blockList.size() == 0) {
+            return false;
         }
-        return isAllBlockUploaded;
+        return !getBlockIndex().pendingBlocks.isEmpty();
+    }
+
+    // 设置有新的块可以上传时的通知，流式数据源读取到新的块时使用
+    void setBlockReadyListener(Runnable listener) {
     }
 
     boolean couldReload() {
@@ -72,24 +97,79 @@ abstract class ResumeUploadSource {
         return false;
     }
 
-    void clearState() {
+    synchronized void clearState() {
         for (ResumeUploadSource.Block block : blockList) {
             block.clearState();
         }
         uploadId = null;
         expireAt = null;
+        resetBlockIndex();
     }
 
-    // 获取下一个需要上传的块
+    // 获取下一个需要上传的块，并标记为上传中；多个线程可同时调用，不加锁
     ResumeUploadSource.Block getNextUploadingBlock() throws IOException {
-        ResumeUploadSource.Block block = null;
-        for (ResumeUploadSource.Block blockP : blockList) {
-            if (!blockP.isUploading && !blockP.isUploaded()) {
-                block = blockP;
-                break;
+        BlockIndex index = getBlockIndex();
+        ResumeUploadSource.Block block;
+        while ((block = index.pendingBlocks.poll()) != null) {
+            if (block.startUploading()) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    // 块上传结束，上传成功则计入已上传，否则放回待上传队列等待重新上传
+    void finishUploadingBlock(ResumeUploadSource.Block block) {
+        if (block == null) {
+            return;
+        }
+
+        boolean isUploaded;
+        // 与重置索引互斥，避免块放回已被替换的索引中
+        synchronized (this) {
+            BlockIndex index = getBlockIndex();
+            block.isUploading = false;
+            isUploaded = block.isUploaded();
+            if (isUploaded) {
+                index.notUploadedCount.decrementAndGet();
+            } else {
+                index.pendingBlocks.add(block);
+            }
+        }
+        if (isUploaded) {
+            releaseBlockData(block);
+        }
+    }
+
+    // 块上传成功后释放块数据
+    void releaseBlockData(ResumeUploadSource.Block block) {
+        block.data = null;
+    }
+
+    // 新增一个待上传的块，不放入待上传队列，由调用方分配上传；流式数据源读取到新数据时使用
+    synchronized void addBlock(ResumeUploadSource.Block block) {
+        BlockIndex index = getBlockIndex();
+        blockList.add(block);
+        index.notUploadedCount.incrementAndGet();
+    }
+
+    // blockList 被替换后需重置块调度索引
+    synchronized void resetBlockIndex() {
+        blockIndex = null;
+    }
+
+    private BlockIndex getBlockIndex() {
+        BlockIndex index = blockIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = blockIndex;
+                if (index == null) {
+                    index = new BlockIndex(blockList);
+                    blockIndex = index;
+                }
             }
         }
-        return block;
+        return index;
     }
 
     // 关闭数据流
@@ -105,7 +185,7 @@ abstract class ResumeUploadSource {
     abstract String getFileName();
 
     // 是否有已上传的数据
-    boolean hasUploadData() {
+    synchronized boolean hasUploadData() {
         if (blockList == null || blockList.size() == 0) {
             return false;
         }
@@ -133,7 +213,7 @@ abstract class ResumeUploadSource {
     }
 
     // 分片 V1 make file 使用
-    String[] getAllBlockContextList() {
+    synchronized String[] getAllBlockContextList() {
         String[] contextList = new String[blockList.size()];
         for (int i = 0; i < blockList.size(); i++) {
             Block block = blockList.get(i);
@@ -144,31 +224,92 @@ abstract class ResumeUploadSource {
         return contextList;
     }
 
-    // 分片 V2 complete upload 使用
-    List<Map<String, Object>> getPartInfo() {
+    // 分片 V2 complete upload 使用，按块的 index 直接放置，不需要排序
+    synchronized List<Map<String, Object>> getPartInfo() {
+        int count = blockList.size();
+        List<Map<String, Object>> partInfo = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            partInfo.add(new HashMap<String, Object>());
+        }
 
-        // 排序
-        Collections.sort(blockList, new Comparator<Block>() {
-            @Override
-            public int compare(Block o1, Block o2) {
-                return o1.index - o2.index; // small enough and both greater than 0 //
+        for (Block block : blockList) {
+            if (block.etag == null || block.index < 0 || block.index >= count) {
+                continue;
             }
-        });
+            Map<String, Object> part = partInfo.get(block.index);
+            part.put("partNumber", block.index + 1);
+            part.put("etag", block.etag);
+        }
+        return partInfo;
+    }
 
-        List<Map<String, Object>> partInfo = new ArrayList<>();
-        for (int i = 0; i < blockList.size(); i++) {
-            Block block = blockList.get(i);
-            Map<String, Object> part = new HashMap<>();
-            if (block.etag != null) {
-                part.put("partNumber", block.index + 1);
-                part.put("etag", block.etag);
+    // 由各块发送时计算的摘要合并出整个文件的 etag，有块没有完整的摘要（如断点续传时之前已上传的块）时为空
+    synchronized String getContentEtag() {
+        int count = blockList.size();
+        ContentDigest[] digests = new ContentDigest[count];
+        for (Block block : blockList) {
+            ContentDigest digest = block.digest;
+            if (digest == null || block.index < 0 || block.index >= count || digest.length() != block.size) {
+                return null;
+            }
+            digests[block.index] = digest;
+        }
+        return ContentDigest.etag(Arrays.asList(digests));
+    }
+
+    // 由断点记录中追加的块记录恢复块的上传信息，记录无效时返回 false
+    boolean recoverBlockFromRecordEntry(byte[] entry) {
+        if (blockList == null || entry == null) {
+            return false;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry));
+            if (in.readByte() != Block.RECORD_ENTRY_VERSION) {
+                return false;
+            }
+            int index = in.readInt();
+            long expiredAt = in.readLong();
+            String context = in.readUTF();
+            String etag = in.readUTF();
+
+            Block block = index >= 0 && index < blockList.size() ? blockList.get(index) : null;
+            if (block == null || block.index != index) {
+                return false;
+            }
+            block.expiredAt = expiredAt;
+            block.context = context.isEmpty() ? null : context;
+            block.etag = etag.isEmpty() ? null : etag;
+            resetBlockIndex();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // 块调度索引：待上传块的无锁队列及未上传完成的块数量
+    private static final class BlockIndex {
+        private final ConcurrentLinkedQueue<Block> pendingBlocks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger notUploadedCount = new AtomicInteger(0);
+
+        private BlockIndex(List<Block> blockList) {
+            if (blockList == null) {
+                return;
+            }
+            for (Block block : blockList) {
+                if (block.isUploaded()) {
+                    continue;
+                }
+                notUploadedCount.incrementAndGet();
+                if (!block.isUploading) {
+                    pendingBlocks.add(block);
+                }
             }
-            partInfo.add(part);
         }
-        return partInfo;
     }
 
     static class Block {
+        static final byte RECORD_ENTRY_VERSION = 1;
+
         final int index;
         final long offset;
         final Configuration.ResumableUploadAPIVersion resumableUploadAPIVersion;
@@ -176,7 +317,11 @@ abstract class ResumeUploadSource {
         int size;
 
         transient byte[] data;
-        transient boolean isUploading;
+        // 块数据所在文件，不为空时从文件中 offset 开始读取 size 大小的数据上传，此时 data 为空
+        transient File file;
+        transient volatile boolean isUploading;
+        // 块数据摘要，发送块数据的同时计算，校验时不需要再次读取块数据
+        transient ContentDigest digest;
 
         // context: 块上传上下文信息 【resume v1 特有】
         String context;
@@ -201,6 +346,15 @@ abstract class ResumeUploadSource {
             this.clearState();
         }
 
+        // 标记为上传中，已上传或正在上传时返回 false；块可能同时在多个待上传队列中，需保证只被一个上传任务获取
+        synchronized boolean startUploading() {
+            if (isUploading || isUploaded()) {
+                return false;
+            }
+            isUploading = true;
+            return true;
+        }
+
         boolean isUploaded() {
             boolean isUploaded = false;
             if (resumableUploadAPIVersion == Configuration.ResumableUploadAPIVersion.V1) {
@@ -215,11 +369,25 @@ abstract class ResumeUploadSource {
             return isUploaded;
         }
 
+        // 追加到断点记录中的块上传信息：版本、index、expiredAt、context、etag
+        byte[] toRecordEntry() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(RECORD_ENTRY_VERSION);
+            out.writeInt(index);
+            out.writeLong(expiredAt);
+            out.writeUTF(context == null ? "" : context);
+            out.writeUTF(etag == null ? "" : etag);
+            out.flush();
+            return bytes.toByteArray();
+        }
+
         void clearState() {
             this.isUploading = false;
             this.etag = null;
             this.context = null;
             this.data = null;
+            this.digest = null;
         }
     }
 }
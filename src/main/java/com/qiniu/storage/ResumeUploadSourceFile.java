@@ -1,10 +1,10 @@
 package com.qiniu.storage;
 
+import com.qiniu.common.Constants;
 import com.qiniu.util.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Date;
 
@@ -13,16 +13,27 @@ class ResumeUploadSourceFile extends ResumeUploadSource {
     private final long size;
     private final String fileName;
     private final transient File file;
-    private transient RandomAccessFile randomAccessFile;
 
     ResumeUploadSourceFile(File file, Configuration config, String recordKey) {
-        super(config, recordKey);
+        super(config, recordKey, getBlockSize(config, file.length()));
         this.file = file;
         this.fileName = file.getName();
         this.size = file.length();
         createBlockList(config, size, blockSize);
     }
 
+    // 开启自适应控制时，分片 v2 根据文件大小及最近的吞吐选择块大小
+    private static int getBlockSize(Configuration config, long fileSize) {
+        if (config.resumableUploadAPIVersion == Configuration.ResumableUploadAPIVersion.V2) {
+            if (config.resumableUploadAdaptive) {
+                return UploadAdaptiveController.partSize(fileSize, config.resumableUploadMaxConcurrentTaskCount,
+                        config.resumableUploadAPIV2BlockSize);
+            }
+            return config.resumableUploadAPIV2BlockSize;
+        }
+        return Constants.BLOCK_SIZE;
+    }
+
     private void createBlockList(Configuration config, long fileSize, int blockSize) {
         blockList = new ArrayList<>();
         long offset = 0;
@@ -37,11 +48,22 @@ class ResumeUploadSourceFile extends ResumeUploadSource {
         }
     }
 
+    // 按指定的块大小重新分块，之前的上传信息都被清除；由服务端已上传的分片恢复上传进度时使用
+    synchronized void resetBlockList(int blockSize) {
+        this.blockSize = blockSize;
+        createBlockList(config, size, blockSize);
+        resetBlockIndex();
+    }
+
     @Override
     boolean isValid() {
         return file != null && file.canRead();
     }
 
+    File getFile() {
+        return file;
+    }
+
     @Override
     public long getSize() {
         return size;
@@ -66,41 +88,12 @@ class ResumeUploadSourceFile extends ResumeUploadSource {
     ResumeUploadSource.Block getNextUploadingBlock() throws IOException {
         ResumeUploadSource.Block block = super.getNextUploadingBlock();
         if (block != null && block.data == null) {
-            setBlockData(block);
+            // 块数据在发送时直接从文件读取，不读入内存
+            block.file = file;
         }
         return block;
     }
 
-    private void setBlockData(ResumeUploadSource.Block block) throws IOException {
-
-        int readSize = 0;
-        byte[] buffer = new byte[block.size];
-
-        RandomAccessFile randomAccessFile = getRandomAccessFile();
-        randomAccessFile.seek(block.offset);
-
-        while (readSize != block.size) {
-            int ret = randomAccessFile.read(buffer, readSize, block.size - readSize);
-            if (ret < 0) {
-                break;
-            }
-            readSize += ret;
-        }
-
-        if (readSize < block.size) {
-            throw new IOException("read file data error");
-        }
-
-        block.data = buffer;
-    }
-
-    private RandomAccessFile getRandomAccessFile() throws IOException {
-        if (randomAccessFile == null && file != null) {
-            randomAccessFile = new RandomAccessFile(file, "r");
-        }
-        return randomAccessFile;
-    }
-
     @Override
     boolean recoverFromRecordInfo(ResumeUploadSource source) {
         if (!isSameResource(source)) {
@@ -137,7 +130,9 @@ class ResumeUploadSourceFile extends ResumeUploadSource {
         if (needRecovered) {
             uploadId = source.uploadId;
             expireAt = source.expireAt;
+            blockSize = source.blockSize;
             blockList = source.blockList;
+            resetBlockIndex();
         }
         return needRecovered;
     }
@@ -152,7 +147,13 @@ class ResumeUploadSourceFile extends ResumeUploadSource {
             return false;
         }
 
-        if (sourceFile.size != size || sourceFile.blockSize != blockSize) {
+        if (sourceFile.size != size) {
+            return false;
+        }
+
+        // 自适应控制的块大小随吞吐变化，以记录中的块为准
+        boolean isAdaptive = config != null && config.resumableUploadAdaptive;
+        if (sourceFile.blockSize != blockSize && !isAdaptive) {
             return false;
         }
 
@@ -169,8 +170,5 @@ class ResumeUploadSourceFile extends ResumeUploadSource {
 
     @Override
     void close() throws IOException {
-        if (randomAccessFile != null) {
-            randomAccessFile.close();
-        }
     }
 }
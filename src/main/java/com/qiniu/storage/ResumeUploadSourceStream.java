@@ -1,26 +1,67 @@
 package com.qiniu.storage;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.LinkedList;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
+/**
+ * 数据流上传源
+ * 数据流只能顺序读取，由一个预读任务提前读取若干块数据放入有界队列，上传任务从队列中获取块上传，读取与上传同时进行；
+ * 预读的块数量为分片上传的并发数，块数据缓冲从 {@link BlockBufferPool} 获取，内存占用有上限。
+ * 开启重放缓冲（{@link Configuration#resumableUploadStreamReplayBuffer}）时，读取的块数据同时按偏移写入临时文件，
+ * 切换区域重新上传时已读取的块从临时文件读取，之后的数据继续从数据流读取。
+ */
 public class ResumeUploadSourceStream extends ResumeUploadSource {
 
+    private static final ExecutorService readAheadExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "qiniu-upload-read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // 预读结束标记，预读结束后一直保留在队列中
+    private static final Block END = new Block();
+
     private final InputStream inputStream;
     private final String fileName;
-    private long readOffset = 0;
-    private boolean isAllDataRead;
+    private final transient BlockingQueue<Block> readAheadBlocks;
+    private volatile long readOffset = 0;
+    private volatile boolean isAllDataRead;
+    private transient volatile boolean isClosed;
+    private transient volatile IOException readException;
+    private transient volatile Future<?> readAheadFuture;
+    // 读取到新的块或读取结束时通知
+    private transient volatile Runnable blockReadyListener;
+    // 重放缓冲临时文件，未开启时为空
+    private transient volatile File replayFile;
+    private transient FileChannel replayChannel;
 
     ResumeUploadSourceStream(InputStream inputStream, Configuration config, String recordKey, String fileName) {
         super(config, recordKey);
         this.inputStream = inputStream;
         this.fileName = fileName;
-        this.blockList = new LinkedList<>();
+        this.blockList = new ArrayList<>();
+        this.readAheadBlocks = new ArrayBlockingQueue<>(Math.max(1, config.resumableUploadMaxConcurrentTaskCount) + 1);
     }
 
+    // 读取数据流出错时仍需要上传任务获取块，以抛出读取的异常
     @Override
     boolean isAllBlocksUploadingOrUploaded() {
-        if (!isAllDataRead) {
+        if (!isAllDataRead || readAheadBlocks.peek() != END || readException != null) {
             return false;
         }
         return super.isAllBlocksUploadingOrUploaded();
@@ -28,31 +69,232 @@ public class ResumeUploadSourceStream extends ResumeUploadSource {
 
     @Override
     boolean isAllBlocksUploaded() {
-        if (!isAllDataRead) {
+        if (!isAllDataRead || readException != null) {
             return false;
         }
         return super.isAllBlocksUploaded();
     }
 
+    // 预读未开始时由第一个上传任务开始预读，之后只有待上传或预读完成的块时才可以立即开始上传
+    @Override
+    boolean hasReadyBlock() {
+        if (readAheadFuture == null || hasPendingBlock()) {
+            return true;
+        }
+        Block block = readAheadBlocks.peek();
+        return block != null && (block != END || readException != null);
+    }
+
+    @Override
+    void setBlockReadyListener(Runnable listener) {
+        this.blockReadyListener = listener;
+    }
+
+    private void notifyBlockReady() {
+        Runnable listener = blockReadyListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
     @Override
     Block getNextUploadingBlock() throws IOException {
         ResumeUploadSource.Block block = super.getNextUploadingBlock();
         if (block != null) {
-            return block;
+            return withReplayData(block);
+        }
+
+        startReadAheadIfNeeded();
+
+        while (true) {
+            try {
+                block = readAheadBlocks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("wait for block data interrupted");
+            }
+
+            if (block == END) {
+                // 放回结束标记，其他等待的上传任务也能获取到
+                readAheadBlocks.offer(END);
+                if (readException != null) {
+                    throw readException;
+                }
+                return null;
+            }
+
+            // 重新上传时块也在待上传队列中，可能已被其他上传任务获取
+            if (block.startUploading()) {
+                return withReplayData(block);
+            }
         }
+    }
+
+    // 块数据已归还时从重放缓冲读取
+    private Block withReplayData(Block block) {
+        if (block.data == null && replayFile != null) {
+            block.file = replayFile;
+        }
+        return block;
+    }
+
+    private synchronized void startReadAheadIfNeeded() throws IOException {
+        if (readAheadFuture != null) {
+            return;
+        }
+        if (isClosed) {
+            throw new IOException("source is closed");
+        }
+        if (config.resumableUploadStreamReplayBuffer && replayFile == null) {
+            // 不使用 deleteOnExit，其记录的路径在进程退出前不会释放；上传结束 close 时删除
+            replayFile = File.createTempFile("qiniu-upload-replay", ".tmp", config.resumableUploadStreamReplayDirectory);
+            replayChannel = new RandomAccessFile(replayFile, "rw").getChannel();
+        }
+
+        readAheadFuture = readAheadExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        });
+    }
+
+    private void readAhead() {
+        try {
+            while (!isClosed) {
+                Block block = readBlock();
+                if (block == null) {
+                    break;
+                }
+
+                addBlock(block);
+                readAheadBlocks.put(block);
+                if (isClosed) {
+                    releaseBlockData(block);
+                }
+                notifyBlockReady();
+            }
+        } catch (InterruptedException e) {
+            readException = new InterruptedIOException("read block data interrupted");
+        } catch (IOException e) {
+            readException = e;
+        } catch (Exception e) {
+            readException = new IOException(e);
+        } finally {
+            isAllDataRead = true;
+            if (!isClosed) {
+                try {
+                    readAheadBlocks.put(END);
+                } catch (InterruptedException ignored) {
+                    // 只有关闭时才会中断预读任务
+                }
+                notifyBlockReady();
+            }
+        }
+    }
 
-        block = new Block(config, readOffset, getBlockSize(config), blockList.size());
-        block.data = getBlockData(block);
-        if (block.size == 0) {
+    // 读取下一块数据，没有数据时返回 null；只有预读任务追加块，读取块数量不需要加锁
+    private Block readBlock() throws IOException {
+        Block block = new Block(config, readOffset, getBlockSize(config), blockList.size());
+        // 缓冲从共享缓冲池获取，块上传成功后归还
+        byte[] buffer = BlockBufferPool.global().acquire(block.size);
+        int readSize = 0;
+        try {
+            while (readSize < block.size) {
+                int ret = inputStream.read(buffer, readSize, block.size - readSize);
+                if (ret < 0) {
+                    break;
+                }
+                readSize += ret;
+            }
+        } catch (IOException e) {
+            BlockBufferPool.global().release(buffer);
+            throw e;
+        }
+
+        if (readSize == 0) {
+            BlockBufferPool.global().release(buffer);
             return null;
         }
 
-        blockList.add(block);
+        if (replayChannel != null) {
+            try {
+                ByteBuffer replayData = ByteBuffer.wrap(buffer, 0, readSize);
+                long position = readOffset;
+                while (replayData.hasRemaining()) {
+                    position += replayChannel.write(replayData, position);
+                }
+            } catch (IOException e) {
+                BlockBufferPool.global().release(buffer);
+                throw e;
+            }
+        }
+
+        block.data = buffer;
+        block.size = readSize;
+        readOffset += readSize;
         return block;
     }
 
+    // 开启重放缓冲且读取数据流没有出错时，可切换区域重新上传
+    @Override
+    boolean couldReload() {
+        return config.resumableUploadStreamReplayBuffer && readException == null;
+    }
+
+    @Override
+    boolean reload() {
+        return couldReload() && !isClosed;
+    }
+
+    // 重新上传时归还所有块的数据缓冲，已读取的块从重放缓冲读取
+    @Override
+    synchronized void clearState() {
+        for (Block block : blockList) {
+            releaseBlockData(block);
+            block.file = replayFile;
+        }
+        super.clearState();
+    }
+
+    @Override
+    void releaseBlockData(Block block) {
+        byte[] data;
+        synchronized (block) {
+            data = block.data;
+            block.data = null;
+        }
+        BlockBufferPool.global().release(data);
+    }
+
     @Override
     void close() throws IOException {
+        isClosed = true;
+        synchronized (this) {
+            if (readAheadFuture != null) {
+                readAheadFuture.cancel(true);
+            }
+        }
+
+        // 上传结束，预读及未上传成功的块也需要归还缓冲
+        Block block;
+        while ((block = readAheadBlocks.poll()) != null) {
+            if (block != END) {
+                releaseBlockData(block);
+            }
+        }
+        synchronized (this) {
+            for (Block b : blockList) {
+                releaseBlockData(b);
+            }
+            if (replayChannel != null) {
+                replayChannel.close();
+                replayChannel = null;
+            }
+            if (replayFile != null) {
+                replayFile.delete();
+            }
+        }
         if (inputStream != null) {
             inputStream.close();
         }
@@ -73,37 +315,4 @@ public class ResumeUploadSourceStream extends ResumeUploadSource {
     String getFileName() {
         return fileName;
     }
-
-    private byte[] getBlockData(ResumeUploadSource.Block block) throws IOException {
-        if (block.data != null) {
-            return block.data;
-        }
-
-        byte[] buffer = null;
-        synchronized (this) {
-            while (true) {
-                if (readOffset == block.offset) {
-                    int readSize = 0;
-                    buffer = new byte[block.size];
-                    while (readSize < block.size) {
-                        int ret = inputStream.read(buffer, readSize, block.size - readSize);
-                        if (ret < 0) {
-                            isAllDataRead = true;
-                            break;
-                        }
-                        readSize += ret;
-                    }
-                    block.data = buffer;
-                    block.size = readSize;
-                    readOffset += readSize;
-                    break;
-                } else if (readOffset < block.offset) {
-                    readOffset += inputStream.skip(block.offset - readOffset);
-                } else {
-                    throw new IOException("read block data error");
-                }
-            }
-        }
-        return buffer;
-    }
 }
@@ -38,6 +38,8 @@ import java.io.InputStream;
 public class ResumeUploader extends BaseUploader {
     private final ResumeUploadSource source;
     private final Recorder recorder;
+    // 本次上传是否已写入完整的上传进度，之后块上传成功时只追加块记录 【JournalRecorder 使用】
+    private boolean uploadProgressSaved = false;
     private final UploadOptions options;
 
     ResumeUploadPerformer uploadPerformer;
@@ -148,13 +150,29 @@ public class ResumeUploader extends BaseUploader {
             }
             return response;
         } catch (QiniuException e) {
-            saveUploadProgressToLocal();
+            if (e.response != null && e.response.isOK()) {
+                // 上传已完成，只是完成后的校验失败，断点记录不再可用
+                removeUploadProgressFromLocal();
+            } else {
+                saveUploadProgressToLocal();
+            }
             throw e;
         } finally {
+            closeUploadProgressRecord();
             close();
         }
     }
 
+    /**
+     * 获取分片上传 v2 的 uploadId，init 之前或分片上传 v1 时为空
+     * 可保存此 uploadId，之后在本地没有断点记录的环境中通过 {@link UploadOptions.Builder#resumeUploadId(String)} 续传
+     *
+     * @return uploadId
+     */
+    public String getUploadId() {
+        return source == null ? null : source.uploadId;
+    }
+
     @Override
     Response uploadFlows() throws QiniuException {
 
@@ -168,6 +186,21 @@ public class ResumeUploader extends BaseUploader {
         } else {
             uploadPerformer = new ResumeUploadPerformerV1(client, key, token, source, recorder, options, config);
         }
+        uploadPerformer.recoverUploadedBlocksFromServer();
+        uploadPerformer.setUploadMonitor(UploadMonitor.create(key,
+                source instanceof ResumeUploadSourceFile ? source.getSize() : -1, config));
+        if (recorder instanceof JournalRecorder) {
+            // 重新上传时可能重新 init，需重新写入完整的上传进度
+            synchronized (this) {
+                uploadProgressSaved = false;
+            }
+            uploadPerformer.blockUploadedListener = new ResumeUploadPerformer.BlockUploadedListener() {
+                @Override
+                public void blockUploaded(ResumeUploadSource.Block block) {
+                    appendUploadProgressToLocal(block);
+                }
+            };
+        }
 
         // 上传数据至服务 - 步骤1
         Response response = null;
@@ -188,6 +221,7 @@ public class ResumeUploader extends BaseUploader {
 
         // 上传数据至服务 - 步骤3
         response = uploadPerformer.completeUpload();
+        uploadPerformer.checkContentEtag(response);
 
         return response;
     }
@@ -264,6 +298,11 @@ public class ResumeUploader extends BaseUploader {
             JsonObject jsonObject = (JsonObject) new JsonParser().parse(jsonString);
             JsonObject sourceJson = jsonObject.getAsJsonObject("source");
             uploadSource = new Gson().fromJson(sourceJson, source.getClass());
+            if (uploadSource != null && recorder instanceof JournalRecorder) {
+                for (byte[] entry : ((JournalRecorder) recorder).getEntries(source.recordKey)) {
+                    uploadSource.recoverBlockFromRecordEntry(entry);
+                }
+            }
 
             JsonObject regionJson = jsonObject.getAsJsonObject("region");
             region = new Gson().fromJson(regionJson, Region.class);
@@ -313,6 +352,32 @@ public class ResumeUploader extends BaseUploader {
         }
     }
 
+    // 块上传成功后追加到断点记录，本次上传第一个块成功时先写入完整的上传进度
+    void appendUploadProgressToLocal(ResumeUploadSource.Block block) {
+        if (!(recorder instanceof JournalRecorder) || source == null || StringUtils.isNullOrEmpty(source.recordKey)) {
+            return;
+        }
+        synchronized (this) {
+            if (!uploadProgressSaved) {
+                saveUploadProgressToLocal();
+                uploadProgressSaved = true;
+                return;
+            }
+        }
+        try {
+            ((JournalRecorder) recorder).append(source.recordKey, block.toRecordEntry());
+        } catch (Exception ignored) {
+        }
+    }
+
+    // 上传结束，同步并关闭追加的断点记录
+    void closeUploadProgressRecord() {
+        if (!(recorder instanceof JournalRecorder) || source == null || StringUtils.isNullOrEmpty(source.recordKey)) {
+            return;
+        }
+        ((JournalRecorder) recorder).close(source.recordKey);
+    }
+
     void removeUploadProgressFromLocal() {
         if (recorder == null || source == null || StringUtils.isNullOrEmpty(source.recordKey)) {
             return;
@@ -3,8 +3,19 @@ package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Response;
+import com.qiniu.util.StringUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 public final class Retry {
+
+    // Retry-After 最长等待时间，单位：毫秒
+    private static final int MAX_RETRY_AFTER = 60 * 1000;
+
     private Retry() {
     }
 
@@ -73,6 +84,120 @@ public final class Retry {
         };
     }
 
+    /**
+     * 指数退避 + 去相关抖动（decorrelated jitter）的重试时间间隔
+     * 第 n 次重试的间隔为 [base, max(上次间隔, base) * 3] 内的随机值，且不超过 cap；第一次重试没有上次间隔，
+     * 按 base 计算，即 [base, base * 3]，避免大量请求在同一时刻重试；base 不大于 0 时不等待
+     *
+     * @param base 最小重试时间间隔，单位：毫秒
+     * @param cap  最大重试时间间隔，单位：毫秒
+     * @return Interval
+     */
+    public static Interval decorrelatedJitterInterval(final int base, final int cap) {
+        if (base <= 0) {
+            return staticInterval(0);
+        }
+        final int b = base;
+        final int c = Math.max(cap, b);
+        return new BackoffInterval() {
+            @Override
+            public int interval(int attempt, int previousInterval) {
+                long upper = Math.max((long) previousInterval, b) * 3;
+                long next = b + (long) (ThreadLocalRandom.current().nextDouble() * (upper - b + 1));
+                return (int) Math.min(next, c);
+            }
+
+            @Override
+            public int interval() {
+                return interval(0, b);
+            }
+        };
+    }
+
+    /**
+     * 进程级共享的重试预算，默认不开启，可通过 {@link Api.Config.Builder#setRetryBudget} 或
+     * {@link Configuration#retryBudget} 使用
+     * 重试次数限制为正常请求数的 20%，且每秒至少允许 10 次重试
+     *
+     * @return RetryBudget
+     */
+    public static RetryBudget defaultRetryBudget() {
+        return DefaultRetryBudgetHolder.BUDGET;
+    }
+
+    /**
+     * 构造重试预算（令牌桶）
+     * 每个请求存入 ratio 个令牌，每次重试消耗 1 个令牌，另外每秒补充 minRetriesPerSecond 个令牌；
+     * 令牌不足时不再重试，避免服务异常时重试放大请求量
+     *
+     * @param ratio               重试次数占正常请求数的比例，如：0.2
+     * @param minRetriesPerSecond 每秒最少允许的重试次数
+     * @param perHost             是否按域名分别统计，false 则所有域名共享
+     * @return RetryBudget
+     */
+    public static RetryBudget retryBudget(double ratio, int minRetriesPerSecond, boolean perHost) {
+        return new RetryBudget(ratio, minRetriesPerSecond, perHost);
+    }
+
+    /**
+     * 计算下次重试的时间间隔，如果服务端返回了 Retry-After 则至少等待 Retry-After 的时间
+     *
+     * @param interval         重试时间间隔
+     * @param attempt          已重试的次数
+     * @param previousInterval 上次重试的时间间隔
+     * @param response         响应
+     * @param exception        异常
+     * @return 时间间隔，单位：毫秒
+     */
+    static int nextInterval(Interval interval, int attempt, int previousInterval,
+                            Api.Response response, QiniuException exception) {
+        int next;
+        if (interval instanceof BackoffInterval) {
+            next = ((BackoffInterval) interval).interval(attempt, previousInterval);
+        } else {
+            next = interval.interval();
+        }
+        return Math.max(next, retryAfter(response, exception));
+    }
+
+    /**
+     * 解析响应中的 Retry-After，支持秒数及 HTTP 日期两种格式，最多等待 60 秒
+     *
+     * @return Retry-After 时间，单位：毫秒，没有时为 -1
+     */
+    static int retryAfter(Api.Response response, QiniuException exception) {
+        Response httpResponse = response != null ? response.getResponse() : null;
+        if (httpResponse == null && exception != null) {
+            httpResponse = exception.response;
+        }
+        if (httpResponse == null || httpResponse.getResponse() == null) {
+            return -1;
+        }
+
+        String value = httpResponse.getResponse().header("Retry-After");
+        if (StringUtils.isNullOrEmpty(value)) {
+            return -1;
+        }
+        value = value.trim();
+
+        long millis;
+        try {
+            millis = Long.parseLong(value) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                format.setTimeZone(TimeZone.getTimeZone("GMT"));
+                millis = format.parse(value).getTime() - System.currentTimeMillis();
+            } catch (Exception ignore) {
+                return -1;
+            }
+        }
+        if (millis < 0) {
+            return 0;
+        }
+        return (int) Math.min(millis, MAX_RETRY_AFTER);
+    }
+
     public static RetryCondition defaultCondition() {
         return new RetryCondition() {
             @Override
@@ -101,6 +226,117 @@ public final class Retry {
         int interval();
     }
 
+    /**
+     * 根据重试次数及上次重试的时间间隔计算重试时间间隔
+     */
+    public interface BackoffInterval extends Interval {
+
+        /**
+         * 重试时间间隔，单位：毫秒
+         *
+         * @param attempt          已重试的次数，从 0 开始
+         * @param previousInterval 上次重试的时间间隔，首次重试时为 0
+         * @return 重试时间间隔
+         **/
+        int interval(int attempt, int previousInterval);
+    }
+
+    /**
+     * 重试预算（令牌桶），限制重试的请求量不超过正常请求量的一定比例
+     */
+    public static final class RetryBudget {
+        private static final String GLOBAL_KEY = "";
+
+        private final double ratio;
+        private final int minRetriesPerSecond;
+        private final double capacity;
+        private final boolean perHost;
+        private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+        private RetryBudget(double ratio, int minRetriesPerSecond, boolean perHost) {
+            this.ratio = Math.max(ratio, 0);
+            this.minRetriesPerSecond = Math.max(minRetriesPerSecond, 0);
+            // 最多累积约 1000 个请求存入的令牌
+            this.capacity = Math.max(this.minRetriesPerSecond + this.ratio * 1000, 1);
+            this.perHost = perHost;
+        }
+
+        /**
+         * 发起请求（非重试）时存入令牌
+         *
+         * @param host 域名
+         */
+        void deposit(String host) {
+            bucket(host).deposit(ratio);
+        }
+
+        /**
+         * 发起请求（非重试）时存入令牌，同一个请求经过多个重试拦截器时只存入一次
+         *
+         * @param request 请求
+         */
+        void deposit(Api.Request request) {
+            if (request == null || !request.markRetryBudgetDeposited(this)) {
+                return;
+            }
+            String host = null;
+            try {
+                host = request.getHost();
+            } catch (QiniuException ignore) {
+            }
+            deposit(host);
+        }
+
+        /**
+         * 重试前取出令牌
+         *
+         * @param host 域名
+         * @return 是否可以重试
+         */
+        boolean tryWithdraw(String host) {
+            return bucket(host).tryWithdraw();
+        }
+
+        private Bucket bucket(String host) {
+            String key = perHost && host != null ? host : GLOBAL_KEY;
+            Bucket bucket = buckets.get(key);
+            if (bucket != null) {
+                return bucket;
+            }
+            bucket = new Bucket();
+            Bucket old = buckets.putIfAbsent(key, bucket);
+            return old != null ? old : bucket;
+        }
+
+        private final class Bucket {
+            private double tokens = capacity;
+            private long refillTime = System.nanoTime();
+
+            private synchronized void deposit(double count) {
+                tokens = Math.min(capacity, tokens + count);
+            }
+
+            private synchronized boolean tryWithdraw() {
+                // 每秒补充 minRetriesPerSecond 个令牌
+                long now = System.nanoTime();
+                double seconds = (now - refillTime) / 1e9;
+                refillTime = now;
+                tokens = Math.min(capacity, tokens + seconds * minRetriesPerSecond);
+
+                // 避免浮点数累加误差
+                if (tokens < 1 - 1e-9) {
+                    return false;
+                }
+                tokens -= 1;
+                return true;
+            }
+        }
+    }
+
+    private static final class DefaultRetryBudgetHolder {
+        private static final RetryBudget BUDGET = new RetryBudget(0.2, 10, false);
+    }
+
     public interface RetryCondition {
 
         /**
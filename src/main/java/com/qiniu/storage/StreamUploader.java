@@ -9,9 +9,12 @@ import com.qiniu.util.Crc32;
 import com.qiniu.util.StringMap;
 import com.qiniu.util.StringUtils;
 import com.qiniu.util.UrlSafeBase64;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 
 /**
@@ -23,16 +26,19 @@ public final class StreamUploader {
     private final StringMap params;
     private final String mime;
     private final ArrayList<String> contexts;
+    private final Configuration configuration;
     private final ConfigHelper configHelper;
     private final Client client;
-    private final byte[] blockBuffer;
+    private byte[] blockBuffer;
     private final InputStream stream;
     private long size;
     private String host = null;
     private int retryMax;
+    private UploadMonitor uploadMonitor;
 
     public StreamUploader(Client client, String upToken, String key, InputStream stream,
                           StringMap params, String mime, Configuration configuration) {
+        this.configuration = configuration;
         this.configHelper = new ConfigHelper(configuration);
         this.client = client;
         this.upToken = upToken;
@@ -40,15 +46,26 @@ public final class StreamUploader {
         this.params = params;
         this.mime = mime == null ? Client.DefaultMime : mime;
         this.contexts = new ArrayList<>();
-        this.blockBuffer = new byte[Constants.BLOCK_SIZE];
         this.stream = stream;
         retryMax = configuration.retryMax;
     }
 
     public Response upload() throws QiniuException {
+        // 数据流大小未知 //
+        uploadMonitor = UploadMonitor.create(key, -1, configuration);
+        try {
+            // 块缓冲从共享缓冲池获取，上传结束后归还
+            blockBuffer = BlockBufferPool.global().acquire(Constants.BLOCK_SIZE);
+        } catch (InterruptedIOException e) {
+            close();
+            throw new QiniuException(e);
+        }
+
         try {
             return upload0();
         } finally {
+            BlockBufferPool.global().release(blockBuffer);
+            blockBuffer = null;
             close();
         }
     }
@@ -209,7 +226,10 @@ public final class StreamUploader {
     }
 
     private Response post(String url, byte[] data, int offset, int size) throws QiniuException {
-        return client.post(url, data, offset, size, new StringMap().put("Authorization", "UpToken " + upToken),
-                Client.DefaultMime);
+        RequestBody body = RequestBody.create(MediaType.parse(Client.DefaultMime), data, offset, size);
+        if (uploadMonitor != null) {
+            body = uploadMonitor.wrap(contexts.size(), body);
+        }
+        return client.post(url, body, new StringMap().put("Authorization", "UpToken " + upToken));
     }
 }
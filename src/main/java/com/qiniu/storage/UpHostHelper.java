@@ -3,6 +3,7 @@ package com.qiniu.storage;
 import com.qiniu.common.QiniuException;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 class UpHostHelper {
     private long failedPeriodMillis; // 毫秒 1/1000 s
@@ -125,7 +126,7 @@ class UpHostHelper {
         List<String> lastAccHosts;
         List<String> lastSrcHosts;
 
-        HashMap<String, Long> hostMark = new HashMap<>();
+        Map<String, Long> hostMark = new ConcurrentHashMap<>();
         ArrayList<String> lastHosts;
 
         volatile int mainHostCount = 0;
@@ -195,6 +196,12 @@ class UpHostHelper {
             }
         }
 
+        // 本地标记已过期，且进程级的域名状态可用 //
+        private boolean isHostAvailable(String host, long t) {
+            Long e = hostMark.get(host);
+            return (e == null || e < t) && HostHealthRegistry.isAvailable(host);
+        }
+
         String upHost(List<String> accHosts, List<String> srcHosts, String lastUsedHost, boolean changeHost) throws QiniuException {
             if ((accHosts == null || accHosts.isEmpty())
                     && (srcHosts == null || srcHosts.isEmpty())) {
@@ -221,22 +228,14 @@ class UpHostHelper {
             // 作为主上传域名，可以继续使用，不用恢复到 lastHosts.get(0) //
             // 优先处理 //
             if (!changeHost) {
-                Long el0 = hostMark.get(lastHost);
-                if (el0 == null) {
-                    el0 = 0L;
-                }
-                if (el0 < t) {
+                if (isHostAvailable(lastHost, t)) {
                     int lastUsedIdx = lastHosts.indexOf(lastHost);
                     if (lastUsedIdx > -1 && lastUsedIdx < mainHostCount) {
                         return lastHost;
                     }
                 }
                 if (lastUsedHost != null && !lastHost.equals(lastUsedHost)) {
-                    Long el = hostMark.get(lastUsedHost);
-                    if (el == null) {
-                        el = 0L;
-                    }
-                    if (el < t) {
+                    if (isHostAvailable(lastUsedHost, t)) {
                         int lastUsedIdx = lastHosts.indexOf(lastUsedHost);
                         if (lastUsedIdx > -1 && lastUsedIdx < mainHostCount) {
                             lastHost = lastUsedHost;
@@ -252,16 +251,13 @@ class UpHostHelper {
                     // 减少 多个同时失败，大量同时更改 host，导致 将 host 该回到 老的无效 host //
                     String host = lastUsedHost != null ? lastUsedHost : lastHost;
                     if (!lastHost.equals(host)) {
-                        Long el = hostMark.get(lastHost);
-                        if (el == null) {
-                            el = 0L;
-                        }
-                        if (el < t) {
+                        if (isHostAvailable(lastHost, t)) {
                             return lastHost;
                         }
                     }
-                    // 标记当前 host 不可用 //
+                    // 标记当前 host 不可用，并同步到进程级的域名状态，其他上传也不再使用此 host //
                     hostMark.put(host, System.currentTimeMillis());
+                    HostHealthRegistry.freeze(host, failedPeriodMillis);
                 }
             }
 
@@ -271,12 +267,8 @@ class UpHostHelper {
 
             // 标记过期后，恢复到 优先使用 第一个 值 //
             for (String h : lastHosts) {
-                Long e = hostMark.get(h);
-                if (e == null) {
-                    e = 0L;
-                }
                 // 不可用标志已过期，即域名可以使用 //
-                if (e < t) {
+                if (isHostAvailable(h, t)) {
                     lastHost = h;
                     return h;
                 } else {
@@ -0,0 +1,19 @@
+package com.qiniu.storage;
+
+/**
+ * 定义了文件上传进度回调接口
+ * 进度在请求数据写入连接时回调，回调在上传线程中执行，分片并发上传时可能在多个线程中同时回调，回调中不要做耗时操作
+ */
+public interface UpProgressHandler {
+
+    /**
+     * 上传进度
+     * 分片上传时为已上传完成及正在上传的块已发送的数据量之和，块重新上传时会减少；
+     * 表单上传时包含表单字段，可能略大于文件大小
+     *
+     * @param key           文件上传后存储的 key
+     * @param uploadedBytes 已发送的数据量
+     * @param totalBytes    文件大小，未知时（如数据流上传）为 -1
+     */
+    void progress(String key, long uploadedBytes, long totalBytes);
+}
@@ -0,0 +1,149 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.Constants;
+
+/**
+ * 分片上传自适应控制，开启方式：{@link Configuration#resumableUploadAdaptive}
+ * <p>
+ * 并发数：AIMD 方式调整。每完成一轮（当前并发数个块）统计这一轮的整体吞吐，吞吐没有明显下降时并发数加 1，
+ * 吞吐下降说明增加的并发已无收益，并发数减 1；块上传失败时并发数减半。并发数范围为 1 ~ resumableUploadMaxConcurrentTaskCount。
+ * <p>
+ * 分片大小：进程内记录最近块上传的单连接吞吐，分片 v2 上传文件时按吞吐选择分片大小，使单个块的上传时间约为
+ * {@link UploadAdaptiveController#TARGET_PART_SECONDS} 秒，且在 1MB ~ 1GB 之间，分片数量不超过 10000；
+ * 还没有吞吐记录时使用 resumableUploadAPIV2BlockSize。
+ */
+final class UploadAdaptiveController {
+
+    static final int MIN_PART_SIZE = 1024 * 1024;
+    static final int MAX_PART_SIZE = 1024 * 1024 * 1024;
+    static final int MAX_PART_COUNT = 10000;
+    // 单个块期望的上传时间，块太小请求开销占比大，块太大失败重传代价大
+    static final int TARGET_PART_SECONDS = 4;
+
+    // 进程内最近块上传的单连接吞吐，单位：字节/秒，小于等于 0 表示没有记录
+    private static volatile double partBandwidth = 0;
+
+    private final int maxConcurrency;
+    private int concurrency;
+
+    // 当前一轮的统计
+    private long roundStartNanos;
+    private long roundBytes;
+    private int roundParts;
+    // 上一轮的吞吐，单位：字节/秒
+    private double lastRoundBandwidth;
+
+    UploadAdaptiveController(int maxConcurrency) {
+        this(maxConcurrency, System.nanoTime());
+    }
+
+    // nowNanos: 当前时间，单位：纳秒，与 System.nanoTime() 一致
+    UploadAdaptiveController(int maxConcurrency, long nowNanos) {
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        // 从一半并发开始探测
+        this.concurrency = Math.max(1, this.maxConcurrency / 2);
+        this.roundStartNanos = nowNanos;
+    }
+
+    /**
+     * 当前允许的并发数
+     *
+     * @return 并发数
+     */
+    synchronized int concurrency() {
+        return concurrency;
+    }
+
+    /**
+     * 块上传成功
+     *
+     * @param bytes         块大小
+     * @param durationNanos 块上传耗时，单位：纳秒
+     */
+    void onPartSuccess(long bytes, long durationNanos) {
+        onPartSuccess(bytes, durationNanos, System.nanoTime());
+    }
+
+    synchronized void onPartSuccess(long bytes, long durationNanos, long nowNanos) {
+        updatePartBandwidth(bytes, durationNanos);
+
+        roundBytes += bytes;
+        roundParts++;
+        if (roundParts < concurrency) {
+            return;
+        }
+
+        double bandwidth = roundBytes * 1e9 / Math.max(1, nowNanos - roundStartNanos);
+        if (lastRoundBandwidth <= 0 || bandwidth >= lastRoundBandwidth * 0.95) {
+            concurrency = Math.min(maxConcurrency, concurrency + 1);
+        } else {
+            concurrency = Math.max(1, concurrency - 1);
+        }
+        lastRoundBandwidth = bandwidth;
+        resetRound(nowNanos);
+    }
+
+    /**
+     * 块上传失败
+     */
+    void onPartFailure() {
+        onPartFailure(System.nanoTime());
+    }
+
+    synchronized void onPartFailure(long nowNanos) {
+        concurrency = Math.max(1, concurrency / 2);
+        // 失败后重新统计吞吐
+        lastRoundBandwidth = 0;
+        resetRound(nowNanos);
+    }
+
+    private void resetRound(long now) {
+        roundStartNanos = now;
+        roundBytes = 0;
+        roundParts = 0;
+    }
+
+    /**
+     * 根据文件大小及最近的吞吐选择分片 v2 的块大小
+     *
+     * @param fileSize        文件大小
+     * @param maxConcurrency  最大并发数
+     * @param configBlockSize 配置的块大小，没有吞吐记录时使用
+     * @return 块大小，为 1MB 的整数倍
+     */
+    static int partSize(long fileSize, int maxConcurrency, int configBlockSize) {
+        double bandwidth = partBandwidth;
+        long size = bandwidth > 0 ? (long) (bandwidth * TARGET_PART_SECONDS) : configBlockSize;
+
+        // 文件能分为多个块时，至少分为并发数个块，使并发有效
+        long concurrencySize = fileSize / Math.max(1, maxConcurrency);
+        if (concurrencySize >= MIN_PART_SIZE) {
+            size = Math.min(size, concurrencySize);
+        }
+
+        // 块不需要超过文件大小
+        size = Math.min(size, fileSize);
+
+        // 分片数量不超过 10000
+        size = Math.max(size, (fileSize + MAX_PART_COUNT - 1) / MAX_PART_COUNT);
+
+        size = (size + MIN_PART_SIZE - 1) / MIN_PART_SIZE * MIN_PART_SIZE;
+        size = Math.max(MIN_PART_SIZE, Math.min(MAX_PART_SIZE, size));
+        return (int) size;
+    }
+
+    // 单连接吞吐，指数加权平均
+    private static void updatePartBandwidth(long bytes, long durationNanos) {
+        // 太小的块主要是请求开销，不能反映吞吐
+        if (bytes < Constants.BLOCK_SIZE / 4 || durationNanos <= 0) {
+            return;
+        }
+        double bandwidth = bytes * 1e9 / durationNanos;
+        double last = partBandwidth;
+        partBandwidth = last <= 0 ? bandwidth : last * 0.7 + bandwidth * 0.3;
+    }
+
+    static void resetPartBandwidth() {
+        partBandwidth = 0;
+    }
+}
@@ -2,6 +2,7 @@ package com.qiniu.storage;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.util.IOUtils;
 import com.qiniu.util.StringMap;
@@ -9,6 +10,7 @@ import com.qiniu.util.StringMap;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Map;
 
 /**
  * 七牛文件上传管理器，通过该类上传文件时，会自动根据定义的{@link Configuration#putThreshold}
@@ -40,7 +42,7 @@ public final class UploadManager {
      */
     public UploadManager(Configuration config, Recorder recorder) {
         configuration = config.clone();
-        client = new Client(configuration);
+        client = ClientRegistry.get(configuration);
         this.recorder = recorder;
     }
 
@@ -367,4 +369,70 @@ public final class UploadManager {
             return uploader.upload();
         }
     }
+
+    /**
+     * 批量上传目录下的所有文件（包括子目录中的文件），多个文件同时上传
+     * <p>
+     * 文件保存的文件名为 keyPrefix + 文件相对 directory 的路径，路径分隔符为 /；
+     * 每个文件按 configuration.putThreshold 选择表单上传或分片上传，所有文件共用此 UploadManager 的连接池，
+     * 分片上传时使用此 UploadManager 的断点记录对象。
+     * 配置了 options.checkpointFile 时，上传成功的文件记录到断点记录文件中，重新执行时大小及修改时间没有变化的文件被跳过。
+     * 单个文件上传失败不影响其他文件，失败的文件可通过返回结果或 listener 获取。
+     *
+     * @param directory 上传的目录【必须】
+     * @param keyPrefix 文件保存的文件名前缀【可选】
+     * @param token     上传凭证，需可以上传任意文件名且有效期覆盖整个批量上传【必须】
+     * @param options   批量上传参数【可选】
+     * @param listener  每个文件上传结束的回调【可选】
+     * @return 批量上传结果
+     * @throws QiniuException 断点记录文件读写失败或等待上传时被中断
+     */
+    public BulkUploadResult putDirectory(File directory, String keyPrefix, String token, BulkUploadOptions options,
+                                         BulkUploadListener listener) throws QiniuException {
+        if (directory == null || !directory.isDirectory()) {
+            throw new IllegalArgumentException("directory is not exist");
+        }
+        options = options == null ? BulkUploadOptions.defaultOptions() : options;
+        return bulkUploader(token, options, listener)
+                .upload(new BulkUploader.DirectoryIterator(directory, keyPrefix, options.fileFilter));
+    }
+
+    /**
+     * 批量上传文件，多个文件同时上传
+     * <p>
+     * 每个文件按 configuration.putThreshold 选择表单上传或分片上传，所有文件共用此 UploadManager 的连接池；
+     * 断点记录、失败处理同 {@link UploadManager#putDirectory(File, String, String, BulkUploadOptions, BulkUploadListener)}
+     *
+     * @param files    需要上传的文件，key 为文件保存的文件名，value 为文件【必须】
+     * @param token    上传凭证，需可以上传任意文件名且有效期覆盖整个批量上传【必须】
+     * @param options  批量上传参数【可选】
+     * @param listener 每个文件上传结束的回调【可选】
+     * @return 批量上传结果
+     * @throws QiniuException 断点记录文件读写失败或等待上传时被中断
+     */
+    public BulkUploadResult putAll(Map<String, File> files, String token, BulkUploadOptions options,
+                                   BulkUploadListener listener) throws QiniuException {
+        if (files == null) {
+            throw new IllegalArgumentException("no input data");
+        }
+        return bulkUploader(token, options, listener).upload(files.entrySet().iterator());
+    }
+
+    private BulkUploader bulkUploader(final String token, BulkUploadOptions options, BulkUploadListener listener)
+            throws QiniuException {
+        if (token == null || token.equals("")) {
+            throw new IllegalArgumentException("no token");
+        }
+        final BulkUploadOptions o = options == null ? BulkUploadOptions.defaultOptions() : options;
+        BulkUploader.HashLookup hashLookup = null;
+        if (o.dedupBucketManager != null) {
+            hashLookup = BulkUploader.statLookup(o.dedupBucketManager, new UploadToken(token).getBucket());
+        }
+        return new BulkUploader(new BulkUploader.FileUploader() {
+            @Override
+            public Response upload(String key, File file) throws QiniuException {
+                return put(file, key, token, o.params, o.mimeType, o.checkCrc);
+            }
+        }, o, listener, hashLookup, configuration.resumableUploadAPIV2BlockSize);
+    }
 }
@@ -0,0 +1,109 @@
+package com.qiniu.storage;
+
+import com.qiniu.http.ProgressRequestBody;
+import com.qiniu.http.RateLimiter;
+import okhttp3.RequestBody;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一个上传的进度统计及限速
+ * 每个块（表单上传只有一个块）的请求体写入连接时记录该块已发送的数据量，块重新发送时覆盖之前的记录，
+ * 上传进度为所有块已发送数据量之和；所有块共享本上传的限速器及进程级限速器。
+ */
+final class UploadMonitor {
+
+    private static final RateLimiter GLOBAL_LIMITER = new RateLimiter(0);
+
+    private final String key;
+    private final long totalBytes;
+    private final UpProgressHandler handler;
+    private final RateLimiter[] limiters;
+    private final Map<Integer, Long> partBytes = new HashMap<>();
+    private long uploadedBytes = 0;
+
+    private UploadMonitor(String key, long totalBytes, UpProgressHandler handler, RateLimiter[] limiters) {
+        this.key = key;
+        this.totalBytes = totalBytes;
+        this.handler = handler;
+        this.limiters = limiters;
+    }
+
+    /**
+     * 创建上传监控，没有配置进度回调及限速时返回空
+     *
+     * @param key        文件上传后存储的 key
+     * @param totalBytes 文件大小，未知时为 -1
+     * @param config     上传配置
+     * @return 上传监控，可能为空
+     */
+    static UploadMonitor create(String key, long totalBytes, Configuration config) {
+        GLOBAL_LIMITER.setBytesPerSecond(Configuration.uploadGlobalMaxBytesPerSecond);
+
+        UpProgressHandler handler = config == null ? null : config.uploadProgressHandler;
+        long bytesPerSecond = config == null ? 0 : config.uploadMaxBytesPerSecond;
+        if (handler == null && bytesPerSecond <= 0 && Configuration.uploadGlobalMaxBytesPerSecond <= 0) {
+            return null;
+        }
+
+        RateLimiter[] limiters;
+        if (bytesPerSecond > 0) {
+            limiters = new RateLimiter[]{new RateLimiter(bytesPerSecond), GLOBAL_LIMITER};
+        } else {
+            limiters = new RateLimiter[]{GLOBAL_LIMITER};
+        }
+        return new UploadMonitor(key, totalBytes, handler, limiters);
+    }
+
+    RateLimiter[] limiters() {
+        return limiters;
+    }
+
+    /**
+     * 块请求体的发送进度回调，没有配置进度回调时为空
+     *
+     * @param partIndex 块的 index
+     * @return 发送进度回调
+     */
+    ProgressRequestBody.Listener partListener(final int partIndex) {
+        if (handler == null) {
+            return null;
+        }
+        return new ProgressRequestBody.Listener() {
+            @Override
+            public void onProgress(long bytesWritten, long contentLength) {
+                setPartBytes(partIndex, bytesWritten);
+            }
+        };
+    }
+
+    /**
+     * 包装块请求体，发送时回调进度并限速
+     *
+     * @param partIndex 块的 index
+     * @param body      块请求体
+     * @return 包装后的请求体
+     */
+    RequestBody wrap(int partIndex, RequestBody body) {
+        return new ProgressRequestBody(body, partListener(partIndex), limiters);
+    }
+
+    /**
+     * 记录块已发送的数据量，断点续传时之前已上传的块也需记录
+     *
+     * @param partIndex 块的 index
+     * @param bytes     已发送的数据量
+     */
+    void setPartBytes(int partIndex, long bytes) {
+        long uploaded;
+        synchronized (this) {
+            Long last = partBytes.put(partIndex, bytes);
+            uploadedBytes += bytes - (last == null ? 0 : last);
+            uploaded = uploadedBytes;
+        }
+        if (handler != null) {
+            handler.progress(key, uploaded, totalBytes);
+        }
+    }
+}
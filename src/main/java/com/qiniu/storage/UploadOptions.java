@@ -21,17 +21,27 @@ public final class UploadOptions {
 
     /**
      * 启用上传内容crc32校验
+     * 分片上传时还会在发送数据的同时计算文件的 etag，上传策略没有设置 returnBody 及 callbackUrl 时，
+     * 与服务端返回结果中的 hash 对比，不一致时抛出不可重试的 QiniuException，其 response 为上传完成的响应
      */
     public final boolean checkCrc;
 
+    /**
+     * 分片上传 v2 续传的 uploadId，本地没有有效的断点记录时，列举服务端该 uploadId 已上传的分片，
+     * 与本地数据校验一致的分片不再上传；uploadId 无效时重新初始化上传
+     */
+    public final String resumeUploadId;
+
     private UploadOptions(StringMap params,
                           StringMap metaDataParam,
                           String mimeType,
-                          boolean checkCrc) {
+                          boolean checkCrc,
+                          String resumeUploadId) {
         this.params = params;
         this.metaDataParam = metaDataParam;
         this.mimeType = mimeType;
         this.checkCrc = checkCrc;
+        this.resumeUploadId = resumeUploadId;
     }
 
     public static UploadOptions defaultOptions() {
@@ -44,6 +54,7 @@ public final class UploadOptions {
         private StringMap metaDataParam;
         private String mimeType;
         private boolean checkCrc;
+        private String resumeUploadId;
 
         /**
          * 用于服务器上传回调通知的自定义参数，参数的key必须以x: 开头  eg: x:foo
@@ -89,11 +100,23 @@ public final class UploadOptions {
             return this;
         }
 
+        /**
+         * 分片上传 v2 续传的 uploadId，如之前上传时通过 {@link ResumeUploader#getUploadId()} 获取并保存的 uploadId；
+         * 本地没有有效的断点记录时，列举服务端该 uploadId 已上传的分片，只上传缺少的分片
+         *
+         * @param resumeUploadId 续传的 uploadId
+         * @return 构造器
+         */
+        public Builder resumeUploadId(String resumeUploadId) {
+            this.resumeUploadId = resumeUploadId;
+            return this;
+        }
+
         public UploadOptions build() {
             mimeType = mime(mimeType);
             params = filterParam(params);
             metaDataParam = filterMetaData(metaDataParam);
-            return new UploadOptions(params, metaDataParam, mimeType, checkCrc);
+            return new UploadOptions(params, metaDataParam, mimeType, checkCrc, resumeUploadId);
         }
 
         private String mime(String mimeType) {
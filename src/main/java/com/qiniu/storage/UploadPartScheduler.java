@@ -0,0 +1,306 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Response;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 进程级共享的分片上传调度器
+ * <p>
+ * 所有并发分片上传的块都由此调度器执行，同时执行的块数量不超过 {@link Configuration#uploadSchedulerMaxConcurrency}，
+ * 同一上传域名同时执行的块数量不超过 {@link Configuration#uploadSchedulerMaxConcurrencyPerHost}，
+ * 每个上传同时执行的块数量不超过其 {@link Configuration#resumableUploadMaxConcurrentTaskCount}，
+ * 开启自适应控制时还不超过 {@link UploadAdaptiveController} 当前的并发数。
+ * <p>
+ * 有空闲名额时在各上传之间轮转分配，每个上传轮流执行一个块，新加入的上传优先获得名额，
+ * 因此小文件不会排在大文件的所有块之后等待。
+ * <p>
+ * 只有块可以立即开始上传时才分配名额，数据流上传等待读取数据时不占用名额，读取到新的块后通过 {@link #partsReady()} 通知调度器。
+ * <p>
+ * 块任务在 {@link Configuration#uploadSchedulerThreadFactory} 创建的线程上执行，空闲线程会被回收，
+ * 线程数量不会随上传数量增长。
+ */
+final class UploadPartScheduler {
+
+    private static final UploadPartScheduler GLOBAL = new UploadPartScheduler(-1, -1);
+
+    // 限制，小于等于 0 时使用 Configuration 中的配置
+    private final int maxConcurrency;
+    private final int maxConcurrencyPerHost;
+    // 等待调度的上传，按轮转顺序排列
+    private final List<Session> sessions = new ArrayList<>();
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private int running = 0;
+    // 下一次轮转开始的位置
+    private int cursor = 0;
+    private ExecutorService executor;
+
+    UploadPartScheduler(int maxConcurrency, int maxConcurrencyPerHost) {
+        this.maxConcurrency = maxConcurrency;
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+    }
+
+    static UploadPartScheduler global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 一个上传的所有块
+     */
+    interface Parts {
+
+        /**
+         * 是否还有需要开始上传的块
+         *
+         * @return 是否还有需要开始上传的块
+         */
+        boolean hasMoreParts();
+
+        /**
+         * 是否有可以立即开始上传的块，数据流上传时块需要先读取，没有读取完成的块时不分配名额
+         *
+         * @return 是否有可以立即开始上传的块
+         */
+        boolean hasReadyParts();
+
+        /**
+         * 上传下一个块，没有需要上传的块时直接返回
+         *
+         * @return 上传结果
+         * @throws QiniuException 异常
+         */
+        Response uploadNextPart() throws QiniuException;
+    }
+
+    /**
+     * 提交一个上传并等待其所有块上传结束
+     * 每个上传最多有 concurrency 个块同时上传；与原并发任务一致，一个块上传出现异常即减少一个并发名额，
+     * 名额为 0 或所有块都已开始上传且没有正在上传的块时结束
+     *
+     * @param host        上传域名，用于限制单个域名的并发
+     * @param concurrency 此上传最大并发块数量
+     * @param parts       上传的块
+     * @return 块的上传结果，有成功的块时为成功的结果
+     * @throws QiniuException 结束时仍有块未上传则抛出最后一个异常
+     */
+    Response upload(String host, int concurrency, Parts parts) throws QiniuException {
+        return upload(host, concurrency, null, parts);
+    }
+
+    /**
+     * 提交一个上传并等待其所有块上传结束，同时执行的块数量还受自适应控制的并发数限制
+     *
+     * @param host        上传域名，用于限制单个域名的并发
+     * @param concurrency 此上传最大并发块数量
+     * @param controller  自适应控制，为空时不限制
+     * @param parts       上传的块
+     * @return 块的上传结果，有成功的块时为成功的结果
+     * @throws QiniuException 结束时仍有块未上传则抛出最后一个异常
+     */
+    Response upload(String host, int concurrency, UploadAdaptiveController controller, Parts parts) throws QiniuException {
+        Session session = new Session(host == null ? "" : host, Math.max(1, concurrency), controller, parts);
+        synchronized (this) {
+            // 新加入的上传放在下一次轮转的位置，优先获得名额
+            sessions.add(cursor, session);
+            completeIfDone(session);
+            dispatch();
+        }
+        return session.await();
+    }
+
+    /**
+     * 有新的块可以上传时调用，重新分配名额；没有正在上传且没有需要上传的块的上传随之结束
+     */
+    synchronized void partsReady() {
+        for (Session session : new ArrayList<>(sessions)) {
+            completeIfDone(session);
+        }
+        dispatch();
+    }
+
+    synchronized int running() {
+        return running;
+    }
+
+    // 有空闲名额时在各上传之间轮转，每轮每个上传最多开始一个块
+    private void dispatch() {
+        int globalLimit = getMaxConcurrency();
+        boolean started = true;
+        while (started && running < globalLimit && !sessions.isEmpty()) {
+            started = false;
+            int count = sessions.size();
+            // 线程池拒绝任务时 start 会结束上传，sessions 可能变少
+            for (int i = 0; i < count && running < globalLimit && !sessions.isEmpty(); i++) {
+                if (cursor >= sessions.size()) {
+                    cursor = 0;
+                }
+                Session session = sessions.get(cursor);
+                cursor++;
+                if (!canStart(session)) {
+                    continue;
+                }
+                start(session);
+                started = true;
+            }
+        }
+    }
+
+    private boolean canStart(Session session) {
+        if (session.running >= session.concurrency || !session.parts.hasReadyParts()) {
+            return false;
+        }
+        if (session.controller != null && session.running >= session.controller.concurrency()) {
+            return false;
+        }
+        Integer hostRunning = runningPerHost.get(session.host);
+        int hostLimit = getMaxConcurrencyPerHost();
+        return hostLimit <= 0 || hostRunning == null || hostRunning < hostLimit;
+    }
+
+    private void start(final Session session) {
+        running++;
+        session.running++;
+        Integer hostRunning = runningPerHost.get(session.host);
+        runningPerHost.put(session.host, hostRunning == null ? 1 : hostRunning + 1);
+
+        try {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    runPart(session);
+                }
+            });
+        } catch (RuntimeException e) {
+            finish(session, null, new QiniuException(e));
+        }
+    }
+
+    private void runPart(Session session) {
+        Response response = null;
+        QiniuException exception = null;
+        try {
+            response = session.parts.uploadNextPart();
+        } catch (QiniuException e) {
+            exception = e;
+        } catch (Exception e) {
+            exception = new QiniuException(e);
+        }
+        synchronized (this) {
+            finish(session, response, exception);
+        }
+    }
+
+    private void finish(Session session, Response response, QiniuException exception) {
+        running--;
+        session.running--;
+        int hostRunning = runningPerHost.get(session.host) - 1;
+        if (hostRunning > 0) {
+            runningPerHost.put(session.host, hostRunning);
+        } else {
+            runningPerHost.remove(session.host);
+        }
+
+        if (exception != null) {
+            session.exception = exception;
+            session.concurrency--;
+        } else if (session.response == null || (response != null && response.isOK())) {
+            session.response = response;
+        }
+
+        completeIfDone(session);
+        dispatch();
+    }
+
+    private void completeIfDone(Session session) {
+        if (session.running != 0 || (session.concurrency > 0 && session.parts.hasMoreParts())) {
+            return;
+        }
+        int index = sessions.indexOf(session);
+        if (index >= 0) {
+            sessions.remove(index);
+            if (index < cursor) {
+                cursor--;
+            }
+        }
+        session.done();
+    }
+
+    private int getMaxConcurrency() {
+        int limit = maxConcurrency > 0 ? maxConcurrency : Configuration.uploadSchedulerMaxConcurrency;
+        return Math.max(1, limit);
+    }
+
+    private int getMaxConcurrencyPerHost() {
+        return maxConcurrencyPerHost > 0 ? maxConcurrencyPerHost : Configuration.uploadSchedulerMaxConcurrencyPerHost;
+    }
+
+    private ExecutorService getExecutor() {
+        if (executor == null) {
+            ThreadFactory threadFactory = Configuration.uploadSchedulerThreadFactory;
+            if (threadFactory == null) {
+                threadFactory = new ThreadFactory() {
+                    private final AtomicInteger index = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "qiniu-upload-part-" + index.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                };
+            }
+            // 线程数量由调度控制，空闲线程 60s 后回收
+            executor = Executors.newCachedThreadPool(threadFactory);
+        }
+        return executor;
+    }
+
+    private static final class Session {
+        private final String host;
+        private final Parts parts;
+        private final UploadAdaptiveController controller;
+        // 以下字段由调度器加锁访问
+        private int concurrency;
+        private int running;
+        private Response response;
+        private QiniuException exception;
+        private boolean isDone;
+
+        private Session(String host, int concurrency, UploadAdaptiveController controller, Parts parts) {
+            this.host = host;
+            this.concurrency = concurrency;
+            this.controller = controller;
+            this.parts = parts;
+        }
+
+        private synchronized void done() {
+            isDone = true;
+            notifyAll();
+        }
+
+        private synchronized Response await() throws QiniuException {
+            while (!isDone) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new QiniuException(new InterruptedIOException("wait for upload parts interrupted"));
+                }
+            }
+            // 所有块都上传完成说明上传成功，否则有异常则抛出异常
+            if (exception != null && parts.hasMoreParts()) {
+                throw exception;
+            }
+            return response;
+        }
+    }
+}
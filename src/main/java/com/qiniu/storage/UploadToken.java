@@ -1,22 +1,45 @@
 package com.qiniu.storage;
 
+import com.qiniu.common.Constants;
 import com.qiniu.common.QiniuException;
+import com.qiniu.util.Json;
+import com.qiniu.util.StringMap;
 import com.qiniu.util.StringUtils;
+import com.qiniu.util.UrlSafeBase64;
 
 class UploadToken extends RegionReqInfo {
 
     private final String token;
+    private final boolean defaultReturnBody;
 
     UploadToken(String token) throws QiniuException {
         super(token);
         this.token = token;
+        this.defaultReturnBody = isDefaultReturnBody(token);
     }
 
     String getToken() {
         return token;
     }
 
+    /**
+     * 上传策略没有设置 returnBody 及 callbackUrl 时，上传完成返回默认的结果，其中 hash 为文件的 etag
+     */
+    boolean hasDefaultReturnBody() {
+        return defaultReturnBody;
+    }
+
     boolean isValid() {
         return !StringUtils.isNullOrEmpty(token) && !StringUtils.isNullOrEmpty(getBucket()) && !StringUtils.isNullOrEmpty(getAccessKey());
     }
+
+    private static boolean isDefaultReturnBody(String token) {
+        try {
+            String policy = new String(UrlSafeBase64.decode(token.split(":")[2]), Constants.UTF_8);
+            StringMap map = Json.decode(policy);
+            return map.get("returnBody") == null && map.get("callbackUrl") == null;
+        } catch (Exception e) {
+            return false;
+        }
+    }
 }
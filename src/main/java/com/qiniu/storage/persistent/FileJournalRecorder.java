@@ -0,0 +1,416 @@
+package com.qiniu.storage.persistent;
+
+import com.qiniu.storage.JournalRecorder;
+import com.qiniu.util.StringUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 以追加方式记录分片上传进度
+ * 每个上传一个文件，文件由若干帧组成，每帧为：类型（1 字节）、数据长度（4 字节）、数据的 crc32（4 字节）、数据；
+ * 第一帧为完整的上传进度，之后每个上传成功的块追加一帧，进程异常退出时最后不完整的帧会被忽略。
+ * 追加的帧每累计一定数量才同步到磁盘，未同步的帧最迟间隔一定时间后由后台任务同步，上传结束 {@link #close(String)} 时也会同步；
+ * set 时写入临时文件后替换原文件，清除追加的帧。
+ * 每个上传使用各自的锁，多个上传之间互不等待；只有写入时才持有上传的锁对象，上传结束 close 或 del 后释放，读取时不创建锁对象。
+ */
+public final class FileJournalRecorder implements JournalRecorder {
+    private static final String SPLIT = "*:|>?^ \b";
+    private static final byte FRAME_SNAPSHOT = 1;
+    private static final byte FRAME_ENTRY = 2;
+    private static final int FRAME_HEADER_SIZE = 9;
+
+    private final File directory;
+    private final int syncEntryCount;
+    private final long syncIntervalMillis;
+    private final ConcurrentMap<String, Journal> journals = new ConcurrentHashMap<>();
+
+    /**
+     * 断点记录文件保存的目录，每追加 16 条记录或间隔 1 秒同步一次磁盘
+     *
+     * @param directory 目录
+     * @throws IOException 异常
+     */
+    public FileJournalRecorder(String directory) throws IOException {
+        this(new File(directory));
+    }
+
+    /**
+     * 断点记录文件保存的目录，每追加 16 条记录或间隔 1 秒同步一次磁盘
+     *
+     * @param directory 目录
+     * @throws IOException 异常
+     */
+    public FileJournalRecorder(File directory) throws IOException {
+        this(directory, 16, 1000);
+    }
+
+    /**
+     * 断点记录文件保存的目录
+     *
+     * @param directory          目录
+     * @param syncEntryCount     追加的记录累计到此数量时同步磁盘，小于等于 1 时每条记录都同步
+     * @param syncIntervalMillis 距上次同步磁盘超过此时间（毫秒）时同步磁盘
+     * @throws IOException 异常
+     */
+    public FileJournalRecorder(File directory, int syncEntryCount, long syncIntervalMillis) throws IOException {
+        this.directory = directory;
+        this.syncEntryCount = Math.max(1, syncEntryCount);
+        this.syncIntervalMillis = syncIntervalMillis;
+        if (!directory.exists()) {
+            boolean r = directory.mkdirs();
+            if (!r) {
+                throw new IOException("mkdir failed");
+            }
+            return;
+        }
+        if (!directory.isDirectory()) {
+            throw new IOException("does not mkdir");
+        }
+    }
+
+    /**
+     * 纪录完整的分片上传进度，清除之前追加的记录
+     *
+     * @param key  上传文件进度文件保存名
+     * @param data 上传文件的进度数据
+     */
+    @Override
+    public void set(String key, byte[] data) {
+        if (StringUtils.isNullOrEmpty(key)) {
+            return;
+        }
+        for (; ; ) {
+            Journal journal = journal(key);
+            synchronized (journal) {
+                if (journal.retired) {
+                    continue;
+                }
+                journal.close();
+                File tmp = new File(directory, key + ".tmp");
+                try {
+                    try (FileOutputStream out = new FileOutputStream(tmp)) {
+                        out.write(frame(FRAME_SNAPSHOT, data));
+                        out.getFD().sync();
+                    }
+                    try {
+                        Files.move(tmp.toPath(), journal.file.toPath(),
+                                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (AtomicMoveNotSupportedException e) {
+                        Files.move(tmp.toPath(), journal.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    tmp.delete();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 追加一条分片上传记录
+     *
+     * @param key   上传文件进度文件保存名
+     * @param entry 记录数据
+     */
+    @Override
+    public void append(String key, byte[] entry) {
+        if (StringUtils.isNullOrEmpty(key)) {
+            return;
+        }
+        for (; ; ) {
+            Journal journal = journal(key);
+            synchronized (journal) {
+                if (journal.retired) {
+                    continue;
+                }
+                try {
+                    journal.append(frame(FRAME_ENTRY, entry));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    journal.close();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 获取完整的分片上传进度
+     *
+     * @param key 上传文件进度文件保存名
+     */
+    @Override
+    public byte[] get(String key) {
+        List<byte[]> frames = read(key);
+        return frames.isEmpty() ? null : frames.get(0);
+    }
+
+    /**
+     * 获取完整的分片上传进度之后追加的记录
+     *
+     * @param key 上传文件进度文件保存名
+     */
+    @Override
+    public List<byte[]> getEntries(String key) {
+        List<byte[]> frames = read(key);
+        return frames.isEmpty() ? Collections.<byte[]>emptyList() : frames.subList(1, frames.size());
+    }
+
+    /**
+     * 上传结束，同步已追加的记录并关闭进度文件
+     *
+     * @param key 上传文件进度文件保存名
+     */
+    @Override
+    public void close(String key) {
+        if (StringUtils.isNullOrEmpty(key)) {
+            return;
+        }
+        Journal journal = journals.get(key);
+        if (journal == null) {
+            return;
+        }
+        synchronized (journal) {
+            retire(key, journal);
+        }
+    }
+
+    /**
+     * 删除已上传文件的进度文件
+     *
+     * @param key 上传文件进度文件保存名
+     */
+    @Override
+    public void del(String key) {
+        if (StringUtils.isNullOrEmpty(key)) {
+            return;
+        }
+        File f = new File(directory, key);
+        Journal journal = journals.get(key);
+        if (journal == null) {
+            f.delete();
+            return;
+        }
+        synchronized (journal) {
+            retire(key, journal);
+            f.delete();
+        }
+    }
+
+    @Override
+    public String recorderKeyGenerate(String key, File file) {
+        return FileRecorder.hash(key + SPLIT + file.lastModified() + SPLIT + file.getAbsolutePath());
+    }
+
+    @Override
+    public String recorderKeyGenerate(String bucket, String key, String contentDataSUID, String uploaderSUID) {
+        return FileRecorder.hash(bucket + SPLIT + key + SPLIT + contentDataSUID + SPLIT + uploaderSUID);
+    }
+
+    // 只在写入时创建 Journal；写入方持有锁后需检查 retired，已被 close 或 del 时重新获取，
+    // 避免两个 Journal 同时写入同一个文件
+    private Journal journal(String key) {
+        Journal journal = journals.get(key);
+        if (journal == null) {
+            Journal newJournal = new Journal(new File(directory, key));
+            journal = journals.putIfAbsent(key, newJournal);
+            if (journal == null) {
+                journal = newJournal;
+            }
+        }
+        return journal;
+    }
+
+    // 需持有 journal 的锁调用
+    private void retire(String key, Journal journal) {
+        journal.close();
+        journal.retired = true;
+        journals.remove(key, journal);
+    }
+
+    // 读取所有完整的帧，第一帧为完整的上传进度，没有有效的上传进度时为空列表
+    private List<byte[]> read(String key) {
+        if (StringUtils.isNullOrEmpty(key)) {
+            return Collections.emptyList();
+        }
+        byte[] data;
+        Journal journal = journals.get(key);
+        if (journal == null) {
+            data = readFile(key, null);
+        } else {
+            synchronized (journal) {
+                data = readFile(key, journal.retired ? null : journal);
+            }
+        }
+        if (data == null) {
+            return Collections.emptyList();
+        }
+
+        List<byte[]> frames = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.remaining() >= FRAME_HEADER_SIZE) {
+            byte type = buffer.get();
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            if (crc32(payload) != crc) {
+                break;
+            }
+            if (frames.isEmpty() != (type == FRAME_SNAPSHOT)) {
+                break;
+            }
+            frames.add(payload);
+        }
+        return frames;
+    }
+
+    // journal 不为空时需持有其锁；过期的进度文件被删除
+    private byte[] readFile(String key, Journal journal) {
+        File f = new File(directory, key);
+        if (!f.exists()) {
+            return null;
+        }
+        if (f.lastModified() + 1000 * 3600 * 24 * 5 < System.currentTimeMillis()) {
+            if (journal != null) {
+                retire(key, journal);
+            }
+            f.delete();
+            return null;
+        }
+        try {
+            return Files.readAllBytes(f.toPath());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static byte[] frame(byte type, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(FRAME_HEADER_SIZE + payload.length);
+        buffer.put(type);
+        buffer.putInt(payload.length);
+        buffer.putInt(crc32(payload));
+        buffer.put(payload);
+        return buffer.array();
+    }
+
+    private static int crc32(byte[] data) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        return (int) crc32.getValue();
+    }
+
+    // 单个上传的进度文件，所有操作在该对象的锁内进行
+    private final class Journal {
+        private final File file;
+        private FileChannel channel;
+        private int unsyncedCount = 0;
+        private long lastSyncTime = System.currentTimeMillis();
+        private boolean isSyncScheduled = false;
+        // 已被 close 或 del 移除，不可再写入
+        private boolean retired = false;
+
+        private Journal(File file) {
+            this.file = file;
+        }
+
+        private void append(byte[] frame) throws IOException {
+            if (channel == null) {
+                // 没有完整的上传进度时，追加的记录没有意义
+                if (!file.exists()) {
+                    return;
+                }
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                channel = raf.getChannel();
+                channel.position(channel.size());
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(frame);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            unsyncedCount++;
+            long now = System.currentTimeMillis();
+            if (unsyncedCount >= syncEntryCount || now - lastSyncTime >= syncIntervalMillis) {
+                sync();
+            } else if (!isSyncScheduled) {
+                // 之后没有新的记录追加时，由后台任务同步
+                isSyncScheduled = true;
+                SyncSchedulerHolder.SCHEDULER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (Journal.this) {
+                            isSyncScheduled = false;
+                            try {
+                                sync();
+                            } catch (IOException e) {
+                                e.printStackTrace();
+                            }
+                        }
+                    }
+                }, Math.max(0, syncIntervalMillis - (now - lastSyncTime)), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private void sync() throws IOException {
+            if (channel == null || unsyncedCount == 0) {
+                return;
+            }
+            channel.force(false);
+            unsyncedCount = 0;
+            lastSyncTime = System.currentTimeMillis();
+        }
+
+        private void close() {
+            if (channel == null) {
+                return;
+            }
+            try {
+                if (unsyncedCount > 0) {
+                    channel.force(false);
+                }
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+            unsyncedCount = 0;
+        }
+    }
+
+    // 同步追加记录的后台任务，所有 FileJournalRecorder 共享
+    private static final class SyncSchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "qiniu-journal-sync");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+}
@@ -46,7 +46,7 @@ public final class FileRecorder implements Recorder {
         }
     }
 
-    private static String hash(String base) {
+    static String hash(String base) {
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-1");
             byte[] hash = digest.digest(base.getBytes());
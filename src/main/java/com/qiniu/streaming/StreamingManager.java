@@ -2,6 +2,7 @@ package com.qiniu.streaming;
 
 import com.qiniu.common.QiniuException;
 import com.qiniu.http.Client;
+import com.qiniu.http.ClientRegistry;
 import com.qiniu.http.Response;
 import com.qiniu.streaming.model.ActivityRecords;
 import com.qiniu.streaming.model.StreamAttribute;
@@ -37,7 +38,7 @@ public final class StreamingManager {
         this.apiServer = server;
         this.hub = hub;
         this.auth = auth;
-        client = new Client();
+        client = ClientRegistry.defaultClient();
     }
 
     public StreamingManager(Auth auth, String hub, String sever, Client client) {
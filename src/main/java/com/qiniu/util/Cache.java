@@ -1,16 +1,42 @@
 package com.qiniu.util;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.qiniu.common.Constants;
 import com.qiniu.storage.persistent.FileRecorder;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
  * 包含内存缓存和磁盘缓存
- * 磁盘缓存会被缓存在一个文件中
+ * 磁盘缓存为一个只追加写的日志文件，每次缓存只追加一条记录，记录在后台批量写入磁盘；
+ * 日志文件超过一定大小后进行压缩，只保留每个 key 最新且未过期的记录。
+ * 读写日志文件时使用文件锁，多个进程可以共享同一个缓存目录。
  */
 public class Cache<T> {
 
@@ -19,24 +45,28 @@ public class Cache<T> {
 
     // 存储对象的类型
     private final Class<T> objectClass;
-    private final ConcurrentHashMap<String, T> memCache = new ConcurrentHashMap<>();
-    private final FileRecorder diskCache;
-    // 内部
-    private boolean isFlushing = false;
+    // 缓存有效期，单位：毫秒
+    private final long ttl;
+    // 内存中最多缓存的数量
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Item<T>> memCache = new ConcurrentHashMap<>();
+    private final LogStore diskCache;
 
-    private Cache(Class<T> objectClass, String cacheDir, String version) {
+    private Cache(Class<T> objectClass, String cacheDir, String version, long ttl, int maxSize) {
         this.objectClass = objectClass;
         this.version = version;
+        this.ttl = ttl;
+        this.maxSize = maxSize;
 
-        FileRecorder fileRecorder = null;
+        LogStore store = null;
         try {
             if (objectClass != null && cacheDir != null && !cacheDir.isEmpty()) {
-                fileRecorder = new FileRecorder(cacheDir + "/" + objectClass.getName());
+                store = LogStore.get(new File(cacheDir, objectClass.getName()), version, ttl, maxSize);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
-        this.diskCache = fileRecorder;
+        this.diskCache = store;
 
         this.load();
     }
@@ -46,32 +76,65 @@ public class Cache<T> {
             return;
         }
 
-        byte[] cacheData = this.diskCache.get(this.version);
-        if (cacheData == null || cacheData.length == 0) {
-            return;
+        this.loadLegacy();
+
+        long now = System.currentTimeMillis();
+        for (JsonObject record : this.diskCache.readAll()) {
+            try {
+                String key = record.get("k").getAsString();
+                long time = record.get("t").getAsLong();
+                if (time + ttl < now) {
+                    continue;
+                }
+
+                Item<T> old = this.memCache.get(key);
+                if (old != null && old.time > time) {
+                    continue;
+                }
+                T object = Json.decode(record.get("v"), this.objectClass);
+                if (object != null) {
+                    this.memCache.put(key, new Item<>(object, time));
+                }
+            } catch (Exception e) {
+                // 单条记录损坏不影响其他记录
+            }
         }
+        this.evictIfNeeded();
+    }
 
+    // 兼容旧版本整体写入的缓存文件，读取后转存为日志并删除
+    private void loadLegacy() {
         try {
-            HashMap<String, Object> cacheJson = Json.decode(new String(cacheData), HashMap.class);
-            for (String key : cacheJson.keySet()) {
-                try {
-                    Object jsonMap = cacheJson.get(key);
-                    String jsonString = Json.encode(jsonMap);
-                    T object = Json.decode(jsonString, this.objectClass);
-                    this.memCache.put(key, object);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    break;
+            FileRecorder legacy = new FileRecorder(this.diskCache.directory);
+            byte[] cacheData = legacy.get(this.version);
+            if (cacheData == null || cacheData.length == 0) {
+                return;
+            }
+            legacy.del(this.version);
+
+            JsonObject cacheJson = new JsonParser().parse(new String(cacheData, LogStore.UTF_8)).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> entry : cacheJson.entrySet()) {
+                T object = Json.decode(entry.getValue(), this.objectClass);
+                if (object != null) {
+                    this.cache(entry.getKey(), object);
                 }
             }
         } catch (Exception e) {
             e.printStackTrace();
-            this.diskCache.del(this.version);
         }
     }
 
     public T cacheForKey(String cacheKey) {
-        return this.memCache.get(cacheKey);
+        Item<T> item = this.memCache.get(cacheKey);
+        if (item == null) {
+            return null;
+        }
+
+        if (item.time + ttl < System.currentTimeMillis()) {
+            this.memCache.remove(cacheKey, item);
+            return null;
+        }
+        return item.object;
     }
 
     public void cache(String cacheKey, T object) {
@@ -79,51 +142,333 @@ public class Cache<T> {
             return;
         }
 
-        synchronized (this) {
-            this.memCache.put(cacheKey, object);
+        long now = System.currentTimeMillis();
+        this.memCache.put(cacheKey, new Item<>(object, now));
+        this.evictIfNeeded();
+
+        if (this.diskCache != null) {
+            this.diskCache.append(LogStore.record(cacheKey, now, object));
         }
+    }
 
-        this.flush();
+    /**
+     * 将还未写入磁盘的缓存立即写入磁盘
+     */
+    public void flush() {
+        if (this.diskCache != null) {
+            this.diskCache.flush();
+        }
     }
 
-    private void flush() {
-        if (this.diskCache == null) {
+    public void clearMemoryCache() {
+        this.memCache.clear();
+    }
+
+    // 超过最大数量时淘汰最早写入的缓存，一次淘汰到最大数量的 90%，避免频繁淘汰
+    private void evictIfNeeded() {
+        if (this.memCache.size() <= maxSize) {
             return;
         }
 
-        Map<String, T> flushCache = null;
         synchronized (this) {
-            if (this.isFlushing) {
+            int size = this.memCache.size();
+            if (size <= maxSize) {
                 return;
             }
 
-            this.isFlushing = true;
-            flushCache = new HashMap<>(this.memCache);
+            List<Map.Entry<String, Item<T>>> entries = new ArrayList<>(this.memCache.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<String, Item<T>>>() {
+                @Override
+                public int compare(Map.Entry<String, Item<T>> o1, Map.Entry<String, Item<T>> o2) {
+                    return Long.compare(o1.getValue().time, o2.getValue().time);
+                }
+            });
+            int evictCount = size - maxSize * 9 / 10;
+            for (int i = 0; i < evictCount && i < entries.size(); i++) {
+                Map.Entry<String, Item<T>> entry = entries.get(i);
+                this.memCache.remove(entry.getKey(), entry.getValue());
+            }
         }
+    }
 
-        if (flushCache.isEmpty()) {
-            return;
+    private static final class Item<T> {
+        private final T object;
+        // 写入时间，单位：毫秒
+        private final long time;
+
+        private Item(T object, long time) {
+            this.object = object;
+            this.time = time;
         }
+    }
 
-        String jsonString = Json.encode(flushCache);
-        if (jsonString == null || jsonString.isEmpty()) {
-            return;
+    /**
+     * 只追加写的日志文件，同一个文件在进程内只有一个实例
+     * 每行一条记录：{"k": key, "t": 写入时间, "v": 缓存对象}
+     */
+    private static final class LogStore {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+        // 批量写入的时间间隔，单位：毫秒
+        private static final long FLUSH_INTERVAL = 1000;
+        // 日志文件超过此大小，且超过上次压缩后大小的 2 倍时进行压缩，单位：字节
+        private static final long MIN_COMPACT_SIZE = 64 * 1024;
+
+        private static final ConcurrentHashMap<String, LogStore> stores = new ConcurrentHashMap<>();
+        private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "qiniu-cache-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        static {
+            try {
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (LogStore store : stores.values()) {
+                            store.flush();
+                        }
+                    }
+                }, "qiniu-cache-shutdown"));
+            } catch (Exception ignored) {
+                // 虚拟机正在关闭
+            }
         }
 
-        byte[] cacheData = jsonString.getBytes();
-        if (cacheData.length == 0) {
-            return;
+        private final File directory;
+        private final File logFile;
+        private final File lockFile;
+        private final long ttl;
+        private final int maxSize;
+        private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+        private final Runnable flushTask = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        private long compactedSize = 0;
+
+        private LogStore(File directory, String version, long ttl, int maxSize) {
+            this.directory = directory;
+            this.logFile = new File(directory, version + ".log");
+            this.lockFile = new File(directory, version + ".lock");
+            this.ttl = ttl;
+            this.maxSize = maxSize;
         }
 
-        this.diskCache.set(this.version, cacheData);
+        private static LogStore get(File directory, String version, long ttl, int maxSize) throws IOException {
+            if (!directory.exists() && !directory.mkdirs() && !directory.isDirectory()) {
+                throw new IOException("mkdir failed");
+            }
 
-        synchronized (this) {
-            isFlushing = false;
+            String id = new File(directory, version).getAbsolutePath();
+            LogStore store = stores.get(id);
+            if (store != null) {
+                return store;
+            }
+            store = new LogStore(directory, version, ttl, maxSize);
+            LogStore old = stores.putIfAbsent(id, store);
+            return old != null ? old : store;
         }
-    }
 
-    public void clearMemoryCache() {
-        this.memCache.clear();
+        private static String record(String key, long time, Object object) {
+            JsonObject record = new JsonObject();
+            record.addProperty("k", key);
+            record.addProperty("t", time);
+            record.add("v", new Gson().toJsonTree(object));
+            return record.toString();
+        }
+
+        private void append(String record) {
+            pending.add(record);
+            if (flushScheduled.compareAndSet(false, true)) {
+                try {
+                    flusher.schedule(flushTask, FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    flushScheduled.set(false);
+                    flush();
+                }
+            }
+        }
+
+        private synchronized void flush() {
+            flushScheduled.set(false);
+
+            StringBuilder builder = new StringBuilder();
+            String record;
+            while ((record = pending.poll()) != null) {
+                builder.append(record).append('\n');
+            }
+            if (builder.length() == 0) {
+                return;
+            }
+
+            final byte[] data = builder.toString().getBytes(UTF_8);
+            withLock(new Runnable() {
+                @Override
+                public void run() {
+                    FileOutputStream out = null;
+                    try {
+                        out = new FileOutputStream(logFile, true);
+                        out.write(data);
+                        out.flush();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } finally {
+                        closeQuietly(out);
+                    }
+
+                    if (logFile.length() > Math.max(MIN_COMPACT_SIZE, compactedSize * 2)) {
+                        compact();
+                    }
+                }
+            });
+        }
+
+        private synchronized List<JsonObject> readAll() {
+            flush();
+
+            final List<JsonObject> records = new ArrayList<>();
+            withLock(new Runnable() {
+                @Override
+                public void run() {
+                    records.addAll(read());
+                }
+            });
+            return records;
+        }
+
+        // 需在持有文件锁时调用
+        private List<JsonObject> read() {
+            List<JsonObject> records = new ArrayList<>();
+            if (!logFile.exists()) {
+                return records;
+            }
+
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), UTF_8));
+                JsonParser parser = new JsonParser();
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        records.add(parser.parse(line).getAsJsonObject());
+                    } catch (Exception e) {
+                        // 进程异常退出可能导致最后一条记录不完整，跳过
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                closeQuietly(reader);
+            }
+            return records;
+        }
+
+        // 需在持有文件锁时调用，只保留每个 key 最新且未过期的记录，写入临时文件后替换日志文件
+        private void compact() {
+            long now = System.currentTimeMillis();
+            Map<String, JsonObject> latest = new HashMap<>();
+            for (JsonObject record : read()) {
+                try {
+                    String key = record.get("k").getAsString();
+                    long time = record.get("t").getAsLong();
+                    if (time + ttl < now) {
+                        continue;
+                    }
+                    JsonObject old = latest.get(key);
+                    if (old == null || old.get("t").getAsLong() <= time) {
+                        latest.put(key, record);
+                    }
+                } catch (Exception ignored) {
+                    // 丢弃损坏的记录
+                }
+            }
+
+            List<JsonObject> records = new ArrayList<>(latest.values());
+            Collections.sort(records, new Comparator<JsonObject>() {
+                @Override
+                public int compare(JsonObject o1, JsonObject o2) {
+                    return Long.compare(o1.get("t").getAsLong(), o2.get("t").getAsLong());
+                }
+            });
+            if (records.size() > maxSize) {
+                records = records.subList(records.size() - maxSize, records.size());
+            }
+
+            StringBuilder builder = new StringBuilder();
+            for (JsonObject record : records) {
+                builder.append(record.toString()).append('\n');
+            }
+            byte[] data = builder.toString().getBytes(UTF_8);
+
+            File tmpFile = new File(directory, logFile.getName() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(tmpFile);
+                out.write(data);
+                out.flush();
+                out.close();
+                out = null;
+
+                if (!tmpFile.renameTo(logFile)) {
+                    // 部分系统不支持覆盖已存在的文件
+                    logFile.delete();
+                    if (!tmpFile.renameTo(logFile)) {
+                        throw new IOException("rename cache file failed");
+                    }
+                }
+                compactedSize = data.length;
+            } catch (IOException e) {
+                e.printStackTrace();
+                tmpFile.delete();
+            } finally {
+                closeQuietly(out);
+            }
+        }
+
+        // 多个进程共享缓存目录，读写日志文件时持有锁文件上的排他锁
+        private void withLock(Runnable action) {
+            RandomAccessFile lockAccess = null;
+            FileLock lock = null;
+            try {
+                lockAccess = new RandomAccessFile(lockFile, "rw");
+                FileChannel channel = lockAccess.getChannel();
+                lock = channel.lock();
+                action.run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                if (lock != null) {
+                    try {
+                        lock.release();
+                    } catch (IOException ignored) {
+                        // 关闭文件时会释放锁
+                    }
+                }
+                closeQuietly(lockAccess);
+            }
+        }
+
+        private static void closeQuietly(java.io.Closeable closeable) {
+            if (closeable == null) {
+                return;
+            }
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // do nothing
+            }
+        }
     }
 
     public static class Builder<T> {
@@ -134,6 +479,10 @@ public class Cache<T> {
         private String version = "v1";
         // 存储路径
         private String cacheDir = Constants.CACHE_DIR;
+        // 缓存有效期，单位：秒，默认 5 天
+        private long ttl = 5 * 24 * 3600;
+        // 最多缓存的数量
+        private int maxSize = 1024;
 
         public Builder(Class<T> objectClass) {
             this.objectClass = objectClass;
@@ -149,8 +498,34 @@ public class Cache<T> {
             return this;
         }
 
+        /**
+         * 设置缓存有效期，写入超过有效期的缓存会被淘汰
+         *
+         * @param ttl 有效期，单位：秒
+         * @return Builder
+         */
+        public Builder<T> setTtl(long ttl) {
+            if (ttl > 0) {
+                this.ttl = ttl;
+            }
+            return this;
+        }
+
+        /**
+         * 设置最多缓存的数量，超过时淘汰最早写入的缓存
+         *
+         * @param maxSize 最多缓存的数量
+         * @return Builder
+         */
+        public Builder<T> setMaxSize(int maxSize) {
+            if (maxSize > 0) {
+                this.maxSize = maxSize;
+            }
+            return this;
+        }
+
         public Cache<T> builder() {
-            return new Cache<>(this.objectClass, cacheDir, this.version);
+            return new Cache<>(this.objectClass, cacheDir, this.version, ttl * 1000, maxSize);
         }
     }
 }
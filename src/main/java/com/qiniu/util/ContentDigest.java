@@ -0,0 +1,220 @@
+package com.qiniu.util;
+
+import com.qiniu.common.Constants;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 一次遍历数据同时计算 md5、crc32 及七牛 etag
+ * 数据在发送的同时写入，发送结束即可得到结果，不需要再次读取数据；数据重新发送前需调用 {@link ContentDigest#reset()}。
+ * 非线程安全，同一时间只能有一个线程写入。
+ */
+public final class ContentDigest {
+
+    private final MessageDigest md5;
+    private final CRC32 crc32;
+    private final MessageDigest sha1;
+    // etag 每 4MB 一块，已完成块的 sha1
+    private final List<byte[]> blockSha1s = new ArrayList<>();
+    private long blockLength;
+    private long length;
+    private byte[] md5Result;
+
+    /**
+     * 构造函数
+     *
+     * @param md5   是否计算 md5
+     * @param crc32 是否计算 crc32
+     * @param etag  是否计算 etag
+     */
+    public ContentDigest(boolean md5, boolean crc32, boolean etag) {
+        this.md5 = md5 ? newDigest("MD5") : null;
+        this.crc32 = crc32 ? new CRC32() : null;
+        this.sha1 = etag ? newDigest("sha-1") : null;
+    }
+
+    /**
+     * 写入数据
+     *
+     * @param data   数据
+     * @param offset 数据在 data 中的偏移量
+     * @param len    数据长度
+     */
+    public void update(byte[] data, int offset, int len) {
+        if (len <= 0) {
+            return;
+        }
+
+        md5Result = null;
+        if (md5 != null) {
+            md5.update(data, offset, len);
+        }
+        if (crc32 != null) {
+            crc32.update(data, offset, len);
+        }
+        if (sha1 != null) {
+            int end = offset + len;
+            while (offset < end) {
+                int size = (int) Math.min(end - offset, Constants.BLOCK_SIZE - blockLength);
+                sha1.update(data, offset, size);
+                offset += size;
+                blockLength += size;
+                if (blockLength == Constants.BLOCK_SIZE) {
+                    blockSha1s.add(sha1.digest());
+                    blockLength = 0;
+                }
+            }
+        }
+        length += len;
+    }
+
+    /**
+     * 重置，数据重新发送前调用
+     */
+    public void reset() {
+        if (md5 != null) {
+            md5.reset();
+        }
+        if (crc32 != null) {
+            crc32.reset();
+        }
+        if (sha1 != null) {
+            sha1.reset();
+        }
+        blockSha1s.clear();
+        blockLength = 0;
+        length = 0;
+        md5Result = null;
+    }
+
+    /**
+     * 已写入的数据长度
+     *
+     * @return 数据长度
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * 已写入数据的 md5，未开启 md5 计算时为空
+     *
+     * @return md5，小写十六进制字符串
+     */
+    public String md5() {
+        if (md5 == null) {
+            return null;
+        }
+        if (md5Result == null) {
+            // clone 后计算，不影响继续写入
+            try {
+                md5Result = ((MessageDigest) md5.clone()).digest();
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        for (byte b : md5Result) {
+            builder.append(Integer.toString((b & 0xff) + 0x100, 16).substring(1));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 已写入数据的 crc32，未开启 crc32 计算时为 -1
+     *
+     * @return crc32
+     */
+    public long crc32() {
+        return crc32 == null ? -1 : crc32.getValue();
+    }
+
+    /**
+     * 已写入数据的七牛 etag，未开启 etag 计算时为空
+     *
+     * @return etag
+     */
+    public String etag() {
+        if (sha1 == null) {
+            return null;
+        }
+        if (length == 0) {
+            return Etag.EMPTY_ETAG;
+        }
+        return Etag.resultEncode(allBlockSha1s().toArray(new byte[0][]));
+    }
+
+    /**
+     * 合并多个分片的 etag，结果与 {@link EtagV2#stream(java.io.InputStream, long, long[])} 相同：
+     * 除最后一个分片外每个分片都为 4MB 时为整体数据的 etag，否则为 etag v2
+     *
+     * @param parts 按顺序排列的每个分片的计算结果，需都开启了 etag 计算
+     * @return etag，parts 为空或有分片未开启 etag 计算时为空
+     */
+    public static String etag(List<ContentDigest> parts) {
+        if (parts == null || parts.isEmpty()) {
+            return null;
+        }
+
+        boolean is4MBParts = true;
+        for (int i = 0; i < parts.size(); i++) {
+            ContentDigest part = parts.get(i);
+            if (part == null || part.sha1 == null) {
+                return null;
+            }
+            boolean isLast = i == parts.size() - 1;
+            if ((!isLast && part.length != Constants.BLOCK_SIZE) || part.length > Constants.BLOCK_SIZE) {
+                is4MBParts = false;
+            }
+        }
+
+        if (is4MBParts) {
+            List<byte[]> sha1s = new ArrayList<>();
+            long length = 0;
+            for (ContentDigest part : parts) {
+                sha1s.addAll(part.allBlockSha1s());
+                length += part.length;
+            }
+            if (length == 0) {
+                return Etag.EMPTY_ETAG;
+            }
+            return Etag.resultEncode(sha1s.toArray(new byte[0][]));
+        }
+
+        MessageDigest sha1 = newDigest("sha-1");
+        for (ContentDigest part : parts) {
+            byte[] bytes = UrlSafeBase64.decode(part.etag());
+            sha1.update(bytes, 1, bytes.length - 1);
+        }
+        byte[] digest = sha1.digest();
+        byte[] ret = new byte[digest.length + 1];
+        ret[0] = (byte) 0x9e;
+        System.arraycopy(digest, 0, ret, 1, digest.length);
+        return UrlSafeBase64.encodeToString(ret);
+    }
+
+    // 所有块的 sha1，包括最后一个未满 4MB 的块
+    private List<byte[]> allBlockSha1s() {
+        List<byte[]> sha1s = new ArrayList<>(blockSha1s);
+        if (blockLength > 0) {
+            try {
+                sha1s.add(((MessageDigest) sha1.clone()).digest());
+            } catch (CloneNotSupportedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return sha1s;
+    }
+
+    private static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -61,4 +61,35 @@ public final class Crc32 {
 
         return crc32.getValue();
     }
+
+    /**
+     * 对文件中一段数据计算crc32校验码
+     *
+     * @param f      文件
+     * @param offset 数据在文件中的偏移量
+     * @param length 数据长度
+     * @return crc校验码
+     * @throws IOException 读取文件异常，或文件数据不足 length
+     */
+    public static long file(File f, long offset, long length) throws IOException {
+        FileInputStream fi = new FileInputStream(f);
+        byte[] buff = new byte[64 * 1024];
+        CRC32 crc32 = new CRC32();
+        try {
+            fi.getChannel().position(offset);
+            long remain = length;
+            while (remain > 0) {
+                int len = fi.read(buff, 0, (int) Math.min(buff.length, remain));
+                if (len < 0) {
+                    throw new IOException("file data is less than length:" + length);
+                }
+                crc32.update(buff, 0, len);
+                remain -= len;
+            }
+        } finally {
+            fi.close();
+        }
+
+        return crc32.getValue();
+    }
 }
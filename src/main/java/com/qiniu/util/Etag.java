@@ -3,8 +3,17 @@ package com.qiniu.util;
 import com.qiniu.common.Constants;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * 计算文件内容或者二进制数据的etag, etag算法是七牛用来标志数据唯一性的算法。
@@ -12,6 +21,20 @@ import java.security.NoSuchAlgorithmException;
  */
 public final class Etag {
 
+    static final String EMPTY_ETAG = "Fto5o-5ea0sNMlW_75VgGJCv2AcJ";
+
+    // 每个线程复用一个 sha1 计算对象
+    private static final ThreadLocal<MessageDigest> SHA1 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("sha-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
     private Etag() {
     }
 
@@ -64,6 +87,34 @@ public final class Etag {
 
     }
 
+    /**
+     * 并行计算文件内容的etag，结果与 {@link Etag#file(File)} 相同
+     * 文件通过内存映射读取，每个 4MB 块的 sha1 在 executor 中并行计算，适用于大文件
+     *
+     * @param file     文件对象
+     * @param executor 计算每块 sha1 的线程池，为空时在当前线程计算
+     * @return 文件内容的etag
+     * @throws IOException 文件读取异常
+     */
+    public static String file(File file, Executor executor) throws IOException {
+        if (executor == null) {
+            return file(file);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            long len = channel.size();
+            if (len == 0) {
+                return EMPTY_ETAG;
+            }
+            List<Future<byte[]>> blocks = submitBlocks(channel, 0, len, executor);
+            return resultEncode(getBlocks(blocks));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
     /**
      * 计算文件内容的etag
      *
@@ -86,7 +137,7 @@ public final class Etag {
      */
     public static String stream(InputStream in, long len) throws IOException {
         if (len == 0) {
-            return "Fto5o-5ea0sNMlW_75VgGJCv2AcJ";
+            return EMPTY_ETAG;
         }
         byte[] buffer = new byte[64 * 1024];
         byte[][] blocks = new byte[(int) ((len + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE)][];
@@ -108,12 +159,8 @@ public final class Etag {
      * @throws IOException 读取出错
      */
     private static byte[] oneBlock(byte[] buffer, InputStream in, int len) throws IOException {
-        MessageDigest sha1;
-        try {
-            sha1 = MessageDigest.getInstance("sha-1");
-        } catch (NoSuchAlgorithmException e) {
-            throw new AssertionError(e);
-        }
+        MessageDigest sha1 = SHA1.get();
+        sha1.reset();
         int buffSize = buffer.length;
         while (len != 0) {
             int next = buffSize > len ? len : buffSize;
@@ -126,25 +173,86 @@ public final class Etag {
         return sha1.digest();
     }
 
+    /**
+     * 将文件中 [offset, offset + len) 区域按 4MB 分块，每块映射到内存后在 executor 中计算 sha1
+     *
+     * @param channel  文件
+     * @param offset   区域起始位置
+     * @param len      区域长度，需大于 0
+     * @param executor 线程池
+     * @return 每块 sha1 的计算任务
+     */
+    static List<Future<byte[]>> submitBlocks(final FileChannel channel, long offset, long len, Executor executor) {
+        int count = (int) ((len + Constants.BLOCK_SIZE - 1) / Constants.BLOCK_SIZE);
+        List<Future<byte[]>> blocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final long position = offset + (long) Constants.BLOCK_SIZE * i;
+            final long size = Math.min(Constants.BLOCK_SIZE, offset + len - position);
+            FutureTask<byte[]> task = new FutureTask<>(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                    MessageDigest sha1 = SHA1.get();
+                    sha1.reset();
+                    sha1.update(buffer);
+                    return sha1.digest();
+                }
+            });
+            executor.execute(task);
+            blocks.add(task);
+        }
+        return blocks;
+    }
+
+    /**
+     * 等待每块 sha1 计算完成
+     *
+     * @param blocks 每块 sha1 的计算任务
+     * @return 每块 sha1
+     * @throws IOException 计算异常
+     */
+    static byte[][] getBlocks(List<Future<byte[]>> blocks) throws IOException {
+        byte[][] sha1s = new byte[blocks.size()][];
+        try {
+            for (int i = 0; i < sha1s.length; i++) {
+                sha1s[i] = blocks.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            cancel(blocks);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("etag calc interrupted");
+        } catch (ExecutionException e) {
+            cancel(blocks);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+        return sha1s;
+    }
+
+    private static void cancel(List<Future<byte[]>> blocks) {
+        for (Future<byte[]> block : blocks) {
+            block.cancel(false);
+        }
+    }
+
     /**
      * 合并结果
      *
      * @param sha1s 每块计算结果的列表
      * @return 最终的结果
      */
-    private static String resultEncode(byte[][] sha1s) {
+    static String resultEncode(byte[][] sha1s) {
         byte head = 0x16;
         byte[] finalHash = sha1s[0];
         int len = finalHash.length;
         byte[] ret = new byte[len + 1];
         if (sha1s.length != 1) {
             head = (byte) 0x96;
-            MessageDigest sha1;
-            try {
-                sha1 = MessageDigest.getInstance("sha-1");
-            } catch (NoSuchAlgorithmException e) {
-                throw new AssertionError(e);
-            }
+            MessageDigest sha1 = SHA1.get();
+            sha1.reset();
             for (byte[] s : sha1s) {
                 sha1.update(s);
             }
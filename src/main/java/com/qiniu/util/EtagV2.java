@@ -1,9 +1,14 @@
 package com.qiniu.util;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 public class EtagV2 {
     private EtagV2() {
@@ -71,18 +76,85 @@ public class EtagV2 {
         }
     }
 
+    /**
+     * 并行计算文件内容的 etag，结果与 {@link EtagV2#file(File, long)} 相同
+     * 文件通过内存映射读取，所有分片中每个 4MB 块的 sha1 在 executor 中并行计算
+     *
+     * @param file      文件对象
+     * @param blockSize 分片大小
+     * @param executor  计算每块 sha1 的线程池，为空时在当前线程计算
+     * @return 文件内容的 etag
+     * @throws IOException 文件读取异常
+     */
+    public static String file(File file, long blockSize, Executor executor) throws IOException {
+        long len = file.length();
+        if (isSinglePart(len, blockSize)) {
+            return Etag.file(file, executor);
+        }
+        return file(file, splitParts(len, blockSize), executor);
+    }
+
+    /**
+     * 并行计算文件内容的 etag，结果与 {@link EtagV2#file(File, long[])} 相同
+     *
+     * @param file     文件对象
+     * @param parts    每个分片的大小
+     * @param executor 计算每块 sha1 的线程池，为空时在当前线程计算
+     * @return 文件内容的 etag
+     * @throws IOException 文件读取异常
+     */
+    public static String file(File file, long[] parts, Executor executor) throws IOException {
+        if (executor == null) {
+            return file(file, parts);
+        }
+        if (is4MBParts(parts)) {
+            return Etag.file(file, executor);
+        }
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            checkPartSize(channel.size(), parts);
+
+            // 先提交所有分片的计算任务，再按顺序合并
+            List<List<Future<byte[]>>> partBlocks = new ArrayList<>(parts.length);
+            long offset = 0;
+            for (long part : parts) {
+                partBlocks.add(part == 0 ? null : Etag.submitBlocks(channel, offset, part, executor));
+                offset += part;
+            }
+
+            MessageDigest sha1 = newSha1();
+            for (List<Future<byte[]>> blocks : partBlocks) {
+                String partEtag = blocks == null ? Etag.EMPTY_ETAG : Etag.resultEncode(Etag.getBlocks(blocks));
+                byte[] bytes = UrlSafeBase64.decode(partEtag);
+                sha1.update(bytes, 1, bytes.length - 1);
+            }
+            return resultEncode(sha1.digest());
+        } finally {
+            randomAccessFile.close();
+        }
+    }
 
     public static String stream(InputStream in, long len, long blockSize) throws IOException {
         // // 和 is4MBParts(new long[]{len}) 实质一样，只有一个 part 的简化版 // //
-        if (blockSize == 1024 * 1024 * 4 || (len <= blockSize && len <= 1024 * 1024 * 4)) {
+        if (isSinglePart(len, blockSize)) {
             return Etag.stream(in, len);
         }
+
+        return etagV2(in, len, splitParts(len, blockSize));
+    }
+
+    private static boolean isSinglePart(long len, long blockSize) {
+        return blockSize == 1024 * 1024 * 4 || (len <= blockSize && len <= 1024 * 1024 * 4);
+    }
+
+    private static long[] splitParts(long len, long blockSize) {
         int size = (int) ((len + blockSize - 1) / blockSize);
         long[] parts = new long[size];
         Arrays.fill(parts, 0, size - 1, blockSize);
-        parts[size - 1] = len % blockSize;
-
-        return etagV2(in, len, parts);
+        parts[size - 1] = len - blockSize * (size - 1);
+        return parts;
     }
 
     public static String stream(InputStream in, long len, long[] parts) throws IOException {
@@ -106,6 +178,18 @@ public class EtagV2 {
     }
 
     private static String etagV2(InputStream in, long len, long[] parts) throws IOException {
+        checkPartSize(len, parts);
+
+        MessageDigest sha1 = newSha1();
+        for (long part : parts) {
+            String partEtag = Etag.stream(in, part);
+            byte[] bytes = UrlSafeBase64.decode(partEtag);
+            sha1.update(bytes, 1, bytes.length - 1);
+        }
+        return resultEncode(sha1.digest());
+    }
+
+    private static void checkPartSize(long len, long[] parts) throws IOException {
         long partSize = 0;
         for (long part : parts) {
             partSize += part;
@@ -113,19 +197,17 @@ public class EtagV2 {
         if (len != partSize) {
             throw new IOException("etag calc failed: size not equal with part size");
         }
+    }
 
-        MessageDigest sha1;
+    private static MessageDigest newSha1() {
         try {
-            sha1 = MessageDigest.getInstance("sha-1");
+            return MessageDigest.getInstance("sha-1");
         } catch (NoSuchAlgorithmException e) {
             throw new AssertionError(e);
         }
-        for (long part : parts) {
-            String partEtag = Etag.stream(in, part);
-            byte[] bytes = UrlSafeBase64.decode(partEtag);
-            sha1.update(bytes, 1, bytes.length - 1);
-        }
-        byte[] digest = sha1.digest();
+    }
+
+    private static String resultEncode(byte[] digest) {
         byte[] ret = new byte[digest.length + 1];
         ret[0] = (byte) 0x9e;
         System.arraycopy(digest, 0, ret, 1, digest.length);
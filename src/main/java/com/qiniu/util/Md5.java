@@ -38,6 +38,25 @@ public class Md5 {
         }
     }
 
+    /**
+     * 计算文件中一段数据的 md5
+     *
+     * @param file   文件
+     * @param offset 数据在文件中的偏移量
+     * @param length 数据长度
+     * @return md5
+     * @throws IOException 读取文件异常
+     */
+    public static String md5(File file, long offset, long length) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            fis.getChannel().position(offset);
+            return md5(fis, length);
+        } finally {
+            fis.close();
+        }
+    }
+
 
     public static String md5(InputStream in, final long length) throws IOException {
         MessageDigest md;
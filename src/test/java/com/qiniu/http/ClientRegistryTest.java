@@ -0,0 +1,111 @@
+package com.qiniu.http;
+
+import com.qiniu.storage.Configuration;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClientRegistryTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testSameConfigShareClient() {
+        Dns dns = new TestDns();
+        Configuration cfg1 = new Configuration();
+        cfg1.dns = dns;
+        cfg1.proxy = new ProxyConfiguration("127.0.0.1", 8080, "user", "password", Proxy.Type.HTTP);
+        Configuration cfg2 = new Configuration();
+        cfg2.dns = dns;
+        cfg2.proxy = new ProxyConfiguration("127.0.0.1", 8080, "user", "password", Proxy.Type.HTTP);
+
+        assertSame(ClientRegistry.get(cfg1), ClientRegistry.get(cfg2));
+        assertSame(ClientRegistry.defaultClient(), ClientRegistry.get(new Configuration()));
+        assertSame(ClientRegistry.defaultClient(), ClientRegistry.get((Configuration) null));
+        assertSame(ClientRegistry.defaultClient(), ClientRegistry.get(new com.qiniu.sms.Configuration()));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testDifferentConfigNotShareClient() {
+        Client base = ClientRegistry.get(new Configuration());
+
+        Configuration cfg = new Configuration();
+        cfg.dns = new TestDns();
+        assertNotSame(base, ClientRegistry.get(cfg));
+        // dns 按照引用比较
+        Configuration otherDns = new Configuration();
+        otherDns.dns = new TestDns();
+        assertNotSame(ClientRegistry.get(cfg), ClientRegistry.get(otherDns));
+
+        cfg = new Configuration();
+        cfg.proxy = new ProxyConfiguration("127.0.0.1", 8080);
+        Client proxyClient = ClientRegistry.get(cfg);
+        assertNotSame(base, proxyClient);
+        cfg.proxy = new ProxyConfiguration("127.0.0.1", 8081);
+        assertNotSame(proxyClient, ClientRegistry.get(cfg));
+        cfg.proxy = new ProxyConfiguration("127.0.0.1", 8080, "user", "password", Proxy.Type.HTTP);
+        assertNotSame(proxyClient, ClientRegistry.get(cfg));
+
+        cfg = new Configuration();
+        cfg.connectTimeout += 1;
+        assertNotSame(base, ClientRegistry.get(cfg));
+        cfg = new Configuration();
+        cfg.readTimeout += 1;
+        assertNotSame(base, ClientRegistry.get(cfg));
+        cfg = new Configuration();
+        cfg.writeTimeout += 1;
+        assertNotSame(base, ClientRegistry.get(cfg));
+
+        cfg = new Configuration();
+        cfg.dispatcherMaxRequests += 1;
+        assertNotSame(base, ClientRegistry.get(cfg));
+        cfg = new Configuration();
+        cfg.dispatcherMaxRequestsPerHost += 1;
+        assertNotSame(base, ClientRegistry.get(cfg));
+        cfg = new Configuration();
+        cfg.connectionPoolMaxIdleCount += 1;
+        assertNotSame(base, ClientRegistry.get(cfg));
+        cfg = new Configuration();
+        cfg.connectionPoolMaxIdleMinutes += 1;
+        assertNotSame(base, ClientRegistry.get(cfg));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testDnsAdapterEquals() {
+        Dns dns = new TestDns();
+        Client.DnsAdapter adapter = new Client.DnsAdapter(dns);
+        assertEquals(adapter, new Client.DnsAdapter(dns));
+        assertEquals(adapter.hashCode(), new Client.DnsAdapter(dns).hashCode());
+        assertNotEquals(adapter, new Client.DnsAdapter(new TestDns()));
+        assertNotEquals(adapter, dns);
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testProxyAuthenticatorEquals() {
+        ProxyConfiguration proxy = new ProxyConfiguration("127.0.0.1", 8080, "user", "password", Proxy.Type.HTTP);
+        ProxyConfiguration same = new ProxyConfiguration("127.0.0.2", 8081, "user", "password", Proxy.Type.HTTP);
+        assertEquals(proxy.authenticator(), same.authenticator());
+        assertEquals(proxy.authenticator().hashCode(), same.authenticator().hashCode());
+
+        ProxyConfiguration otherUser = new ProxyConfiguration("127.0.0.1", 8080, "user2", "password", Proxy.Type.HTTP);
+        ProxyConfiguration otherPassword = new ProxyConfiguration("127.0.0.1", 8080, "user", "pwd", Proxy.Type.HTTP);
+        assertNotEquals(proxy.authenticator(), otherUser.authenticator());
+        assertNotEquals(proxy.authenticator(), otherPassword.authenticator());
+        assertNotEquals(proxy.authenticator(), null);
+    }
+
+    private static class TestDns implements Dns {
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            return okhttp3.Dns.SYSTEM.lookup(hostname);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.qiniu.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RequestMetricsTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testConnectionReused() {
+        RequestMetrics metrics = new RequestMetrics();
+        metrics.callStart();
+        metrics.connectStart("/127.0.0.1:80");
+        metrics.connectEnd("http/1.1");
+        metrics.connectionAcquired("/127.0.0.1:80", "http/1.1");
+        assertFalse(metrics.isConnectionReused());
+        assertTrue(metrics.getConnectDuration() >= 0);
+
+        // 同一次调用中重试时从连接池获取连接
+        metrics.connectionAcquired("/127.0.0.1:80", "http/1.1");
+        assertTrue(metrics.isConnectionReused());
+
+        // 再次重试时新建连接
+        metrics.connectStart("/127.0.0.2:80");
+        metrics.connectEnd("http/1.1");
+        metrics.connectionAcquired("/127.0.0.2:80", "http/1.1");
+        assertFalse(metrics.isConnectionReused());
+        assertEquals("/127.0.0.2:80", metrics.getRemoteAddress());
+
+        metrics = new RequestMetrics();
+        metrics.callStart();
+        metrics.connectionAcquired("/127.0.0.1:80", "http/1.1");
+        assertTrue(metrics.isConnectionReused());
+        assertEquals(-1, metrics.getConnectDuration());
+        assertEquals(-1, metrics.getDnsDuration());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testMetricsWithLocalServer() throws Exception {
+        final byte[] body = "{\"hello\":\"qiniu\"}".getBytes("UTF-8");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/metrics";
+            Client client = new Client();
+
+            Response response = client.get(url);
+            RequestMetrics metrics = response.getMetrics();
+            assertNotNull(metrics);
+            assertFalse(metrics.isConnectionReused());
+            assertTrue(metrics.getConnectDuration() >= 0);
+            assertTrue(metrics.getTotalDuration() >= 0);
+            assertTrue(metrics.getTimeToFirstByte() >= 0);
+            assertTrue(metrics.getBytesSent() > 0);
+            assertTrue(metrics.getBytesReceived() >= body.length);
+            assertTrue(metrics.getRemoteAddress().contains("127.0.0.1"), metrics.getRemoteAddress());
+            assertEquals("http/1.1", metrics.getProtocol());
+            assertNull(metrics.getTlsVersion());
+
+            // 第二次请求复用连接池中的连接
+            response = client.get(url);
+            metrics = response.getMetrics();
+            assertTrue(metrics.isConnectionReused());
+            assertEquals(-1, metrics.getConnectDuration());
+            assertTrue(metrics.getRemoteAddress().contains("127.0.0.1"), metrics.getRemoteAddress());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Client;
+import com.qiniu.http.CompletionFuture;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ApiAsyncTest {
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String baseUrl;
+    private final CountDownLatch slowStarted = new CountDownLatch(1);
+    private final CountDownLatch slowRelease = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                reply(exchange, 200, "{\"key\":\"value\"}");
+            }
+        });
+        server.createContext("/error", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                reply(exchange, 612, "{\"error\":\"no such entry\"}");
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                slowStarted.countDown();
+                try {
+                    slowRelease.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) {
+                }
+                reply(exchange, 200, "{}");
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        slowRelease.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRequestAsyncSuccess() throws Exception {
+        Api api = new Api(new Client()) {
+        };
+        Api.Response response = api.requestAsync(new Api.Request(baseUrl + "/ok")).get(5, TimeUnit.SECONDS);
+        assertEquals(200, response.getResponse().statusCode);
+        assertEquals("value", response.getDataMap().get("key"));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRequestAsyncHttpError() throws Exception {
+        Api api = new Api(new Client()) {
+        };
+        try {
+            api.requestAsync(new Api.Request(baseUrl + "/error")).await();
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertEquals(612, e.code());
+            assertEquals("no such entry", e.error());
+        }
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRequestAsyncIOException() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        Api api = new Api(new Client()) {
+        };
+        try {
+            api.requestAsync(new Api.Request("http://127.0.0.1:" + port + "/ok")).await();
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertEquals(com.qiniu.http.Response.NetworkError, e.code());
+            assertFalse(e.isUnrecoverable());
+        }
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRequestAsyncCancel() throws Exception {
+        Api api = new Api(new Client()) {
+        };
+        CompletionFuture<Api.Response> future = api.requestAsync(new Api.Request(baseUrl + "/slow"));
+        final List<QiniuException> exceptions = new CopyOnWriteArrayList<>();
+        future.addListener(new CompletionFuture.Listener<Api.Response>() {
+            @Override
+            public void onComplete(Api.Response value, QiniuException exception) {
+                exceptions.add(exception);
+            }
+        });
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        try {
+            future.await();
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertTrue(e.isUnrecoverable());
+        }
+        assertEquals(1, exceptions.size());
+        assertEquals("request cancelled", exceptions.get(0).getMessage());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testCancelWhenCancellationFailsSynchronously() throws Exception {
+        // 取消底层请求时，请求的失败回调可能先于取消完成到达
+        final CompletionFuture<Api.Response> leg = new CompletionFuture<>();
+        leg.setCancellation(new Runnable() {
+            @Override
+            public void run() {
+                leg.completeExceptionally(new QiniuException(new IOException("Canceled")));
+            }
+        });
+        CompletionFuture<Api.Response> future = new CompletionFuture<>();
+        leg.forwardTo(future);
+        final List<QiniuException> exceptions = new CopyOnWriteArrayList<>();
+        future.addListener(new CompletionFuture.Listener<Api.Response>() {
+            @Override
+            public void onComplete(Api.Response value, QiniuException exception) {
+                exceptions.add(exception);
+            }
+        });
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertTrue(leg.isCancelled());
+        assertFalse(future.cancel(true));
+        assertEquals(1, exceptions.size());
+        assertEquals("request cancelled", exceptions.get(0).getMessage());
+        assertTrue(exceptions.get(0).isUnrecoverable());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testInterceptAsyncChain() throws Exception {
+        final Api.Response cached = new Api.Response(null);
+        final List<String> events = new CopyOnWriteArrayList<>();
+        Api api = new Api(new Client(),
+                new RecordInterceptor("inner", Api.Interceptor.PriorityNormal, events),
+                new RecordInterceptor("outer", Api.Interceptor.PriorityRetryHosts, events),
+                new TestInterceptor(Api.Interceptor.PriorityDebug) {
+                    @Override
+                    CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler) {
+                        events.add("terminal");
+                        return CompletionFuture.completed(cached);
+                    }
+                }) {
+        };
+
+        // 优先级越高的拦截器越先处理请求、越后处理结果
+        assertSame(cached, api.requestAsync(new Api.Request(baseUrl + "/ok")).get(5, TimeUnit.SECONDS));
+        assertEquals("[outer:request, inner:request, terminal, inner:response, outer:response]", events.toString());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testInterceptAsyncShortCircuit() throws Exception {
+        final Api.Response cached = new Api.Response(null);
+        final List<String> events = new CopyOnWriteArrayList<>();
+        Api api = new Api(new Client(),
+                new RecordInterceptor("inner", Api.Interceptor.PriorityNormal, events),
+                new TestInterceptor(Api.Interceptor.PriorityRetryHosts) {
+                    @Override
+                    CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler) {
+                        return CompletionFuture.completed(cached);
+                    }
+                }) {
+        };
+
+        // 外层拦截器直接返回结果，内层拦截器和网络请求都不会执行
+        assertSame(cached, api.requestAsync(new Api.Request(baseUrl + "/error")).await());
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testInterceptAsyncThrow() throws Exception {
+        Api api = new Api(new Client(), new TestInterceptor(Api.Interceptor.PriorityNormal) {
+            @Override
+            CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler)
+                    throws QiniuException {
+                throw QiniuException.unrecoverable("intercept error");
+            }
+        }) {
+        };
+
+        // 拦截器同步抛出的异常转为失败的结果，不会抛给调用方
+        CompletionFuture<Api.Response> future = api.requestAsync(new Api.Request(baseUrl + "/ok"));
+        assertTrue(future.isDone());
+        try {
+            future.await();
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertEquals("intercept error", e.getMessage());
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] data = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Reqid", "test-reqid");
+        exchange.sendResponseHeaders(code, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+
+    private abstract static class TestInterceptor extends Api.Interceptor {
+        private final int priority;
+
+        TestInterceptor(int priority) {
+            this.priority = priority;
+        }
+
+        @Override
+        int priority() {
+            return priority;
+        }
+
+        @Override
+        Api.Response intercept(Api.Request request, Api.Handler handler) throws QiniuException {
+            return handler.handle(request);
+        }
+    }
+
+    private static class RecordInterceptor extends TestInterceptor {
+        private final String name;
+        private final List<String> events;
+
+        RecordInterceptor(String name, int priority, List<String> events) {
+            super(priority);
+            this.name = name;
+            this.events = events;
+        }
+
+        @Override
+        CompletionFuture<Api.Response> interceptAsync(Api.Request request, Api.AsyncHandler handler) {
+            events.add(name + ":request");
+            final CompletionFuture<Api.Response> future = new CompletionFuture<>();
+            handler.handle(request).addListener(new CompletionFuture.Listener<Api.Response>() {
+                @Override
+                public void onComplete(Api.Response value, QiniuException exception) {
+                    events.add(name + ":response");
+                    future.complete(value, exception);
+                }
+            });
+            return future;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ApiInterceptorHedgeTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testHedge() throws Exception {
+        HostProvider provider = HostProvider.arrayProvider("hedge-slow.qiniu.com", "hedge-fast.qiniu.com");
+        Api.Interceptor interceptor = new ApiInterceptorHedge.Builder()
+                .setHostProvider(provider)
+                .setPercentile(95)
+                .setDefaultDelay(100)
+                .build();
+
+        final List<String> hosts = new CopyOnWriteArrayList<>();
+        final Api.Response fastResponse = new Api.Response(null);
+        Api.Handler handler = new Api.Handler() {
+            @Override
+            public Api.Response handle(Api.Request request) throws QiniuException {
+                String host = request.getHost();
+                hosts.add(host);
+                if (host.equals("hedge-slow.qiniu.com")) {
+                    try {
+                        Thread.sleep(3000);
+                    } catch (InterruptedException ignore) {
+                    }
+                    return new Api.Response(null);
+                }
+                return fastResponse;
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        Api.Response response = interceptor.intercept(new Api.Request("https://hedge-slow.qiniu.com/v3/query"), handler);
+        long cost = System.currentTimeMillis() - start;
+        assertSame(fastResponse, response);
+        assertTrue(cost < 2000, "cost:" + cost);
+        assertEquals(2, hosts.size());
+        assertEquals("hedge-slow.qiniu.com", hosts.get(0));
+        assertEquals("hedge-fast.qiniu.com", hosts.get(1));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testCancelledLegKeepsHealth() throws Exception {
+        HostProvider provider = HostProvider.arrayProvider("hedge-sick.qiniu.com", "hedge-ok.qiniu.com");
+        provider.reportFailure("hedge-sick.qiniu.com");
+        Api.Interceptor interceptor = new ApiInterceptorHedge.Builder()
+                .setHostProvider(provider)
+                .setDefaultDelay(50)
+                .setMinDelay(0)
+                .build();
+
+        Api.Handler handler = new Api.Handler() {
+            @Override
+            public Api.Response handle(Api.Request request) throws QiniuException {
+                if (request.getHost().equals("hedge-sick.qiniu.com")) {
+                    try {
+                        Thread.sleep(3000);
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+                return new Api.Response(null);
+            }
+        };
+
+        interceptor.intercept(new Api.Request("https://hedge-sick.qiniu.com/v3/query"), handler);
+        // 被取消的请求只记录耗时，不会清除域名的失败状态
+        assertEquals(1, HostHealthRegistry.consecutiveFailures("hedge-sick.qiniu.com"));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testNotIdempotent() throws Exception {
+        HostProvider provider = HostProvider.arrayProvider("hedge-a.qiniu.com", "hedge-b.qiniu.com");
+        Api.Interceptor interceptor = new ApiInterceptorHedge.Builder()
+                .setHostProvider(provider)
+                .setDefaultDelay(10)
+                .setMinDelay(0)
+                .build();
+
+        final List<String> hosts = new CopyOnWriteArrayList<>();
+        Api.Handler handler = new Api.Handler() {
+            @Override
+            public Api.Response handle(Api.Request request) throws QiniuException {
+                hosts.add(request.getHost());
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignore) {
+                }
+                return new Api.Response(null);
+            }
+        };
+
+        Api.Request request = new Api.Request("https://hedge-a.qiniu.com/mkfile");
+        request.setMethod(com.qiniu.http.MethodType.POST);
+        interceptor.intercept(request, handler);
+        assertEquals(1, hosts.size());
+    }
+}
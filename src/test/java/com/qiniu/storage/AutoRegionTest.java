@@ -0,0 +1,165 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.CompletionFuture;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AutoRegionTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testConcurrentQueryShareRequest() throws Exception {
+        final StubAutoRegion region = new StubAutoRegion();
+        final RegionReqInfo reqInfo = new RegionReqInfo("ak", "singleflight-" + System.nanoTime());
+        final CountDownLatch started = new CountDownLatch(8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        started.countDown();
+                        return region.getRsHost(reqInfo);
+                    }
+                }));
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertTrue(region.waitRequest(1));
+            // 等待其他调用者加入正在进行的查询
+            Thread.sleep(200);
+            region.requests.get(0).complete(regionJson(3600));
+
+            for (Future<String> result : results) {
+                assertEquals("rs.test.com", result.get(5, TimeUnit.SECONDS));
+            }
+            // 所有调用者共享同一个查询请求
+            assertEquals(1, region.requests.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRefreshAhead() throws Exception {
+        StubAutoRegion region = new StubAutoRegion();
+        RegionReqInfo reqInfo = new RegionReqInfo("ak", "refresh-" + System.nanoTime());
+        // ttl 为 2 秒，1 秒后开始提前刷新
+        region.responses.add(regionJson(2));
+        long refreshTime = System.currentTimeMillis() / 1000 + 1;
+        assertEquals("rs.test.com", region.getRsHost(reqInfo));
+        assertEquals(1, region.requests.size());
+
+        // 未到提前刷新时间
+        assertEquals("rs.test.com", region.getRsHost(reqInfo));
+        assertEquals(1, region.requests.size());
+
+        Thread.sleep(Math.max(0, refreshTime * 1000 - System.currentTimeMillis()) + 20);
+        // 缓存仍然有效，直接返回旧数据，同时在后台刷新
+        assertEquals("rs.test.com", region.getRsHost(reqInfo));
+        assertEquals(2, region.requests.size());
+        assertFalse(region.requests.get(1).isDone());
+
+        // 刷新进行中不会发起新的查询
+        assertEquals("rs.test.com", region.getRsHost(reqInfo));
+        assertEquals(2, region.requests.size());
+
+        region.requests.get(1).complete(regionJson(3600).replace("rs.test.com", "rs2.test.com"));
+        assertEquals("rs2.test.com", region.getRsHost(reqInfo));
+        assertEquals(2, region.requests.size());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRefreshFailedRetryLater() throws Exception {
+        StubAutoRegion region = new StubAutoRegion();
+        RegionReqInfo reqInfo = new RegionReqInfo("ak", "retry-" + System.nanoTime());
+        region.responses.add(regionJson(2));
+        long refreshTime = System.currentTimeMillis() / 1000 + 1;
+        assertEquals("rs.test.com", region.getRsHost(reqInfo));
+
+        Thread.sleep(Math.max(0, refreshTime * 1000 - System.currentTimeMillis()) + 20);
+        assertEquals("rs.test.com", region.getRsHost(reqInfo));
+        assertEquals(2, region.requests.size());
+
+        // 刷新失败继续使用旧的缓存，间隔一段时间后才会再次刷新
+        region.requests.get(1).completeExceptionally(new QiniuException(new Exception("uc error")));
+        for (int i = 0; i < 5; i++) {
+            assertEquals("rs.test.com", region.getRsHost(reqInfo));
+        }
+        assertEquals(2, region.requests.size());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testQueryFailed() {
+        StubAutoRegion region = new StubAutoRegion();
+        RegionReqInfo reqInfo = new RegionReqInfo("ak", "failed-" + System.nanoTime());
+        region.failure = new QiniuException(new Exception("uc error"));
+        try {
+            region.getRsHost(reqInfo);
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertEquals("uc error", e.getCause().getMessage());
+        }
+        // 查询失败会再尝试一次
+        assertEquals(2, region.requests.size());
+    }
+
+    private static String regionJson(long ttl) {
+        return "{\"hosts\":[{\"region\":\"z0\",\"ttl\":" + ttl + ","
+                + "\"up\":{\"src\":{\"main\":[\"up.test.com\"]}},"
+                + "\"rs\":{\"src\":{\"main\":[\"rs.test.com\"]}},"
+                + "\"rsf\":{\"src\":{\"main\":[\"rsf.test.com\"]}}}]}";
+    }
+
+    private static class StubAutoRegion extends AutoRegion {
+        // 已经准备好的响应，为空时返回未完成的查询
+        private final List<String> responses = new CopyOnWriteArrayList<>();
+        private final List<CompletionFuture<String>> requests = new CopyOnWriteArrayList<>();
+        private volatile QiniuException failure;
+
+        StubAutoRegion() {
+            super("uc.test.com");
+        }
+
+        @Override
+        CompletionFuture<String> requestRegionInfo(String accessKey, String bucket) {
+            CompletionFuture<String> future;
+            if (failure != null) {
+                future = CompletionFuture.failed(failure);
+            } else if (!responses.isEmpty()) {
+                future = CompletionFuture.completed(responses.remove(0));
+            } else {
+                future = new CompletionFuture<>();
+            }
+            requests.add(future);
+            return future;
+        }
+
+        boolean waitRequest(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (requests.size() < count) {
+                if (System.currentTimeMillis() > deadline) {
+                    return false;
+                }
+                Thread.sleep(10);
+            }
+            return true;
+        }
+    }
+}
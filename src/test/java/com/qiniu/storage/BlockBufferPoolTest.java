@@ -0,0 +1,98 @@
+package com.qiniu.storage;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockBufferPoolTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testReuseAndBudget() throws Exception {
+        final BlockBufferPool pool = new BlockBufferPool(1024, 256, 60 * 1000);
+
+        byte[] a = pool.acquire(512);
+        assertEquals(512, a.length);
+        pool.release(a);
+        // 同样大小的缓冲被复用
+        assertSame(a, pool.acquire(512));
+        assertEquals(512, pool.allocatedBytes());
+
+        byte[] b = pool.acquire(512);
+        assertEquals(1024, pool.allocatedBytes());
+
+        // 超出预算时等待其他缓冲归还
+        final AtomicReference<byte[]> acquired = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    acquired.set(pool.acquire(256));
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                done.countDown();
+            }
+        });
+        thread.start();
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+
+        // 归还后空闲缓冲被释放，等待的线程获取到缓冲
+        pool.release(b);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(256, acquired.get().length);
+        assertTrue(pool.allocatedBytes() <= 1024);
+
+        pool.release(a);
+        pool.release(acquired.get());
+
+        // 单个缓冲超过预算时，只有池中没有其他缓冲时才分配
+        byte[] big = pool.acquire(2048);
+        assertEquals(2048, big.length);
+        assertEquals(2048, pool.allocatedBytes());
+        pool.release(big);
+        assertEquals(0, pool.idleBytes());
+        assertEquals(0, pool.allocatedBytes());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testIdleBuffersReleased() throws Exception {
+        BlockBufferPool pool = new BlockBufferPool(4096, 256, 200);
+
+        byte[] a = pool.acquire(512);
+        byte[] b = pool.acquire(512);
+        // 不是块大小单位整数倍的缓冲不保留
+        byte[] tail = pool.acquire(100);
+        assertEquals(1124, pool.allocatedBytes());
+
+        pool.release(tail);
+        assertEquals(0, pool.idleBytes());
+        assertEquals(1024, pool.allocatedBytes());
+
+        pool.release(a);
+        pool.release(b);
+        assertEquals(1024, pool.idleBytes());
+        assertEquals(1024, pool.allocatedBytes());
+
+        // 空闲超时后没有新的获取也会释放
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.allocatedBytes() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, pool.idleBytes());
+        assertEquals(0, pool.allocatedBytes());
+
+        // 释放后仍可正常获取
+        byte[] c = pool.acquire(512);
+        assertEquals(512, c.length);
+        pool.release(c);
+        assertEquals(512, pool.idleBytes());
+    }
+}
@@ -0,0 +1,175 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Response;
+import com.qiniu.util.Etag;
+import com.qiniu.util.EtagV2;
+import com.qiniu.util.UrlSafeBase64;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkUploaderTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testDirectoryAndCheckpoint() throws Exception {
+        File dir = createTempDir();
+        writeFile(new File(dir, "a.txt"), 10);
+        writeFile(new File(dir, "sub/b.txt"), 20);
+        writeFile(new File(dir, "sub/deep/c.txt"), 30);
+        writeFile(new File(dir, "fail.txt"), 40);
+        File checkpoint = File.createTempFile("qiniu-bulk", ".checkpoint");
+        checkpoint.delete();
+
+        final Set<String> uploadedKeys = Collections.synchronizedSet(new HashSet<String>());
+        BulkUploader.FileUploader uploader = new BulkUploader.FileUploader() {
+            @Override
+            public Response upload(String key, File file) throws QiniuException {
+                if (key.endsWith("fail.txt")) {
+                    throw new QiniuException(new Exception("upload failed"));
+                }
+                uploadedKeys.add(key);
+                return Response.createSuccessResponse();
+            }
+        };
+        final AtomicInteger callbackCount = new AtomicInteger();
+        BulkUploadListener listener = new BulkUploadListener() {
+            @Override
+            public void complete(String key, File file, Response response, QiniuException error, BulkUploadResult progress) {
+                callbackCount.incrementAndGet();
+                assertEquals(key.endsWith("fail.txt"), error != null);
+            }
+        };
+        BulkUploadOptions options = new BulkUploadOptions.Builder().concurrency(2).checkpointFile(checkpoint).build();
+
+        BulkUploadResult result = new BulkUploader(uploader, options, listener)
+                .upload(new BulkUploader.DirectoryIterator(dir, "prefix/", null));
+        assertEquals(3, result.getSuccessCount());
+        assertEquals(1, result.getFailedCount());
+        assertEquals(60, result.getUploadedBytes());
+        assertEquals(4, callbackCount.get());
+        assertEquals(Collections.singletonList("prefix/fail.txt"), result.getFailedKeys());
+        assertEquals(new HashSet<>(Arrays.asList("prefix/a.txt", "prefix/sub/b.txt", "prefix/sub/deep/c.txt")),
+                uploadedKeys);
+
+        // 重新执行时跳过已上传且没有修改的文件
+        uploadedKeys.clear();
+        writeFile(new File(dir, "sub/b.txt"), 21);
+        result = new BulkUploader(uploader, options, null)
+                .upload(new BulkUploader.DirectoryIterator(dir, "prefix/", null));
+        assertEquals(2, result.getSkippedCount());
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(1, result.getFailedCount());
+        assertEquals(Collections.singleton("prefix/sub/b.txt"), uploadedKeys);
+
+        checkpoint.delete();
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testDedup() throws Exception {
+        File dir = createTempDir();
+        final File same = new File(dir, "same.txt");
+        writeFile(same, 10);
+        writeFile(new File(dir, "changed.txt"), 20);
+        writeFile(new File(dir, "new.txt"), 30);
+        final File v2 = new File(dir, "v2.txt");
+        writeFile(v2, 40);
+        File index = File.createTempFile("qiniu-bulk", ".index");
+        index.delete();
+        index.deleteOnExit();
+
+        final Set<String> uploadedKeys = Collections.synchronizedSet(new HashSet<String>());
+        BulkUploader.FileUploader uploader = new BulkUploader.FileUploader() {
+            @Override
+            public Response upload(String key, File file) {
+                uploadedKeys.add(key);
+                return Response.createSuccessResponse();
+            }
+        };
+        final AtomicInteger lookupCount = new AtomicInteger();
+        BulkUploader.HashLookup lookup = new BulkUploader.HashLookup() {
+            @Override
+            public String[] hashes(String[] keys) throws QiniuException {
+                lookupCount.incrementAndGet();
+                String[] hashes = new String[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    if (keys[i].equals("same.txt")) {
+                        try {
+                            hashes[i] = Etag.file(same);
+                        } catch (IOException e) {
+                            throw new QiniuException(e);
+                        }
+                    } else if (keys[i].equals("changed.txt")) {
+                        hashes[i] = "FhashOfOldContent";
+                    } else if (keys[i].equals("v2.txt")) {
+                        // 分片上传 v2 上传的文件，hash 为 v2 形式的 etag
+                        try {
+                            hashes[i] = EtagV2.file(v2, 16);
+                        } catch (IOException e) {
+                            throw new QiniuException(e);
+                        }
+                    }
+                }
+                return hashes;
+            }
+        };
+        BulkUploadOptions options = new BulkUploadOptions.Builder().concurrency(2).dedup(null, index).build();
+
+        BulkUploadResult result = new BulkUploader(uploader, options, null, lookup, 16)
+                .upload(new BulkUploader.DirectoryIterator(dir, "", null));
+        assertEquals(2, result.getSkippedCount());
+        assertEquals(2, result.getSuccessCount());
+        assertEquals(1, lookupCount.get());
+        assertEquals(new HashSet<>(Arrays.asList("changed.txt", "new.txt")), uploadedKeys);
+        // 存储空间中不存在的文件不计算 etag
+        List<String> lines = Files.readAllLines(index.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        for (String line : lines) {
+            assertFalse(line.startsWith(UrlSafeBase64.encodeToString(new File(dir, "new.txt").getAbsolutePath())));
+        }
+
+        // 查询失败时全部上传
+        uploadedKeys.clear();
+        lookup = new BulkUploader.HashLookup() {
+            @Override
+            public String[] hashes(String[] keys) throws QiniuException {
+                throw new QiniuException(new Exception("stat failed"));
+            }
+        };
+        result = new BulkUploader(uploader, options, null, lookup, 16)
+                .upload(new BulkUploader.DirectoryIterator(dir, "", null));
+        assertEquals(4, result.getSuccessCount());
+        assertEquals(4, uploadedKeys.size());
+    }
+
+    private static File createTempDir() throws IOException {
+        File dir = File.createTempFile("qiniu-bulk", "");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private static void writeFile(File file, int size) throws IOException {
+        file.getParentFile().mkdirs();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[size]);
+        }
+        file.deleteOnExit();
+    }
+}
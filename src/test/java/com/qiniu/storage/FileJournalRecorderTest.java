@@ -0,0 +1,178 @@
+package com.qiniu.storage;
+
+import com.qiniu.storage.persistent.FileJournalRecorder;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileJournalRecorderTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testAppendAndCompact() throws Exception {
+        File dir = File.createTempFile("qiniu-journal", "");
+        dir.delete();
+        dir.deleteOnExit();
+        FileJournalRecorder recorder = new FileJournalRecorder(dir, 2, 1000);
+        String key = "record";
+
+        // 没有完整的上传进度时，追加的记录被忽略
+        recorder.append(key, new byte[]{1});
+        assertNull(recorder.get(key));
+        assertTrue(recorder.getEntries(key).isEmpty());
+
+        recorder.set(key, "snapshot".getBytes());
+        recorder.append(key, new byte[]{1});
+        recorder.append(key, new byte[]{2, 2});
+        recorder.append(key, new byte[]{3, 3, 3});
+        assertEquals("snapshot", new String(recorder.get(key)));
+        List<byte[]> entries = recorder.getEntries(key);
+        assertEquals(3, entries.size());
+        assertArrayEquals(new byte[]{2, 2}, entries.get(1));
+
+        // 进程退出时最后不完整的记录被忽略
+        try (FileOutputStream out = new FileOutputStream(new File(dir, key), true)) {
+            out.write(new byte[]{2, 0, 0, 0, 10, 1, 2});
+        }
+        assertEquals(3, recorder.getEntries(key).size());
+
+        // 完整记录被修改时，其后的记录都被忽略
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, key), "rw")) {
+            raf.seek(9 + 8 + 9 + 1 + 9);
+            raf.write(9);
+        }
+        assertEquals(1, recorder.getEntries(key).size());
+
+        // 重新写入完整的上传进度，清除追加的记录
+        recorder.set(key, "snapshot2".getBytes());
+        assertEquals("snapshot2", new String(recorder.get(key)));
+        assertTrue(recorder.getEntries(key).isEmpty());
+        recorder.append(key, new byte[]{4});
+        assertEquals(1, recorder.getEntries(key).size());
+
+        recorder.del(key);
+        assertNull(recorder.get(key));
+        assertFalse(new File(dir, key).exists());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testClose() throws Exception {
+        File dir = File.createTempFile("qiniu-journal", "");
+        dir.delete();
+        dir.deleteOnExit();
+        // 追加的记录不会达到同步数量，由后台任务或 close 同步
+        FileJournalRecorder recorder = new FileJournalRecorder(dir, 100, 50);
+        String key = "record";
+
+        recorder.set(key, "snapshot".getBytes());
+        recorder.append(key, new byte[]{1});
+        Thread.sleep(100);
+        recorder.append(key, new byte[]{2});
+        recorder.close(key);
+        assertEquals(2, recorder.getEntries(key).size());
+        // 重复关闭及关闭不存在的记录不影响
+        recorder.close(key);
+        recorder.close("not-exist");
+
+        // 关闭后继续追加时重新打开进度文件
+        recorder.append(key, new byte[]{3});
+        List<byte[]> entries = recorder.getEntries(key);
+        assertEquals(3, entries.size());
+        assertArrayEquals(new byte[]{3}, entries.get(2));
+        recorder.close(key);
+
+        recorder.del(key);
+        assertFalse(new File(dir, key).exists());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testReadWithoutJournalAndCloseWhileAppending() throws Exception {
+        File dir = File.createTempFile("qiniu-journal", "");
+        dir.delete();
+        dir.deleteOnExit();
+        final FileJournalRecorder recorder = new FileJournalRecorder(dir, 100, 1000);
+
+        // 读取及删除不存在的进度不保留状态
+        for (int i = 0; i < 100; i++) {
+            assertNull(recorder.get("probe-" + i));
+            assertTrue(recorder.getEntries("probe-" + i).isEmpty());
+            recorder.del("probe-" + i);
+        }
+        assertEquals(0, journalCount(recorder));
+
+        // 追加时并发关闭，记录不会交错写入
+        final String key = "record";
+        recorder.set(key, "snapshot".getBytes());
+        final int threadCount = 4;
+        final int appendCount = 200;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            final byte value = (byte) t;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < appendCount; i++) {
+                        recorder.append(key, new byte[]{value, value, value, value});
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        while (done.getCount() > 0) {
+            recorder.close(key);
+            recorder.getEntries(key);
+        }
+        recorder.close(key);
+        assertEquals(threadCount * appendCount, recorder.getEntries(key).size());
+        assertEquals(0, journalCount(recorder));
+
+        recorder.del(key);
+        assertFalse(new File(dir, key).exists());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRecoverBlocks() throws Exception {
+        File file = File.createTempFile("qiniu-journal-source", ".tmp");
+        file.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(1024 * 3 + 10);
+        }
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        ResumeUploadSource source = new ResumeUploadSourceFile(file, config, "record");
+        ResumeUploadSource recovered = new ResumeUploadSourceFile(file, config, "record");
+        assertEquals(4, source.blockList.size());
+
+        ResumeUploadSource.Block block = source.getNextUploadingBlock();
+        block = source.getNextUploadingBlock();
+        block.etag = "etag1";
+        source.finishUploadingBlock(block);
+        assertTrue(recovered.recoverBlockFromRecordEntry(block.toRecordEntry()));
+        assertEquals("etag1", recovered.blockList.get(1).etag);
+        assertNull(recovered.blockList.get(1).context);
+        assertTrue(recovered.blockList.get(1).isUploaded());
+        assertFalse(recovered.blockList.get(0).isUploaded());
+
+        assertFalse(recovered.recoverBlockFromRecordEntry(new byte[]{9, 0, 0, 0, 1}));
+        assertFalse(recovered.recoverBlockFromRecordEntry(new byte[]{1, 0}));
+    }
+
+    private static int journalCount(FileJournalRecorder recorder) throws Exception {
+        Field field = FileJournalRecorder.class.getDeclaredField("journals");
+        field.setAccessible(true);
+        return ((Map<?, ?>) field.get(recorder)).size();
+    }
+}
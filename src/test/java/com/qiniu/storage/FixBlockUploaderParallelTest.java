@@ -0,0 +1,205 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.Constants;
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Response;
+import com.qiniu.util.UrlSafeBase64;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FixBlockUploaderParallelTest {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final String TOKEN = "ak:sign:" + UrlSafeBase64.encodeToString("{\"scope\":\"bucket\"}");
+
+    @Test
+    @Tag("UnitTest")
+    public void testParallelUploadWithRecord() throws Exception {
+        File file = File.createTempFile("qiniu-fix-block", ".data");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[BLOCK_SIZE * 5 + 10]);
+        }
+        MemoryRecorder recorder = new MemoryRecorder();
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+
+        // 第 1 块较慢，第 6 块失败；其他块完成后即记录，不等待第 1 块
+        TestUploader uploader = new TestUploader(recorder, 6);
+        try {
+            uploader.upload(new FixBlockUploader.FileBlockData(BLOCK_SIZE, file), TOKEN, "key", null, pool, 3);
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertEquals("part 6 failed", e.getMessage());
+        }
+        assertEquals(5, uploader.completedParts.size());
+        assertEquals(Integer.valueOf(1), uploader.completedParts.get(4), "" + uploader.completedParts);
+        // 第一个块完成时写入完整记录，之后按间隔写入，出错时再写入一次
+        assertEquals(2, recorder.setCount);
+        String record = new String(recorder.data.values().iterator().next(), Constants.UTF_8);
+        assertTrue(record.contains("\"partNumber\":1"));
+        assertTrue(record.contains("\"partNumber\":5"));
+        assertFalse(record.contains("\"partNumber\":6"));
+
+        // 断点续传只上传失败的块
+        uploader = new TestUploader(recorder, -1);
+        Response response = uploader.upload(new FixBlockUploader.FileBlockData(BLOCK_SIZE, file), TOKEN, "key",
+                null, pool, 3);
+        assertTrue(response.isOK());
+        assertEquals(Collections.singletonList(6), uploader.completedParts);
+        assertEquals(6, uploader.madeParts.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i + 1, uploader.madeParts.get(i).intValue());
+        }
+        assertTrue(recorder.data.isEmpty());
+        pool.shutdown();
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testJournalRecord() {
+        MemoryJournalRecorder recorder = new MemoryJournalRecorder();
+        FixBlockUploader uploader = new TestUploader(recorder, -1);
+        FixBlockUploader.UploadRecordHelper helper = uploader.new UploadRecordHelper(recorder, "record-key", true);
+        FixBlockUploader.Record record = uploader.new Record();
+        record.createdTime = System.currentTimeMillis();
+        record.uploadId = "test-upload-id";
+        record.blockSize = BLOCK_SIZE;
+        record.etagIdxes = new ArrayList<>();
+        for (int partNumber : new int[]{2, 1, 4}) {
+            FixBlockUploader.EtagIdx etagIdx = uploader.new EtagIdx("etag-" + partNumber, partNumber, BLOCK_SIZE);
+            record.etagIdxes.add(etagIdx);
+            record.size += etagIdx.size;
+            helper.partDone(record, etagIdx);
+        }
+
+        // 只有第一个块写入完整记录，之后的块追加块记录
+        assertEquals(1, recorder.setCount);
+        assertEquals(2, recorder.getEntries("record-key").size());
+
+        FixBlockUploader.Record recovered = uploader.new UploadRecordHelper(recorder, "record-key", true)
+                .reloadRecord();
+        assertEquals(3, recovered.etagIdxes.size());
+        assertEquals(1, recovered.etagIdxes.get(0).partNumber);
+        assertEquals(2, recovered.etagIdxes.get(1).partNumber);
+        assertEquals(4, recovered.etagIdxes.get(2).partNumber);
+        assertEquals("etag-4", recovered.etagIdxes.get(2).etag);
+        assertEquals(3 * BLOCK_SIZE, recovered.size);
+
+        // 写入完整记录后清除追加的块记录
+        helper.syncRecord(record);
+        assertTrue(recorder.getEntries("record-key").isEmpty());
+    }
+
+    private static class TestUploader extends FixBlockUploader {
+        private final int failedPart;
+        private final List<Integer> completedParts = Collections.synchronizedList(new ArrayList<Integer>());
+        private final List<Integer> madeParts = new ArrayList<>();
+
+        TestUploader(Recorder recorder, int failedPart) {
+            super(BLOCK_SIZE, new Configuration(Region.region0()), null, recorder);
+            this.failedPart = failedPart;
+        }
+
+        @Override
+        String init(String bucket, String base64Key, String upToken) {
+            return "test-upload-id";
+        }
+
+        @Override
+        EtagIdx uploadBlock(String bucket, String base64Key, Token token, String uploadId, byte[] data,
+                            int dataLength, int partNum, RetryCounter counter,
+                            UploadMonitor monitor) throws QiniuException {
+            if (partNum == 1) {
+                FixBlockUploader.sleepMillis(300);
+            }
+            if (partNum == failedPart) {
+                throw new QiniuException(new Exception(), "part " + partNum + " failed");
+            }
+            completedParts.add(partNum);
+            return new EtagIdx("etag-of-part-" + partNum, partNum, dataLength);
+        }
+
+        @Override
+        Response makeFile(String bucket, String base64Key, Token token, String uploadId, List<EtagIdx> etags,
+                          String fileName, OptionsMeta params) {
+            sortAsc(etags);
+            for (EtagIdx etag : etags) {
+                madeParts.add(etag.partNumber);
+            }
+            return Response.createSuccessResponse();
+        }
+    }
+
+    private static class MemoryJournalRecorder extends MemoryRecorder implements JournalRecorder {
+        private final Map<String, List<byte[]>> entries = new HashMap<>();
+
+        @Override
+        public synchronized void set(String key, byte[] data) {
+            super.set(key, data);
+            entries.remove(key);
+        }
+
+        @Override
+        public synchronized void append(String key, byte[] entry) {
+            List<byte[]> list = entries.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                entries.put(key, list);
+            }
+            list.add(entry);
+        }
+
+        @Override
+        public synchronized List<byte[]> getEntries(String key) {
+            List<byte[]> list = entries.get(key);
+            return list == null ? new ArrayList<byte[]>() : new ArrayList<>(list);
+        }
+
+        @Override
+        public void close(String key) {
+        }
+    }
+
+    private static class MemoryRecorder implements Recorder {
+        private final Map<String, byte[]> data = new HashMap<>();
+        int setCount = 0;
+
+        @Override
+        public synchronized void set(String key, byte[] data) {
+            setCount++;
+            this.data.put(key, data);
+        }
+
+        @Override
+        public synchronized byte[] get(String key) {
+            return data.get(key);
+        }
+
+        @Override
+        public synchronized void del(String key) {
+            data.remove(key);
+        }
+
+        @Override
+        public String recorderKeyGenerate(String key, File file) {
+            return key + "_" + file.getName();
+        }
+
+        @Override
+        public String recorderKeyGenerate(String bucket, String key, String contentDataSUID, String uploaderSUID) {
+            return bucket + "_" + key;
+        }
+    }
+}
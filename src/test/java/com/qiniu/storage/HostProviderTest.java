@@ -0,0 +1,195 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HostProviderTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testLatencyAwareProvider() {
+        HostProvider provider = HostProvider.latencyAwareProvider("https://up-a.qiniup.com", "up-b.qiniup.com");
+        assertNotNull(provider);
+
+        provider.reportSuccess("up-a.qiniup.com", 500);
+        provider.reportSuccess("up-b.qiniup.com", 20);
+        for (int i = 0; i < 20; i++) {
+            assertEquals("up-b.qiniup.com", provider.provider());
+        }
+
+        // 失败较多的域名代价变大
+        for (int i = 0; i < 5; i++) {
+            provider.reportFailure("up-b.qiniup.com");
+        }
+        assertEquals("up-a.qiniup.com", provider.provider());
+
+        provider.freezeHost("up-a.qiniup.com", 60 * 1000);
+        assertFalse(provider.isHostValid("up-a.qiniup.com"));
+        assertEquals("up-b.qiniup.com", provider.provider());
+
+        // 所有域名均被冻结时，同一时间只允许一个请求提前探测
+        provider.freezeHost("up-b.qiniup.com", 60 * 1000);
+        String probeHost = provider.provider();
+        assertNotNull(probeHost);
+        String otherHost = provider.provider();
+        assertNotNull(otherHost);
+        assertNotEquals(probeHost, otherHost);
+        assertNull(provider.provider());
+
+        // 探测成功后恢复
+        provider.reportSuccess(probeHost, 10);
+        assertTrue(provider.isHostValid(probeHost));
+        assertEquals(probeHost, provider.provider());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testUnmeasuredHost() {
+        HostProvider provider = HostProvider.latencyAwareProvider("up-e.qiniup.com", "up-f.qiniup.com",
+                "up-g.qiniup.com");
+        provider.reportSuccess("up-e.qiniup.com", 20);
+        provider.reportSuccess("up-f.qiniup.com", 500);
+
+        // 未统计过的域名按中位数计算代价，不会排在已知较快的域名之前
+        List<String> hosts = new ArrayList<>();
+        hosts.add("up-e.qiniup.com");
+        hosts.add("up-f.qiniup.com");
+        hosts.add("up-g.qiniup.com");
+        double median = HostHealthRegistry.medianLatency(hosts);
+        assertEquals(260.0, median);
+        double cost = HostHealthRegistry.cost("up-g.qiniup.com", median);
+        assertTrue(cost > HostHealthRegistry.cost("up-e.qiniup.com", median));
+        assertTrue(cost < HostHealthRegistry.cost("up-f.qiniup.com", median));
+
+        int e = 0;
+        int g = 0;
+        for (int i = 0; i < 300; i++) {
+            String host = provider.provider();
+            assertNotEquals("up-f.qiniup.com", host);
+            if (host.equals("up-e.qiniup.com")) {
+                e++;
+            } else {
+                g++;
+            }
+        }
+        assertTrue(e > g, "e:" + e + " g:" + g);
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testSharedHealth() throws Exception {
+        HostProvider provider1 = HostProvider.arrayProvider("up-c.qiniup.com", "up-d.qiniup.com");
+        HostProvider provider2 = HostProvider.latencyAwareProvider("up-c.qiniup.com", "up-d.qiniup.com");
+
+        // 一个 provider 冻结的域名，其他 provider 也不会使用
+        provider1.freezeHost("up-c.qiniup.com", 100);
+        assertFalse(provider2.isHostValid("up-c.qiniup.com"));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("up-d.qiniup.com", provider2.provider());
+        }
+
+        // 冻结结束后进入半开状态，只允许一个请求探测
+        Thread.sleep(150);
+        assertTrue(HostHealthRegistry.tryAcquire("up-c.qiniup.com"));
+        assertFalse(HostHealthRegistry.tryAcquire("up-c.qiniup.com"));
+        assertFalse(provider1.isHostValid("up-c.qiniup.com"));
+
+        // 探测失败重新冻结
+        provider2.reportFailure("up-c.qiniup.com");
+        assertFalse(provider1.isHostValid("up-c.qiniup.com"));
+        assertEquals(1, HostHealthRegistry.consecutiveFailures("up-c.qiniup.com"));
+
+        Thread.sleep(150);
+        assertTrue(HostHealthRegistry.tryAcquire("up-c.qiniup.com"));
+        provider2.reportSuccess("up-c.qiniup.com", 10);
+        assertTrue(provider1.isHostValid("up-c.qiniup.com"));
+        assertEquals(0, HostHealthRegistry.consecutiveFailures("up-c.qiniup.com"));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testProbeLeaseReleased() throws Exception {
+        HostProvider provider = HostProvider.arrayProvider("up-h.qiniup.com");
+        provider.freezeHost("up-i.qiniup.com", 60 * 1000);
+        Api.Interceptor sync = new ApiInterceptorRetryHosts.Builder()
+                .setHostProvider(provider)
+                .setRetryMax(0)
+                .build();
+        Api.Interceptor retry = new ApiInterceptorRetryHosts.Builder()
+                .setHostProvider(provider)
+                .setRetryMax(2)
+                .build();
+        Api.Handler localError = new Api.Handler() {
+            @Override
+            public Api.Response handle(Api.Request request) throws QiniuException {
+                throw QiniuException.unrecoverable("local error");
+            }
+        };
+        Api.Handler runtimeError = new Api.Handler() {
+            @Override
+            public Api.Response handle(Api.Request request) {
+                throw new IllegalStateException("runtime error");
+            }
+        };
+
+        for (Api.Interceptor interceptor : new Api.Interceptor[]{sync, retry}) {
+            for (Api.Handler handler : new Api.Handler[]{localError, runtimeError}) {
+                // 半开状态的域名被获取后，本地异常不影响域名状态，但探测租约需要释放
+                provider.freezeHost("up-h.qiniup.com", 50);
+                Thread.sleep(100);
+                try {
+                    interceptor.intercept(new Api.Request("https://up-i.qiniup.com/v3/query"), handler);
+                    fail("should fail");
+                } catch (QiniuException | IllegalStateException ignore) {
+                }
+                assertTrue(HostHealthRegistry.tryAcquire("up-h.qiniup.com"));
+                provider.reportSuccess("up-h.qiniup.com", 10);
+            }
+        }
+        assertEquals(0, HostHealthRegistry.consecutiveFailures("up-h.qiniup.com"));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testConcurrentProvider() throws Exception {
+        final HostProvider[] providers = new HostProvider[]{
+                HostProvider.arrayProvider("a.com", "b.com", "c.com"),
+                HostProvider.latencyAwareProvider("a.com", "b.com", "c.com"),
+        };
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            for (HostProvider provider : providers) {
+                                String host = provider.provider();
+                                if (host == null) {
+                                    throw new IllegalStateException("no host");
+                                }
+                                provider.reportSuccess(host, i % 100);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(error.get());
+    }
+}
@@ -0,0 +1,148 @@
+package com.qiniu.storage;
+
+import com.qiniu.util.Etag;
+import com.qiniu.util.Md5;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResumeUploadPerformerV2Test {
+
+    @Test
+    @Tag("UnitTest")
+    public void testVerifyPart() throws Exception {
+        File file = File.createTempFile("qiniu-verify-part", ".tmp");
+        file.deleteOnExit();
+        byte[] data = new byte[1024 * 2 + 10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / 7);
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        ResumeUploadSource source = new ResumeUploadSourceFile(file, config, null);
+        ResumeUploadSource.Block block = source.blockList.get(1);
+        String etag = Etag.data(data, 1024, 1024);
+
+        // 服务端没有 md5 时校验 etag
+        Map<String, Object> part = new HashMap<>();
+        part.put("partNumber", 2.0);
+        part.put("size", 1024.0);
+        part.put("etag", etag);
+        assertEquals(etag, ResumeUploadPerformerV2.verifyPart(file, block, part));
+        assertNull(ResumeUploadPerformerV2.verifyPart(file, source.blockList.get(0), part));
+
+        part.put("size", 1000.0);
+        assertNull(ResumeUploadPerformerV2.verifyPart(file, block, part));
+
+        // 服务端有 md5 时校验 md5
+        part.put("size", 1024.0);
+        part.put("md5", Md5.md5(data, 1024, 1024));
+        assertEquals(etag, ResumeUploadPerformerV2.verifyPart(file, block, part));
+        part.put("md5", Md5.md5(data, 0, 1024));
+        assertNull(ResumeUploadPerformerV2.verifyPart(file, block, part));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testVerifyParts() throws Exception {
+        File file = File.createTempFile("qiniu-verify-parts", ".tmp");
+        file.deleteOnExit();
+        byte[] data = new byte[1024 * 3 + 10];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / 11);
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        ResumeUploadSource source = new ResumeUploadSourceFile(file, config, null);
+
+        // 第 1、3 个分片与本地一致，第 2 个分片不一致，第 4 个分片服务端没有
+        Map<Integer, Map> parts = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> part = new HashMap<>();
+            part.put("partNumber", (double) (i + 1));
+            part.put("size", 1024.0);
+            part.put("etag", "etag" + i);
+            part.put("md5", Md5.md5(data, i == 1 ? 0 : i * 1024, 1024));
+            parts.put(i + 1, part);
+        }
+
+        // 校验在共享的分片上传调度器上执行
+        ResumeUploadPerformerV2.verifyParts(file, source.blockList, parts, 2);
+        assertEquals("etag0", source.blockList.get(0).etag);
+        assertNull(source.blockList.get(1).etag);
+        assertEquals("etag2", source.blockList.get(2).etag);
+        assertNull(source.blockList.get(3).etag);
+        assertEquals(0, UploadPartScheduler.global().running());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testServerBlockSize() throws Exception {
+        long fileSize = 1024 * 2 + 10;
+        Map<Integer, Map> parts = new HashMap<>();
+        // 没有第 1 个分片时无法确定
+        parts.put(2, part(512));
+        assertEquals(0, ResumeUploadPerformerV2.serverBlockSize(parts, fileSize));
+
+        parts.put(1, part(512));
+        assertEquals(512, ResumeUploadPerformerV2.serverBlockSize(parts, fileSize));
+        parts.put(5, part(10));
+        assertEquals(512, ResumeUploadPerformerV2.serverBlockSize(parts, fileSize));
+
+        // 分片大小与按第 1 个分片分块不一致
+        parts.put(3, part(100));
+        assertEquals(0, ResumeUploadPerformerV2.serverBlockSize(parts, fileSize));
+        parts.remove(3);
+        parts.put(6, part(10));
+        assertEquals(0, ResumeUploadPerformerV2.serverBlockSize(parts, fileSize));
+
+        // 按服务端的块大小重新分块后校验
+        File file = File.createTempFile("qiniu-verify-part", ".tmp");
+        file.deleteOnExit();
+        byte[] data = new byte[(int) fileSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i / 7);
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        ResumeUploadSourceFile source = new ResumeUploadSourceFile(file, config, null);
+        assertEquals(3, source.blockList.size());
+        source.resetBlockList(512);
+        assertEquals(512, source.blockSize);
+        assertEquals(5, source.blockList.size());
+        ResumeUploadSource.Block block = source.blockList.get(4);
+        assertEquals(2048, block.offset);
+        assertEquals(10, block.size);
+
+        Map<String, Object> part = part(10);
+        part.put("etag", Etag.data(data, 2048, 10));
+        assertEquals(part.get("etag"), ResumeUploadPerformerV2.verifyPart(file, block, part));
+    }
+
+    private static Map<String, Object> part(long size) {
+        Map<String, Object> part = new HashMap<>();
+        part.put("size", (double) size);
+        part.put("etag", "etag");
+        return part;
+    }
+}
@@ -0,0 +1,318 @@
+package com.qiniu.storage;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResumeUploadSourceTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testConcurrentSchedule() throws Exception {
+        File file = File.createTempFile("qiniu-resume-source", ".tmp");
+        file.deleteOnExit();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(1024 * 1024 + 100);
+        randomAccessFile.close();
+
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        final ResumeUploadSource source = new ResumeUploadSourceFile(file, config, "record");
+        final int blockCount = source.blockList.size();
+        assertEquals(1025, blockCount);
+        assertFalse(source.isAllBlocksUploaded());
+
+        final AtomicInteger uploadCount = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        ResumeUploadSource.Block block;
+                        while ((block = source.getNextUploadingBlock()) != null) {
+                            assertNull(block.data);
+                            assertNotNull(block.file);
+                            // 每个块第一次上传失败，放回队列后重新上传
+                            if (uploadCount.incrementAndGet() % 2 == 0 || block.index % 2 == 0) {
+                                block.etag = "etag" + block.index;
+                            }
+                            source.finishUploadingBlock(block);
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get());
+        assertTrue(source.isAllBlocksUploadingOrUploaded());
+        assertTrue(source.isAllBlocksUploaded());
+
+        List<Map<String, Object>> partInfo = source.getPartInfo();
+        assertEquals(blockCount, partInfo.size());
+        for (int i = 0; i < blockCount; i++) {
+            assertEquals(i + 1, partInfo.get(i).get("partNumber"));
+            assertEquals("etag" + i, partInfo.get(i).get("etag"));
+        }
+
+        // 重置后需要重新上传所有块
+        source.clearState();
+        assertFalse(source.isAllBlocksUploaded());
+        assertNotNull(source.getNextUploadingBlock());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testStreamReadAhead() throws Exception {
+        final byte[] content = new byte[10 * 1024 + 5];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        config.resumableUploadMaxConcurrentTaskCount = 3;
+        final ResumeUploadSource source = new ResumeUploadSourceStream(new ByteArrayInputStream(content), config, null, "stream");
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 3; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!source.isAllBlocksUploadingOrUploaded()) {
+                            ResumeUploadSource.Block block = source.getNextUploadingBlock();
+                            if (block == null) {
+                                continue;
+                            }
+                            for (int i = 0; i < block.size; i++) {
+                                assertEquals(content[(int) block.offset + i], block.data[i]);
+                            }
+                            block.etag = "etag" + block.index;
+                            source.finishUploadingBlock(block);
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error.get());
+        assertTrue(source.isAllBlocksUploaded());
+        assertEquals(content.length, source.getSize());
+        assertEquals(11, source.getPartInfo().size());
+        assertEquals(5, source.blockList.get(10).size);
+        source.close();
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testStreamReplayBuffer() throws Exception {
+        final byte[] content = new byte[4 * 1024 + 5];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i / 3);
+        }
+
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        ResumeUploadSource source = new ResumeUploadSourceStream(new ByteArrayInputStream(content), config, null, "stream");
+        assertFalse(source.couldReload());
+
+        config.resumableUploadStreamReplayBuffer = true;
+        source = new ResumeUploadSourceStream(new ByteArrayInputStream(content), config, null, "stream");
+        assertTrue(source.couldReload());
+
+        // 上传前 3 块，第 2 块失败
+        List<ResumeUploadSource.Block> blocks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            blocks.add(source.getNextUploadingBlock());
+            assertEquals(i, blocks.get(i).index);
+        }
+        for (ResumeUploadSource.Block block : blocks) {
+            if (block.index != 1) {
+                block.etag = "etag" + block.index;
+            }
+            source.finishUploadingBlock(block);
+        }
+
+        // 切换区域重新上传，已读取的块从重放缓冲读取
+        assertTrue(source.reload());
+        source.clearState();
+        List<Integer> indexes = new ArrayList<>();
+        File replayFile = null;
+        while (!source.isAllBlocksUploadingOrUploaded()) {
+            ResumeUploadSource.Block block = source.getNextUploadingBlock();
+            if (block == null) {
+                continue;
+            }
+            assertFalse(indexes.contains(block.index));
+            indexes.add(block.index);
+            byte[] data = block.data;
+            if (data == null) {
+                assertNotNull(block.file);
+                replayFile = block.file;
+                data = new byte[block.size];
+                try (RandomAccessFile raf = new RandomAccessFile(block.file, "r")) {
+                    raf.seek(block.offset);
+                    raf.readFully(data);
+                }
+            }
+            for (int i = 0; i < block.size; i++) {
+                assertEquals(content[(int) block.offset + i], data[i]);
+            }
+            block.etag = "etag" + block.index;
+            source.finishUploadingBlock(block);
+        }
+        assertEquals(5, indexes.size());
+        assertTrue(source.isAllBlocksUploaded());
+        assertNotNull(replayFile);
+        assertTrue(replayFile.exists());
+
+        source.close();
+        assertFalse(replayFile.exists());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testStreamReadyBlock() throws Exception {
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        config.resumableUploadMaxConcurrentTaskCount = 1;
+        ResumeUploadSource source = new ResumeUploadSourceStream(
+                new ByteArrayInputStream(new byte[1024 + 5]), config, null, "stream");
+        final AtomicInteger readyCount = new AtomicInteger();
+        source.setBlockReadyListener(new Runnable() {
+            @Override
+            public void run() {
+                readyCount.incrementAndGet();
+            }
+        });
+
+        // 预读未开始时可以开始上传，由上传任务开始预读
+        assertTrue(source.hasReadyBlock());
+        ResumeUploadSource.Block first = source.getNextUploadingBlock();
+        assertEquals(0, first.index);
+        // 读取 2 块后读取结束，共通知 3 次
+        waitFor(readyCount, 3);
+        assertTrue(source.hasReadyBlock());
+        ResumeUploadSource.Block second = source.getNextUploadingBlock();
+        assertEquals(1, second.index);
+        assertFalse(source.hasReadyBlock());
+
+        first.etag = "etag0";
+        source.finishUploadingBlock(first);
+        second.etag = "etag1";
+        source.finishUploadingBlock(second);
+        assertFalse(source.hasReadyBlock());
+        assertTrue(source.isAllBlocksUploadingOrUploaded());
+        assertTrue(source.isAllBlocksUploaded());
+        source.close();
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testStreamReadError() throws Exception {
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = 1024;
+        InputStream stream = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("read error");
+            }
+        };
+        ResumeUploadSource source = new ResumeUploadSourceStream(stream, config, null, "stream");
+        final AtomicInteger readyCount = new AtomicInteger();
+        source.setBlockReadyListener(new Runnable() {
+            @Override
+            public void run() {
+                readyCount.incrementAndGet();
+            }
+        });
+
+        try {
+            source.getNextUploadingBlock();
+            fail("should throw");
+        } catch (IOException e) {
+            assertEquals("read error", e.getMessage());
+        }
+        waitFor(readyCount, 1);
+        // 读取出错时仍需要上传任务获取块以抛出异常，不能视为上传完成
+        assertTrue(source.hasReadyBlock());
+        assertFalse(source.isAllBlocksUploadingOrUploaded());
+        assertFalse(source.isAllBlocksUploaded());
+        source.close();
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRecoverBlockSize() throws Exception {
+        int mb = 1024 * 1024;
+        File file = File.createTempFile("qiniu-resume-source", ".tmp");
+        file.deleteOnExit();
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(3L * mb);
+        randomAccessFile.close();
+        UploadAdaptiveController.resetPartBandwidth();
+
+        Configuration config = new Configuration();
+        config.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        config.resumableUploadAPIV2BlockSize = mb;
+        ResumeUploadSourceFile record = new ResumeUploadSourceFile(file, config, "record-key");
+        record.uploadId = "upload-id";
+        record.expireAt = System.currentTimeMillis() / 1000 + 24 * 3600;
+        assertEquals(3, record.blockList.size());
+
+        // 自适应控制选择的块大小与记录不同时，以记录为准
+        Configuration adaptiveConfig = new Configuration();
+        adaptiveConfig.resumableUploadAPIVersion = Configuration.ResumableUploadAPIVersion.V2;
+        adaptiveConfig.resumableUploadAPIV2BlockSize = 2 * mb;
+        adaptiveConfig.resumableUploadMaxConcurrentTaskCount = 1;
+        adaptiveConfig.resumableUploadAdaptive = true;
+        ResumeUploadSourceFile source = new ResumeUploadSourceFile(file, adaptiveConfig, "record-key");
+        assertEquals(2 * mb, source.blockSize);
+        assertTrue(source.recoverFromRecordInfo(record));
+        assertEquals(mb, source.blockSize);
+        assertEquals(3, source.blockList.size());
+        assertEquals("upload-id", source.uploadId);
+    }
+
+    private static void waitFor(AtomicInteger count, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (count.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, count.get());
+    }
+}
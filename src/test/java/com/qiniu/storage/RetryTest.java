@@ -0,0 +1,114 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Response;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RetryTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testDecorrelatedJitterInterval() {
+        Retry.Interval interval = Retry.decorrelatedJitterInterval(100, 2000);
+        assertTrue(interval instanceof Retry.BackoffInterval);
+
+        // 第一次重试没有上次间隔，间隔在 [base, base * 3] 内随机
+        Set<Integer> firstIntervals = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            int next = Retry.nextInterval(interval, 0, 0, null, null);
+            assertTrue(next >= 100 && next <= 300, "interval:" + next);
+            firstIntervals.add(next);
+        }
+        assertTrue(firstIntervals.size() > 10, "first intervals:" + firstIntervals);
+
+        // 之后的间隔在 [base, min(cap, 上次间隔 * 3)] 内随机
+        for (int previous : new int[]{100, 500, 1000}) {
+            Set<Integer> intervals = new HashSet<>();
+            int upper = Math.min(2000, previous * 3);
+            for (int i = 0; i < 100; i++) {
+                int next = Retry.nextInterval(interval, 1, previous, null, null);
+                assertTrue(next >= 100 && next <= upper, "interval:" + next);
+                intervals.add(next);
+            }
+            assertTrue(intervals.size() > 10, "intervals:" + intervals);
+        }
+
+        int previous = 0;
+        for (int i = 0; i < 100; i++) {
+            int next = Retry.nextInterval(interval, i, previous, null, null);
+            assertTrue(next >= 100, "interval:" + next);
+            assertTrue(next <= 2000, "interval:" + next);
+            assertTrue(next <= Math.max(previous, 100) * 3, "interval:" + next);
+            previous = next;
+        }
+
+        assertEquals(0, Retry.decorrelatedJitterInterval(0, 1000).interval());
+        assertEquals(300, Retry.nextInterval(Retry.staticInterval(300), 3, 300, null, null));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRetryBudget() {
+        Retry.RetryBudget budget = Retry.retryBudget(0.1, 0, true);
+
+        // 初始令牌耗尽后不能重试
+        int retries = 0;
+        while (budget.tryWithdraw("a.com")) {
+            retries++;
+            assertTrue(retries <= 1000);
+        }
+        assertEquals(100, retries);
+        assertFalse(budget.tryWithdraw("a.com"));
+
+        // 按域名分别统计
+        assertTrue(budget.tryWithdraw("b.com"));
+
+        // 每 10 个请求允许 1 次重试
+        for (int i = 0; i < 10; i++) {
+            budget.deposit("a.com");
+        }
+        assertTrue(budget.tryWithdraw("a.com"));
+        assertFalse(budget.tryWithdraw("a.com"));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRetryBudgetDepositOnce() {
+        Retry.RetryBudget budget = Retry.retryBudget(1, 0, false);
+        while (budget.tryWithdraw("a.com")) {
+        }
+
+        // 同一个请求经过切换域名重试和单域名重试拦截器，重试时复制的请求也不会重复存入
+        Api.Request request = new Api.Request("https://a.com/v3/query");
+        budget.deposit(request);
+        budget.deposit(request.clone());
+        budget.deposit(request);
+        assertTrue(budget.tryWithdraw("a.com"));
+        assertFalse(budget.tryWithdraw("a.com"));
+
+        // 其他预算仍然会存入
+        Retry.RetryBudget other = Retry.retryBudget(1, 0, false);
+        while (other.tryWithdraw("a.com")) {
+        }
+        other.deposit(request);
+        assertTrue(other.tryWithdraw("a.com"));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testContentCheckFailureNotRetry() {
+        // 上传完成后内容校验失败，文件已保存，不重试也不切换区域重新上传
+        Response response = Response.createSuccessResponse();
+        QiniuException exception = QiniuException.unrecoverable(response, "file's etag is not match");
+        assertSame(response, exception.response);
+        assertTrue(exception.isUnrecoverable());
+        assertFalse(Retry.canSwitchRegionAndRetry(null, exception));
+        assertFalse(Retry.canRequestRetryAgain(null, exception));
+    }
+}
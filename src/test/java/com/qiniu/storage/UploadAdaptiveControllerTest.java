@@ -0,0 +1,96 @@
+package com.qiniu.storage;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadAdaptiveControllerTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    @Tag("UnitTest")
+    public void testConcurrency() {
+        long second = 1000000000L;
+        UploadAdaptiveController controller = new UploadAdaptiveController(8, 0);
+        assertEquals(4, controller.concurrency());
+
+        // 第一轮没有对比，并发数加 1
+        long now = finishRound(controller, 4, second);
+        assertEquals(5, controller.concurrency());
+        // 吞吐上升：4MB/s -> 5MB/s，并发数加 1
+        now = finishRound(controller, now, 5, second);
+        assertEquals(6, controller.concurrency());
+        // 吞吐下降超过 5%：5MB/s -> 3MB/s，并发数减 1
+        now = finishRound(controller, now, 6, 2 * second);
+        assertEquals(5, controller.concurrency());
+        // 吞吐下降不超过 5%：3MB/s -> 2.9MB/s，仍视为没有下降，并发数加 1
+        now = finishRound(controller, now, 5, 172 * second / 100);
+        assertEquals(6, controller.concurrency());
+
+        // 一轮未完成时不调整
+        controller.onPartSuccess(MB, second, now + second);
+        assertEquals(6, controller.concurrency());
+
+        // 失败时减半，之后重新开始统计，吞吐很低也不会减少并发数
+        controller.onPartFailure(now + second);
+        assertEquals(3, controller.concurrency());
+        now = finishRound(controller, now + second, 3, 10 * second);
+        assertEquals(4, controller.concurrency());
+        controller.onPartFailure(now);
+        assertEquals(2, controller.concurrency());
+        controller.onPartFailure(now);
+        controller.onPartFailure(now);
+        assertEquals(1, controller.concurrency());
+
+        // 不超过最大并发
+        controller = new UploadAdaptiveController(2, 0);
+        now = 0;
+        for (int i = 0; i < 5; i++) {
+            now = finishRound(controller, now, controller.concurrency(), second);
+        }
+        assertEquals(2, controller.concurrency());
+
+        UploadAdaptiveController.resetPartBandwidth();
+    }
+
+    private static long finishRound(UploadAdaptiveController controller, int parts, long duration) {
+        return finishRound(controller, 0, parts, duration);
+    }
+
+    // 从 start 开始，用 duration 上传 parts 个 1MB 的块，返回一轮结束的时间
+    private static long finishRound(UploadAdaptiveController controller, long start, int parts, long duration) {
+        for (int i = 0; i < parts; i++) {
+            controller.onPartSuccess(MB, duration, start + duration);
+        }
+        return start + duration;
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testPartSize() {
+        UploadAdaptiveController.resetPartBandwidth();
+
+        // 没有吞吐记录时使用配置的块大小
+        assertEquals(4 * MB, UploadAdaptiveController.partSize(1024L * MB, 1, 4 * MB));
+        // 至少分为并发数个块
+        assertEquals(8 * MB, UploadAdaptiveController.partSize(32L * MB, 4, 16 * MB));
+        // 小文件不小于 1MB
+        assertEquals(MB, UploadAdaptiveController.partSize(100, 4, 4 * MB));
+        // 分片数量不超过 10000
+        long fileSize = 100L * 1024 * MB;
+        int size = UploadAdaptiveController.partSize(fileSize, 1, MB);
+        assertTrue((fileSize + size - 1) / size <= UploadAdaptiveController.MAX_PART_COUNT);
+        assertEquals(0, size % MB);
+
+        // 吞吐为 10MB/s 时块上传时间约为 4s
+        new UploadAdaptiveController(1).onPartSuccess(10 * MB, 1000000000L);
+        assertEquals(40 * MB, UploadAdaptiveController.partSize(1024L * MB, 1, 4 * MB));
+        // 不超过 1GB
+        new UploadAdaptiveController(1).onPartSuccess(1024L * MB, 1000000L);
+        assertEquals(UploadAdaptiveController.MAX_PART_SIZE, UploadAdaptiveController.partSize(100L * 1024 * MB, 1, 4 * MB));
+
+        UploadAdaptiveController.resetPartBandwidth();
+    }
+}
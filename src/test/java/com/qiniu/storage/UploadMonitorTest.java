@@ -0,0 +1,81 @@
+package com.qiniu.storage;
+
+import com.qiniu.http.RateLimiter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadMonitorTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testCreate() {
+        Configuration config = new Configuration();
+        assertNull(UploadMonitor.create("key", 100, config));
+        assertNull(UploadMonitor.create("key", 100, null));
+
+        config.uploadMaxBytesPerSecond = 1024;
+        UploadMonitor monitor = UploadMonitor.create("key", 100, config);
+        assertNotNull(monitor);
+        assertEquals(2, monitor.limiters().length);
+        assertEquals(1024, monitor.limiters()[0].getBytesPerSecond());
+        assertNull(monitor.partListener(1));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testProgress() {
+        final List<Long> progress = new ArrayList<>();
+        Configuration config = new Configuration();
+        config.uploadProgressHandler = new UpProgressHandler() {
+            @Override
+            public void progress(String key, long uploadedBytes, long totalBytes) {
+                assertEquals("key", key);
+                assertEquals(300, totalBytes);
+                progress.add(uploadedBytes);
+            }
+        };
+        UploadMonitor monitor = UploadMonitor.create("key", 300, config);
+        assertNotNull(monitor);
+
+        monitor.setPartBytes(0, 100);
+        monitor.partListener(1).onProgress(50, 100);
+        monitor.partListener(2).onProgress(100, 100);
+        // 块重新发送时从 0 开始，覆盖之前的记录
+        monitor.partListener(1).onProgress(0, 100);
+        monitor.partListener(1).onProgress(100, 100);
+        assertEquals(5, progress.size());
+        assertEquals(Long.valueOf(100), progress.get(0));
+        assertEquals(Long.valueOf(150), progress.get(1));
+        assertEquals(Long.valueOf(250), progress.get(2));
+        assertEquals(Long.valueOf(200), progress.get(3));
+        assertEquals(Long.valueOf(300), progress.get(4));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testRateLimiter() throws Exception {
+        RateLimiter unlimited = new RateLimiter(0);
+        long start = System.nanoTime();
+        unlimited.acquire(1024 * 1024 * 1024);
+        assertTrue(System.nanoTime() - start < 100 * 1000000L);
+
+        // 桶中初始有 1 秒的令牌，之后按速率补充
+        RateLimiter limiter = new RateLimiter(100 * 1024);
+        start = System.nanoTime();
+        limiter.acquire(100 * 1024);
+        limiter.acquire(50 * 1024);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue(elapsedMillis >= 400, "elapsed:" + elapsedMillis);
+        assertTrue(elapsedMillis < 2000, "elapsed:" + elapsedMillis);
+
+        limiter.setBytesPerSecond(0);
+        start = System.nanoTime();
+        limiter.acquire(1024 * 1024);
+        assertTrue(System.nanoTime() - start < 100 * 1000000L);
+    }
+}
@@ -0,0 +1,178 @@
+package com.qiniu.storage;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Response;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadPartSchedulerTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testFairAndLimit() throws Exception {
+        final UploadPartScheduler scheduler = new UploadPartScheduler(4, 3);
+        final AtomicInteger hostRunning = new AtomicInteger();
+        final AtomicInteger maxHostRunning = new AtomicInteger();
+        final TestParts big = new TestParts(100, 10, hostRunning, maxHostRunning);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Thread bigUpload = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assertTrue(scheduler.upload("host", 10, big).isOK());
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        bigUpload.start();
+        while (big.uploaded.get() == 0) {
+            Thread.sleep(5);
+        }
+
+        // 后加入的小文件不需要等待大文件所有块上传结束
+        TestParts small = new TestParts(2, 10, new AtomicInteger(), new AtomicInteger());
+        assertTrue(scheduler.upload("other", 10, small).isOK());
+        assertEquals(2, small.uploaded.get());
+        assertTrue(big.uploaded.get() < 50);
+
+        bigUpload.join();
+        assertNull(error.get());
+        assertEquals(100, big.uploaded.get());
+        // 单个域名的并发不超过限制
+        assertTrue(maxHostRunning.get() <= 3);
+        assertEquals(0, scheduler.running());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testException() throws Exception {
+        UploadPartScheduler scheduler = new UploadPartScheduler(4, 0);
+        TestParts parts = new TestParts(10, 1, new AtomicInteger(), new AtomicInteger());
+        parts.failCount.set(100);
+        try {
+            scheduler.upload("host", 2, parts);
+            fail("should throw");
+        } catch (QiniuException e) {
+            assertEquals("part failed", e.getCause().getMessage());
+        }
+        assertEquals(0, scheduler.running());
+
+        // 少量失败时其他名额继续上传
+        parts = new TestParts(10, 1, new AtomicInteger(), new AtomicInteger());
+        parts.failCount.set(1);
+        assertTrue(scheduler.upload("host", 2, parts).isOK());
+        assertEquals(10, parts.uploaded.get());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testWaitForReadyParts() throws Exception {
+        final UploadPartScheduler scheduler = new UploadPartScheduler(1, 0);
+        // 模拟数据流上传：块读取完成后才可以上传
+        final TestParts stream = new TestParts(3, 1, new AtomicInteger(), new AtomicInteger());
+        stream.ready.set(0);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread streamUpload = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    assertTrue(scheduler.upload("host", 2, stream).isOK());
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        });
+        streamUpload.start();
+        Thread.sleep(50);
+        assertEquals(0, scheduler.running());
+
+        // 等待读取数据的上传不占用名额，其他上传不受影响
+        TestParts file = new TestParts(5, 1, new AtomicInteger(), new AtomicInteger());
+        assertTrue(scheduler.upload("host", 2, file).isOK());
+        assertEquals(5, file.uploaded.get());
+        assertEquals(0, stream.started.get());
+
+        for (int i = 0; i < 3; i++) {
+            stream.ready.incrementAndGet();
+            scheduler.partsReady();
+        }
+        streamUpload.join(5000);
+        assertFalse(streamUpload.isAlive());
+        assertNull(error.get());
+        assertEquals(3, stream.uploaded.get());
+        assertEquals(0, scheduler.running());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testNoParts() throws Exception {
+        UploadPartScheduler scheduler = new UploadPartScheduler(1, 0);
+        TestParts parts = new TestParts(0, 1, new AtomicInteger(), new AtomicInteger());
+        assertNull(scheduler.upload("host", 2, parts));
+        assertEquals(0, scheduler.running());
+    }
+
+    private static final class TestParts implements UploadPartScheduler.Parts {
+        private final int count;
+        private final long sleep;
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger uploaded = new AtomicInteger();
+        private final AtomicInteger failCount = new AtomicInteger();
+        // 可以开始上传的块数量
+        private final AtomicInteger ready = new AtomicInteger(Integer.MAX_VALUE);
+        private final AtomicInteger hostRunning;
+        private final AtomicInteger maxHostRunning;
+
+        private TestParts(int count, long sleep, AtomicInteger hostRunning, AtomicInteger maxHostRunning) {
+            this.count = count;
+            this.sleep = sleep;
+            this.hostRunning = hostRunning;
+            this.maxHostRunning = maxHostRunning;
+        }
+
+        @Override
+        public boolean hasMoreParts() {
+            return started.get() < count;
+        }
+
+        @Override
+        public boolean hasReadyParts() {
+            return hasMoreParts() && started.get() < ready.get();
+        }
+
+        @Override
+        public Response uploadNextPart() throws QiniuException {
+            if (started.incrementAndGet() > count) {
+                started.decrementAndGet();
+                return Response.createSuccessResponse();
+            }
+
+            int running = hostRunning.incrementAndGet();
+            synchronized (maxHostRunning) {
+                maxHostRunning.set(Math.max(maxHostRunning.get(), running));
+            }
+            try {
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                throw new QiniuException(e);
+            } finally {
+                hostRunning.decrementAndGet();
+            }
+
+            if (failCount.getAndDecrement() > 0) {
+                // 失败的块放回，由其他名额重新上传
+                started.decrementAndGet();
+                throw new QiniuException(new Exception("part failed"));
+            }
+            uploaded.incrementAndGet();
+            return Response.createSuccessResponse();
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.qiniu.storage;
+
+import com.qiniu.util.Auth;
+import com.qiniu.util.StringMap;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UploadTokenTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testDefaultReturnBody() throws Exception {
+        Auth auth = Auth.create("ak", "sk");
+
+        assertTrue(new UploadToken(auth.uploadToken("bucket")).hasDefaultReturnBody());
+
+        StringMap returnBody = new StringMap().put("returnBody", "{\"hash\":\"$(fname)\"}");
+        assertFalse(new UploadToken(auth.uploadToken("bucket", null, 3600, returnBody)).hasDefaultReturnBody());
+
+        StringMap callback = new StringMap().put("callbackUrl", "https://example.com/callback");
+        assertFalse(new UploadToken(auth.uploadToken("bucket", null, 3600, callback)).hasDefaultReturnBody());
+    }
+}
@@ -0,0 +1,167 @@
+package test.com.qiniu;
+
+import com.qiniu.http.CachingDns;
+import com.qiniu.http.Dns;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+public class CachingDnsTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testCacheAndStale() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicBoolean broken = new AtomicBoolean(false);
+        final List<InetAddress> ips = Arrays.asList(
+                InetAddress.getByName("1.1.1.1"), InetAddress.getByName("2.2.2.2"));
+        CachingDns dns = new CachingDns.Builder()
+                .setUpstream(new Dns() {
+                    @Override
+                    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                        count.incrementAndGet();
+                        if (broken.get()) {
+                            throw new UnknownHostException(hostname);
+                        }
+                        return ips;
+                    }
+                })
+                .setTtl(200)
+                .setRefreshAhead(0)
+                .setMaxStale(60 * 1000)
+                .build();
+
+        assertEquals(ips, dns.lookup("up.qiniup.com"));
+        assertEquals(ips, dns.lookup("up.qiniup.com"));
+        assertEquals(1, count.get());
+
+        // 过期后解析失败，使用过期的结果
+        broken.set(true);
+        Thread.sleep(300);
+        assertEquals(ips, dns.lookup("up.qiniup.com"));
+
+        try {
+            dns.lookup("rs.qiniu.com");
+            fail("should fail");
+        } catch (UnknownHostException e) {
+            assertTrue(e.getMessage().contains("rs.qiniu.com"));
+        }
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testSort() throws Exception {
+        final InetAddress v4a = InetAddress.getByName("1.1.1.1");
+        final InetAddress v4b = InetAddress.getByName("2.2.2.2");
+        final InetAddress v6a = InetAddress.getByName("::1");
+        CachingDns dns = new CachingDns.Builder()
+                .setUpstream(new Dns() {
+                    @Override
+                    public List<InetAddress> lookup(String hostname) {
+                        return Arrays.asList(v4a, v4b, v6a);
+                    }
+                })
+                .build();
+
+        // 交替排列 IPv4 / IPv6
+        assertEquals(Arrays.asList(v4a, v6a, v4b), dns.lookup("up.qiniup.com"));
+
+        // 连接失败的 IP 排在后面，未统计过的 IP 排在已统计 IP 的中位数位置
+        dns.reportConnectFailure(v4a);
+        dns.reportConnectSuccess(v4b, 30);
+        assertEquals(Arrays.asList(v4b, v6a, v4a), dns.lookup("up.qiniup.com"));
+
+        // 未统计过的 IP 不会排在已知较快的 IP 之前
+        for (int i = 0; i < 30; i++) {
+            dns.reportConnectSuccess(v4a, 5);
+        }
+        assertEquals(Arrays.asList(v4a, v6a, v4b), dns.lookup("up.qiniup.com"));
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testStaleWithoutBlockingAndSharedResolve() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicBoolean blocking = new AtomicBoolean(false);
+        final CountDownLatch unblock = new CountDownLatch(1);
+        final List<InetAddress> ips = Arrays.asList(InetAddress.getByName("1.1.1.1"));
+        final CachingDns dns = new CachingDns.Builder()
+                .setUpstream(new Dns() {
+                    @Override
+                    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                        count.incrementAndGet();
+                        if (blocking.get()) {
+                            try {
+                                unblock.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                throw new UnknownHostException(hostname);
+                            }
+                        }
+                        return ips;
+                    }
+                })
+                .setTtl(200)
+                .setRefreshAhead(0)
+                .setMaxStale(60 * 1000)
+                .build();
+
+        assertEquals(ips, dns.lookup("up.qiniup.com"));
+        assertEquals(1, count.get());
+
+        // 过期后上游阻塞，直接返回过期的结果，后台只有一个刷新
+        blocking.set(true);
+        Thread.sleep(300);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(ips, dns.lookup("up.qiniup.com"));
+        }
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        Thread.sleep(100);
+        assertEquals(2, count.get());
+
+        // 没有可用结果时阻塞，同一域名的并发解析共享一个上游请求
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<List<InetAddress>>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(executor.submit(new Callable<List<InetAddress>>() {
+                    @Override
+                    public List<InetAddress> call() throws Exception {
+                        return dns.lookup("rs.qiniu.com");
+                    }
+                }));
+            }
+            Thread.sleep(300);
+            for (Future<List<InetAddress>> future : futures) {
+                assertFalse(future.isDone());
+            }
+            assertEquals(3, count.get());
+
+            unblock.countDown();
+            for (Future<List<InetAddress>> future : futures) {
+                assertEquals(ips, future.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(3, count.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package test.com.qiniu;
+
+import com.qiniu.common.QiniuException;
+import com.qiniu.http.Client;
+import com.qiniu.http.CompletionFuture;
+import com.qiniu.http.Response;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.Request;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClientAsyncTest {
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private String baseUrl;
+    private final CountDownLatch slowStarted = new CountDownLatch(1);
+    private final CountDownLatch slowRelease = new CountDownLatch(1);
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                reply(exchange, 200, "{\"hello\":\"qiniu\"}");
+            }
+        });
+        server.createContext("/error", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                reply(exchange, 500, "{\"error\":\"server error\"}");
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                slowStarted.countDown();
+                try {
+                    slowRelease.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ignore) {
+                }
+                reply(exchange, 200, "{}");
+            }
+        });
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        slowRelease.countDown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testSendAsyncSuccess() throws Exception {
+        CompletionFuture<Response> future = new Client().sendAsync(new Request.Builder().url(baseUrl + "/ok"), null);
+        Response response = future.get(5, TimeUnit.SECONDS);
+        assertEquals(200, response.statusCode);
+        assertEquals("{\"hello\":\"qiniu\"}", response.bodyString());
+        assertNotNull(response.getMetrics());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testSendAsyncHttpError() throws Exception {
+        CompletionFuture<Response> future = new Client().sendAsync(new Request.Builder().url(baseUrl + "/error"), null);
+        try {
+            future.await();
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertEquals(500, e.code());
+            assertEquals("server error", e.error());
+        }
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testSendAsyncIOException() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        CompletionFuture<Response> future = new Client().sendAsync(
+                new Request.Builder().url("http://127.0.0.1:" + port + "/ok"), null);
+        try {
+            future.await();
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertEquals(Response.NetworkError, e.code());
+            assertNotNull(e.getCause());
+        }
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testSendAsyncCancel() throws Exception {
+        CompletionFuture<Response> future = new Client().sendAsync(new Request.Builder().url(baseUrl + "/slow"), null);
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertFalse(future.cancel(true));
+        try {
+            future.await();
+            fail("should fail");
+        } catch (QiniuException e) {
+            assertTrue(e.isUnrecoverable());
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] data = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.getResponseHeaders().add("X-Reqid", "test-reqid");
+        exchange.sendResponseHeaders(code, data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(data);
+        }
+    }
+}
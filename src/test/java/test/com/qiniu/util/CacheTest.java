@@ -1,9 +1,15 @@
 package test.com.qiniu.util;
 
 import com.qiniu.util.Cache;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class CacheTest {
 
@@ -38,6 +44,41 @@ public class CacheTest {
         assertEquals("foo", memInfo.foo);
     }
 
+    @Test
+    @Tag("UnitTest")
+    public void testAppendAndBound() throws Exception {
+        String cacheDir = System.getProperty("java.io.tmpdir") + File.separator + "qiniu-cache-test-" + System.nanoTime();
+        Cache<Info> cache = new Cache.Builder<>(Info.class)
+                .setCacheDir(cacheDir)
+                .setVersion("v2")
+                .setMaxSize(100)
+                .builder();
+
+        // 同一个 key 多次写入只保留最新的
+        for (int i = 0; i < 2000; i++) {
+            Info info = new Info();
+            info.foo = "foo" + (i % 200);
+            info.bar = i;
+            cache.cache(info.foo, info);
+        }
+        cache.flush();
+
+        // 日志文件会被压缩
+        File logFile = new File(new File(cacheDir, Info.class.getName()), "v2.log");
+        assertTrue(logFile.exists());
+        assertTrue(logFile.length() < 128 * 1024);
+
+        cache = new Cache.Builder<>(Info.class)
+                .setCacheDir(cacheDir)
+                .setVersion("v2")
+                .setMaxSize(100)
+                .builder();
+        assertNull(cache.cacheForKey("foo0"));
+        Info info = cache.cacheForKey("foo199");
+        assertNotNull(info);
+        assertEquals(1999, info.bar);
+    }
+
     static class Info {
         String foo;
         int bar;
@@ -0,0 +1,89 @@
+package test.com.qiniu.util;
+
+import com.qiniu.common.Constants;
+import com.qiniu.util.ContentDigest;
+import com.qiniu.util.Crc32;
+import com.qiniu.util.Etag;
+import com.qiniu.util.EtagV2;
+import com.qiniu.util.Md5;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class ContentDigestTest {
+
+    @Test
+    @Tag("UnitTest")
+    public void testDigest() {
+        byte[] data = new byte[Constants.BLOCK_SIZE * 2 + 100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+
+        ContentDigest digest = new ContentDigest(true, true, true);
+        assertEquals(Etag.data(new byte[0]), digest.etag());
+
+        // 分多次写入，且写入边界与 4MB 块边界不对齐
+        int offset = 0;
+        while (offset < data.length) {
+            int size = Math.min(1000 * 1000, data.length - offset);
+            digest.update(data, offset, size);
+            offset += size;
+        }
+        assertEquals(data.length, digest.length());
+        assertEquals(Md5.md5(data), digest.md5());
+        assertEquals(Crc32.bytes(data), digest.crc32());
+        assertEquals(Etag.data(data), digest.etag());
+
+        // 重置后重新写入，结果不受之前数据影响
+        digest.reset();
+        digest.update(data, 0, 100);
+        assertEquals(Md5.md5(data, 0, 100), digest.md5());
+        assertEquals(Crc32.bytes(data, 0, 100), digest.crc32());
+
+        ContentDigest md5Only = new ContentDigest(true, false, false);
+        md5Only.update(data, 0, 100);
+        assertEquals(-1, md5Only.crc32());
+        assertNull(md5Only.etag());
+    }
+
+    @Test
+    @Tag("UnitTest")
+    public void testCombineParts() {
+        byte[] data = new byte[Constants.BLOCK_SIZE * 3 + 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 7);
+        }
+
+        // 4MB 分片，合并结果为整体数据的 etag
+        assertEquals(Etag.data(data), ContentDigest.etag(digestParts(data, Constants.BLOCK_SIZE)));
+
+        // 8MB 分片，合并结果为 etag v2
+        long blockSize = Constants.BLOCK_SIZE * 2;
+        assertEquals(EtagV2.data(data, blockSize), ContentDigest.etag(digestParts(data, (int) blockSize)));
+
+        // 1MB 分片
+        blockSize = 1024 * 1024;
+        assertEquals(EtagV2.data(data, blockSize), ContentDigest.etag(digestParts(data, (int) blockSize)));
+
+        List<ContentDigest> parts = digestParts(data, Constants.BLOCK_SIZE);
+        parts.set(1, new ContentDigest(true, false, false));
+        assertNull(ContentDigest.etag(parts));
+        assertNull(ContentDigest.etag(new ArrayList<ContentDigest>()));
+    }
+
+    private static List<ContentDigest> digestParts(byte[] data, int partSize) {
+        List<ContentDigest> parts = new ArrayList<>();
+        for (int offset = 0; offset < data.length; offset += partSize) {
+            ContentDigest digest = new ContentDigest(false, false, true);
+            digest.update(data, offset, Math.min(partSize, data.length - offset));
+            parts.add(digest);
+        }
+        return parts;
+    }
+}
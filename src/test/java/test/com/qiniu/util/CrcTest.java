@@ -4,6 +4,10 @@ import com.qiniu.util.Crc32;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class CrcTest {
@@ -14,4 +18,18 @@ public class CrcTest {
         long result = Crc32.bytes(data);
         assertEquals(3964322768L, result);
     }
+
+    @Test
+    @Tag("UnitTest")
+    public void testFileRegionCrc() throws IOException {
+        byte[] data = "prefix-Hello, World!-suffix".getBytes();
+        File f = File.createTempFile("qiniu-crc", ".txt");
+        f.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(f);
+        out.write(data);
+        out.close();
+
+        assertEquals(3964322768L, Crc32.file(f, 7, 13));
+        assertEquals(Crc32.bytes(data), Crc32.file(f, 0, data.length));
+    }
 }
@@ -2,12 +2,15 @@ package test.com.qiniu.util;
 
 import com.qiniu.common.Constants;
 import com.qiniu.util.Etag;
+import com.qiniu.util.EtagV2;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import test.com.qiniu.TempFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -49,4 +52,36 @@ public class EtagTest {
         assertEquals("ll1xhlUFKQqynVgMMt_J1TuTrdB1", Etag.file(f));
         TempFile.remove(f);
     }
+
+    @Test
+    @Tag("UnitTest")
+    public void testParallelFile() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            File f = TempFile.createFileOld(0);
+            assertEquals(Etag.file(f), Etag.file(f, pool));
+            TempFile.remove(f);
+
+            f = TempFile.createFileOld(4 * 1024);
+            assertEquals("FgtlGCfS97kgqopAxq0vvKRA5o_R", Etag.file(f, pool));
+            TempFile.remove(f);
+
+            f = TempFile.createFileOld(9 * 1024);
+            assertEquals("ll1xhlUFKQqynVgMMt_J1TuTrdB1", Etag.file(f, pool));
+
+            long blockSize = 1024 * 1024 * 3;
+            assertEquals(EtagV2.file(f, blockSize), EtagV2.file(f, blockSize, pool));
+            long[] parts = new long[]{1024 * 1024 * 5, 0, 1024 * 1024 * 4};
+            assertEquals(EtagV2.file(f, parts), EtagV2.file(f, parts, pool));
+            TempFile.remove(f);
+
+            // 文件大小为分片大小整数倍
+            f = TempFile.createFileOld(6 * 1024);
+            assertEquals(EtagV2.file(f, new long[]{blockSize, blockSize}), EtagV2.file(f, blockSize, pool));
+            assertEquals(EtagV2.file(f, blockSize, pool), EtagV2.file(f, blockSize));
+            TempFile.remove(f);
+        } finally {
+            pool.shutdown();
+        }
+    }
 }
@@ -44,4 +44,15 @@ public class Md5Test {
 
         assertEquals(md5Str, Md5.md5(src.getBytes()));
     }
+
+    @Test
+    @Tag("UnitTest")
+    public void testFileRegion() throws IOException {
+        FileInputStream fis = new FileInputStream(f);
+        byte[] data = new byte[1024 * 1024];
+        int l = fis.read(data);
+        fis.close();
+
+        assertEquals(Md5.md5(data, 100, l - 200), Md5.md5(f, 100, l - 200));
+    }
 }